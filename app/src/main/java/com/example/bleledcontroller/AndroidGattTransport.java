@@ -0,0 +1,600 @@
+package com.example.bleledcontroller;
+
+import static android.bluetooth.le.ScanSettings.CALLBACK_TYPE_ALL_MATCHES;
+import static android.bluetooth.le.ScanSettings.MATCH_NUM_FEW_ADVERTISEMENT;
+
+import static com.example.bleledcontroller.BleConstants.LedServiceUuid;
+import static com.example.bleledcontroller.BleConstants.OptionalCharacteristicIds;
+import static com.example.bleledcontroller.BleConstants.OptionalCharacteristicNames;
+import static com.example.bleledcontroller.BleConstants.RequiredCharacteristicIds;
+import static com.example.bleledcontroller.BleConstants.RequiredCharacteristicNames;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.BluetoothProfile;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelUuid;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+//
+// GattTransport backed by the Android BLE stack.
+// Handles scanning, the GATT connection and service discovery, and maps
+// characteristic UUIDs onto the discovered BluetoothGattCharacteristics.
+//
+// Android reports GATT events on Binder threads. Every event is handed to the
+// given Handler's thread first, so the connector only ever sees that one thread.
+//
+// Much help from
+// https://punchthrough.com/android-ble-guide/
+//
+public class AndroidGattTransport implements GattTransport, BleGattRetriever {
+    private static final byte[] NoValue = new byte[0];
+
+    private Context context;
+    private Handler handler;
+    private GattTransportCallback callback;
+
+    private BluetoothDevice bluetoothDevice;
+    private BluetoothAdapter bluetoothAdapter;
+    private BluetoothGatt bluetoothGatt;
+    private HashMap<UUID, BluetoothGattCharacteristic> characteristics = new HashMap<>();
+    // Volatile: read from other threads through NanoConnector.getLinkTuner().
+    private volatile int mtu = DefaultMtu;
+    private volatile int phy = PHY_LE_1M;
+    private String preferredAddress;
+    // True while trying the preferred device directly, before falling back to a scan.
+    private boolean connectingDirectly = false;
+    private final Runnable directConnectTimeout = this::directConnectTimedOut;
+    // Opens GATT to a scanned device once the scan has settled (see connectToScannedDevice).
+    // Kept so a disconnect in the meantime can cancel it rather than leak a connection.
+    private final Runnable connectAfterSettle = this::connectGatt;
+    // The connection being attempted or in use, from connectGatt until it is closed.
+    // Events from any other (an attempt that was abandoned) are ignored.
+    private BluetoothGatt attemptGatt;
+    // Set for a transport that only ever talks to one device (see SignFleet); it never scans.
+    private boolean pinnedToAddress = false;
+    // Picks the sign to connect to from the scan results (see ScanSession).
+    private ScanSession scanSession;
+    // The devices seen by the current scan, by address.
+    private HashMap<String, BluetoothDevice> scannedDevices = new HashMap<>();
+
+    // Standard Client Characteristic Configuration descriptor, written to subscribe to a characteristic.
+    private static final UUID ClientConfigurationDescriptorId = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    // The ATT MTU before any exchange, and the largest one Android will negotiate.
+    public static final int DefaultMtu = 23;
+    public static final int RequestedMtu = 517;
+    // Where the controller supports it, scan results are delivered in batches this often
+    // rather than waking the app for every advertisement.
+    public static final long ScanReportDelayMs = 250;
+    // Pause between stopping the scan and connecting; some stacks fail to connect straight after.
+    public static final long ScanSettleMs = 200;
+    // How long to wait for the remembered sign before scanning instead. Android only gives up
+    // on a direct connection after about 30 seconds, and a sign in range connects within one or two.
+    public static final long DirectConnectTimeoutMs = 3000;
+
+    public AndroidGattTransport(Context context, Handler handler) {
+        this.context = context;
+        this.handler = handler;
+
+        BluetoothManager mgr = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
+        bluetoothAdapter = mgr.getAdapter();
+        scanSession = new ScanSession(scanRadio, TimeSource.SystemTime,
+                (delayMs, task) -> handler.postDelayed(task, delayMs), scanListener);
+    }
+
+    // A transport for one particular sign, e.g. one found by AndroidSignScanner.
+    public AndroidGattTransport(Context context, String address, Handler handler) {
+        this(context, handler);
+        preferredAddress = address;
+        pinnedToAddress = true;
+    }
+
+    @Override
+    public void setCallback(GattTransportCallback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public BluetoothGatt getBluetoothGatt() {
+        return bluetoothGatt;
+    }
+
+    @Override
+    public void connect() {
+        if (!bluetoothAdapter.isEnabled()) {
+            callback.acceptStatus("Bluetooth adapter disabled!");
+            return;
+        }
+
+        if (preferredAddress != null && BluetoothAdapter.checkBluetoothAddress(preferredAddress)) {
+            // We've seen this sign before, so connect straight to it. No scan, no settle delay.
+            callback.acceptStatus("Connecting directly to " + preferredAddress);
+            connectingDirectly = true;
+            bluetoothDevice = bluetoothAdapter.getRemoteDevice(preferredAddress);
+            connectGatt();
+            handler.postDelayed(directConnectTimeout, DirectConnectTimeoutMs);
+            return;
+        }
+
+        startScan();
+    }
+
+    private void connectGatt() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // Have Android deliver the events on our thread to begin with.
+            attemptGatt = bluetoothDevice.connectGatt(context, false, binderCallback, BluetoothDevice.TRANSPORT_LE, BluetoothDevice.PHY_LE_1M_MASK, handler);
+        } else {
+            attemptGatt = bluetoothDevice.connectGatt(context, false, binderCallback, BluetoothDevice.TRANSPORT_LE);
+        }
+    }
+
+    // The remembered sign didn't answer in time: give up on it and look for one instead.
+    private void directConnectTimedOut() {
+        if (!connectingDirectly) {
+            return;
+        }
+        connectingDirectly = false;
+        handler.removeCallbacks(connectAfterSettle);
+        closeAttempt();
+        if (pinnedToAddress) {
+            callback.acceptStatus("No answer from " + preferredAddress + " in " + DirectConnectTimeoutMs + "ms.");
+            callback.onDisconnected();
+            return;
+        }
+        callback.acceptStatus("No answer from " + preferredAddress + " in " + DirectConnectTimeoutMs + "ms - scanning instead.");
+        startScan();
+    }
+
+    private void closeAttempt() {
+        if (attemptGatt != null) {
+            attemptGatt.disconnect();
+            attemptGatt.close();
+            attemptGatt = null;
+        }
+        bluetoothGatt = null;
+    }
+
+    // Run an event on the handler's thread, directly if we're already on it.
+    private void deliver(Runnable event) {
+        if (Looper.myLooper() == handler.getLooper()) {
+            event.run();
+        } else {
+            handler.post(event);
+        }
+    }
+
+    // Runs on the handler's thread, like the scan session's results and timers.
+    private void startScan() {
+        scannedDevices.clear();
+        scanSession.start(preferredAddress);
+    }
+
+    // Starts and stops the Android scanner in the mode the scan session asks for.
+    private ScanSession.Radio scanRadio = new ScanSession.Radio() {
+        @Override
+        public void startScan(int mode) {
+            ScanFilter scanFilter = new ScanFilter.Builder()
+                    .setServiceUuid(new ParcelUuid(LedServiceUuid))
+                    .build();
+
+            List<ScanFilter> filters = new ArrayList<ScanFilter>();
+            filters.add(scanFilter);
+
+            // Every advertisement, not just the first, so signs can be compared on signal strength.
+            ScanSettings.Builder builder = new ScanSettings.Builder()
+                    .setScanMode(mode)
+                    .setNumOfMatches(MATCH_NUM_FEW_ADVERTISEMENT)
+                    .setCallbackType(CALLBACK_TYPE_ALL_MATCHES);
+            if (bluetoothAdapter.isOffloadedScanBatchingSupported()) {
+                builder.setReportDelay(ScanReportDelayMs);
+            }
+
+            bluetoothAdapter.getBluetoothLeScanner().startScan(filters, builder.build(), leScanCallback);
+        }
+
+        @Override
+        public void stopScan() {
+            bluetoothAdapter.getBluetoothLeScanner().stopScan(leScanCallback);
+        }
+    };
+
+    private ScanSession.Listener scanListener = new ScanSession.Listener() {
+        @Override
+        public void acceptStatus(String status) {
+            callback.acceptStatus(status);
+        }
+
+        @Override
+        public void onSignChosen(String address) {
+            connectToScannedDevice(scannedDevices.get(address));
+        }
+
+        @Override
+        public void onNoSignFound() {
+            callback.onDisconnected();
+        }
+    };
+
+    @Override
+    public void disconnect() {
+        scanSession.stop();
+        handler.removeCallbacks(directConnectTimeout);
+        handler.removeCallbacks(connectAfterSettle);
+        connectingDirectly = false;
+        closeAttempt();
+    }
+
+    @Override
+    public void setPreferredDeviceAddress(String address) {
+        if (!pinnedToAddress) {
+            preferredAddress = address;
+        }
+    }
+
+    @Override
+    public String getDeviceAddress() {
+        return bluetoothGatt == null ? null : bluetoothGatt.getDevice().getAddress();
+    }
+
+    @Override
+    public boolean hasCharacteristic(UUID characteristicId) {
+        return characteristics.containsKey(characteristicId);
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID characteristicId) {
+        BluetoothGattCharacteristic characteristic = characteristics.get(characteristicId);
+        if (bluetoothGatt == null || characteristic == null) {
+            return false;
+        }
+
+        return bluetoothGatt.readCharacteristic(characteristic);
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID characteristicId, byte[] value) {
+        BluetoothGattCharacteristic characteristic = characteristics.get(characteristicId);
+        if (bluetoothGatt == null || characteristic == null) {
+            return false;
+        }
+
+        characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+        characteristic.setValue(value);
+        return bluetoothGatt.writeCharacteristic(characteristic);
+    }
+
+    @Override
+    public boolean writeCharacteristicWithoutResponse(UUID characteristicId, byte[] value) {
+        BluetoothGattCharacteristic characteristic = characteristics.get(characteristicId);
+        if (bluetoothGatt == null || characteristic == null) {
+            return false;
+        }
+
+        characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        characteristic.setValue(value);
+        return bluetoothGatt.writeCharacteristic(characteristic);
+    }
+
+    @Override
+    public boolean supportsNotifications(UUID characteristicId) {
+        BluetoothGattCharacteristic characteristic = characteristics.get(characteristicId);
+        if (characteristic == null || characteristic.getDescriptor(ClientConfigurationDescriptorId) == null) {
+            return false;
+        }
+
+        int properties = characteristic.getProperties();
+        return (properties & (BluetoothGattCharacteristic.PROPERTY_NOTIFY | BluetoothGattCharacteristic.PROPERTY_INDICATE)) != 0;
+    }
+
+    @Override
+    public boolean enableNotifications(UUID characteristicId) {
+        if (bluetoothGatt == null || !supportsNotifications(characteristicId)) {
+            return false;
+        }
+
+        BluetoothGattCharacteristic characteristic = characteristics.get(characteristicId);
+        if (!bluetoothGatt.setCharacteristicNotification(characteristic, true)) {
+            return false;
+        }
+
+        // Prefer notifications: indications cost the sign a confirmation round trip per value.
+        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(ClientConfigurationDescriptorId);
+        boolean canNotify = (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0;
+        descriptor.setValue(canNotify
+                ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE
+                : BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
+        return bluetoothGatt.writeDescriptor(descriptor);
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int priority) {
+        if (bluetoothGatt == null) {
+            return false;
+        }
+
+        return bluetoothGatt.requestConnectionPriority(priority);
+    }
+
+    @Override
+    public boolean requestPhy(int phy) {
+        // Choosing the PHY needs API 26; older phones stay on 1M.
+        if (bluetoothGatt == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return false;
+        }
+        if (phy == PHY_LE_2M && !bluetoothAdapter.isLe2MPhySupported()) {
+            return false;
+        }
+
+        int mask = phy == PHY_LE_2M ? BluetoothDevice.PHY_LE_2M_MASK : BluetoothDevice.PHY_LE_1M_MASK;
+        // The result arrives in onPhyUpdate.
+        bluetoothGatt.setPreferredPhy(mask, mask, BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+        return true;
+    }
+
+    @Override
+    public int getPhy() {
+        return phy;
+    }
+
+    @Override
+    public int getMtu() {
+        return mtu;
+    }
+
+    @Override
+    public int getMaxUnacknowledgedWrites() {
+        // BluetoothGatt rejects a new operation until the previous callback has arrived,
+        // but for writes without response that callback comes back without a round trip.
+        return 1;
+    }
+
+    private ScanCallback leScanCallback =
+            new ScanCallback() {
+                // Scan results arrive on the main thread; the scan session runs on the handler's.
+                @Override
+                public void onScanResult(int callbackType, ScanResult result) {
+                    deliver(() -> acceptScanResult(result));
+                }
+
+                @Override
+                public void onBatchScanResults(List<ScanResult> results) {
+                    deliver(() -> {
+                        for (ScanResult result : results) {
+                            acceptScanResult(result);
+                        }
+                    });
+                }
+
+                @Override
+                public void onScanFailed(int errorCode) {
+                    deliver(() -> scanSession.onScanFailed(errorCode));
+                }
+            };
+
+    private void acceptScanResult(ScanResult result) {
+        BluetoothDevice device = result.getDevice();
+        scannedDevices.put(device.getAddress(), device);
+        scanSession.onResult(device.getAddress(), result.getRssi());
+    }
+
+    private void connectToScannedDevice(BluetoothDevice device) {
+        bluetoothDevice = device;
+        callback.acceptStatus("Discovered device: " + bluetoothDevice.getName());
+        callback.acceptStatus("Scan stopped - attempting GATT connection.");
+        // Give the stack a moment after stopping the scan, without blocking the thread.
+        // https://medium.com/android-news/lessons-for-first-time-android-bluetooth-le-developers-i-learned-the-hard-way-fee07646624
+        handler.removeCallbacks(connectAfterSettle);
+        handler.postDelayed(connectAfterSettle, ScanSettleMs);
+    }
+
+    // What Android calls. Hands each event over to the handler's thread. The value array is
+    // taken as it stands: Android gives each event a freshly unmarshalled array and replaces the
+    // characteristic's reference rather than writing into it, so no copy is needed.
+    private BluetoothGattCallback binderCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            deliver(() -> gattCallback.onConnectionStateChange(gatt, status, newState));
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            deliver(() -> gattCallback.onMtuChanged(gatt, mtu, status));
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            deliver(() -> gattCallback.onServicesDiscovered(gatt, status));
+        }
+
+        @Override
+        public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+            deliver(() -> gattCallback.onPhyUpdate(gatt, txPhy, rxPhy, status));
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            UUID id = characteristic.getUuid();
+            byte[] value = valueOf(characteristic);
+            deliver(() -> callback.onCharacteristicRead(id, value, status));
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            UUID id = characteristic.getUuid();
+            deliver(() -> callback.onCharacteristicWrite(id, status));
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            UUID id = descriptor.getCharacteristic().getUuid();
+            deliver(() -> callback.onNotificationsEnabled(id, status));
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+            UUID id = characteristic.getUuid();
+            byte[] value = valueOf(characteristic);
+            deliver(() -> callback.onCharacteristicChanged(id, value));
+        }
+
+        private byte[] valueOf(BluetoothGattCharacteristic characteristic) {
+            byte[] value = characteristic.getValue();
+            return value == null ? NoValue : value;
+        }
+    };
+
+    // Connection, MTU, PHY and discovery events, run on the handler's thread (see binderCallback).
+    private BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            if (gatt != attemptGatt) {
+                // Queued before the attempt was abandoned (see directConnectTimedOut) and closed.
+                return;
+            }
+            callback.acceptStatus("BLE connect state changed. Status: " + status + ", state: " + newState);
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                if (newState == BluetoothProfile.STATE_CONNECTED) {
+                    connectingDirectly = false;
+                    handler.removeCallbacks(directConnectTimeout);
+                    // Ask for a larger MTU first so the name lists can be read in fewer round trips.
+                    // Service discovery starts once the exchange finishes (see onMtuChanged).
+                    callback.acceptStatus("Connected to device - requesting MTU " + RequestedMtu);
+                    bluetoothGatt = gatt;
+                    mtu = DefaultMtu;
+                    phy = PHY_LE_1M;
+                    if (!bluetoothGatt.requestMtu(RequestedMtu)) {
+                        bluetoothGatt.discoverServices();
+                    }
+                } else {
+                    processDisconnect(gatt, "Unexpected GATT state encountered: " + newState);
+                }
+            } else {
+                String msg = "Unexpected GATT status encountered. Status: " + status + ", state: " + newState;
+                processDisconnect(gatt, msg);
+            }
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            if (gatt != attemptGatt) {
+                // Like onConnectionStateChange: an abandoned attempt mustn't start discovery.
+                return;
+            }
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                AndroidGattTransport.this.mtu = mtu;
+            }
+            callback.acceptStatus("MTU is " + AndroidGattTransport.this.mtu + " - discovering services");
+            gatt.discoverServices();
+        }
+
+        @Override
+        public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+            if (gatt != attemptGatt) {
+                return;
+            }
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                // The connector reads and writes about equally, so the slower direction is what counts.
+                phy = Math.min(txPhy, rxPhy);
+            }
+            callback.acceptStatus("PHY is now " + (phy == PHY_LE_2M ? "2M" : "1M") + " (status " + status + ")");
+        }
+
+        // Main connection method.
+        // On a successful connection, look up all known characteristics
+        // and let the connector know the transport is ready.
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            if (gatt != attemptGatt) {
+                return;
+            }
+            List<BluetoothGattService> services = gatt.getServices();
+            BluetoothGattService ledService = null;
+            String t = "Found " + services.size() + " services.";
+            t += "Looking for " + LedServiceUuid + "...";
+
+            for (BluetoothGattService service: services ) {
+                t += service.getUuid() + "; ";
+
+                if (service.getUuid().equals(LedServiceUuid)) {
+                    ledService = service;
+                }
+            }
+
+            callback.acceptStatus(t);
+            if (ledService == null) {
+                callback.acceptStatus("LED service not found!");
+                return;
+            }
+            callback.acceptStatus("Found LED service.");
+
+            characteristics.clear();
+            boolean allFound = true;
+            for (int i = 0; i < RequiredCharacteristicIds.length; i++) {
+                BluetoothGattCharacteristic gattChar = findCharacteristic(ledService, RequiredCharacteristicIds[i], RequiredCharacteristicNames[i]);
+                if (gattChar == null) {
+                    allFound = false;
+                } else {
+                    characteristics.put(RequiredCharacteristicIds[i], gattChar);
+                }
+            }
+
+            if (!allFound) {
+                callback.acceptStatus("At least one characteristic was not found in the service.");
+                return;
+            }
+
+            for (int i = 0; i < OptionalCharacteristicIds.length; i++) {
+                BluetoothGattCharacteristic gattChar = ledService.getCharacteristic(OptionalCharacteristicIds[i]);
+                if (gattChar != null) {
+                    callback.acceptStatus("Optional characteristic '" + OptionalCharacteristicNames[i] + "' found.");
+                    characteristics.put(OptionalCharacteristicIds[i], gattChar);
+                }
+            }
+
+            callback.acceptStatus("Services bound successfully.");
+            callback.onConnected();
+        }
+
+        private void processDisconnect(BluetoothGatt gatt, String callbackMessage) {
+            callback.acceptStatus(callbackMessage);
+            closeAttempt();
+
+            boolean scanInstead = connectingDirectly && !pinnedToAddress;
+            connectingDirectly = false;
+            handler.removeCallbacks(directConnectTimeout);
+            if (scanInstead) {
+                // The remembered sign isn't reachable (moved, or a different sign today). Look for one.
+                callback.acceptStatus("Direct connection failed - scanning instead.");
+                startScan();
+                return;
+            }
+            callback.onDisconnected();
+        }
+
+        private BluetoothGattCharacteristic findCharacteristic(BluetoothGattService service, UUID id, String name) {
+            BluetoothGattCharacteristic gattChar = service.getCharacteristic(id);
+            if (gattChar == null) {
+                callback.acceptStatus("Characteristic '" + name + "' not found!");
+            }
+            return gattChar;
+        }
+    };
+}
@@ -0,0 +1,88 @@
+package com.example.bleledcontroller;
+
+import static android.bluetooth.le.ScanSettings.CALLBACK_TYPE_ALL_MATCHES;
+import static android.bluetooth.le.ScanSettings.MATCH_NUM_MAX_ADVERTISEMENT;
+import static android.bluetooth.le.ScanSettings.SCAN_MODE_BALANCED;
+
+import static com.example.bleledcontroller.BleConstants.LedServiceUuid;
+import static com.example.bleledcontroller.BleConstants.ManufacturerId;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.os.ParcelUuid;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+// SignScanner backed by the Android BLE scanner.
+public class AndroidSignScanner implements SignScanner {
+    private BluetoothAdapter bluetoothAdapter;
+    private Listener listener;
+    private HashSet<String> found = new HashSet<>();
+    // The change counter of each sign's last reported advertisement.
+    private HashMap<String, Integer> changeCounters = new HashMap<>();
+
+    public AndroidSignScanner(Context context) {
+        BluetoothManager mgr = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
+        bluetoothAdapter = mgr.getAdapter();
+    }
+
+    @Override
+    public void startScan(Listener listener) {
+        this.listener = listener;
+        found.clear();
+        changeCounters.clear();
+
+        ScanFilter scanFilter = new ScanFilter.Builder()
+                .setServiceUuid(new ParcelUuid(LedServiceUuid))
+                .build();
+
+        List<ScanFilter> filters = new ArrayList<ScanFilter>();
+        filters.add(scanFilter);
+
+        // Report every matching advertiser, not just the first one.
+        ScanSettings scanSettings = new ScanSettings.Builder()
+                .setScanMode(SCAN_MODE_BALANCED)
+                .setNumOfMatches(MATCH_NUM_MAX_ADVERTISEMENT)
+                .setCallbackType(CALLBACK_TYPE_ALL_MATCHES)
+                .build();
+
+        bluetoothAdapter.getBluetoothLeScanner().startScan(filters, scanSettings, scanCallback);
+    }
+
+    @Override
+    public void stopScan() {
+        bluetoothAdapter.getBluetoothLeScanner().stopScan(scanCallback);
+    }
+
+    private ScanCallback scanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            // A sign advertises many times a second; only the first sighting matters.
+            String address = result.getDevice().getAddress();
+            if (found.add(address)) {
+                listener.onSignFound(address);
+            }
+
+            // The state block is only decoded when its change counter has moved.
+            ScanRecord record = result.getScanRecord();
+            byte[] data = record == null ? null : record.getManufacturerSpecificData(ManufacturerId);
+            int changeCounter = SignAdvertisement.changeCounterOf(data);
+            if (changeCounter < 0) {
+                return;
+            }
+            Integer last = changeCounters.put(address, changeCounter);
+            if (last == null || last != changeCounter) {
+                listener.onSignAdvertised(address, SignAdvertisement.decode(data));
+            }
+        }
+    };
+}
@@ -12,4 +12,77 @@ public class BleConstants {
     public static final UUID PatternCharacteristicId = UUID.fromString("6b503d25-f643-4823-a8a6-da51109e713f");
     public static final UUID PatternNamesCharacteristicId = UUID.fromString("348195d1-e237-4b0b-aea4-c818c3eb5e2a");
     public static final UUID BatteryVoltageCharacteristicId = UUID.fromString("ea0a95bc-7561-4b1e-8925-7973b3ad7b9a");
+    // Packed style/pattern/brightness/speed/step in one value. See SignState for the layout.
+    public static final UUID StateFrameCharacteristicId = UUID.fromString("eb1740d5-e6fc-4fc3-bde6-a926727865f8");
+    // Firmware version string. Lets us tell whether cached name lists are still valid.
+    public static final UUID FirmwareVersionCharacteristicId = UUID.fromString("81918add-863f-4b46-aab2-b0dfc66ae0cd");
+    // The sign's millisecond clock (uint32, little-endian), and a state frame to apply at a time on
+    // that clock. Together they let several signs change at the same moment. See ClockEstimate.
+    public static final UUID SignClockCharacteristicId = UUID.fromString("3b6c2e52-8f0d-4a61-9a5e-51c1e3b0d7a4");
+    public static final UUID ScheduledFrameCharacteristicId = UUID.fromString("3b6c2e53-8f0d-4a61-9a5e-51c1e3b0d7a4");
+    // Paged, length-prefixed UTF-8 style and pattern names, replacing the ';'-delimited
+    // Names and PatternNames reads. See NameTable for the protocol.
+    public static final UUID NameTableCharacteristicId = UUID.fromString("3b6c2e54-8f0d-4a61-9a5e-51c1e3b0d7a4");
+    // Presets kept on the sign, and a one-byte write that applies one of them. See PresetSlots.
+    public static final UUID PresetSlotsCharacteristicId = UUID.fromString("3b6c2e55-8f0d-4a61-9a5e-51c1e3b0d7a4");
+    public static final UUID PresetRecallCharacteristicId = UUID.fromString("3b6c2e56-8f0d-4a61-9a5e-51c1e3b0d7a4");
+    // Pixels rendered by the controller, written in chunks of changed runs. See PixelFrames.
+    public static final UUID FramebufferCharacteristicId = UUID.fromString("3b6c2e57-8f0d-4a61-9a5e-51c1e3b0d7a4");
+    // Company ID of the manufacturer-specific data carrying the sign's state. See SignAdvertisement.
+    // 0xFFFF is the ID the Bluetooth SIG reserves for testing and internal use.
+    public static final int ManufacturerId = 0xFFFF;
+
+    // Characteristics every sign must expose, with the names used in status messages.
+    public static final UUID[] RequiredCharacteristicIds = new UUID[] {
+            BrightnessCharacteristicId,
+            StyleCharacteristicId,
+            NamesCharacteristicId,
+            SpeedCharacteristicId,
+            StepCharacteristicId,
+            PatternCharacteristicId,
+            PatternNamesCharacteristicId,
+            BatteryVoltageCharacteristicId
+    };
+    public static final String[] RequiredCharacteristicNames = new String[] {
+            "Brightness",
+            "Style",
+            "Style Names",
+            "Speed",
+            "Step",
+            "Pattern",
+            "PatternNames",
+            "BatterVoltage"
+    };
+
+    // The single-byte control values, in the order they are read when the sign has no state frame.
+    public static final UUID[] ControlCharacteristicIds = new UUID[] {
+            BrightnessCharacteristicId,
+            StyleCharacteristicId,
+            SpeedCharacteristicId,
+            StepCharacteristicId,
+            PatternCharacteristicId
+    };
+
+    // Characteristics that only newer sign firmware exposes.
+    // The connector checks for these and falls back to the required ones when they are missing.
+    public static final UUID[] OptionalCharacteristicIds = new UUID[] {
+            StateFrameCharacteristicId,
+            FirmwareVersionCharacteristicId,
+            SignClockCharacteristicId,
+            ScheduledFrameCharacteristicId,
+            NameTableCharacteristicId,
+            PresetSlotsCharacteristicId,
+            PresetRecallCharacteristicId,
+            FramebufferCharacteristicId
+    };
+    public static final String[] OptionalCharacteristicNames = new String[] {
+            "State Frame",
+            "Firmware Version",
+            "Sign Clock",
+            "Scheduled Frame",
+            "Name Table",
+            "Preset Slots",
+            "Preset Recall",
+            "Framebuffer"
+    };
 }
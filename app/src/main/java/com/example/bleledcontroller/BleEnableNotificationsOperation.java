@@ -0,0 +1,12 @@
+package com.example.bleledcontroller;
+
+import java.util.UUID;
+
+// Subscribes to changes of a characteristic by writing its client configuration descriptor.
+// Goes through the operation queue like a read or write, since the descriptor write is
+// one more GATT operation that can't overlap the others.
+public class BleEnableNotificationsOperation extends BleOperation {
+    public BleEnableNotificationsOperation(UUID characteristicId) {
+        super(characteristicId);
+    }
+}
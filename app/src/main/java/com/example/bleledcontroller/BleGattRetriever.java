@@ -2,6 +2,7 @@ package com.example.bleledcontroller;
 
 import android.bluetooth.BluetoothGatt;
 
+// Implemented by transports that are backed by a real Android GATT connection.
 public interface BleGattRetriever {
     BluetoothGatt getBluetoothGatt();
 }
@@ -1,22 +1,16 @@
 package com.example.bleledcontroller;
 
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCharacteristic;
+import java.util.UUID;
 
 public abstract class BleOperation {
-    protected BluetoothGatt bluetoothGatt;
-    protected BluetoothGattCharacteristic characteristic;
+    protected UUID characteristicId;
 
-    public BleOperation(BluetoothGatt bluetoothGatt, BluetoothGattCharacteristic characteristic) {
-        this.bluetoothGatt = bluetoothGatt;
-        this.characteristic = characteristic;
+    public BleOperation(UUID characteristicId) {
+        this.characteristicId = characteristicId;
     }
 
-    public BluetoothGatt getBluetoothGatt() {
-        return bluetoothGatt;
-    }
-
-    public BluetoothGattCharacteristic getCharacteristic() {
-        return characteristic;
+    // The UUID of the characteristic this operation targets.
+    public UUID getCharacteristicId() {
+        return characteristicId;
     }
 }
@@ -0,0 +1,145 @@
+package com.example.bleledcontroller;
+
+import java.util.UUID;
+
+//
+// FIFO queue of BLE operations that coalesces writes.
+// A write to a characteristic that already has a write waiting in the queue
+// replaces the waiting write in place, so only the newest value goes over the air.
+// Reads are never coalesced and always keep their order. A queued read also acts
+// as a barrier: writes added after it are not merged into writes queued before it.
+// Writes marked as not coalescable are treated the same way.
+//
+// The queue is a growable ring buffer rather than a LinkedList so that adding and
+// removing operations doesn't allocate once it has reached its working size.
+// It is expected to stay small, so lookups are a linear scan.
+//
+public class BleOperationQueue {
+    private BleOperation[] operations = new BleOperation[16];
+    private int head = 0;
+    private int count = 0;
+    private int coalescedWriteCount = 0;
+
+    public void add(BleOperation operation) {
+        if (operation instanceof BleWriteCharacteristicOperation
+                && ((BleWriteCharacteristicOperation) operation).isCoalescable()) {
+            int index = findLast(operation.getCharacteristicId());
+            if (index >= 0 && isCoalescableWrite(get(index))) {
+                // Either a different write that is superseded, or the same pooled
+                // operation whose value was updated in place.
+                set(index, operation);
+                coalescedWriteCount++;
+                return;
+            }
+        }
+
+        if (count == operations.length) {
+            grow();
+        }
+        set(count, operation);
+        count++;
+    }
+
+    // Remove and return the next operation to run, or null if the queue is empty.
+    // Once an operation has been handed out it can no longer be replaced.
+    public BleOperation poll() {
+        if (count == 0) {
+            return null;
+        }
+
+        BleOperation next = operations[head];
+        operations[head] = null;
+        head = (head + 1) % operations.length;
+        count--;
+        return next;
+    }
+
+    // The next operation to run, without removing it, or null if the queue is empty.
+    public BleOperation peek() {
+        return count == 0 ? null : operations[head];
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean contains(BleOperation operation) {
+        for (int i = 0; i < count; i++) {
+            if (get(i) == operation) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The write that a new value for the characteristic would be merged into, or null
+    // if there isn't one (nothing queued, or a read or uncoalescable write is queued after the last write).
+    public BleWriteCharacteristicOperation findWaitingWrite(UUID characteristicId) {
+        int index = findLast(characteristicId);
+        if (index >= 0 && isCoalescableWrite(get(index))) {
+            return (BleWriteCharacteristicOperation) get(index);
+        }
+        return null;
+    }
+
+    // True if any write for the characteristic is waiting, even one behind a read.
+    public boolean hasWrite(UUID characteristicId) {
+        for (int i = 0; i < count; i++) {
+            BleOperation operation = get(i);
+            if (operation instanceof BleWriteCharacteristicOperation
+                    && operation.getCharacteristicId().equals(characteristicId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void clear() {
+        for (int i = 0; i < count; i++) {
+            set(i, null);
+        }
+        head = 0;
+        count = 0;
+    }
+
+    // Number of writes that were superseded by a newer value before being sent.
+    public int getCoalescedWriteCount() {
+        return coalescedWriteCount;
+    }
+
+    // Index (relative to the head) of the newest queued operation for the characteristic, or -1.
+    private int findLast(UUID characteristicId) {
+        for (int i = count - 1; i >= 0; i--) {
+            if (get(i).getCharacteristicId().equals(characteristicId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isCoalescableWrite(BleOperation operation) {
+        return operation instanceof BleWriteCharacteristicOperation
+                && ((BleWriteCharacteristicOperation) operation).isCoalescable();
+    }
+
+    private BleOperation get(int index) {
+        return operations[(head + index) % operations.length];
+    }
+
+    private void set(int index, BleOperation operation) {
+        operations[(head + index) % operations.length] = operation;
+    }
+
+    private void grow() {
+        BleOperation[] larger = new BleOperation[operations.length * 2];
+        for (int i = 0; i < count; i++) {
+            larger[i] = get(i);
+        }
+        operations = larger;
+        head = 0;
+    }
+}
@@ -1,16 +1,12 @@
 package com.example.bleledcontroller;
 
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCharacteristic;
+import java.util.UUID;
 
 public class BleReadCharacteristicOperation extends BleOperation {
     private BleReadOperationCallback callback;
 
-    public BleReadCharacteristicOperation(
-            BluetoothGatt bluetoothGatt,
-            BluetoothGattCharacteristic characteristic,
-            BleReadOperationCallback callback) {
-        super(bluetoothGatt, characteristic);
+    public BleReadCharacteristicOperation(UUID characteristicId, BleReadOperationCallback callback) {
+        super(characteristicId);
         this.callback = callback;
     }
 
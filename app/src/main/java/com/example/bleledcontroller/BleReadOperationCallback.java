@@ -1,7 +1,5 @@
 package com.example.bleledcontroller;
 
-import android.bluetooth.BluetoothGattCharacteristic;
-
 public interface BleReadOperationCallback {
-    void ProcessCharacteristic(BluetoothGattCharacteristic characteristic);
+    void ProcessCharacteristic(byte[] value);
 }
@@ -1,25 +1,45 @@
 package com.example.bleledcontroller;
 
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCharacteristic;
+import java.util.UUID;
 
 public class BleWriteCharacteristicOperation extends BleOperation {
     private byte[] value = new byte[] {0};
+    // Set on the acknowledged write that closes a run of write-without-response updates.
+    private boolean commit = false;
+    // False for writes that each carry their own part of a value (e.g. one preset slot),
+    // which mustn't be merged into each other in the queue.
+    private boolean coalescable = true;
 
-    public BleWriteCharacteristicOperation(BluetoothGatt bluetoothGatt, BluetoothGattCharacteristic characteristic) {
-        super(bluetoothGatt, characteristic);
+    public BleWriteCharacteristicOperation(UUID characteristicId) {
+        super(characteristicId);
     }
 
-    public BleWriteCharacteristicOperation(BluetoothGatt bluetoothGatt, BluetoothGattCharacteristic characteristic, byte[] value) {
-        super(bluetoothGatt, characteristic);
+    public BleWriteCharacteristicOperation(UUID characteristicId, byte[] value) {
+        super(characteristicId);
         this.value = value;
     }
 
     public BleWriteCharacteristicOperation withValue(byte[] value) {
-        return new BleWriteCharacteristicOperation(bluetoothGatt, characteristic, value);
+        return new BleWriteCharacteristicOperation(characteristicId, value);
     }
 
     public byte[] getTargetValue() {
         return value;
     }
+
+    public boolean isCommit() {
+        return commit;
+    }
+
+    public void setCommit(boolean commit) {
+        this.commit = commit;
+    }
+
+    public boolean isCoalescable() {
+        return coalescable;
+    }
+
+    public void setCoalescable(boolean coalescable) {
+        this.coalescable = coalescable;
+    }
 }
@@ -0,0 +1,40 @@
+package com.example.bleledcontroller;
+
+import java.util.UUID;
+
+//
+// A few preallocated write operations for one characteristic, each with its own value buffer.
+// The connector fills in a free operation's buffer instead of allocating a new
+// operation and byte[] for every control change.
+// An operation is free when it is neither waiting in the queue nor in flight.
+//
+public class BleWriteOperationPool {
+    private final BleWriteCharacteristicOperation[] operations;
+
+    public BleWriteOperationPool(UUID characteristicId, int size, int valueLength) {
+        operations = new BleWriteCharacteristicOperation[size];
+        for (int i = 0; i < size; i++) {
+            operations[i] = new BleWriteCharacteristicOperation(characteristicId, new byte[valueLength]);
+        }
+    }
+
+    // Returns a free operation, or null if every operation in the pool is busy.
+    public BleWriteCharacteristicOperation acquire(BleOperationQueue queue, BleOperation pendingOperation) {
+        for (BleWriteCharacteristicOperation operation : operations) {
+            if (operation != pendingOperation && !queue.contains(operation)) {
+                return operation;
+            }
+        }
+        return null;
+    }
+
+    // True if the operation came from this pool (and so its buffer may be updated in place).
+    public boolean owns(BleOperation operation) {
+        for (BleWriteCharacteristicOperation candidate : operations) {
+            if (candidate == operation) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.bleledcontroller;
+
+import java.nio.charset.StandardCharsets;
+
+//
+// How a characteristic's value is laid out on the wire.
+// Decoding reads the array the transport delivered in place and hands the result to a typed
+// sink, so the numeric codecs don't allocate (no ByteBuffer.wrap, no boxing) on the read path.
+// Encoding writes into a caller-supplied buffer, e.g. one owned by a BleWriteOperationPool.
+//
+public abstract class CharacteristicCodec<S> {
+    public interface IntSink {
+        void accept(int value);
+    }
+
+    public interface LongSink {
+        void accept(long value);
+    }
+
+    public interface FloatSink {
+        void accept(float value);
+    }
+
+    public interface ValueSink<T> {
+        void accept(T value);
+    }
+
+    // An unsigned byte, e.g. the single-byte control values.
+    public static final UnsignedByte U8 = new UnsignedByte();
+    // An unsigned 32-bit little-endian integer, e.g. the sign clock.
+    public static final UnsignedInt32 U32Le = new UnsignedInt32();
+    // A 32-bit little-endian IEEE float, e.g. the battery voltage.
+    public static final Float32 Float32Le = new Float32();
+    // ';'-delimited UTF-8 names.
+    public static final CharacteristicCodec<ValueSink<String[]>> StringList = new StringList();
+    // A UTF-8 string, e.g. the firmware version.
+    public static final CharacteristicCodec<ValueSink<String>> Utf8 = new Utf8();
+    // The value as delivered, for characteristics whose protocol class does its own decoding
+    // (SignState, NameTable, PresetSlots) and which report bad input themselves.
+    public static final CharacteristicCodec<ValueSink<byte[]>> Bytes = bytes(-1);
+
+    private final int length;
+
+    protected CharacteristicCodec(int length) {
+        this.length = length;
+    }
+
+    // A raw value whose writes are the given number of bytes (-1 if they vary).
+    public static CharacteristicCodec<ValueSink<byte[]>> bytes(int length) {
+        return new RawBytes(length);
+    }
+
+    // The number of bytes a value takes, or -1 if it varies.
+    public int getLength() {
+        return length;
+    }
+
+    // Decode a value and pass it to the sink.
+    // Returns false (and doesn't call the sink) if the value is too short for this codec.
+    public abstract boolean decode(byte[] value, S sink);
+
+    static int readIntLe(byte[] value, int offset) {
+        return (value[offset] & 0xFF)
+                | (value[offset + 1] & 0xFF) << 8
+                | (value[offset + 2] & 0xFF) << 16
+                | (value[offset + 3] & 0xFF) << 24;
+    }
+
+    static void writeIntLe(int v, byte[] buffer, int offset) {
+        buffer[offset] = (byte) v;
+        buffer[offset + 1] = (byte) (v >> 8);
+        buffer[offset + 2] = (byte) (v >> 16);
+        buffer[offset + 3] = (byte) (v >> 24);
+    }
+
+    // A fixed-length integer codec. Control values are written through encodeInt, so a control
+    // registered with any other codec doesn't compile (see CharacteristicRegistry.addControl).
+    public abstract static class IntegerCodec<S> extends CharacteristicCodec<S> {
+        protected IntegerCodec(int length) {
+            super(length);
+        }
+
+        // Encode an integer value into the buffer, which must hold getLength() bytes.
+        public abstract void encodeInt(int value, byte[] buffer);
+    }
+
+    public static final class UnsignedByte extends IntegerCodec<IntSink> {
+        private UnsignedByte() {
+            super(1);
+        }
+
+        @Override
+        public boolean decode(byte[] value, IntSink sink) {
+            if (value == null || value.length < 1) {
+                return false;
+            }
+            sink.accept(value[0] & 0xFF);
+            return true;
+        }
+
+        public void encode(int v, byte[] buffer) {
+            buffer[0] = (byte) v;
+        }
+
+        @Override
+        public void encodeInt(int value, byte[] buffer) {
+            encode(value, buffer);
+        }
+    }
+
+    public static final class UnsignedInt32 extends IntegerCodec<LongSink> {
+        private UnsignedInt32() {
+            super(4);
+        }
+
+        @Override
+        public boolean decode(byte[] value, LongSink sink) {
+            if (value == null || value.length < 4) {
+                return false;
+            }
+            sink.accept(readIntLe(value, 0) & 0xFFFFFFFFL);
+            return true;
+        }
+
+        public void encode(long v, byte[] buffer) {
+            writeIntLe((int) v, buffer, 0);
+        }
+
+        @Override
+        public void encodeInt(int value, byte[] buffer) {
+            encode(value & 0xFFFFFFFFL, buffer);
+        }
+    }
+
+    public static final class Float32 extends CharacteristicCodec<FloatSink> {
+        private Float32() {
+            super(4);
+        }
+
+        @Override
+        public boolean decode(byte[] value, FloatSink sink) {
+            if (value == null || value.length < 4) {
+                return false;
+            }
+            sink.accept(Float.intBitsToFloat(readIntLe(value, 0)));
+            return true;
+        }
+
+        public void encode(float v, byte[] buffer) {
+            writeIntLe(Float.floatToRawIntBits(v), buffer, 0);
+        }
+    }
+
+    private static final class StringList extends CharacteristicCodec<ValueSink<String[]>> {
+        private StringList() {
+            super(-1);
+        }
+
+        @Override
+        public boolean decode(byte[] value, ValueSink<String[]> sink) {
+            if (value == null) {
+                return false;
+            }
+            sink.accept(new String(value, StandardCharsets.UTF_8).split(";"));
+            return true;
+        }
+    }
+
+    private static final class Utf8 extends CharacteristicCodec<ValueSink<String>> {
+        private Utf8() {
+            super(-1);
+        }
+
+        @Override
+        public boolean decode(byte[] value, ValueSink<String> sink) {
+            if (value == null) {
+                return false;
+            }
+            sink.accept(new String(value, StandardCharsets.UTF_8));
+            return true;
+        }
+    }
+
+    private static final class RawBytes extends CharacteristicCodec<ValueSink<byte[]>> {
+        private RawBytes(int length) {
+            super(length);
+        }
+
+        @Override
+        public boolean decode(byte[] value, ValueSink<byte[]> sink) {
+            sink.accept(value);
+            return true;
+        }
+    }
+}
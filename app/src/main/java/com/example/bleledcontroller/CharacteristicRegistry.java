@@ -0,0 +1,163 @@
+package com.example.bleledcontroller;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+
+//
+// The table of characteristics the connector knows how to read and write.
+// Each entry pairs a characteristic with its codec, the sink its decoded value goes to,
+// and how many pooled write operations it gets. The read, subscribe and write operations
+// are all created from the entry, so supporting a new value is one add() call.
+// Controls (the SignState fields, each kept in its own characteristic) are added with
+// addControl, and the connector drives their writes, mailbox slots and packed state from here.
+//
+public class CharacteristicRegistry {
+    // Gets a control's decoded value along with its SignState field bit.
+    public interface ControlSink {
+        void accept(int field, int value);
+    }
+
+    // One control: its characteristic, the SignState field it holds, and its slot.
+    // Slots number the controls in the order they were added, from 0.
+    public static final class Control {
+        public final UUID characteristicId;
+        public final int field;
+        public final int slot;
+        private final CharacteristicCodec.IntegerCodec<CharacteristicCodec.IntSink> codec;
+
+        private Control(UUID characteristicId, int field, int slot, CharacteristicCodec.IntegerCodec<CharacteristicCodec.IntSink> codec) {
+            this.characteristicId = characteristicId;
+            this.field = field;
+            this.slot = slot;
+            this.codec = codec;
+        }
+
+        public int getLength() {
+            return codec.getLength();
+        }
+
+        // Encode a value into a buffer of getLength() bytes.
+        public void encode(int value, byte[] buffer) {
+            codec.encodeInt(value, buffer);
+        }
+    }
+
+    private final HashMap<UUID, Entry<?>> entries = new HashMap<>();
+    private final ArrayList<Control> controls = new ArrayList<>();
+    private final NanoConnectorCallback callback;
+
+    public CharacteristicRegistry(NanoConnectorCallback callback) {
+        this.callback = callback;
+    }
+
+    // A characteristic that is read (and pushed, if the sign supports notifications) but never written.
+    public <S> void add(UUID characteristicId, CharacteristicCodec<S> codec, S sink) {
+        add(characteristicId, codec, sink, 0);
+    }
+
+    // A characteristic with the given number of pooled writes. A null sink means it is write-only.
+    // Pooled writes need a fixed-length codec; variable-length writes are one-off operations.
+    public <S> void add(UUID characteristicId, CharacteristicCodec<S> codec, S sink, int writePoolSize) {
+        add(characteristicId, codec, sink, writePoolSize, 0);
+    }
+
+    // Like add, for a characteristic whose writes change the given SignState fields
+    // (e.g. the state frame). See getFieldsWritten.
+    public <S> void add(UUID characteristicId, CharacteristicCodec<S> codec, S sink, int writePoolSize, int fieldsWritten) {
+        if (writePoolSize > 0 && codec.getLength() < 0) {
+            throw new IllegalArgumentException("Pooled writes need a fixed-length codec");
+        }
+        entries.put(characteristicId, new Entry<>(characteristicId, codec, sink, writePoolSize, fieldsWritten));
+    }
+
+    // A control holding one SignState field. It is read, pushed and written like any other
+    // characteristic, and its decoded values go to sink with the field.
+    public void addControl(UUID characteristicId, int field, CharacteristicCodec.IntegerCodec<CharacteristicCodec.IntSink> codec,
+                           ControlSink sink, int writePoolSize) {
+        add(characteristicId, codec, v -> sink.accept(field, v), writePoolSize, field);
+        controls.add(new Control(characteristicId, field, controls.size(), codec));
+    }
+
+    public int getControlCount() {
+        return controls.size();
+    }
+
+    public Control getControl(int slot) {
+        return controls.get(slot);
+    }
+
+    // The control holding a SignState field.
+    public Control getControlForField(int field) {
+        for (int i = 0; i < controls.size(); i++) {
+            if (controls.get(i).field == field) {
+                return controls.get(i);
+            }
+        }
+        throw new IllegalArgumentException("No control for field " + field);
+    }
+
+    // The SignState fields a write of the characteristic may have changed (0 if none, or if it isn't registered).
+    public int getFieldsWritten(UUID characteristicId) {
+        Entry<?> entry = entries.get(characteristicId);
+        return entry == null ? 0 : entry.fieldsWritten;
+    }
+
+    // The operation that reads the characteristic, or null if it isn't read.
+    public BleReadCharacteristicOperation getReadOperation(UUID characteristicId) {
+        Entry<?> entry = entries.get(characteristicId);
+        return entry == null ? null : entry.readOperation;
+    }
+
+    public BleEnableNotificationsOperation getSubscribeOperation(UUID characteristicId) {
+        Entry<?> entry = entries.get(characteristicId);
+        return entry == null ? null : entry.subscribeOperation;
+    }
+
+    // The characteristic's pooled writes, or null if it has none.
+    public BleWriteOperationPool getWritePool(UUID characteristicId) {
+        Entry<?> entry = entries.get(characteristicId);
+        return entry == null ? null : entry.writePool;
+    }
+
+    // Decode a value the same way a read of the characteristic would.
+    // Returns false if the characteristic isn't read or the value couldn't be decoded.
+    public boolean decode(UUID characteristicId, byte[] value) {
+        Entry<?> entry = entries.get(characteristicId);
+        return entry != null && entry.sink != null && entry.decode(value);
+    }
+
+    private class Entry<S> implements BleReadOperationCallback {
+        final UUID characteristicId;
+        final CharacteristicCodec<S> codec;
+        final S sink;
+        final BleReadCharacteristicOperation readOperation;
+        final BleEnableNotificationsOperation subscribeOperation;
+        final BleWriteOperationPool writePool;
+        final int fieldsWritten;
+
+        Entry(UUID characteristicId, CharacteristicCodec<S> codec, S sink, int writePoolSize, int fieldsWritten) {
+            this.characteristicId = characteristicId;
+            this.fieldsWritten = fieldsWritten;
+            this.codec = codec;
+            this.sink = sink;
+            readOperation = sink == null ? null : new BleReadCharacteristicOperation(characteristicId, this);
+            subscribeOperation = sink == null ? null : new BleEnableNotificationsOperation(characteristicId);
+            writePool = writePoolSize == 0 ? null : new BleWriteOperationPool(characteristicId, writePoolSize, codec.getLength());
+        }
+
+        boolean decode(byte[] value) {
+            if (codec.decode(value, sink)) {
+                return true;
+            }
+            callback.acceptStatus("Ignoring a malformed value of " + characteristicId + " ("
+                    + (value == null ? 0 : value.length) + " bytes).");
+            return false;
+        }
+
+        @Override
+        public void ProcessCharacteristic(byte[] value) {
+            decode(value);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.bleledcontroller;
+
+//
+// Estimates the offset between our clock and a sign's, from reads of the sign's clock.
+//
+// The sign's clock is a free-running 32-bit millisecond counter. For each read we know
+// when the request went out and when the response came back; assuming the two legs take
+// equally long, the sign sampled its clock halfway between. The sample with the shortest
+// round trip has the least room for error, so that is the one kept.
+//
+// The offset is kept modulo 2^32, so converting works across the sign's counter wrapping.
+//
+public class ClockEstimate {
+    private static final long Mask = 0xFFFFFFFFL;
+
+    private volatile long offset = 0;
+    private volatile long roundTrip = -1;
+
+    public void addSample(long sentAt, long receivedAt, long signTime) {
+        long sampleRoundTrip = receivedAt - sentAt;
+        if (roundTrip >= 0 && sampleRoundTrip >= roundTrip) {
+            return;
+        }
+
+        long midpoint = sentAt + sampleRoundTrip / 2;
+        offset = (signTime - midpoint) & Mask;
+        roundTrip = sampleRoundTrip;
+    }
+
+    public boolean hasEstimate() {
+        return roundTrip >= 0;
+    }
+
+    // Round trip of the best sample, or -1 if there are none. The estimate is good to about half of this.
+    public long getRoundTripMs() {
+        return roundTrip;
+    }
+
+    // What the sign's clock will read at the given local time.
+    public long toSignTime(long localTime) {
+        return (localTime + offset) & Mask;
+    }
+
+    public void reset() {
+        offset = 0;
+        roundTrip = -1;
+    }
+}
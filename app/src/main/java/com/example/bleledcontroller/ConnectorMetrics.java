@@ -0,0 +1,140 @@
+package com.example.bleledcontroller;
+
+import static com.example.bleledcontroller.BleConstants.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+//
+// Numbers describing how the connector's link is doing: round trips per characteristic,
+// queue depth, writes that were coalesced or dropped, retries, reconnects and connection times.
+// NanoConnector records into this on the connector thread, so each counter has a single
+// writer and volatile is enough; everything can be read from any thread (see getMetrics()).
+// Counters cover the connector's whole lifetime; the connection times cover the latest connection.
+//
+public class ConnectorMetrics {
+    private final LinkedHashMap<UUID, LatencyHistogram> roundTrips = new LinkedHashMap<>();
+    private final LinkedHashMap<UUID, String> names = new LinkedHashMap<>();
+
+    private volatile int queueDepth = 0;
+    private volatile int maxQueueDepth = 0;
+    private volatile long completedOperations = 0;
+    private volatile long acknowledgedWrites = 0;
+    private volatile long streamedWrites = 0;
+    private volatile long bytesWritten = 0;
+    private volatile long coalescedWrites = 0;
+    private volatile long droppedOperations = 0;
+    private volatile long retries = 0;
+    private volatile int timeouts = 0;
+    private volatile int reconnects = 0;
+    private volatile long timeToReadyMs = -1;
+    private volatile long timeToFullSyncMs = -1;
+
+    public ConnectorMetrics() {
+        // Every histogram exists up front, so recording never allocates or changes the map.
+        for (int i = 0; i < RequiredCharacteristicIds.length; i++) {
+            add(RequiredCharacteristicIds[i], RequiredCharacteristicNames[i]);
+        }
+        for (int i = 0; i < OptionalCharacteristicIds.length; i++) {
+            add(OptionalCharacteristicIds[i], OptionalCharacteristicNames[i]);
+        }
+    }
+
+    private void add(UUID id, String name) {
+        roundTrips.put(id, new LatencyHistogram());
+        names.put(id, name);
+    }
+
+    // Round trips of completed reads, acknowledged writes and subscriptions, or null for an unknown characteristic.
+    public LatencyHistogram getRoundTrips(UUID characteristicId) {
+        return roundTrips.get(characteristicId);
+    }
+
+    public int getQueueDepth() { return queueDepth; }
+    public int getMaxQueueDepth() { return maxQueueDepth; }
+    public long getCompletedOperations() { return completedOperations; }
+    public long getAcknowledgedWrites() { return acknowledgedWrites; }
+    public long getStreamedWrites() { return streamedWrites; }
+    public long getBytesWritten() { return bytesWritten; }
+    // Writes replaced by a newer value before they were sent.
+    public long getCoalescedWrites() { return coalescedWrites; }
+    // Operations given up on: they couldn't be started, timed out too often, or were superseded while timing out.
+    public long getDroppedOperations() { return droppedOperations; }
+    public long getRetries() { return retries; }
+    public int getTimeouts() { return timeouts; }
+    public int getReconnects() { return reconnects; }
+    // -1 until reached on the current connection.
+    public long getTimeToReadyMs() { return timeToReadyMs; }
+    public long getTimeToFullSyncMs() { return timeToFullSyncMs; }
+
+    void recordRoundTrip(UUID characteristicId, long ms) {
+        LatencyHistogram histogram = roundTrips.get(characteristicId);
+        if (histogram != null) {
+            histogram.record(ms);
+        }
+        completedOperations++;
+    }
+
+    void recordQueueDepth(int depth) {
+        queueDepth = depth;
+        if (depth > maxQueueDepth) {
+            maxQueueDepth = depth;
+        }
+    }
+
+    void recordWrite(int length, boolean streamed) {
+        if (streamed) {
+            streamedWrites++;
+        } else {
+            acknowledgedWrites++;
+        }
+        bytesWritten += length;
+    }
+
+    void recordCoalescedWrite() { coalescedWrites++; }
+    void recordDroppedOperation() { droppedOperations++; }
+    void recordRetry() { retries++; }
+    void recordTimeout() { timeouts++; }
+    void recordReconnect() { reconnects++; }
+
+    void startConnection() {
+        timeToReadyMs = -1;
+        timeToFullSyncMs = -1;
+    }
+
+    void recordTimeToReady(long ms) { timeToReadyMs = ms; }
+    void recordTimeToFullSync(long ms) { timeToFullSyncMs = ms; }
+
+    // A few lines for the debug overlay. Characteristics that haven't been used are left out.
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("ready ").append(formatMs(timeToReadyMs))
+                .append("  sync ").append(formatMs(timeToFullSyncMs)).append('\n');
+        sb.append("queue ").append(queueDepth).append(" (max ").append(maxQueueDepth).append(')')
+                .append("  coalesced ").append(coalescedWrites)
+                .append("  dropped ").append(droppedOperations).append('\n');
+        sb.append("retries ").append(retries)
+                .append("  timeouts ").append(timeouts)
+                .append("  reconnects ").append(reconnects).append('\n');
+        sb.append("writes ").append(acknowledgedWrites)
+                .append(" + ").append(streamedWrites).append(" streamed, ")
+                .append(bytesWritten).append(" bytes");
+        for (Map.Entry<UUID, LatencyHistogram> entry : roundTrips.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            sb.append('\n').append(names.get(entry.getKey()))
+                    .append(": n ").append(histogram.getCount())
+                    .append("  p50 ").append(histogram.getPercentileMs(50))
+                    .append("  p95 ").append(histogram.getPercentileMs(95))
+                    .append("  max ").append(histogram.getMaxMs()).append("ms");
+        }
+        return sb.toString();
+    }
+
+    private static String formatMs(long ms) {
+        return ms < 0 ? "-" : ms + "ms";
+    }
+}
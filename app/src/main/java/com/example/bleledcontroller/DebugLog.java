@@ -0,0 +1,168 @@
+package com.example.bleledcontroller;
+
+//
+// Fixed-capacity log of status messages for the debug panel.
+// Entries live in preallocated ring arrays, so a long session costs a bounded amount of
+// memory and the oldest entries are simply overwritten. Adding stores the pieces of an
+// entry (time, level, text and an optional number, or a format and its arguments) without
+// building a display string; the line is only formatted when something shows it (see format(long)).
+// Every entry gets a sequence number that keeps counting across wrap-around, which lets a
+// view apply just the entries added or dropped since it last looked.
+// Safe to use from any thread.
+//
+public class DebugLog {
+    public static final int Debug = 0;
+    public static final int Info = 1;
+    public static final int Warning = 2;
+    public static final int Error = 3;
+    private static final String LevelLetters = "DIWE";
+    // Marks an entry without a number.
+    private static final long NoValue = Long.MIN_VALUE;
+
+    public static final int DefaultCapacity = 1000;
+
+    // Told (on the adding thread) that an entry was added.
+    public interface Listener {
+        void onEntryAdded();
+    }
+
+    private final TimeSource timeSource;
+    private final long startedAt;
+    private final long[] times;
+    private final int[] levels;
+    private final String[] messages;
+    private final long[] values;
+    // Arguments for an entry whose message is a format, else null.
+    private final Object[][] arguments;
+    // Sequence number of the next entry; entries [nextSequence - count, nextSequence) are held.
+    private long nextSequence = 0;
+    private int count = 0;
+    private volatile Listener listener;
+
+    public DebugLog(TimeSource timeSource) {
+        this(DefaultCapacity, timeSource);
+    }
+
+    public DebugLog(int capacity, TimeSource timeSource) {
+        this.timeSource = timeSource;
+        this.startedAt = timeSource.nowMillis();
+        times = new long[capacity];
+        levels = new int[capacity];
+        messages = new String[capacity];
+        values = new long[capacity];
+        arguments = new Object[capacity][];
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void add(int level, String message) {
+        add(level, message, NoValue);
+    }
+
+    // message followed by value, e.g. add(Debug, "Setting brightness to ", 42), without
+    // allocating a string for a message that may never be looked at.
+    public void add(int level, String message, long value) {
+        add(level, message, value, null);
+    }
+
+    // A String.format format and its arguments, formatted only if the entry is shown.
+    // The arguments are kept as given, so they shouldn't be changed afterwards.
+    public void addFormatted(int level, String format, Object... args) {
+        add(level, format, NoValue, args);
+    }
+
+    private void add(int level, String message, long value, Object[] args) {
+        synchronized (this) {
+            int slot = (int) (nextSequence % times.length);
+            times[slot] = timeSource.nowMillis();
+            levels[slot] = level;
+            messages[slot] = message;
+            values[slot] = value;
+            arguments[slot] = args;
+            nextSequence++;
+            count = Math.min(count + 1, times.length);
+        }
+
+        Listener current = listener;
+        if (current != null) {
+            current.onEntryAdded();
+        }
+    }
+
+    // Sequence number of the oldest entry still held.
+    public synchronized long getFirstSequence() {
+        return nextSequence - count;
+    }
+
+    // One past the sequence number of the newest entry.
+    public synchronized long getEndSequence() {
+        return nextSequence;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    // The level of an entry, or -1 if it has been overwritten (or not written yet).
+    public synchronized int getLevel(long sequence) {
+        return isHeld(sequence) ? levels[slotOf(sequence)] : -1;
+    }
+
+    // The display line for an entry: seconds since the log started, level and text.
+    // Null if the entry has been overwritten (or not written yet).
+    public String format(long sequence) {
+        long time;
+        int level;
+        String message;
+        long value;
+        Object[] args;
+        synchronized (this) {
+            if (!isHeld(sequence)) {
+                return null;
+            }
+            int slot = slotOf(sequence);
+            time = times[slot];
+            level = levels[slot];
+            message = messages[slot];
+            value = values[slot];
+            args = arguments[slot];
+        }
+        if (args != null) {
+            message = String.format(message, args);
+        }
+
+        long elapsed = time - startedAt;
+        StringBuilder sb = new StringBuilder();
+        sb.append(elapsed / 1000).append('.');
+        long millis = elapsed % 1000;
+        if (millis < 100) sb.append('0');
+        if (millis < 10) sb.append('0');
+        sb.append(millis).append(' ').append(LevelLetters.charAt(level)).append(' ').append(message);
+        if (value != NoValue) {
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    // A level for one of the connector's status messages, which don't carry one.
+    public static int levelOf(String status) {
+        if (status.startsWith("ERROR") || status.startsWith("Error")) {
+            return Error;
+        }
+        if (status.contains("failed") || status.contains("timed out") || status.contains("Timed out")
+                || status.startsWith("Unable") || status.startsWith("Unexpected")) {
+            return Warning;
+        }
+        return Info;
+    }
+
+    private boolean isHeld(long sequence) {
+        return sequence >= nextSequence - count && sequence < nextSequence;
+    }
+
+    private int slotOf(long sequence) {
+        return (int) (sequence % times.length);
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.bleledcontroller;
+
+import android.graphics.Color;
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+//
+// Shows a DebugLog in a RecyclerView, so only the visible lines are ever formatted.
+// The adapter keeps its own window of sequence numbers and only moves it in refresh(),
+// on the UI thread; entries the log adds or overwrites in between don't disturb the
+// RecyclerView until then, and refresh() reports just what changed.
+//
+public class DebugLogAdapter extends RecyclerView.Adapter<DebugLogAdapter.LineHolder> {
+    private final DebugLog log;
+    private long firstSequence = 0;
+    private long endSequence = 0;
+
+    public DebugLogAdapter(DebugLog log) {
+        this.log = log;
+    }
+
+    // Catch up with the log. Returns true if entries were added.
+    public boolean refresh() {
+        long newFirst = log.getFirstSequence();
+        long newEnd = log.getEndSequence();
+        int removed = (int) Math.min(endSequence - firstSequence, Math.max(0, newFirst - firstSequence));
+        int kept = (int) Math.max(0, endSequence - Math.max(firstSequence, newFirst));
+        int inserted = (int) (newEnd - Math.max(endSequence, newFirst));
+        firstSequence = newFirst;
+        endSequence = newEnd;
+
+        if (removed > 0) {
+            notifyItemRangeRemoved(0, removed);
+        }
+        if (inserted > 0) {
+            notifyItemRangeInserted(kept, inserted);
+        }
+        return inserted > 0;
+    }
+
+    @Override
+    public int getItemCount() {
+        return (int) (endSequence - firstSequence);
+    }
+
+    @NonNull
+    @Override
+    public LineHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        TextView view = (TextView) LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_debug_log, parent, false);
+        return new LineHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull LineHolder holder, int position) {
+        long sequence = firstSequence + position;
+        String line = log.format(sequence);
+        // Overwritten since the last refresh; the next refresh removes it.
+        holder.text.setText(line == null ? "..." : line);
+        int level = log.getLevel(sequence);
+        holder.text.setTextColor(level == DebugLog.Error ? Color.RED
+                : level == DebugLog.Warning ? Color.rgb(0xC0, 0x80, 0x00)
+                : Color.DKGRAY);
+    }
+
+    static class LineHolder extends RecyclerView.ViewHolder {
+        final TextView text;
+
+        LineHolder(TextView view) {
+            super(view);
+            text = view;
+        }
+    }
+}
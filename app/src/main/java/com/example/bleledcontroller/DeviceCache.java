@@ -0,0 +1,127 @@
+package com.example.bleledcontroller;
+
+import java.util.ArrayList;
+
+//
+// What we remember about the last sign we connected to, so the next connection
+// can skip scanning and, if the firmware hasn't changed, skip re-reading the name lists.
+//
+// Stored as one string: address, fingerprint, style names, pattern names and the name
+// lists' content hashes on separate lines. The names are ';'-delimited the same way the
+// sign sends them, with a backslash escaping any ';', newline or backslash inside a name. Caches
+// written before the hashes were added have four lines and decode without them.
+//
+public class DeviceCache {
+    public String address;
+    // Identifies the firmware and characteristic layout the names were read from.
+    // Null if the sign can't tell us its firmware version, in which case the names can't be trusted.
+    public String fingerprint;
+    public String[] styleNames;
+    public String[] patternNames;
+    // Content hashes of the name lists from the Name Table characteristic, or -1.
+    // They identify the names even when the firmware can't (see NameTable).
+    public long styleNamesHash = -1;
+    public long patternNamesHash = -1;
+
+    public boolean hasNamesFor(String fingerprint) {
+        return fingerprint != null
+                && fingerprint.equals(this.fingerprint)
+                && styleNames != null
+                && patternNames != null;
+    }
+
+    public String encode() {
+        return nullToEmpty(address) + '\n'
+                + nullToEmpty(fingerprint) + '\n'
+                + join(styleNames) + '\n'
+                + join(patternNames) + '\n'
+                + styleNamesHash + ',' + patternNamesHash;
+    }
+
+    // Returns null if the string isn't a cache we wrote.
+    public static DeviceCache decode(String encoded) {
+        if (encoded == null) {
+            return null;
+        }
+
+        String[] lines = encoded.split("\n", -1);
+        if (lines.length != 4 && lines.length != 5) {
+            return null;
+        }
+
+        DeviceCache cache = new DeviceCache();
+        cache.address = emptyToNull(lines[0]);
+        cache.fingerprint = emptyToNull(lines[1]);
+        cache.styleNames = split(lines[2]);
+        cache.patternNames = split(lines[3]);
+        if (lines.length == 5) {
+            String[] hashes = lines[4].split(",");
+            if (hashes.length != 2) {
+                return null;
+            }
+            try {
+                cache.styleNamesHash = Long.parseLong(hashes[0]);
+                cache.patternNamesHash = Long.parseLong(hashes[1]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return cache;
+    }
+
+    private static String join(String[] names) {
+        if (names == null) {
+            return "";
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                sb.append(';');
+            }
+            String name = names[i];
+            for (int j = 0; j < name.length(); j++) {
+                char c = name.charAt(j);
+                if (c == ';' || c == '\\') {
+                    sb.append('\\').append(c);
+                } else if (c == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String[] split(String joined) {
+        if (joined.isEmpty()) {
+            return null;
+        }
+
+        ArrayList<String> names = new ArrayList<>();
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < joined.length(); i++) {
+            char c = joined.charAt(i);
+            if (c == '\\' && i + 1 < joined.length()) {
+                char escaped = joined.charAt(++i);
+                name.append(escaped == 'n' ? '\n' : escaped);
+            } else if (c == ';') {
+                names.add(name.toString());
+                name.setLength(0);
+            } else {
+                name.append(c);
+            }
+        }
+        names.add(name.toString());
+        return names.toArray(new String[0]);
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static String emptyToNull(String s) {
+        return s.isEmpty() ? null : s;
+    }
+}
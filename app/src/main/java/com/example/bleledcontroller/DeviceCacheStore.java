@@ -0,0 +1,7 @@
+package com.example.bleledcontroller;
+
+public interface DeviceCacheStore {
+    // Returns null if nothing has been saved yet.
+    DeviceCache load();
+    void save(DeviceCache cache);
+}
@@ -0,0 +1,57 @@
+package com.example.bleledcontroller;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+// Keeps the PresetLibrary in a file in the app's private storage.
+// Saves go to a temporary file that then replaces the old one, so a crash mid-save
+// leaves the previous library intact.
+public class FilePresetStore implements PresetStore {
+    private static final String FileName = "presets.bin";
+
+    private final File file;
+    private final File tempFile;
+
+    public FilePresetStore(Context context) {
+        file = new File(context.getFilesDir(), FileName);
+        tempFile = new File(context.getFilesDir(), FileName + ".tmp");
+    }
+
+    @Override
+    public PresetLibrary load() {
+        PresetLibrary library = null;
+        if (file.exists()) {
+            try (FileInputStream in = new FileInputStream(file)) {
+                byte[] value = new byte[(int) file.length()];
+                int read = 0;
+                while (read < value.length) {
+                    int n = in.read(value, read, value.length - read);
+                    if (n < 0) {
+                        break;
+                    }
+                    read += n;
+                }
+                library = read == value.length ? PresetLibrary.decode(value) : null;
+            } catch (IOException e) {
+                library = null;
+            }
+        }
+        return library == null ? new PresetLibrary() : library;
+    }
+
+    @Override
+    public void save(PresetLibrary library) {
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            out.write(library.encode());
+        } catch (IOException e) {
+            return;
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+        }
+    }
+}
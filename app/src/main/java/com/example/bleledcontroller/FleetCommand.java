@@ -0,0 +1,91 @@
+package com.example.bleledcontroller;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+//
+// Tracks one command fanned out by SignFleet: which signs have finished it and how long
+// each took. A sign that disconnects before finishing counts as failed. The command is
+// complete once every sign has either finished or failed; the slowest sign's latency is
+// how long the whole fleet took to show the change.
+//
+public class FleetCommand {
+    private final String name;
+    private final long startedAt;
+    private final HashSet<String> waiting = new HashSet<>();
+    private final HashMap<String, Long> latencies = new HashMap<>();
+    private final HashSet<String> failed = new HashSet<>();
+
+    FleetCommand(String name, long startedAt) {
+        this.name = name;
+        this.startedAt = startedAt;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized boolean isComplete() {
+        return waiting.isEmpty();
+    }
+
+    public synchronized int getSignCount() {
+        return waiting.size() + latencies.size() + failed.size();
+    }
+
+    public synchronized int getCompletedCount() {
+        return latencies.size();
+    }
+
+    public synchronized int getFailedCount() {
+        return failed.size();
+    }
+
+    // Milliseconds the sign took to finish the command, or -1 if it hasn't (or failed).
+    public synchronized long getLatencyMs(String address) {
+        Long latency = latencies.get(address);
+        return latency == null ? -1 : latency;
+    }
+
+    // Latency of the slowest sign that finished, or -1 if none have.
+    public synchronized long getSlowestLatencyMs() {
+        long slowest = -1;
+        for (long latency : latencies.values()) {
+            slowest = Math.max(slowest, latency);
+        }
+        return slowest;
+    }
+
+    // Address of the slowest sign that finished, or null if none have.
+    public synchronized String getSlowestAddress() {
+        String slowest = null;
+        for (String address : latencies.keySet()) {
+            if (slowest == null || latencies.get(address) > latencies.get(slowest)) {
+                slowest = address;
+            }
+        }
+        return slowest;
+    }
+
+    synchronized void addSign(String address) {
+        waiting.add(address);
+    }
+
+    // Returns true if this completed the command.
+    synchronized boolean complete(String address, long now) {
+        if (!waiting.remove(address)) {
+            return false;
+        }
+        latencies.put(address, now - startedAt);
+        return waiting.isEmpty();
+    }
+
+    // Returns true if this completed the command.
+    synchronized boolean fail(String address) {
+        if (!waiting.remove(address)) {
+            return false;
+        }
+        failed.add(address);
+        return waiting.isEmpty();
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.bleledcontroller;
+
+import java.util.UUID;
+
+//
+// The link between NanoConnector and a sign.
+// Operations are asynchronous: the result of every read or write is reported
+// through the GattTransportCallback, the same way BluetoothGattCallback does.
+// Characteristics are addressed by UUID so nothing above this layer needs the
+// Android BLE classes, which lets the connector run against a simulated sign on the JVM.
+//
+public interface GattTransport {
+    int GATT_SUCCESS = 0;
+
+    // Same values as BluetoothGatt.CONNECTION_PRIORITY_*.
+    int CONNECTION_PRIORITY_BALANCED = 0;
+    int CONNECTION_PRIORITY_HIGH = 1;
+    int CONNECTION_PRIORITY_LOW_POWER = 2;
+
+    // Same values as BluetoothDevice.PHY_LE_*.
+    int PHY_LE_1M = 1;
+    int PHY_LE_2M = 2;
+
+    void setCallback(GattTransportCallback callback);
+
+    // Find a sign and bind its LED service. Reports onConnected() once all
+    // characteristics in BleConstants have been found and the largest MTU both
+    // sides support has been negotiated.
+    void connect();
+
+    // Close the link. Unlike a link the sign drops, this is not reported through
+    // onDisconnected: the caller already knows.
+    void disconnect();
+
+    // Try this device first on the next connect(), without scanning.
+    // If it can't be reached, the transport falls back to a scan.
+    void setPreferredDeviceAddress(String address);
+
+    // The address of the connected device, or null if not connected.
+    String getDeviceAddress();
+
+    // True if the connected sign exposes the characteristic.
+    // Used to detect optional characteristics (see BleConstants.OptionalCharacteristicIds).
+    boolean hasCharacteristic(UUID characteristicId);
+
+    // Returns false if the operation could not be started.
+    boolean readCharacteristic(UUID characteristicId);
+
+    boolean writeCharacteristic(UUID characteristicId, byte[] value);
+
+    // Write without waiting for the sign to acknowledge it (WRITE_TYPE_NO_RESPONSE).
+    // onCharacteristicWrite is still reported, once the write has been handed to the link.
+    boolean writeCharacteristicWithoutResponse(UUID characteristicId, byte[] value);
+
+    // True if the characteristic can notify or indicate changes to its value.
+    boolean supportsNotifications(UUID characteristicId);
+
+    // Subscribe to changes of the characteristic (a write to its client configuration descriptor).
+    // Reports onNotificationsEnabled when done; new values then arrive through onCharacteristicChanged.
+    boolean enableNotifications(UUID characteristicId);
+
+    // Ask for a shorter (CONNECTION_PRIORITY_HIGH) or longer (CONNECTION_PRIORITY_LOW_POWER)
+    // connection interval. Every acknowledged operation costs at least one interval, so this
+    // sets the floor on latency. The new interval takes effect a few intervals later.
+    // Returns false if not connected.
+    boolean requestConnectionPriority(int priority);
+
+    // Ask for a PHY (PHY_LE_*) in both directions. Returns false if the phone doesn't
+    // support it; the sign may still decline, so check getPhy() afterwards.
+    boolean requestPhy(int phy);
+
+    // The PHY the link is using (PHY_LE_*).
+    int getPhy();
+
+    // The negotiated ATT MTU. Values longer than MTU - 1 bytes take more than one round trip to read.
+    int getMtu();
+
+    // How many writes without response may be outstanding (not yet reported through
+    // onCharacteristicWrite) at once.
+    int getMaxUnacknowledgedWrites();
+}
@@ -0,0 +1,16 @@
+package com.example.bleledcontroller;
+
+import java.util.UUID;
+
+public interface GattTransportCallback {
+    void acceptStatus(String status);
+    void onConnected();
+    void onDisconnected();
+    void onCharacteristicRead(UUID characteristicId, byte[] value, int status);
+    void onCharacteristicWrite(UUID characteristicId, int status);
+    // The subscription started by GattTransport.enableNotifications has been stored by the sign.
+    void onNotificationsEnabled(UUID characteristicId, int status);
+    // The sign pushed a new value for a subscribed characteristic.
+    // Not tied to any operation, so it can arrive at any time, including while one is in flight.
+    void onCharacteristicChanged(UUID characteristicId, byte[] value);
+}
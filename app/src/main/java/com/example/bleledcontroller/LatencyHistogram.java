@@ -0,0 +1,75 @@
+package com.example.bleledcontroller;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//
+// Histogram of round trips in milliseconds.
+// Buckets double in width (0, 1, 2-3, 4-7, ... 4096+), which is plenty of resolution for
+// BLE latencies and keeps recording a fixed-size, allocation-free array update.
+// Recorded on the connector thread; readable from any thread.
+//
+public class LatencyHistogram {
+    public static final int BucketCount = 14;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BucketCount);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMs = new AtomicLong();
+    private final AtomicLong maxMs = new AtomicLong();
+
+    public void record(long ms) {
+        ms = Math.max(0, ms);
+        counts.incrementAndGet(bucketFor(ms));
+        count.incrementAndGet();
+        totalMs.addAndGet(ms);
+        if (ms > maxMs.get()) {
+            maxMs.set(ms);
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMeanMs() {
+        long n = count.get();
+        return n == 0 ? -1 : totalMs.get() / n;
+    }
+
+    public long getMaxMs() {
+        return count.get() == 0 ? -1 : maxMs.get();
+    }
+
+    // The upper bound of the bucket holding the given percentile (0-100), or -1 if empty.
+    // Capped at the largest value seen, so a single sample reads back exactly.
+    public long getPercentileMs(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return -1;
+        }
+
+        long rank = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BucketCount; i++) {
+            seen += counts.get(i);
+            if (seen >= Math.max(1, rank)) {
+                return Math.min(bucketUpperBound(i), maxMs.get());
+            }
+        }
+        return maxMs.get();
+    }
+
+    // Samples in bucket i, which holds [2^(i-1), 2^i - 1] ms (bucket 0 holds 0ms).
+    public long getBucketCount(int i) {
+        return counts.get(i);
+    }
+
+    static int bucketFor(long ms) {
+        int bucket = 64 - Long.numberOfLeadingZeros(ms);
+        return Math.min(bucket, BucketCount - 1);
+    }
+
+    static long bucketUpperBound(int i) {
+        return i == BucketCount - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+    }
+}
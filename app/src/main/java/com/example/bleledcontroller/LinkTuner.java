@@ -0,0 +1,127 @@
+package com.example.bleledcontroller;
+
+import static com.example.bleledcontroller.GattTransport.CONNECTION_PRIORITY_BALANCED;
+import static com.example.bleledcontroller.GattTransport.CONNECTION_PRIORITY_HIGH;
+import static com.example.bleledcontroller.GattTransport.CONNECTION_PRIORITY_LOW_POWER;
+import static com.example.bleledcontroller.GattTransport.PHY_LE_2M;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//
+// Tunes the link to how it is being used.
+// Every acknowledged operation costs at least one connection interval, and Android's default
+// (balanced) interval is 30-50ms against 7.5-15ms at high priority. So while the connector is
+// busy - connecting, or the user moving a slider - the link runs at high priority, and after
+// InteractiveHoldMs without an operation it drops back to balanced, then after IdleMs to low
+// power, to spare both batteries. The 2M PHY is asked for once per connection; the MTU is
+// already negotiated by the transport while connecting.
+// The round trip of control writes is averaged per priority, to show what the tuning buys.
+// Runs on the connector thread; the getters can be read from any thread.
+//
+public class LinkTuner {
+    // How long the link stays at high priority after the last operation.
+    public static final long InteractiveHoldMs = 2000;
+    // How long the link can go without an operation before it drops to low power.
+    public static final long IdleMs = 30000;
+
+    private final GattTransport transport;
+    private final TimeSource timeSource;
+    // Null to stay at high priority for the whole connection.
+    private final TaskScheduler taskScheduler;
+    private final Runnable idleCheckTask = this::checkIdle;
+
+    // The priority last asked for, or -1 while not connected.
+    private volatile int priority = -1;
+    private long lastActivityAt;
+    private boolean idleCheckScheduled = false;
+    // Indexed by priority; -1 until the first sample.
+    private final AtomicLongArray roundTripMs = new AtomicLongArray(new long[] {-1, -1, -1});
+
+    public LinkTuner(GattTransport transport, TimeSource timeSource, TaskScheduler taskScheduler) {
+        this.transport = transport;
+        this.timeSource = timeSource;
+        this.taskScheduler = taskScheduler;
+    }
+
+    // The transport has just connected.
+    public void onConnected() {
+        priority = -1;
+        // Halves the airtime of every packet; phones and signs without 2M stay on 1M.
+        transport.requestPhy(PHY_LE_2M);
+        onActivity();
+    }
+
+    public void onDisconnected() {
+        priority = -1;
+    }
+
+    // An operation is about to go out.
+    public void onActivity() {
+        lastActivityAt = timeSource.nowMillis();
+        if (priority != CONNECTION_PRIORITY_HIGH) {
+            request(CONNECTION_PRIORITY_HIGH);
+        }
+        scheduleIdleCheck(InteractiveHoldMs);
+    }
+
+    // A control write took roundTripMs while the link was at the given priority.
+    public void recordRoundTrip(int atPriority, long roundTripMs) {
+        if (atPriority < 0) {
+            return;
+        }
+        long average = this.roundTripMs.get(atPriority);
+        // A moving average over roughly the last eight writes.
+        this.roundTripMs.set(atPriority, average < 0 ? roundTripMs : (average * 7 + roundTripMs) / 8);
+    }
+
+    // The priority last asked for (GattTransport.CONNECTION_PRIORITY_*), or -1 while not connected.
+    public int getPriority() {
+        return priority;
+    }
+
+    public int getPhy() {
+        return transport.getPhy();
+    }
+
+    public int getMtu() {
+        return transport.getMtu();
+    }
+
+    // The average round trip of a control write at the given priority, or -1 if none has been timed.
+    public long getRoundTripMs(int atPriority) {
+        return roundTripMs.get(atPriority);
+    }
+
+    private void request(int newPriority) {
+        if (transport.requestConnectionPriority(newPriority)) {
+            priority = newPriority;
+        }
+    }
+
+    private void scheduleIdleCheck(long delayMs) {
+        if (taskScheduler == null || idleCheckScheduled) {
+            return;
+        }
+        idleCheckScheduled = true;
+        taskScheduler.schedule(delayMs, idleCheckTask);
+    }
+
+    private void checkIdle() {
+        idleCheckScheduled = false;
+        if (priority < 0) {
+            return;
+        }
+
+        long idle = timeSource.nowMillis() - lastActivityAt;
+        if (idle < InteractiveHoldMs) {
+            scheduleIdleCheck(InteractiveHoldMs - idle);
+        } else if (idle < IdleMs) {
+            if (priority == CONNECTION_PRIORITY_HIGH) {
+                request(CONNECTION_PRIORITY_BALANCED);
+            }
+            scheduleIdleCheck(IdleMs - idle);
+        } else if (priority != CONNECTION_PRIORITY_LOW_POWER) {
+            request(CONNECTION_PRIORITY_LOW_POWER);
+        }
+    }
+}
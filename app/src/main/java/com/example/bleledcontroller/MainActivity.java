@@ -1,38 +1,75 @@
 package com.example.bleledcontroller;
 
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import android.Manifest;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
-import android.widget.ScrollView;
+import android.widget.EditText;
+import android.widget.LinearLayout;
 import android.widget.SeekBar;
 import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 public class MainActivity extends AppCompatActivity {
     private static final int RUNTIME_PERMISSION_REQUEST_CODE = 1;
 
-    private TextView txtStatus = null;
+    private TextView txtMetrics = null;
+    private RecyclerView debugLogView = null;
+    private DebugLogAdapter debugLogAdapter = null;
     private NanoConnector connector = null;
     private Spinner stylePicker = null;
     private Spinner patternPicker = null;
     private SeekBar brightnessBar = null;
     private SeekBar speedBar = null;
     private SeekBar stepBar = null;
+    private PatternPreviewView patternPreview = null;
+    // What the preview shows; it follows the widgets, so it changes as soon as they do.
+    private final SignState previewState = new SignState();
+    // What the widgets were last set to, by the user or by showState. A listener reporting the
+    // value already recorded here is the echo of a programmatic change, so it isn't sent: a recalled
+    // preset goes out as the connector's one recall, not as a write per widget. -1 until known.
+    private final SignState widgetState = new SignState();
     private Button[] preferenceButtons = null;
+    private Spinner presetPicker = null;
+    private Button savePresetButton = null;
+    private PresetStore presetStore = null;
+    private PresetLibrary presets = null;
     private boolean showDebug = false;
+    // Set once a connection attempt has ended, until the next one starts.
+    private boolean disconnected = false;
+
+    // The metrics overlay refreshes itself while the debug panel is showing.
+    private static final long MetricsRefreshMs = 500;
+    private final Handler metricsHandler = new Handler(Looper.getMainLooper());
+    private final Runnable refreshMetrics = this::refreshMetrics;
+    private long lastMetricsAt = -1;
+    private long lastCompletedOperations = 0;
+    private long lastBytesWritten = 0;
+
+    // Status messages from every thread go here. The list view only catches up while it is
+    // showing, with at most one refresh waiting on the UI thread however fast messages come in.
+    private final DebugLog debugLog = new DebugLog(TimeSource.SystemTime);
+    private volatile boolean debugLogVisible = false;
+    private final AtomicBoolean debugLogRefreshPosted = new AtomicBoolean(false);
+    private final Runnable refreshDebugLog = this::refreshDebugLog;
 
     //
     // Main entry point
@@ -44,12 +81,18 @@ public class MainActivity extends AppCompatActivity {
 
         try {
             // Bind the common UI elements
-            txtStatus = findViewById(R.id.txtStatus);
+            txtMetrics = findViewById(R.id.txtMetrics);
+            debugLogView = findViewById(R.id.debugLog);
+            debugLogAdapter = new DebugLogAdapter(debugLog);
+            debugLogView.setLayoutManager(new LinearLayoutManager(this));
+            debugLogView.setAdapter(debugLogAdapter);
+            debugLog.setListener(this::onDebugLogEntryAdded);
             brightnessBar = findViewById(R.id.seekBarBrightness);
             speedBar = findViewById(R.id.seekBarSpeed);
             stepBar = findViewById(R.id.seekBarStep);
             stylePicker = findViewById(R.id.spStyle);
             patternPicker = findViewById(R.id.spPattern);
+            patternPreview = findViewById(R.id.patternPreview);
             preferenceButtons = new Button[] {
                     findViewById(R.id.btnPreset1),
                     findViewById(R.id.btnPreset2),
@@ -57,25 +100,48 @@ public class MainActivity extends AppCompatActivity {
                     findViewById(R.id.btnPreset4)
             };
 
+            presetPicker = findViewById(R.id.spPreset);
+            savePresetButton = findViewById(R.id.btnSavePreset);
+            presetStore = new FilePresetStore(this);
+            presets = loadPresets();
+            refreshPresetPicker();
+
             // Disable UI elements by default
             setUIEnabledState(false);
 
             // Bind any initial event handlers
             Button showDebugButton = findViewById(R.id.btnShowHideDebug);
             showDebugButton.setOnClickListener(showHideDebugListener);
+            // The status log is still there for the details; tap the metrics to show it.
+            txtMetrics.setOnClickListener(view -> {
+                debugLogView.setVisibility(debugLogView.getVisibility() == View.VISIBLE ? View.GONE : View.VISIBLE);
+                updateDebugStateInUI();
+            });
+            // The scan gives up after a while (see ScanSession); tap the status to look again.
+            TextView connectStatus = findViewById(R.id.txtConnectStatus);
+            connectStatus.setOnClickListener(view -> {
+                if (disconnected) {
+                    disconnected = false;
+                    connectStatus.setText("Connecting...");
+                    connector.connect();
+                }
+            });
             Button refreshVoltage = findViewById(R.id.btnRefreshVoltage);
             refreshVoltage.setOnClickListener(beginReadVoltage);
 
+            // The numbered buttons are shortcuts to the first few presets.
             for (int i = 0; i < preferenceButtons.length; i++) {
                 preferenceButtons[i].setOnClickListener(readPreference(i));
                 preferenceButtons[i].setOnLongClickListener(writePreference(i));
             }
+            presetPicker.setOnItemSelectedListener(presetPickListener);
+            savePresetButton.setOnClickListener(savePresetListener);
 
             // Set the initial UI state
-            txtStatus.setText("");
             showStatus("Initializing");
             showDebug = false;
             updateDebugStateInUI();
+            updatePreview();
 
             // Request permissions if needed
             if (!hasRequiredRuntimePermissions()) {
@@ -86,30 +152,103 @@ public class MainActivity extends AppCompatActivity {
 
             // Start the BLE connection
             connector = createConnector();
+            connector.setSignPresets(presets.getStates());
             connector.connect();
         } catch (Exception e) {
-            txtStatus.setText(e.toString());
+            debugLog.add(DebugLog.Error, e.toString());
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        metricsHandler.removeCallbacks(refreshMetrics);
+        debugLog.setListener(null);
+        if (connector != null) {
+            connector.close();
         }
+        super.onDestroy();
     }
 
     private void updateDebugStateInUI() {
         // Update the UI to reflect the current state of the 'showDebug' flag
-        ScrollView scrollView = findViewById(R.id.scrollview);
-        scrollView.setVisibility(showDebug ? View.VISIBLE : View.GONE);
+        LinearLayout debugPanel = findViewById(R.id.debugPanel);
+        debugPanel.setVisibility(showDebug ? View.VISIBLE : View.GONE);
         Button showDebugButton = findViewById(R.id.btnShowHideDebug);
         showDebugButton.setText(showDebug ? "Hide Debug Info" : "Show Debug Info");
+
+        metricsHandler.removeCallbacks(refreshMetrics);
+        if (showDebug) {
+            lastMetricsAt = -1;
+            refreshMetrics();
+        }
+
+        debugLogVisible = showDebug && debugLogView.getVisibility() == View.VISIBLE;
+        if (debugLogVisible) {
+            refreshDebugLog();
+        }
+    }
+
+    // Called on whichever thread logged the message.
+    private void onDebugLogEntryAdded() {
+        if (debugLogVisible && debugLogRefreshPosted.compareAndSet(false, true)) {
+            metricsHandler.post(refreshDebugLog);
+        }
+    }
+
+    private void refreshDebugLog() {
+        debugLogRefreshPosted.set(false);
+        // Follow new messages, unless the user has scrolled back to read something.
+        boolean atBottom = !debugLogView.canScrollVertically(1);
+        if (debugLogAdapter.refresh() && atBottom) {
+            debugLogView.scrollToPosition(debugLogAdapter.getItemCount() - 1);
+        }
+    }
+
+    private void refreshMetrics() {
+        if (connector == null) {
+            return;
+        }
+
+        // Throughput since the last refresh, on top of the connector's own numbers.
+        ConnectorMetrics metrics = connector.getMetrics();
+        long now = TimeSource.SystemTime.nowMillis();
+        long operations = metrics.getCompletedOperations();
+        long bytes = metrics.getBytesWritten();
+        String throughput = "-";
+        if (lastMetricsAt >= 0 && now > lastMetricsAt) {
+            long elapsed = now - lastMetricsAt;
+            throughput = ((operations - lastCompletedOperations) * 1000 / elapsed) + " ops/s, "
+                    + ((bytes - lastBytesWritten) * 1000 / elapsed) + " B/s";
+        }
+        lastMetricsAt = now;
+        lastCompletedOperations = operations;
+        lastBytesWritten = bytes;
+
+        LinkTuner link = connector.getLinkTuner();
+        String pixels = connector.supportsPixelStreaming() ? "\n" + connector.getPixelStream().format() : "";
+        txtMetrics.setText("link " + throughput
+                + "  mtu " + link.getMtu()
+                + "  phy " + (link.getPhy() == GattTransport.PHY_LE_2M ? "2M" : "1M")
+                + "\n" + metrics.format() + pixels);
+        metricsHandler.postDelayed(refreshMetrics, MetricsRefreshMs);
     }
 
     private NanoConnector createConnector() {
         Runnable onConnected = this::onConnected;
         Runnable onDisconnected = this::onDisconnected;
+        Runnable onNamesLoaded = this::onNamesLoaded;
+        Runnable onStateChanged = this::onStateChanged;
 
         NanoConnectorCallback callback = new NanoConnectorCallback() {
             @Override
             public void acceptStatus(String status) {
-                runOnUiThread(() -> {
-                    showStatus(status);
-                });
+                showStatus(status);
+            }
+
+            @Override
+            public void acceptStatus(String format, Object... args) {
+                // Formatted only if the debug log shows the line.
+                debugLog.addFormatted(DebugLog.levelOf(format), format, args);
             }
 
             @Override
@@ -122,6 +261,16 @@ public class MainActivity extends AppCompatActivity {
                 runOnUiThread(onDisconnected);
             }
 
+            @Override
+            public void namesLoaded() {
+                runOnUiThread(onNamesLoaded);
+            }
+
+            @Override
+            public void stateChanged() {
+                runOnUiThread(onStateChanged);
+            }
+
             @Override
             public void acceptBatteryVoltage(float voltage) {
                 runOnUiThread(() -> {
@@ -137,40 +286,100 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void onConnected() {
+        disconnected = false;
         TextView txt = findViewById(R.id.txtConnectStatus);
         txt.setText("Connected");
 
-        // Populate UI with current values
+        // Populate UI with current values.
+        // The style and pattern pickers are filled in once the name lists arrive (see onNamesLoaded).
+        showState(connector.getState());
+
+        // Enable updates
+        // Brightness and speed stream while the slider is dragged; the rest only send on release.
+        connector.setStreamingEnabled(BleConstants.BrightnessCharacteristicId, true);
+        connector.setStreamingEnabled(BleConstants.SpeedCharacteristicId, true);
+        brightnessBar.setOnSeekBarChangeListener(createGenericSeekBarListener("brightness", SignState.BrightnessBit, connector::setBrightness, true));
+        stylePicker.setOnItemSelectedListener(createGenericPickListener("style", SignState.StyleBit, connector::setStyle));
+        speedBar.setOnSeekBarChangeListener(createGenericSeekBarListener("speed", SignState.SpeedBit, connector::setSpeed, true));
+        stepBar.setOnSeekBarChangeListener(createGenericSeekBarListener("step", SignState.StepBit, connector::setStep, false));
+        patternPicker.setOnItemSelectedListener(createGenericPickListener("pattern", SignState.PatternBit, connector::setPattern));
+        setUIEnabledState(true);
+    }
+
+    private void onNamesLoaded() {
+        // Select whatever the sign has now, in case a preset was applied before the names arrived.
+        SignState state = connector.getState();
         ArrayAdapter<String> styleAdapter = new ArrayAdapter<String>(this, android.R.layout.simple_spinner_dropdown_item, connector.getKnownStyles());
         stylePicker.setAdapter(styleAdapter);
         ArrayAdapter<String> patternAdapter = new ArrayAdapter<String>(this, android.R.layout.simple_spinner_dropdown_item, connector.getKnownPatterns());
         patternPicker.setAdapter(patternAdapter);
-        brightnessBar.setProgress(connector.getInitialBrightness());
-        stylePicker.setSelection(connector.getInitialStyle());
-        speedBar.setProgress(connector.getInitialSpeed());
-        stepBar.setProgress(connector.getInitialStep());
-        patternPicker.setSelection(connector.getInitialPattern());
+        showState(state);
+        patternPreview.setNames(connector.getKnownStyles(), connector.getKnownPatterns());
+        updatePreview();
+    }
 
-        // Enable updates
-        brightnessBar.setOnSeekBarChangeListener(createGenericSeekBarListener("brightness", connector::setBrightness));
-        stylePicker.setOnItemSelectedListener(createGenericPickListener("style", connector::setStyle));
-        speedBar.setOnSeekBarChangeListener(createGenericSeekBarListener("speed", connector::setSpeed));
-        stepBar.setOnSeekBarChangeListener(createGenericSeekBarListener("step", connector::setStep));
-        patternPicker.setOnItemSelectedListener(createGenericPickListener("pattern", connector::setPattern));
-        setUIEnabledState(true);
+    private void onStateChanged() {
+        // The sign changed underneath us. Nothing is sent back (see showState).
+        showState(connector.getState());
+    }
+
+    // Set the widgets to the given values without sending them: each is recorded in widgetState
+    // first, so the listener call it causes (at once for a slider, later for a picker) is
+    // recognized as an echo. A field that isn't known yet (-1) is left alone.
+    private void showState(SignState state) {
+        if (state.brightness >= 0) {
+            widgetState.brightness = state.brightness;
+            brightnessBar.setProgress(state.brightness);
+        }
+        if (state.speed >= 0) {
+            widgetState.speed = state.speed;
+            speedBar.setProgress(state.speed);
+        }
+        if (state.step >= 0) {
+            widgetState.step = state.step;
+            stepBar.setProgress(state.step);
+        }
+        if (state.style >= 0 && stylePicker.getAdapter() != null) {
+            widgetState.style = state.style;
+            stylePicker.setSelection(state.style);
+        }
+        if (state.pattern >= 0 && patternPicker.getAdapter() != null) {
+            widgetState.pattern = state.pattern;
+            patternPicker.setSelection(state.pattern);
+        }
+    }
+
+    // Send a value the user chose, unless the widget already had it (see widgetState).
+    private boolean sendIfChanged(int field, int value, Consumer<Integer> methodToInvoke) {
+        if (widgetState.get(field) == value) {
+            return false;
+        }
+        widgetState.set(field, value);
+        methodToInvoke.accept(value);
+        return true;
     }
 
     private void onDisconnected() {
         showStatus("Disconnected.");
+        disconnected = true;
         TextView txt = findViewById(R.id.txtConnectStatus);
-        txt.setText("Disconnected");
+        txt.setText("Disconnected - tap to reconnect");
 
         setUIEnabledState(false);
     }
 
+    private void updatePreview() {
+        previewState.style = stylePicker.getSelectedItemPosition();
+        previewState.pattern = patternPicker.getSelectedItemPosition();
+        previewState.brightness = brightnessBar.getProgress();
+        previewState.speed = speedBar.getProgress();
+        previewState.step = stepBar.getProgress();
+        patternPreview.setState(previewState);
+    }
+
+    // Safe to call from any thread.
     private void showStatus(String status) {
-        String newText = txtStatus.getText().toString() + '\n' + status;
-        txtStatus.setText(newText);
+        debugLog.add(DebugLog.levelOf(status), status);
     }
 
     private void setUIEnabledState(boolean enabled) {
@@ -183,6 +392,8 @@ public class MainActivity extends AppCompatActivity {
         for (Button b : preferenceButtons) {
             b.setEnabled(enabled);
         }
+        presetPicker.setEnabled(enabled);
+        savePresetButton.setEnabled(enabled);
     }
 
     //
@@ -246,14 +457,16 @@ public class MainActivity extends AppCompatActivity {
     //
     // Various event handlers
     //
-    private AdapterView.OnItemSelectedListener createGenericPickListener(String pickerName, Consumer<Integer> methodToInvoke) {
+    private AdapterView.OnItemSelectedListener createGenericPickListener(String pickerName, int field, Consumer<Integer> methodToInvoke) {
         return new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> adapterView, View view, int i, long l) {
+                updatePreview();
                 try {
                     String item = (String) adapterView.getItemAtPosition(i);
-                    showStatus("Selected " + pickerName + ": " + i + "(" + item + ")");
-                    methodToInvoke.accept(i);
+                    if (sendIfChanged(field, i, methodToInvoke)) {
+                        showStatus("Selected " + pickerName + ": " + i + "(" + item + ")");
+                    }
                 }
                 catch (Exception e) {
                     showStatus("Error: " + e);
@@ -266,14 +479,20 @@ public class MainActivity extends AppCompatActivity {
         };
     }
 
-    private SeekBar.OnSeekBarChangeListener createGenericSeekBarListener(String seekbarName, Consumer<Integer> methodToInvoke) {
+    // 'continuous' controls also send values while the user is dragging, without logging each one.
+    private SeekBar.OnSeekBarChangeListener createGenericSeekBarListener(String seekbarName, int field, Consumer<Integer> methodToInvoke, boolean continuous) {
+        String settingMessage = "Setting " + seekbarName + " to ";
         return new SeekBar.OnSeekBarChangeListener() {
             @Override
             public void onProgressChanged(SeekBar seekBar, int i, boolean fromUser) {
+                // The preview follows the slider even where the sign only hears about the release.
+                updatePreview();
                 if (!fromUser) {
-                    // Only emit the value if it was set programmatically.
+                    // Set programmatically: emitted unless it is showState's echo.
                     // If the user was changing the value, it will be handled by 'onStopTrackingTouch'.
                     emitValue(seekBar);
+                } else if (continuous) {
+                    sendIfChanged(field, i, methodToInvoke);
                 }
             }
 
@@ -289,8 +508,9 @@ public class MainActivity extends AppCompatActivity {
             private void emitValue(SeekBar seekBar) {
                 try {
                     int value = seekBar.getProgress();
-                    showStatus("Setting " + seekbarName + " to " + value);
-                    methodToInvoke.accept(value);
+                    if (sendIfChanged(field, value, methodToInvoke)) {
+                        debugLog.add(DebugLog.Debug, settingMessage, value);
+                    }
                 }
                 catch (Exception e) {
                     showStatus("Error: " + e);
@@ -310,46 +530,140 @@ public class MainActivity extends AppCompatActivity {
 
     private View.OnClickListener readPreference(int buttonNumber) {
         return view -> {
-            int style = getPreferenceIntValue("Pref_Style" + buttonNumber);
-            int pattern = getPreferenceIntValue("Pref_Pattern" + buttonNumber);
-            int speed = getPreferenceIntValue("Pref_Speed" + buttonNumber);
-            int brightness = getPreferenceIntValue("Pref_Brightness" + buttonNumber);
-            int step = getPreferenceIntValue("Pref_Step" + buttonNumber);
-
-            if (style < 0 || pattern < 0 || speed < 0 || brightness < 0 || step < 0) {
-                showStatus("At least one preference value could not be read for button " + (buttonNumber + 1));
+            if (buttonNumber >= presets.size() || presets.get(buttonNumber).isEmpty()) {
+                showStatus("No preset saved for button " + (buttonNumber + 1));
                 return;
             }
+            recallPreset(buttonNumber);
+        };
+    }
 
-            stylePicker.setSelection(style);
-            patternPicker.setSelection(pattern);
-            brightnessBar.setProgress(brightness);
-            speedBar.setProgress(speed);
-            stepBar.setProgress(step);
+    private View.OnLongClickListener writePreference(int buttonNumber) {
+        return view -> {
+            // Overwrite the preset the button recalls, or add one if there aren't that many yet.
+            int index;
+            String name;
+            if (buttonNumber < presets.size() && presets.get(buttonNumber).isEmpty()) {
+                name = "Preset " + (buttonNumber + 1);
+                index = savePreset(buttonNumber, name);
+            } else {
+                name = buttonNumber < presets.size() ? presets.get(buttonNumber).name : "Preset " + (presets.size() + 1);
+                index = savePreset(-1, name);
+            }
+            Toast.makeText(this, "Saved \"" + name + "\" as preset number " + (index + 1) + ".", Toast.LENGTH_SHORT).show();
+            return true;
         };
     }
 
-    private int getPreferenceIntValue(String prefName) {
-        SharedPreferences pref = getPreferences(MODE_PRIVATE);
-        if (!pref.contains(prefName)) {
-            return -1;
+    // The picker's first entry is a title; choosing a preset recalls it and shows the title again.
+    private AdapterView.OnItemSelectedListener presetPickListener = new AdapterView.OnItemSelectedListener() {
+        @Override
+        public void onItemSelected(AdapterView<?> adapterView, View view, int i, long l) {
+            if (i == 0) {
+                return;
+            }
+            if (presets.get(i - 1).isEmpty()) {
+                showStatus("No preset saved in slot " + i);
+            } else {
+                recallPreset(i - 1);
+            }
+            presetPicker.setSelection(0);
         }
 
-        return pref.getInt(prefName, -1);
+        @Override
+        public void onNothingSelected(AdapterView<?> adapterView) {
+        }
+    };
+
+    private View.OnClickListener savePresetListener = view -> {
+        EditText nameInput = new EditText(this);
+        nameInput.setHint("Preset name");
+        new AlertDialog.Builder(this)
+                .setTitle("Save preset")
+                .setView(nameInput)
+                .setPositiveButton("Save", (dialog, which) -> {
+                    String name = nameInput.getText().toString().trim();
+                    if (name.isEmpty()) {
+                        showStatus("A preset needs a name.");
+                        return;
+                    }
+                    savePreset(-1, name);
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    };
+
+    private void recallPreset(int index) {
+        // The connector sends only what differs from the sign's state (a single byte if the sign
+        // keeps the preset). The widgets follow without sending anything themselves (see showState).
+        showStatus("Recalling preset \"" + presets.get(index).name + "\"");
+        connector.recallPreset(index);
+        showState(presets.get(index).state);
     }
 
-    private View.OnLongClickListener writePreference(int buttonNumber) {
-        return view -> {
-            SharedPreferences pref = getPreferences(MODE_PRIVATE);
-            SharedPreferences.Editor editor = pref.edit();
-            editor.putInt("Pref_Style" + buttonNumber, stylePicker.getSelectedItemPosition());
-            editor.putInt("Pref_Pattern" + buttonNumber, patternPicker.getSelectedItemPosition());
-            editor.putInt("Pref_Speed" + buttonNumber, speedBar.getProgress());
-            editor.putInt("Pref_Brightness" + buttonNumber, brightnessBar.getProgress());
-            editor.putInt("Pref_Step" + buttonNumber, stepBar.getProgress());
-            editor.apply();
-            Toast.makeText(this, "Values set for preset number " + (buttonNumber + 1) + ".", Toast.LENGTH_SHORT).show();
-            return true;
-        };
+    // Save the current control values under a name, in the given slot or (index -1) in the
+    // preset with that name or a new one. Returns the preset's index.
+    private int savePreset(int index, String name) {
+        // Until the name lists arrive the pickers have no selection (-1); the connector knows the values.
+        SignState known = connector.getState();
+        int style = stylePicker.getSelectedItemPosition();
+        int pattern = patternPicker.getSelectedItemPosition();
+        SignState state = new SignState(
+                style >= 0 ? style : known.style,
+                pattern >= 0 ? pattern : known.pattern,
+                brightnessBar.getProgress(),
+                speedBar.getProgress(),
+                stepBar.getProgress());
+        if (index >= 0) {
+            presets.set(index, name, state);
+        } else {
+            index = presets.put(name, state);
+        }
+        presetStore.save(presets);
+        connector.setSignPresets(presets.getStates());
+        refreshPresetPicker();
+        return index;
+    }
+
+    private void refreshPresetPicker() {
+        String[] entries = new String[presets.size() + 1];
+        entries[0] = presets.size() == 0 ? "No presets" : "Presets";
+        for (int i = 0; i < presets.size(); i++) {
+            entries[i + 1] = presets.get(i).isEmpty() ? "(empty)" : presets.get(i).name;
+        }
+        presetPicker.setAdapter(new ArrayAdapter<String>(this, android.R.layout.simple_spinner_dropdown_item, entries));
+    }
+
+    private PresetLibrary loadPresets() {
+        PresetLibrary library = presetStore.load();
+        if (library.size() == 0 && importLegacyPresets(library)) {
+            presetStore.save(library);
+        }
+        return library;
+    }
+
+    // Presets used to be five Pref_*N values per button in the activity's preferences.
+    // Bring any that were saved over as "Preset N", in the button's slot: a button with
+    // nothing saved leaves an empty slot, so the buttons after it still recall their own.
+    // Returns true if there were any.
+    private boolean importLegacyPresets(PresetLibrary library) {
+        SharedPreferences pref = getPreferences(MODE_PRIVATE);
+        int emptySlots = 0;
+        for (int i = 0; i < preferenceButtons.length; i++) {
+            int style = pref.getInt("Pref_Style" + i, -1);
+            int pattern = pref.getInt("Pref_Pattern" + i, -1);
+            int speed = pref.getInt("Pref_Speed" + i, -1);
+            int brightness = pref.getInt("Pref_Brightness" + i, -1);
+            int step = pref.getInt("Pref_Step" + i, -1);
+            if (style < 0 || pattern < 0 || speed < 0 || brightness < 0 || step < 0) {
+                emptySlots++;
+                continue;
+            }
+            for (; emptySlots > 0; emptySlots--) {
+                library.addEmpty();
+            }
+            library.put("Preset " + (i + 1), new SignState(style, pattern, brightness, speed, step));
+        }
+        return library.size() > 0;
     }
-}
\ No newline at end of file
+}
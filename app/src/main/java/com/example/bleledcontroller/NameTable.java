@@ -0,0 +1,90 @@
+package com.example.bleledcontroller;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+//
+// The binary name list protocol of the Name Table characteristic.
+// Replaces reading a whole ';'-delimited list in one (long) read: the app asks for a page
+// of a list starting at an index, sized to fit a single ATT read, and reads it back.
+// All numbers are little-endian.
+//
+// Request, written to the characteristic (RequestLength bytes):
+//   u8  version (Version)
+//   u8  list (StyleList or PatternList)
+//   u16 index of the first entry wanted
+//   u16 largest response the app can read in one packet (MTU - 1)
+//
+// Response, read from the characteristic:
+//   u8  version
+//   u8  list
+//   u16 number of entries in the whole list
+//   u32 content hash: CRC-32 of all the list's records, in order, as encoded below
+//   u16 index of the first entry in this page
+//   records, to the end of the value: u8 type, u8 length, then length bytes
+//     type RecordName: a UTF-8 name; each one is the next entry
+//     other types are skipped, so later firmware can add per-entry data
+//
+// The hash lets the app keep a cached list and stop after the first page when it matches.
+//
+public class NameTable {
+    public static final int Version = 1;
+    public static final int StyleList = 0;
+    public static final int PatternList = 1;
+    public static final int RecordName = 1;
+    public static final int RequestLength = 6;
+    public static final int HeaderLength = 10;
+
+    // One decoded response.
+    public static class Page {
+        public int list;
+        public int totalCount;
+        public long hash;
+        public int firstIndex;
+        public List<String> names = new ArrayList<>();
+    }
+
+    public static byte[] encodeRequest(int list, int firstIndex, int maxResponseLength) {
+        return ByteBuffer.allocate(RequestLength).order(ByteOrder.LITTLE_ENDIAN)
+                .put((byte) Version)
+                .put((byte) list)
+                .putShort((short) firstIndex)
+                .putShort((short) Math.min(maxResponseLength, 0xFFFF))
+                .array();
+    }
+
+    // Returns null if the value isn't a page this version understands.
+    public static Page decodePage(byte[] value) {
+        if (value == null || value.length < HeaderLength || Byte.toUnsignedInt(value[0]) != Version) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN);
+        Page page = new Page();
+        buffer.get();
+        page.list = Byte.toUnsignedInt(buffer.get());
+        page.totalCount = Short.toUnsignedInt(buffer.getShort());
+        page.hash = Integer.toUnsignedLong(buffer.getInt());
+        page.firstIndex = Short.toUnsignedInt(buffer.getShort());
+
+        while (buffer.remaining() >= 2) {
+            int type = Byte.toUnsignedInt(buffer.get());
+            int length = Byte.toUnsignedInt(buffer.get());
+            if (length > buffer.remaining()) {
+                // Truncated record.
+                return null;
+            }
+            if (type == RecordName) {
+                page.names.add(new String(value, buffer.position(), length, StandardCharsets.UTF_8));
+            }
+            buffer.position(buffer.position() + length);
+        }
+        if (buffer.hasRemaining() || page.firstIndex + page.names.size() > page.totalCount) {
+            return null;
+        }
+        return page;
+    }
+}
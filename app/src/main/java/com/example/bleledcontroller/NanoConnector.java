@@ -1,174 +1,836 @@
 package com.example.bleledcontroller;
 
-import static android.bluetooth.le.ScanSettings.CALLBACK_TYPE_FIRST_MATCH;
-import static android.bluetooth.le.ScanSettings.MATCH_NUM_ONE_ADVERTISEMENT;
-import static android.bluetooth.le.ScanSettings.SCAN_MODE_BALANCED;
-
 import static com.example.bleledcontroller.BleConstants.BatteryVoltageCharacteristicId;
 import static com.example.bleledcontroller.BleConstants.BrightnessCharacteristicId;
-import static com.example.bleledcontroller.BleConstants.LedServiceUuid;
+import static com.example.bleledcontroller.BleConstants.FirmwareVersionCharacteristicId;
+import static com.example.bleledcontroller.BleConstants.FramebufferCharacteristicId;
+import static com.example.bleledcontroller.BleConstants.NameTableCharacteristicId;
 import static com.example.bleledcontroller.BleConstants.NamesCharacteristicId;
+import static com.example.bleledcontroller.BleConstants.OptionalCharacteristicIds;
 import static com.example.bleledcontroller.BleConstants.PatternCharacteristicId;
 import static com.example.bleledcontroller.BleConstants.PatternNamesCharacteristicId;
+import static com.example.bleledcontroller.BleConstants.PresetRecallCharacteristicId;
+import static com.example.bleledcontroller.BleConstants.PresetSlotsCharacteristicId;
+import static com.example.bleledcontroller.BleConstants.ScheduledFrameCharacteristicId;
+import static com.example.bleledcontroller.BleConstants.SignClockCharacteristicId;
 import static com.example.bleledcontroller.BleConstants.SpeedCharacteristicId;
+import static com.example.bleledcontroller.BleConstants.StateFrameCharacteristicId;
 import static com.example.bleledcontroller.BleConstants.StepCharacteristicId;
 import static com.example.bleledcontroller.BleConstants.StyleCharacteristicId;
 
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattService;
-import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
-import android.bluetooth.le.ScanCallback;
-import android.bluetooth.le.ScanFilter;
-import android.bluetooth.le.ScanResult;
-import android.bluetooth.le.ScanSettings;
 import android.content.Context;
-import android.os.ParcelUuid;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 //
-// Much help from
-// https://punchthrough.com/android-ble-guide/
+// Talks to the LED sign through a GattTransport.
+// The transport owns the actual link (scanning, GATT connection, service discovery);
+// this class owns the operation queue and the decoding of the sign's characteristics.
+//
+// Threading: all of the connector's state lives on one thread, the connector thread
+// (a HandlerThread in the app), and every GATT call is made from it. The transport
+// delivers its callbacks there too. Public methods can be called from any thread: they
+// hand their work to the connector thread through the executor and return without blocking.
+// Control changes (setX and applyState) go through a lock-free mailbox rather than a task
+// per call, so a fast slider neither allocates nor floods the connector thread; the newest
+// value for each control wins. Getters read the latest published values.
+// NanoConnectorCallback methods are called on the connector thread.
 //
 public class NanoConnector {
-    private Context context;
+    // How long an operation may wait for its callback before it is retried.
+    public static final long OperationTimeoutMs = 1000;
+    // Attempts per operation (the first try plus retries) before it is dropped.
+    public static final int MaxAttempts = 3;
+    // Delay before the first retry; doubled for each one after.
+    public static final long RetryBackoffMs = 100;
+    // Timeouts in a row, across operations, after which the link is assumed wedged and reconnected.
+    public static final int TimeoutsBeforeReconnect = 4;
+
     private NanoConnectorCallback callback;
+    private GattTransport transport;
+    private TimeSource timeSource;
+    // Null to run without timeouts.
+    private TaskScheduler taskScheduler;
+    // Runs tasks on the connector thread. Null if the caller already makes every call,
+    // and delivers every transport callback, on one thread (e.g. the simulation tests).
+    private Executor executor;
+    // The thread the connector started for itself (see close()), or null if it was given one.
+    private Looper connectorLooper;
+    private DeviceCacheStore cacheStore;
+    private DeviceCache cache;
+    private String fingerprint;
+    // Name Table download (see NameTable): the list being fetched and the names so far.
+    private int nameTableList;
+    private ArrayList<String> nameTableNames;
+    // Content hashes of the current name lists, or -1 if they didn't come from the Name Table.
+    private long styleNamesHash = -1;
+    private long patternNamesHash = -1;
+    // Presets to keep on the sign (see PresetSlots), and how many of them its slots hold
+    // on this connection. Recalling one of those is a single one-byte write.
+    private SignState[] signPresets;
+    private int presetsOnSign = 0;
 
-    // Bluetooth-related members
-    private BluetoothDevice bluetoothDevice;
-    private BluetoothAdapter bluetoothAdapter;
-    private BluetoothGatt bluetoothGatt;
-    private BluetoothGattCharacteristic brightnessCharacteristic;
-    private BluetoothGattCharacteristic styleCharacteristic;
-    private BluetoothGattCharacteristic namesCharacteristic;
-    private BluetoothGattCharacteristic speedCharacteristic;
-    private BluetoothGattCharacteristic stepCharacteristic;
-    private BluetoothGattCharacteristic patternCharacteristic;
-    private BluetoothGattCharacteristic patternNamesCharacteristic;
-    private BluetoothGattCharacteristic batteryVoltageCharacteristic;
-    private HashMap<UUID, BleReadCharacteristicOperation> readOperations;
-    private HashMap<UUID, BleWriteCharacteristicOperation> writeOperations;
-    private Queue<BleOperation> operationQueue = new LinkedList<>();
+    private final CharacteristicRegistry characteristics;
+    private BleOperationQueue operationQueue = new BleOperationQueue();
     private BleOperation pendingOperation = null;
+    // When the pending operation was started, in TimeSource milliseconds.
+    private long pendingStartedAt = -1;
+    // Characteristics that stream their values with write-without-response.
+    private HashMap<UUID, StreamState> streams = new HashMap<>();
+    private ArrayList<StreamState> streamList = new ArrayList<>();
+    private int unacknowledgedWrites = 0;
+    private ClockEstimate clockEstimate = new ClockEstimate();
+    private LinkTuner linkTuner;
+    // The connection priority in effect when the pending operation went out.
+    private int pendingPriority = -1;
+
+    // Watchdog state. See checkWatchdog.
+    private final Runnable watchdogTask = this::checkWatchdog;
+    private final Runnable retryTask = this::retryPendingOperation;
+    private boolean watchdogArmed = false;
+    private boolean awaitingRetry = false;
+    private int pendingAttempts = 0;
+    private int consecutiveTimeouts = 0;
+    private long lastStreamReportAt = -1;
+    // Run (once) the next time the queue drains. See whenIdle.
+    private ArrayList<Runnable> idleListeners = new ArrayList<>();
+
+    // Control changes waiting to be picked up by the connector thread, indexed by the
+    // controls' slots; -1 means no change. frameRequested marks an applyState.
+    private final AtomicIntegerArray controlMailbox;
+    private final AtomicBoolean frameRequested = new AtomicBoolean(false);
+    private final AtomicBoolean mailboxDrainPosted = new AtomicBoolean(false);
+    private final Runnable mailboxDrainTask = this::drainControlMailbox;
+
+    // Fades in progress (see fadeBrightness). A fade's next step goes out when the link has
+    // taken the last one, so the step rate follows the link's write throughput.
+    private final Fade brightnessFade;
+    private final Fade speedFade;
+    private final Runnable fadeTickTask = this::fadeTick;
+    private boolean fadeTickScheduled = false;
+
+    // Client-rendered frames (see sendPixelFrame). The next frame goes out once the sign has
+    // acknowledged the last one and the stream's pacing allows.
+    private final PixelStream pixelStream = new PixelStream();
+    private final AtomicBoolean pixelPumpPosted = new AtomicBoolean(false);
+    private final Runnable pixelPumpTask = this::runPixelPump;
+    private final Runnable pixelTickTask = this::pixelTick;
+    private boolean pixelTickScheduled = false;
 
     // Internal state
     // Could make these Optional<Integer> to avoid needing a "-1" sentinel value,
     // but Optional was introduced in an API that's higher than the current minimum.
-    private int initialBrightness = -1;
-    private int initialStyle = -1;
-    private String[] knownStyles;
-    private String[] knownPatterns;
-    private int initialSpeed = -1;
-    private int initialStep = -1;
-    private int initialPattern = -1;
+    // Volatile where the getters read them from other threads.
+    private volatile String[] knownStyles;
+    private volatile String[] knownPatterns;
+    // The control values as first read from the sign, published like requestedState.
+    private final SignState initialState = new SignState();
+    private volatile long publishedInitialState = UnknownState;
     private boolean isInitialized = false;
+    // True from asking the transport to connect until the link is reported down, so the client
+    // hears about each lost (or failed) connection once.
+    private boolean linkOpen = false;
+    // The values most recently read from or sent to the sign.
+    // Setting a control to the value it already has is skipped.
+    // Only touched on the connector thread; other threads read publishedState.
+    private SignState requestedState = new SignState();
+    // requestedState packed into one value (see publishState), so getState sees all the
+    // fields as they were at one moment without a lock or an allocation per change.
+    private volatile long publishedState = UnknownState;
+    // What the connected sign supports, worked out from its characteristics when it connects.
+    // The transport's characteristic table belongs to the connector thread, so the getters read these.
+    private volatile boolean presetRecallSupported = false;
+    private volatile boolean scheduledApplySupported = false;
+    // Fields whose last write failed or timed out: the sign may or may not have the value in
+    // requestedState, so the next write of them is sent even if it matches. SignState bits.
+    private int unconfirmedFields = 0;
+
+    // Connection timing, in TimeSource milliseconds. -1 until connect() is called.
+    private long connectStartedAt = -1;
+    private final ConnectorMetrics metrics = new ConnectorMetrics();
 
     public NanoConnector(Context context, NanoConnectorCallback callback) {
-        this.context = context;
+        this(context, callback, startConnectorThread());
+    }
+
+    private NanoConnector(Context context, NanoConnectorCallback callback, Handler handler) {
+        this(new AndroidGattTransport(context, handler), callback, TimeSource.SystemTime, new PreferencesDeviceCacheStore(context),
+                (delayMs, task) -> handler.postDelayed(task, delayMs), handler::post);
+        connectorLooper = handler.getLooper();
+    }
+
+    public NanoConnector(GattTransport transport, NanoConnectorCallback callback, TimeSource timeSource) {
+        this(transport, callback, timeSource, null);
+    }
+
+    // cacheStore may be null, in which case nothing is remembered between connections.
+    public NanoConnector(GattTransport transport, NanoConnectorCallback callback, TimeSource timeSource, DeviceCacheStore cacheStore) {
+        this(transport, callback, timeSource, cacheStore, null);
+    }
+
+    // taskScheduler may be null, in which case operations never time out.
+    public NanoConnector(GattTransport transport, NanoConnectorCallback callback, TimeSource timeSource, DeviceCacheStore cacheStore, TaskScheduler taskScheduler) {
+        this(transport, callback, timeSource, cacheStore, taskScheduler, null);
+    }
+
+    // executor runs tasks on the connector thread; the transport and taskScheduler must use the same thread.
+    // It may be null if everything already happens on one thread.
+    public NanoConnector(GattTransport transport, NanoConnectorCallback callback, TimeSource timeSource, DeviceCacheStore cacheStore, TaskScheduler taskScheduler, Executor executor) {
+        this.transport = transport;
         this.callback = callback;
+        this.timeSource = timeSource;
+        this.cacheStore = cacheStore;
+        this.taskScheduler = taskScheduler;
+        this.executor = executor;
+        linkTuner = new LinkTuner(transport, timeSource, taskScheduler);
+        characteristics = new CharacteristicRegistry(callback);
+        InitializeCharacteristicOperations();
+        if (characteristics.getControlCount() * PackedFieldBits > Long.SIZE) {
+            throw new IllegalStateException("Too many controls to publish in one long");
+        }
+        controlMailbox = new AtomicIntegerArray(characteristics.getControlCount());
+        for (int slot = 0; slot < controlMailbox.length(); slot++) {
+            controlMailbox.set(slot, -1);
+        }
+        brightnessFade = new Fade(characteristics.getControlForField(SignState.BrightnessBit));
+        speedFade = new Fade(characteristics.getControlForField(SignState.SpeedBit));
+        transport.setCallback(transportCallback);
+    }
 
-        BluetoothManager mgr = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
-        bluetoothAdapter = mgr.getAdapter();
+    private static Handler startConnectorThread() {
+        HandlerThread thread = new HandlerThread("NanoConnector");
+        thread.start();
+        return new Handler(thread.getLooper());
+    }
+
+    // Close the link and, if the connector started its own thread, stop that thread once the
+    // tasks already posted to it have run. Nothing is reported to the callback, and the
+    // connector can't be used again afterwards.
+    public void close() {
+        post(() -> {
+            linkOpen = false;
+            transport.disconnect();
+        });
+        if (connectorLooper != null) {
+            connectorLooper.quitSafely();
+        }
+    }
+
+    // Run a task on the connector thread.
+    private void post(Runnable task) {
+        if (executor == null) {
+            task.run();
+        } else {
+            executor.execute(task);
+        }
     }
 
     public void connect() {
-        if (!bluetoothAdapter.isEnabled()) {
-            callback.acceptStatus("Bluetooth adapter disabled!");
-            return;
+        post(this::connectNow);
+    }
+
+    private void connectNow() {
+        cache = cacheStore == null ? null : cacheStore.load();
+        if (cache != null && cache.address != null) {
+            transport.setPreferredDeviceAddress(cache.address);
         }
+        connectStartedAt = timeSource.nowMillis();
+        metrics.startConnection();
+        linkOpen = true;
+        transport.connect();
+    }
+
+    // Milliseconds from connect() until the control values were known and the
+    // client was told it can start sending changes, or -1 if that hasn't happened yet.
+    public long getTimeToReadyMs() {
+        return metrics.getTimeToReadyMs();
+    }
+
+    // Milliseconds from connect() until the initial sync (including the name lists
+    // and battery voltage) finished, or -1 if it hasn't yet.
+    public long getTimeToFullSyncMs() {
+        return metrics.getTimeToFullSyncMs();
+    }
 
-        ScanFilter scanFilter = new ScanFilter.Builder()
-                .setServiceUuid(new ParcelUuid(LedServiceUuid))
-                .build();
+    // Operations that didn't get a callback in time, and reconnects because the link was wedged.
+    public int getTimeoutCount() {
+        return metrics.getTimeouts();
+    }
 
-        List<ScanFilter> filters = new ArrayList<ScanFilter>();
-        filters.add(scanFilter);
+    public int getReconnectCount() {
+        return metrics.getReconnects();
+    }
 
-        ScanSettings scanSettings = new ScanSettings.Builder()
-                .setScanMode(SCAN_MODE_BALANCED)
-                .setNumOfMatches(MATCH_NUM_ONE_ADVERTISEMENT)
-                .setCallbackType(CALLBACK_TYPE_FIRST_MATCH)
-                .build();
+    // Round trips, queue depth, coalesced and dropped writes, retries and connection times.
+    public ConnectorMetrics getMetrics() {
+        return metrics;
+    }
 
-        bluetoothAdapter.getBluetoothLeScanner().startScan(filters, scanSettings, leScanCallback);
+    // A copy of the control values the sign has (or has been asked to change to).
+    // Changes still in the mailbox (made on another thread, not yet picked up) aren't included.
+    public SignState getState() {
+        return unpackState(publishedState);
+    }
+
+    // Control values are bytes, or -1 while unknown, so 9 bits hold each of them (-1 as all ones),
+    // at the position of the control's slot. That leaves room for seven controls.
+    private static final int PackedFieldBits = 9;
+    private static final int PackedFieldMask = (1 << PackedFieldBits) - 1;
+    // Every field unknown.
+    private static final long UnknownState = -1L;
+
+    private long packState(SignState state) {
+        long packed = 0;
+        for (int slot = 0; slot < characteristics.getControlCount(); slot++) {
+            packed |= packField(state.get(characteristics.getControl(slot).field), slot);
+        }
+        return packed;
+    }
+
+    private SignState unpackState(long packed) {
+        SignState state = new SignState();
+        for (int slot = 0; slot < characteristics.getControlCount(); slot++) {
+            state.set(characteristics.getControl(slot).field, unpackField(packed, slot));
+        }
+        return state;
+    }
+
+    private static long packField(int value, int slot) {
+        return (long) (value & PackedFieldMask) << (slot * PackedFieldBits);
+    }
+
+    private static int unpackField(long packed, int slot) {
+        int value = (int) (packed >>> (slot * PackedFieldBits)) & PackedFieldMask;
+        return value == PackedFieldMask ? -1 : value;
+    }
+
+    private void publishState() {
+        publishedState = packState(requestedState);
+    }
+
+    private int getInitial(int field) {
+        return unpackField(publishedInitialState, characteristics.getControlForField(field).slot);
     }
 
     public int getInitialBrightness() {
-        return initialBrightness;
+        return getInitial(SignState.BrightnessBit);
     }
 
     public void setBrightness(int brightness) {
-        addOperation(writeOperations.get(BrightnessCharacteristicId).withValue(new byte[] {(byte)brightness}));
+        requestControl(SignState.BrightnessBit, brightness);
     }
 
     public int getInitialStyle() {
-        return initialStyle;
+        return getInitial(SignState.StyleBit);
     }
 
     public void setStyle(int style) {
-        addOperation(writeOperations.get(StyleCharacteristicId).withValue(new byte[] {(byte)style}));
+        requestControl(SignState.StyleBit, style);
     }
 
     public String[] getKnownStyles() { return knownStyles; }
     public String[] getKnownPatterns() { return knownPatterns; }
 
-    public int getInitialSpeed() { return initialSpeed; }
+    public int getInitialSpeed() { return getInitial(SignState.SpeedBit); }
     public void setSpeed(int speed) {
-        addOperation(writeOperations.get(SpeedCharacteristicId).withValue(new byte[] {(byte)speed}));
+        requestControl(SignState.SpeedBit, speed);
     }
 
-    public int getInitialStep() { return initialStep; }
+    public int getInitialStep() { return getInitial(SignState.StepBit); }
     public void setStep(int step) {
-        addOperation(writeOperations.get(StepCharacteristicId).withValue(new byte[] {(byte)step}));
+        requestControl(SignState.StepBit, step);
     }
 
-    public int getInitialPattern() { return initialPattern; }
+    public int getInitialPattern() { return getInitial(SignState.PatternBit); }
     public void setPattern(int pattern) {
-        addOperation(writeOperations.get(PatternCharacteristicId).withValue(new byte[] {(byte)pattern}));
+        requestControl(SignState.PatternBit, pattern);
     }
 
-    public void refreshVoltage() {
-        addOperation(readOperations.get(BatteryVoltageCharacteristicId));
-    }
-
-    private ScanCallback leScanCallback =
-            new ScanCallback() {
-                @Override
-                public void onScanResult(int callbackType, ScanResult result) {
-                    bluetoothDevice = result.getDevice();
-                    String status = "Discovered device: " + bluetoothDevice.getName();
-                    callback.acceptStatus(status);
-                    callback.acceptStatus("Stopping scan and attempting GATT connection.");
-                    bluetoothAdapter.getBluetoothLeScanner().stopScan(leScanCallback);
-                    // Adding a small sleep.
-                    // https://medium.com/android-news/lessons-for-first-time-android-bluetooth-le-developers-i-learned-the-hard-way-fee07646624
-                    try {
-                        Thread.sleep(200);
-                    }
-                    catch (Exception e) {}
-                    bluetoothDevice.connectGatt(context, false, gattCallback, BluetoothDevice.TRANSPORT_LE);
+    // Apply all control parameters at once, e.g. when recalling a preset.
+    // Signs that expose the state frame characteristic get a single write, so the
+    // change lands in one round trip with no visible in-between states.
+    // Older signs get one write per changed field.
+    public void applyState(int style, int pattern, int brightness, int speed, int step) {
+        putInMailbox(SignState.StyleBit, style);
+        putInMailbox(SignState.PatternBit, pattern);
+        putInMailbox(SignState.BrightnessBit, brightness);
+        putInMailbox(SignState.SpeedBit, speed);
+        putInMailbox(SignState.StepBit, step);
+        frameRequested.set(true);
+        postMailboxDrain();
+    }
+
+    private void requestControl(int field, int value) {
+        putInMailbox(field, value);
+        postMailboxDrain();
+    }
+
+    private void putInMailbox(int field, int value) {
+        controlMailbox.set(characteristics.getControlForField(field).slot, value);
+    }
+
+    // At most one drain task is waiting at a time; it picks up every change made before it runs.
+    private void postMailboxDrain() {
+        if (executor == null) {
+            drainControlMailbox();
+        } else if (mailboxDrainPosted.compareAndSet(false, true)) {
+            executor.execute(mailboxDrainTask);
+        }
+    }
+
+    // Runs on the connector thread.
+    private void drainControlMailbox() {
+        // Cleared first, so a change made while this runs posts another drain.
+        mailboxDrainPosted.set(false);
+        boolean asFrame = frameRequested.getAndSet(false);
+        if (asFrame) {
+            // A control that was picked up by an earlier drain keeps the value it was given.
+            SignState target = new SignState();
+            target.copyFrom(requestedState);
+            for (int slot = 0; slot < controlMailbox.length(); slot++) {
+                int value = controlMailbox.getAndSet(slot, -1);
+                if (value >= 0) {
+                    target.set(characteristics.getControl(slot).field, value);
                 }
-            };
+            }
+            applyStateNow(target);
+            return;
+        }
+
+        for (int slot = 0; slot < controlMailbox.length(); slot++) {
+            int value = controlMailbox.getAndSet(slot, -1);
+            if (value >= 0) {
+                // A value set directly replaces any fade of that control.
+                CharacteristicRegistry.Control control = characteristics.getControl(slot);
+                if (brightnessFade.control == control) brightnessFade.active = false;
+                if (speedFade.control == control) speedFade.active = false;
+                writeControl(control, value);
+            }
+        }
+    }
+
+    // Send a control's new value, unless the sign already has it.
+    private void writeControl(CharacteristicRegistry.Control control, int value) {
+        if (value == requestedState.get(control.field) && (unconfirmedFields & control.field) == 0) {
+            return;
+        }
+        requestedState.set(control.field, value);
+        publishState();
+        unconfirmedFields &= ~control.field;
+        BleWriteCharacteristicOperation op = acquireWrite(control.characteristicId, control.getLength());
+        control.encode(value, op.getTargetValue());
+        addOperation(op);
+    }
+
+    private void applyStateNow(SignState target) {
+        cancelFades();
+        if (!transport.hasCharacteristic(StateFrameCharacteristicId)) {
+            for (int slot = 0; slot < characteristics.getControlCount(); slot++) {
+                CharacteristicRegistry.Control control = characteristics.getControl(slot);
+                writeControl(control, target.get(control.field));
+            }
+            return;
+        }
+
+        // Only the fields that changed are marked, so the sign leaves the others (and
+        // whatever animation depends on them) alone.
+        int changed = target.diff(requestedState) | unconfirmedFields;
+        if (changed == 0) {
+            return;
+        }
+        requestedState.copyFrom(target);
+        publishState();
+        unconfirmedFields = 0;
+
+        BleWriteCharacteristicOperation op = acquireWrite(StateFrameCharacteristicId, SignState.FrameLength);
+        requestedState.toFrame(op.getTargetValue(), changed);
+        addOperation(op);
+    }
+
+    // True if the sign can keep presets and recall them (see setSignPresets).
+    public boolean supportsPresetRecall() {
+        return presetRecallSupported;
+    }
+
+    // The presets recallPreset refers to, by index. Signs with preset slots get a copy of as
+    // many as fit: on every connection the slots' hash is checked, and they are only written
+    // when it differs. Recalling a preset the sign holds is then a one-byte write.
+    public void setSignPresets(SignState[] presets) {
+        SignState[] copy = new SignState[presets.length];
+        for (int i = 0; i < presets.length; i++) {
+            copy[i] = new SignState();
+            copy[i].copyFrom(presets[i]);
+        }
+        post(() -> {
+            signPresets = copy;
+            presetsOnSign = 0;
+            if (isInitialized && supportsPresetRecall()) {
+                addOperation(characteristics.getReadOperation(PresetSlotsCharacteristicId));
+            }
+        });
+    }
+
+    // Apply one of the presets given to setSignPresets. Like applyState, only a change is sent:
+    // a single byte if the sign holds the preset, otherwise the changed fields.
+    // Control changes made before this call go out first.
+    public void recallPreset(int index) {
+        post(() -> recallPresetNow(index));
+    }
+
+    private void recallPresetNow(int index) {
+        if (signPresets == null || index < 0 || index >= signPresets.length) {
+            return;
+        }
+        drainControlMailbox();
+
+        SignState target = signPresets[index];
+        if (index >= presetsOnSign) {
+            applyStateNow(target);
+            return;
+        }
+        cancelFades();
+        if (target.diff(requestedState) == 0 && unconfirmedFields == 0) {
+            return;
+        }
+        requestedState.copyFrom(target);
+        publishState();
+        unconfirmedFields = 0;
+
+        BleWriteCharacteristicOperation op = acquireWrite(PresetRecallCharacteristicId, 1);
+        op.getTargetValue()[0] = (byte) index;
+        addOperation(op);
+    }
+
+    // True if the sign can hold a change until a given time (see applyStateAt).
+    public boolean supportsScheduledApply() {
+        return scheduledApplySupported;
+    }
+
+    // Queue reads of the sign's clock to estimate its offset from ours (see ClockEstimate).
+    // More samples give a better chance of one with a short round trip.
+    public void syncClock(int samples) {
+        post(() -> {
+            if (!transport.hasCharacteristic(SignClockCharacteristicId)) {
+                return;
+            }
+            for (int i = 0; i < samples; i++) {
+                addOperation(characteristics.getReadOperation(SignClockCharacteristicId));
+            }
+        });
+    }
+
+    // Round trip of the best clock sample, or -1 if the clock hasn't been synced.
+    public long getLinkRoundTripMs() {
+        return clockEstimate.getRoundTripMs();
+    }
+
+    // Ask for the fastest connection interval now, ahead of changes that need to land on time
+    // (e.g. a Sequencer's cues). Like any operation, it holds for LinkTuner.InteractiveHoldMs.
+    public void keepLinkResponsive() {
+        post(linkTuner::onActivity);
+    }
+
+    // The connection priority, PHY and MTU in use, and the round trips they give.
+    public LinkTuner getLinkTuner() {
+        return linkTuner;
+    }
+
+    // Like applyState, but the sign holds the change until the given time (TimeSource milliseconds),
+    // so several signs can be told to change at the same moment. The write needs to reach the
+    // sign before then; a frame that arrives late is applied at once.
+    // Always sent, even if nothing changed, so the signs also restart their animations together.
+    // Signs without a clock (or before syncClock has finished) get a plain applyState.
+    public void applyStateAt(long localTime, int style, int pattern, int brightness, int speed, int step) {
+        post(() -> applyStateAtNow(localTime, style, pattern, brightness, speed, step));
+    }
+
+    private void applyStateAtNow(long localTime, int style, int pattern, int brightness, int speed, int step) {
+        if (!supportsScheduledApply() || !clockEstimate.hasEstimate()) {
+            applyStateNow(new SignState(style, pattern, brightness, speed, step));
+            return;
+        }
+
+        cancelFades();
+        requestedState.style = style;
+        requestedState.pattern = pattern;
+        requestedState.brightness = brightness;
+        requestedState.speed = speed;
+        requestedState.step = step;
+        publishState();
+        unconfirmedFields = 0;
+
+        // Each scheduled frame has its own time, so a newer one mustn't replace one still waiting.
+        BleWriteCharacteristicOperation op = acquireWrite(ScheduledFrameCharacteristicId, SignState.ScheduledFrameLength);
+        op.setCoalescable(false);
+        requestedState.toScheduledFrame(op.getTargetValue(), clockEstimate.toSignTime(localTime), SignState.AllFields);
+        addOperation(op);
+    }
+
+    // Move the brightness smoothly from its current value to target over durationMs.
+    // Steps go out as fast as the link takes them (much faster if brightness is streamed, see
+    // setStreamingEnabled), and only when the value has changed, so the queue never holds more
+    // than one of them. A newer fade carries on from wherever this one has got to; setting the
+    // brightness, applying a state or recalling a preset stops it.
+    // Without a TaskScheduler there is nothing to time the fade with, so it jumps to the target.
+    public void fadeBrightness(int target, long durationMs) {
+        post(() -> startFade(brightnessFade, target, durationMs));
+    }
+
+    // Like fadeBrightness, for the animation speed.
+    public void fadeSpeed(int target, long durationMs) {
+        post(() -> startFade(speedFade, target, durationMs));
+    }
+
+    private void startFade(Fade fade, int target, long durationMs) {
+        int current = requestedState.get(fade.control.field);
+        if (taskScheduler == null || durationMs <= 0 || current < 0) {
+            // Nothing to fade from (or with); just set it.
+            fade.active = false;
+            writeControl(fade.control, target);
+            return;
+        }
+
+        fade.from = current;
+        fade.to = target;
+        fade.startedAt = timeSource.nowMillis();
+        fade.durationMs = durationMs;
+        fade.active = true;
+        pumpFade(fade);
+    }
+
+    private void cancelFades() {
+        brightnessFade.active = false;
+        speedFade.active = false;
+    }
+
+    // Send the next step of any fade whose last step the link has taken.
+    private void pumpFades() {
+        if (brightnessFade.active) pumpFade(brightnessFade);
+        if (speedFade.active) pumpFade(speedFade);
+    }
+
+    private void pumpFade(Fade fade) {
+        UUID id = fade.control.characteristicId;
+        boolean inFlight = pendingOperation instanceof BleWriteCharacteristicOperation
+                && pendingOperation.getCharacteristicId().equals(id);
+        if (inFlight || operationQueue.hasWrite(id)) {
+            // Called again when it completes.
+            return;
+        }
+
+        long now = timeSource.nowMillis();
+        int value = fade.valueAt(now);
+        if (now >= fade.startedAt + fade.durationMs) {
+            fade.active = false;
+        }
+        int current = requestedState.get(fade.control.field);
+        if (value != current) {
+            writeControl(fade.control, value);
+        } else if (fade.active) {
+            // Between steps; wake up when the value next changes.
+            scheduleFadeTick(fade.msPerStep());
+        } else {
+            // Finished on a value already sent; a streamed one still needs committing.
+            commitIdleStreams();
+            doNextOperation();
+        }
+    }
+
+    private void scheduleFadeTick(long delayMs) {
+        if (fadeTickScheduled) {
+            return;
+        }
+        fadeTickScheduled = true;
+        taskScheduler.schedule(delayMs, fadeTickTask);
+    }
+
+    private void fadeTick() {
+        fadeTickScheduled = false;
+        pumpFades();
+    }
+
+    // A control moving linearly from one value to another.
+    private static class Fade {
+        final CharacteristicRegistry.Control control;
+        boolean active = false;
+        int from;
+        int to;
+        long startedAt;
+        long durationMs;
+
+        Fade(CharacteristicRegistry.Control control) {
+            this.control = control;
+        }
+
+        int valueAt(long now) {
+            long elapsed = Math.min(Math.max(0, now - startedAt), durationMs);
+            return from + (int) Math.round((to - from) * (double) elapsed / durationMs);
+        }
+
+        // Roughly how long the value stays the same.
+        long msPerStep() {
+            return Math.max(1, durationMs / Math.max(1, Math.abs(to - from)));
+        }
+    }
+
+    // True if the sign accepts pixels rendered by the controller (see sendPixelFrame).
+    public boolean supportsPixelStreaming() {
+        return pixelStream.getPixelCount() > 0;
+    }
+
+    // Pixel counts, frame rates and bytes per frame for the pixel stream.
+    public PixelStream getPixelStream() {
+        return pixelStream;
+    }
+
+    // Show a frame rendered by the controller (0xRRGGBB per pixel) instead of the sign's own style.
+    // May be called from any thread and at any rate: only the pixels that changed since the frame
+    // the sign is showing are sent, and a frame still waiting when a newer one arrives is replaced.
+    // getPixelStream().getTargetFrameRate() is the rate worth rendering at.
+    public void sendPixelFrame(int[] pixels) {
+        pixelStream.submit(pixels);
+        if (executor == null) {
+            pumpPixelFrames();
+        } else if (pixelPumpPosted.compareAndSet(false, true)) {
+            executor.execute(pixelPumpTask);
+        }
+    }
+
+    private void runPixelPump() {
+        pixelPumpPosted.set(false);
+        pumpPixelFrames();
+    }
+
+    // Queue the latest frame's chunks if the previous frame has been acknowledged and the
+    // stream's pacing allows. All but the last chunk are streamed; the last is acknowledged,
+    // which tells us the sign is showing the frame and how long the link took to carry it.
+    private void pumpPixelFrames() {
+        if (!supportsPixelStreaming() || isWriteOutstanding(FramebufferCharacteristicId)) {
+            return;
+        }
+        if (pixelStream.isFrameInFlight()) {
+            // The last chunk went without an acknowledgement, so send the next frame in full.
+            callback.acceptStatus("A pixel frame wasn't acknowledged; sending the next one in full.");
+            pixelStream.onFrameLost();
+        }
+        if (!pixelStream.hasFrame()) {
+            return;
+        }
+
+        long now = timeSource.nowMillis();
+        long delay = pixelStream.delayUntilNextFrame(now);
+        if (delay > 0 && taskScheduler != null) {
+            if (!pixelTickScheduled) {
+                pixelTickScheduled = true;
+                taskScheduler.schedule(delay, pixelTickTask);
+            }
+            return;
+        }
+
+        List<byte[]> chunks = pixelStream.takeFrame(now, transport.getMtu() - 3);
+        if (chunks == null) {
+            return;
+        }
+        for (int i = 0; i < chunks.size(); i++) {
+            BleWriteCharacteristicOperation op = new BleWriteCharacteristicOperation(FramebufferCharacteristicId, chunks.get(i));
+            op.setCoalescable(false);
+            op.setCommit(i == chunks.size() - 1);
+            addOperation(op);
+        }
+    }
+
+    private void pixelTick() {
+        pixelTickScheduled = false;
+        pumpPixelFrames();
+    }
+
+    // Opt a characteristic in or out of streaming.
+    // Streamed values are sent as writes without response, so a continuous control
+    // (e.g. brightness while the slider is dragged) can update at the link's full rate
+    // instead of once per round trip. When a run of streamed values ends, the last one
+    // is written again with an acknowledged "commit" write, so the final value is guaranteed
+    // to have landed. Operations are still issued in queue order: acknowledged operations
+    // wait for outstanding streamed writes to drain first.
+    public void setStreamingEnabled(UUID characteristicId, boolean enabled) {
+        post(() -> setStreamingEnabledNow(characteristicId, enabled));
+    }
+
+    private void setStreamingEnabledNow(UUID characteristicId, boolean enabled) {
+        StreamState stream = streams.get(characteristicId);
+        if (enabled && stream == null) {
+            stream = new StreamState(characteristicId);
+            streams.put(characteristicId, stream);
+            streamList.add(stream);
+        } else if (!enabled && stream != null) {
+            streams.remove(characteristicId);
+            streamList.remove(stream);
+        }
+    }
+
+    // Run the listener once every operation queued so far has finished: immediately if
+    // nothing is queued or in flight, otherwise when the queue next drains.
+    // Listeners are dropped if the sign disconnects first.
+    // The listener runs on the connector thread.
+    public void whenIdle(Runnable listener) {
+        post(() -> whenIdleNow(listener));
+    }
+
+    private void whenIdleNow(Runnable listener) {
+        if (pendingOperation == null && unacknowledgedWrites == 0 && operationQueue.isEmpty()) {
+            listener.run();
+            return;
+        }
+        idleListeners.add(listener);
+    }
+
+    public void refreshVoltage() {
+        post(() -> addOperation(characteristics.getReadOperation(BatteryVoltageCharacteristicId)));
+    }
+
+    // Control writes reuse the preallocated operations in the characteristics' write pools.
+    // If a write for the characteristic is still waiting in the queue, that operation is
+    // returned so its buffer can simply be updated; otherwise a free pooled operation is used.
+    // Either way the steady-state write path doesn't allocate.
+    private BleWriteCharacteristicOperation acquireWrite(UUID characteristicId, int valueLength) {
+        BleWriteOperationPool pool = characteristics.getWritePool(characteristicId);
+        BleWriteCharacteristicOperation op = operationQueue.findWaitingWrite(characteristicId);
+        if (op != null && pool.owns(op)) {
+            return op;
+        }
+
+        op = pool.acquire(operationQueue, pendingOperation);
+        if (op == null) {
+            // Every pooled operation is busy (e.g. queued behind reads); fall back to a one-off.
+            op = new BleWriteCharacteristicOperation(characteristicId, new byte[valueLength]);
+        }
+        op.setCommit(false);
+        return op;
+    }
 
     //
     // Operation queuing methods - add / complete / doNext.
     // BLE is notorious for dropping concurrent operations, so
     // this queuing mechanism allows us to "stack up" operations.
+    // Writes that haven't been sent yet are replaced by newer values for the
+    // same characteristic (see BleOperationQueue), so a burst of slider changes
+    // costs about one round trip instead of one per change.
     //
     private void addOperation(BleOperation operation) {
+        int depth = operationQueue.size();
         operationQueue.add(operation);
+        if (operationQueue.size() == depth) {
+            metrics.recordCoalescedWrite();
+        }
+        metrics.recordQueueDepth(operationQueue.size());
         if (pendingOperation == null) {
             // No operations are yet processing. Kick off the next one in the queue.
             doNextOperation();
@@ -178,6 +840,9 @@ public class NanoConnector {
     // Complete the pending operation and start the next one.
     private void completeOperation() {
         pendingOperation = null;
+        awaitingRetry = false;
+        pumpFades();
+        pumpPixelFrames();
         doNextOperation();
     }
 
@@ -187,217 +852,735 @@ public class NanoConnector {
             return;
         }
 
+        // Streamed writes don't wait for a response, so send as many as the
+        // transport has room for.
+        BleOperation next = operationQueue.peek();
+        while (isStreamedWrite(next)) {
+            if (unacknowledgedWrites >= transport.getMaxUnacknowledgedWrites()) {
+                // Wait for a streamed write to be reported before sending more.
+                return;
+            }
+            operationQueue.poll();
+            metrics.recordQueueDepth(operationQueue.size());
+            streamWrite((BleWriteCharacteristicOperation) next);
+            next = operationQueue.peek();
+        }
+
+        if (unacknowledgedWrites > 0) {
+            // Anything acknowledged waits until the streamed writes ahead of it have gone out.
+            return;
+        }
+
         if (operationQueue.isEmpty()) {
             // No more operations to run.
-            // If we haven't yet let our client know that we've been fully initialized,
-            // (that is, if all of the initial values have been now been read), let the client know.
-            if (!isInitialized) {
-                isInitialized = true;
-                callback.acceptStatus("Connected and ready.");
-                callback.connected();
+            // Normally the client was told it is ready as soon as the control values came in;
+            // if any of those reads failed, this is the fallback.
+            markReady();
+            if (metrics.getTimeToFullSyncMs() < 0 && connectStartedAt >= 0) {
+                metrics.recordTimeToFullSync(timeSource.nowMillis() - connectStartedAt);
+                callback.acceptStatus("Initial sync finished in %dms.", metrics.getTimeToFullSyncMs());
             }
+            runIdleListeners();
             return;
         }
 
-        pendingOperation = operationQueue.remove();
+        pendingOperation = operationQueue.poll();
+        metrics.recordQueueDepth(operationQueue.size());
+        pendingAttempts = 0;
+        startPendingOperation();
+    }
+
+    private void startPendingOperation() {
+        pendingStartedAt = timeSource.nowMillis();
+        pendingAttempts++;
+        // A new priority takes a few intervals to apply, so this operation still goes out on the old one.
+        pendingPriority = linkTuner.getPriority();
+        linkTuner.onActivity();
+        armWatchdog();
         if (pendingOperation instanceof BleReadCharacteristicOperation) {
-            BleReadCharacteristicOperation op = (BleReadCharacteristicOperation) pendingOperation;
-            op.getBluetoothGatt().readCharacteristic(op.getCharacteristic());
+            if (!transport.readCharacteristic(pendingOperation.getCharacteristicId())) {
+                callback.acceptStatus("Unable to start read of %s. Skipping.", pendingOperation.getCharacteristicId());
+                metrics.recordDroppedOperation();
+                completeOperation();
+            }
             return;
         }
         if (pendingOperation instanceof BleWriteCharacteristicOperation) {
             BleWriteCharacteristicOperation op = (BleWriteCharacteristicOperation) pendingOperation;
-            BluetoothGattCharacteristic characteristic = op.getCharacteristic();
-            characteristic.setValue(op.getTargetValue());
-            op.getBluetoothGatt().writeCharacteristic(characteristic);
+            if (!transport.writeCharacteristic(op.getCharacteristicId(), op.getTargetValue())) {
+                callback.acceptStatus("Unable to start write of %s. Skipping.", op.getCharacteristicId());
+                metrics.recordDroppedOperation();
+                completeOperation();
+                return;
+            }
+            metrics.recordWrite(op.getTargetValue().length, false);
+            return;
+        }
+        if (pendingOperation instanceof BleEnableNotificationsOperation) {
+            if (!transport.enableNotifications(pendingOperation.getCharacteristicId())) {
+                callback.acceptStatus("Unable to subscribe to %s. Skipping.", pendingOperation.getCharacteristicId());
+                metrics.recordDroppedOperation();
+                completeOperation();
+            }
             return;
         }
 
         callback.acceptStatus("Unknown operation type encountered. Skipping.");
-        return;
+        metrics.recordDroppedOperation();
+        completeOperation();
+    }
+
+    private void runIdleListeners() {
+        if (idleListeners.isEmpty()) {
+            return;
+        }
+
+        // A listener may queue more work (and another listener), so run a snapshot.
+        ArrayList<Runnable> listeners = idleListeners;
+        idleListeners = new ArrayList<>();
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    //
+    // Watchdog - a GATT callback that never arrives would otherwise leave pendingOperation
+    // set forever and stall every operation behind it.
+    // An operation without a callback after OperationTimeoutMs is retried, with exponential
+    // backoff, up to MaxAttempts times and then dropped. A write that has been superseded by a
+    // newer value in the queue is dropped rather than retried. If TimeoutsBeforeReconnect
+    // operations in a row time out, the link itself is wedged, so it is torn down and reconnected.
+    // The watchdog is only scheduled while something is waiting for a callback.
+    //
+    private void armWatchdog() {
+        if (taskScheduler == null || watchdogArmed) {
+            return;
+        }
+
+        long startedAt;
+        if (pendingOperation != null && !awaitingRetry) {
+            startedAt = pendingStartedAt;
+        } else if (unacknowledgedWrites > 0) {
+            startedAt = lastStreamReportAt;
+        } else {
+            return;
+        }
+
+        watchdogArmed = true;
+        long delay = Math.max(0, startedAt + OperationTimeoutMs - timeSource.nowMillis());
+        taskScheduler.schedule(delay, watchdogTask);
+    }
+
+    private void checkWatchdog() {
+        watchdogArmed = false;
+        long now = timeSource.nowMillis();
+        if (pendingOperation != null && !awaitingRetry) {
+            if (now - pendingStartedAt >= OperationTimeoutMs) {
+                operationTimedOut();
+            }
+        } else if (unacknowledgedWrites > 0 && now - lastStreamReportAt >= OperationTimeoutMs) {
+            // The link never reported these. There is nothing to retry them with (newer values
+            // have replaced them), so stop waiting and carry on with the queue.
+            callback.acceptStatus("Timed out waiting for %d streamed writes.", unacknowledgedWrites);
+            metrics.recordTimeout();
+            resetStreams();
+            doNextOperation();
+        }
+        armWatchdog();
+    }
+
+    private void operationTimedOut() {
+        metrics.recordTimeout();
+        consecutiveTimeouts++;
+        if (consecutiveTimeouts >= TimeoutsBeforeReconnect) {
+            reconnectWedgedLink();
+            return;
+        }
+
+        UUID id = pendingOperation.getCharacteristicId();
+        boolean isWrite = pendingOperation instanceof BleWriteCharacteristicOperation;
+        if (isWrite && operationQueue.hasWrite(id)) {
+            callback.acceptStatus("Write of %s timed out; a newer value is queued, so dropping it.", id);
+            metrics.recordDroppedOperation();
+            completeOperation();
+            return;
+        }
+        if (pendingAttempts >= MaxAttempts) {
+            callback.acceptStatus("Operation on %s timed out %d times. Skipping.", id, pendingAttempts);
+            metrics.recordDroppedOperation();
+            if (isWrite) {
+                // We don't know whether the sign has the value, so don't skip the next write of it.
+                unconfirmedFields |= characteristics.getFieldsWritten(id);
+            }
+            completeOperation();
+            return;
+        }
+
+        long backoff = RetryBackoffMs << (pendingAttempts - 1);
+        callback.acceptStatus("Operation on %s timed out. Retrying in %dms.", id, backoff);
+        awaitingRetry = true;
+        taskScheduler.schedule(backoff, retryTask);
     }
 
-    // Setup the set of known operations for reading/writing the BLE characteristics.
-    // The hashmap is keyed by the characteristic UUID.
+    private void retryPendingOperation() {
+        if (!awaitingRetry) {
+            // The late callback arrived during the backoff and completed the operation.
+            return;
+        }
+
+        awaitingRetry = false;
+        metrics.recordRetry();
+        startPendingOperation();
+    }
+
+    private void reconnectWedgedLink() {
+        callback.acceptStatus("The sign has stopped responding. Reconnecting.");
+        metrics.recordReconnect();
+        consecutiveTimeouts = 0;
+        // A local disconnect isn't reported back (see GattTransport.disconnect), so tear down here.
+        transport.disconnect();
+        handleDisconnected();
+        connectNow();
+    }
+
+    // Forget the link's operations and tell the client, whether the link dropped or we closed it.
+    private void handleDisconnected() {
+        if (!linkOpen) {
+            return;
+        }
+        linkOpen = false;
+        presetRecallSupported = false;
+        scheduledApplySupported = false;
+        pendingOperation = null;
+        awaitingRetry = false;
+        operationQueue.clear();
+        resetStreams();
+        cancelFades();
+        pixelStream.stop();
+        idleListeners.clear();
+        linkTuner.onDisconnected();
+        callback.disconnected();
+    }
+
+    // A callback for an operation the watchdog already gave up on. The operation now
+    // pending (if any) is still waiting for its own callback.
+    private boolean isLateResponse(UUID characteristicId) {
+        if (pendingOperation != null && pendingOperation.getCharacteristicId().equals(characteristicId)) {
+            return false;
+        }
+        callback.acceptStatus("Ignoring late response for %s.", characteristicId);
+        return true;
+    }
+
+    // The pending operation's callback has arrived. Timed from its latest attempt.
+    private void recordRoundTrip() {
+        metrics.recordRoundTrip(pendingOperation.getCharacteristicId(), timeSource.nowMillis() - pendingStartedAt);
+    }
+
+    // Any callback shows the link is alive.
+    private void linkResponded() {
+        consecutiveTimeouts = 0;
+    }
+
+    // Let the client know it can start making changes, if we haven't already.
+    private void markReady() {
+        if (isInitialized) {
+            return;
+        }
+
+        isInitialized = true;
+        if (connectStartedAt >= 0) {
+            metrics.recordTimeToReady(timeSource.nowMillis() - connectStartedAt);
+        }
+        callback.acceptStatus("Connected and ready.");
+        callback.connected();
+    }
+
+    // The UI only needs the control values to become interactive;
+    // the name lists and battery voltage keep loading in the background.
+    private void markReadyIfControlsKnown() {
+        for (int slot = 0; slot < characteristics.getControlCount(); slot++) {
+            if (requestedState.get(characteristics.getControl(slot).field) < 0) {
+                return;
+            }
+        }
+        markReady();
+    }
+
+    // True if a value we sent (or are about to send) for the characteristic hasn't been
+    // acknowledged yet. A value pushed by the sign in the meantime is older than what the
+    // user asked for, so it is ignored rather than shown.
+    private boolean hasLocalChange(UUID characteristicId) {
+        if (isWriteOutstanding(StateFrameCharacteristicId) || isWriteOutstanding(ScheduledFrameCharacteristicId)
+                || isWriteOutstanding(PresetRecallCharacteristicId)) {
+            return true;
+        }
+        if (!characteristicId.equals(StateFrameCharacteristicId)) {
+            return isWriteOutstanding(characteristicId);
+        }
+        for (int slot = 0; slot < characteristics.getControlCount(); slot++) {
+            if (isWriteOutstanding(characteristics.getControl(slot).characteristicId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isWriteOutstanding(UUID characteristicId) {
+        if (pendingOperation instanceof BleWriteCharacteristicOperation
+                && pendingOperation.getCharacteristicId().equals(characteristicId)) {
+            return true;
+        }
+        StreamState stream = streams.get(characteristicId);
+        return operationQueue.hasWrite(characteristicId)
+                || (stream != null && stream.uncommitted);
+    }
+
+    // Pixel frame chunks are always streamed, except for each frame's last one.
+    private boolean isStreamedWrite(BleOperation operation) {
+        return operation instanceof BleWriteCharacteristicOperation
+                && !((BleWriteCharacteristicOperation) operation).isCommit()
+                && (streams.containsKey(operation.getCharacteristicId())
+                        || operation.getCharacteristicId().equals(FramebufferCharacteristicId));
+    }
+
+    private void streamWrite(BleWriteCharacteristicOperation op) {
+        if (!transport.writeCharacteristicWithoutResponse(op.getCharacteristicId(), op.getTargetValue())) {
+            callback.acceptStatus("Unable to start write of %s. Skipping.", op.getCharacteristicId());
+            metrics.recordDroppedOperation();
+            if (op.getCharacteristicId().equals(FramebufferCharacteristicId)) {
+                // The rest of the frame still goes, but the sign won't show exactly what we sent.
+                pixelStream.onFrameLost();
+            }
+            return;
+        }
+
+        metrics.recordWrite(op.getTargetValue().length, true);
+        linkTuner.onActivity();
+        if (unacknowledgedWrites == 0) {
+            lastStreamReportAt = timeSource.nowMillis();
+        }
+        unacknowledgedWrites++;
+        StreamState stream = streams.get(op.getCharacteristicId());
+        if (stream != null) {
+            stream.remember(op.getTargetValue());
+        }
+        armWatchdog();
+    }
+
+    // A streamed write has been handed to the link.
+    private void completeStreamedWrite() {
+        unacknowledgedWrites--;
+        lastStreamReportAt = timeSource.nowMillis();
+        pumpFades();
+        commitIdleStreams();
+        doNextOperation();
+    }
+
+    // Any stream with nothing newer waiting gets its last value committed.
+    // A fading control is committed once, when the fade has finished.
+    private void commitIdleStreams() {
+        for (int i = 0; i < streamList.size(); i++) {
+            StreamState stream = streamList.get(i);
+            if (stream.uncommitted && !isFading(stream.characteristicId)
+                    && operationQueue.findWaitingWrite(stream.characteristicId) == null) {
+                stream.uncommitted = false;
+                BleWriteCharacteristicOperation commit = acquireWrite(stream.characteristicId, stream.length);
+                System.arraycopy(stream.lastValue, 0, commit.getTargetValue(), 0, stream.length);
+                commit.setCommit(true);
+                operationQueue.add(commit);
+            }
+        }
+    }
+
+    private boolean isFading(UUID characteristicId) {
+        return (brightnessFade.active && characteristicId.equals(brightnessFade.control.characteristicId))
+                || (speedFade.active && characteristicId.equals(speedFade.control.characteristicId));
+    }
+
+    private void resetStreams() {
+        unacknowledgedWrites = 0;
+        // Streamed pixel chunks may not have arrived.
+        pixelStream.onFrameLost();
+        for (int i = 0; i < streamList.size(); i++) {
+            streamList.get(i).uncommitted = false;
+        }
+    }
+
+    // The last value streamed to a characteristic, kept so it can be committed.
+    private static class StreamState {
+        final UUID characteristicId;
+        final byte[] lastValue = new byte[SignState.FrameLength];
+        int length = 0;
+        boolean uncommitted = false;
+
+        StreamState(UUID characteristicId) {
+            this.characteristicId = characteristicId;
+        }
+
+        void remember(byte[] value) {
+            length = Math.min(value.length, lastValue.length);
+            System.arraycopy(value, 0, lastValue, 0, length);
+            uncommitted = true;
+        }
+    }
+
+    // Setup the table of characteristics the connector reads and writes: each one's codec,
+    // the callback its decoded value goes to, and how many pooled writes it gets
+    // (one in flight, one waiting, and a spare for a write queued behind a read).
+    // Pushed values are decoded by the same callbacks as the reads.
+    // Each control's writes, mailbox slot and place in the published state come from its
+    // addControl line, so a new control needs only that line and a setter.
     private void InitializeCharacteristicOperations()
     {
-        readOperations = new HashMap<>();
-        readOperations.put(BrightnessCharacteristicId, new BleReadCharacteristicOperation(
-                bluetoothGatt,
-                brightnessCharacteristic,
-                this::setBrightnessFromCharacteristic));
-        readOperations.put(StyleCharacteristicId, new BleReadCharacteristicOperation(
-                bluetoothGatt,
-                styleCharacteristic,
-                this::setStyleFromCharacteristic));
-        readOperations.put(NamesCharacteristicId, new BleReadCharacteristicOperation(
-                bluetoothGatt,
-                namesCharacteristic,
-                this::setNamesFromCharacteristic));
-        readOperations.put(SpeedCharacteristicId, new BleReadCharacteristicOperation(
-                bluetoothGatt,
-                speedCharacteristic,
-                this::setSpeedFromCharacteristic));
-        readOperations.put(StepCharacteristicId, new BleReadCharacteristicOperation(
-                bluetoothGatt,
-                stepCharacteristic,
-                this::setStepFromCharacteristic));
-        readOperations.put(PatternCharacteristicId, new BleReadCharacteristicOperation(
-                bluetoothGatt,
-                patternCharacteristic,
-                this::setPatternFromCharacteristic));
-        readOperations.put(PatternNamesCharacteristicId, new BleReadCharacteristicOperation(
-                bluetoothGatt,
-                patternNamesCharacteristic,
-                this::setPatternNamesFromCharacteristic));
-        readOperations.put(BatteryVoltageCharacteristicId, new BleReadCharacteristicOperation(
-                bluetoothGatt,
-                batteryVoltageCharacteristic,
-                this::setBatteryVoltageFromCharacteristic));
-
-        writeOperations = new HashMap<>();
-        writeOperations.put(BrightnessCharacteristicId, new BleWriteCharacteristicOperation(bluetoothGatt, brightnessCharacteristic));
-        writeOperations.put(StyleCharacteristicId, new BleWriteCharacteristicOperation(bluetoothGatt, styleCharacteristic));
-        writeOperations.put(SpeedCharacteristicId, new BleWriteCharacteristicOperation(bluetoothGatt, speedCharacteristic));
-        writeOperations.put(StepCharacteristicId, new BleWriteCharacteristicOperation(bluetoothGatt, stepCharacteristic));
-        writeOperations.put(PatternCharacteristicId, new BleWriteCharacteristicOperation(bluetoothGatt, patternCharacteristic));
+        characteristics.addControl(BrightnessCharacteristicId, SignState.BrightnessBit, CharacteristicCodec.U8, this::setControlFromCharacteristic, 3);
+        characteristics.addControl(StyleCharacteristicId, SignState.StyleBit, CharacteristicCodec.U8, this::setControlFromCharacteristic, 3);
+        characteristics.addControl(SpeedCharacteristicId, SignState.SpeedBit, CharacteristicCodec.U8, this::setControlFromCharacteristic, 3);
+        characteristics.addControl(StepCharacteristicId, SignState.StepBit, CharacteristicCodec.U8, this::setControlFromCharacteristic, 3);
+        characteristics.addControl(PatternCharacteristicId, SignState.PatternBit, CharacteristicCodec.U8, this::setControlFromCharacteristic, 3);
+        characteristics.add(NamesCharacteristicId, CharacteristicCodec.StringList, this::setStyleNames);
+        characteristics.add(PatternNamesCharacteristicId, CharacteristicCodec.StringList, this::setPatternNames);
+        characteristics.add(NameTableCharacteristicId, CharacteristicCodec.Bytes, this::setNameTablePageFromCharacteristic);
+        characteristics.add(BatteryVoltageCharacteristicId, CharacteristicCodec.Float32Le, this::setBatteryVoltage);
+        characteristics.add(StateFrameCharacteristicId, CharacteristicCodec.bytes(SignState.FrameLength),
+                this::setStateFromCharacteristic, 3, SignState.AllFields);
+        characteristics.add(ScheduledFrameCharacteristicId, CharacteristicCodec.bytes(SignState.ScheduledFrameLength),
+                null, 3, SignState.AllFields);
+        characteristics.add(FirmwareVersionCharacteristicId, CharacteristicCodec.Utf8, this::setFirmwareVersion);
+        characteristics.add(SignClockCharacteristicId, CharacteristicCodec.U32Le, this::setSignClock);
+        characteristics.add(PresetSlotsCharacteristicId, CharacteristicCodec.Bytes, this::setPresetSlotsFromCharacteristic);
+        characteristics.add(PresetRecallCharacteristicId, CharacteristicCodec.U8, null, 3, SignState.AllFields);
+        characteristics.add(FramebufferCharacteristicId, CharacteristicCodec.Bytes, this::setPixelCountFromCharacteristic);
+    }
+
+    // Decode a value as if it had just been read. Lets the host benchmarks time the read path.
+    void decodeCharacteristic(UUID characteristicId, byte[] value) {
+        characteristics.decode(characteristicId, value);
     }
 
     //
-    // Define the callbacks for processing the results of a characteristic read
+    // Define the callbacks for processing the results of a characteristic read.
     //
-    private void setBrightnessFromCharacteristic(BluetoothGattCharacteristic characteristic) {
-        byte b = characteristic.getValue()[0];
-        initialBrightness = Byte.toUnsignedInt(b);
-        callback.acceptStatus("Retrieved brightness: " + initialBrightness);
+    private void setControlFromCharacteristic(int field, int value) {
+        initialState.set(field, value);
+        publishedInitialState = packState(initialState);
+        requestedState.set(field, value);
+        publishState();
+        callback.acceptStatus("Retrieved %s: %d", SignState.fieldName(field), value);
+        markReadyIfControlsKnown();
     }
 
-    private void setStyleFromCharacteristic(BluetoothGattCharacteristic characteristic) {
-        byte b = characteristic.getValue()[0];
-        initialStyle = Byte.toUnsignedInt(b);
-        callback.acceptStatus("Retrieved style: " + initialStyle);
+    private void setStyleNames(String[] names) {
+        callback.acceptStatus("Retrieved %d style names.", names.length);
+        knownStyles = names;
+        notifyIfNamesLoaded();
     }
 
-    private void setNamesFromCharacteristic(BluetoothGattCharacteristic characteristic) {
-        String s = new String(characteristic.getValue());
-        callback.acceptStatus("Retrieved list of names: " + s);
-        knownStyles = s.split(";");
+    private void setPatternNames(String[] names) {
+        callback.acceptStatus("Retrieved %d pattern names.", names.length);
+        knownPatterns = names;
+        notifyIfNamesLoaded();
     }
 
-    private void setSpeedFromCharacteristic(BluetoothGattCharacteristic characteristic) {
-        byte b = characteristic.getValue()[0];
-        initialSpeed = Byte.toUnsignedInt(b);
-        callback.acceptStatus("Retrieved speed: " + b);
+    private void setNameTablePageFromCharacteristic(byte[] value) {
+        NameTable.Page page = NameTable.decodePage(value);
+        if (nameTableNames == null || page == null || page.list != nameTableList || page.firstIndex != nameTableNames.size()) {
+            callback.acceptStatus("Unrecognized name table page; reading the name lists instead.");
+            readRemainingNamesWithoutTable();
+            return;
+        }
+
+        // The hash covers the whole list, so the first page is enough to tell whether the cached one is current.
+        String[] cached = page.firstIndex == 0 ? cachedNamesWithHash(nameTableList, page.hash) : null;
+        if (cached != null) {
+            callback.acceptStatus(nameListName() + " names are unchanged; using the cached ones.");
+            finishNameList(cached, page.hash);
+            return;
+        }
+
+        nameTableNames.addAll(page.names);
+        if (nameTableNames.size() < page.totalCount) {
+            if (page.names.isEmpty()) {
+                // A name too long for one packet; the sign can't page this list at our MTU.
+                callback.acceptStatus("Name table page was empty; reading the name lists instead.");
+                readRemainingNamesWithoutTable();
+                return;
+            }
+            requestNamePage(nameTableList, nameTableNames.size());
+            return;
+        }
+
+        callback.acceptStatus("Retrieved %d %s names.", nameTableNames.size(), nameListName().toLowerCase());
+        finishNameList(nameTableNames.toArray(new String[0]), page.hash);
     }
 
-    private void setStepFromCharacteristic(BluetoothGattCharacteristic characteristic) {
-        byte b = characteristic.getValue()[0];
-        initialStep = Byte.toUnsignedInt(b);
-        callback.acceptStatus("Retrieved step: " + b);
+    // Ask for a page of a name list, sized to come back in a single read.
+    private void requestNamePage(int list, int firstIndex) {
+        nameTableList = list;
+        if (firstIndex == 0) {
+            nameTableNames = new ArrayList<>();
+        }
+        byte[] request = NameTable.encodeRequest(list, firstIndex, transport.getMtu() - 1);
+        addOperation(new BleWriteCharacteristicOperation(NameTableCharacteristicId, request));
+        addOperation(characteristics.getReadOperation(NameTableCharacteristicId));
     }
 
-    private void setPatternFromCharacteristic(BluetoothGattCharacteristic characteristic) {
-        byte b = characteristic.getValue()[0];
-        initialPattern = Byte.toUnsignedInt(b);
-        callback.acceptStatus("Retrieved pattern: " + b);
+    private String nameListName() {
+        return nameTableList == NameTable.StyleList ? "Style" : "Pattern";
     }
 
-    private void setPatternNamesFromCharacteristic(BluetoothGattCharacteristic characteristic) {
-        String s = new String(characteristic.getValue());
-        callback.acceptStatus("Retrieved list of patterns: " + s);
-        knownPatterns = s.split(";");
+    private String[] cachedNamesWithHash(int list, long hash) {
+        if (cache == null || cache.address == null || !cache.address.equals(transport.getDeviceAddress())) {
+            return null;
+        }
+        if (list == NameTable.StyleList) {
+            return cache.styleNamesHash == hash ? cache.styleNames : null;
+        }
+        return cache.patternNamesHash == hash ? cache.patternNames : null;
+    }
+
+    private void finishNameList(String[] names, long hash) {
+        nameTableNames = null;
+        if (nameTableList == NameTable.StyleList) {
+            knownStyles = names;
+            styleNamesHash = hash;
+            requestNamePage(NameTable.PatternList, 0);
+        } else {
+            knownPatterns = names;
+            patternNamesHash = hash;
+        }
+        notifyIfNamesLoaded();
+    }
+
+    // Fall back to the ';'-delimited characteristics for whatever the Name Table didn't deliver.
+    private void readRemainingNamesWithoutTable() {
+        int list = nameTableList;
+        nameTableNames = null;
+        if (list == NameTable.StyleList) {
+            addOperation(characteristics.getReadOperation(NamesCharacteristicId));
+        }
+        addOperation(characteristics.getReadOperation(PatternNamesCharacteristicId));
+    }
+
+    private void notifyIfNamesLoaded() {
+        if (knownStyles != null && knownPatterns != null) {
+            saveCache();
+            callback.namesLoaded();
+        }
+    }
+
+    // The firmware version plus which optional characteristics exist identifies what the
+    // sign will report for its name lists. If it matches what we cached, use the cached lists.
+    private void setFirmwareVersion(String version) {
+        StringBuilder sb = new StringBuilder(version);
+        sb.append('|');
+        for (UUID id : OptionalCharacteristicIds) {
+            sb.append(transport.hasCharacteristic(id) ? '1' : '0');
+        }
+        fingerprint = sb.toString();
+        callback.acceptStatus("Retrieved firmware fingerprint: %s", fingerprint);
+
+        // A sign with a Name Table can change its names without a firmware update,
+        // so its lists are always checked against their content hashes instead.
+        if (cache != null && cache.hasNamesFor(fingerprint) && !transport.hasCharacteristic(NameTableCharacteristicId)) {
+            callback.acceptStatus("Using cached style and pattern names.");
+            knownStyles = cache.styleNames;
+            knownPatterns = cache.patternNames;
+            notifyIfNamesLoaded();
+            return;
+        }
+
+        queueNameReads();
+    }
+
+    private void saveCache() {
+        if (cacheStore == null) {
+            return;
+        }
+
+        DeviceCache updated = new DeviceCache();
+        updated.address = transport.getDeviceAddress();
+        updated.fingerprint = fingerprint;
+        updated.styleNames = knownStyles;
+        updated.patternNames = knownPatterns;
+        updated.styleNamesHash = styleNamesHash;
+        updated.patternNamesHash = patternNamesHash;
+        cacheStore.save(updated);
+        cache = updated;
+    }
+
+    // The state frame holds all of the control values, so one read replaces five.
+    private void setStateFromCharacteristic(byte[] value) {
+        // A frame only carries the fields in its mask; the rest keep what we already know.
+        SignState state = new SignState();
+        state.copyFrom(requestedState);
+        if (!state.applyFrame(value)) {
+            callback.acceptStatus("Unrecognized state frame; reading values individually.");
+            queueControlReads();
+            return;
+        }
+
+        initialState.copyFrom(state);
+        publishedInitialState = packState(initialState);
+        requestedState.copyFrom(state);
+        publishState();
+        callback.acceptStatus("Retrieved state frame: style %d, pattern %d, brightness %d, speed %d, step %d",
+                state.style, state.pattern, state.brightness, state.speed, state.step);
+        markReadyIfControlsKnown();
+    }
+
+    private void setSignClock(long signTime) {
+        long now = timeSource.nowMillis();
+        clockEstimate.addSample(pendingStartedAt, now, signTime);
+        callback.acceptStatus("Retrieved sign clock: %d (round trip %dms)", signTime, now - pendingStartedAt);
+    }
+
+    // Bring the sign's preset slots in line with signPresets if their hash shows they differ.
+    // The slot writes are queued ahead of any recall, so the sign has a preset before it is asked for it.
+    private void setPresetSlotsFromCharacteristic(byte[] value) {
+        PresetSlots.Header header = PresetSlots.decodeHeader(value);
+        if (header == null) {
+            callback.acceptStatus("Unrecognized preset slots; recalling presets by value.");
+            return;
+        }
+        if (signPresets == null) {
+            return;
+        }
+
+        if (header.hash != PresetSlots.hashFor(signPresets, header.slotCount)) {
+            for (int slot = 0; slot < header.slotCount; slot++) {
+                BleWriteCharacteristicOperation op = new BleWriteCharacteristicOperation(PresetSlotsCharacteristicId,
+                        PresetSlots.encodeSlotWrite(signPresets, slot));
+                op.setCoalescable(false);
+                addOperation(op);
+            }
+            callback.acceptStatus("Storing %d presets on the sign.", Math.min(signPresets.length, header.slotCount));
+        } else {
+            callback.acceptStatus("Presets on the sign are up to date.");
+        }
+        presetsOnSign = Math.min(signPresets.length, header.slotCount);
     }
 
-    private void setBatteryVoltageFromCharacteristic(BluetoothGattCharacteristic characteristic) {
-        byte[] b = characteristic.getValue();
-        float voltage = ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-        callback.acceptStatus("Retrieved battery voltage: " + voltage);
+    private void setBatteryVoltage(float voltage) {
+        callback.acceptStatus("Retrieved battery voltage: %s", voltage);
         callback.acceptBatteryVoltage(voltage);
     }
 
-    private BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
-        @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            callback.acceptStatus("BLE connect state changed. Status: " + status + ", state: " + newState);
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                if (newState == BluetoothProfile.STATE_CONNECTED) {
-                    callback.acceptStatus("Connected to device - discovering services");
-                    bluetoothGatt = gatt;
-                    bluetoothGatt.discoverServices();
-                } else {
-                    processDisconnect(gatt, "Unexpected GATT state encountered: " + newState);
+    private void setPixelCountFromCharacteristic(byte[] value) {
+        int pixelCount = PixelFrames.decodePixelCount(value);
+        if (pixelCount <= 0) {
+            callback.acceptStatus("Unrecognized framebuffer; pixel streaming is off.");
+            return;
+        }
+        pixelStream.start(pixelCount);
+        callback.acceptStatus("Sign accepts streamed pixels: %d", pixelCount);
+        // A frame sent before we knew the sign could show it goes out now.
+        pumpPixelFrames();
+    }
+
+    private void queueControlReads() {
+        for (int slot = 0; slot < characteristics.getControlCount(); slot++) {
+            addOperation(characteristics.getReadOperation(characteristics.getControl(slot).characteristicId));
+        }
+    }
+
+    private void queueNameReads() {
+        if (transport.hasCharacteristic(NameTableCharacteristicId)) {
+            requestNamePage(NameTable.StyleList, 0);
+            return;
+        }
+        addOperation(characteristics.getReadOperation(NamesCharacteristicId));
+        addOperation(characteristics.getReadOperation(PatternNamesCharacteristicId));
+    }
+
+    // Subscribe to whatever the sign can push: the state frame if it has one (a change to any
+    // control then arrives as one notification), otherwise each control, plus the battery voltage.
+    private void queueSubscriptions() {
+        if (transport.supportsNotifications(StateFrameCharacteristicId)) {
+            addOperation(characteristics.getSubscribeOperation(StateFrameCharacteristicId));
+        } else {
+            for (int slot = 0; slot < characteristics.getControlCount(); slot++) {
+                UUID id = characteristics.getControl(slot).characteristicId;
+                if (transport.supportsNotifications(id)) {
+                    addOperation(characteristics.getSubscribeOperation(id));
                 }
-            } else {
-                String msg = "Unexpected GATT status encountered. Status: " + status + ", state: " + newState;
-                processDisconnect(gatt, msg);
             }
         }
+        if (transport.supportsNotifications(BatteryVoltageCharacteristicId)) {
+            addOperation(characteristics.getSubscribeOperation(BatteryVoltageCharacteristicId));
+        }
+    }
 
-        // Main connection method.
-        // On a successful connection, assign all known characteristics and initiate the
-        // read requests for all characteristics.
+    private GattTransportCallback transportCallback = new GattTransportCallback() {
         @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            List<BluetoothGattService> services = gatt.getServices();
-            BluetoothGattService ledService = null;
-            String t = "Found " + services.size() + " services.";
-            t += "Looking for " + LedServiceUuid + "...";
+        public void acceptStatus(String status) {
+            callback.acceptStatus(status);
+        }
 
-            for (BluetoothGattService service: services ) {
-                t += service.getUuid() + "; ";
+        // The transport found the sign and bound all of its characteristics.
+        // Initiate the read requests for all characteristics.
+        @Override
+        public void onConnected() {
+            isInitialized = false;
+            presetRecallSupported = transport.hasCharacteristic(PresetSlotsCharacteristicId)
+                    && transport.hasCharacteristic(PresetRecallCharacteristicId);
+            scheduledApplySupported = transport.hasCharacteristic(SignClockCharacteristicId)
+                    && transport.hasCharacteristic(ScheduledFrameCharacteristicId);
+            requestedState = new SignState();
+            publishState();
+            unconfirmedFields = 0;
+            knownStyles = null;
+            knownPatterns = null;
+            pendingOperation = null;
+            awaitingRetry = false;
+            operationQueue.clear();
+            resetStreams();
+            cancelFades();
+            clockEstimate.reset();
+            linkTuner.onConnected();
 
-                if (service.getUuid().equals(LedServiceUuid)) {
-                    ledService = service;
-                }
+            // We can only read one characteristic at a time, so queue the reads in the
+            // order the UI needs them: the control values first (in one read if the sign
+            // has a state frame), then the name lists and battery voltage.
+            // The name lists are skipped if the firmware fingerprint shows the cached ones are current.
+            fingerprint = null;
+            nameTableNames = null;
+            styleNamesHash = -1;
+            patternNamesHash = -1;
+            if (transport.hasCharacteristic(StateFrameCharacteristicId)) {
+                addOperation(characteristics.getReadOperation(StateFrameCharacteristicId));
+            } else {
+                queueControlReads();
             }
-
-            callback.acceptStatus(t);
-            if (ledService == null) {
-                callback.acceptStatus("LED service not found!");
-                return;
+            if (transport.hasCharacteristic(FirmwareVersionCharacteristicId)) {
+                addOperation(characteristics.getReadOperation(FirmwareVersionCharacteristicId));
+            } else {
+                queueNameReads();
             }
-            callback.acceptStatus("Found LED service.");
-            brightnessCharacteristic = findCharacteristic(ledService, BrightnessCharacteristicId, "Brightness");
-            styleCharacteristic = findCharacteristic(ledService, StyleCharacteristicId, "Style");
-            namesCharacteristic = findCharacteristic(ledService, NamesCharacteristicId, "Style Names");
-            speedCharacteristic = findCharacteristic(ledService, SpeedCharacteristicId, "Speed");
-            stepCharacteristic = findCharacteristic(ledService, StepCharacteristicId, "Step");
-            patternCharacteristic = findCharacteristic(ledService, PatternCharacteristicId, "Pattern");
-            patternNamesCharacteristic = findCharacteristic(ledService, PatternNamesCharacteristicId, "PatternNames");
-            batteryVoltageCharacteristic = findCharacteristic(ledService, BatteryVoltageCharacteristicId, "BatterVoltage");
-
-            if (brightnessCharacteristic == null
-                || styleCharacteristic == null
-                || namesCharacteristic == null
-                || speedCharacteristic == null
-                || stepCharacteristic == null
-                || patternCharacteristic == null
-                || patternNamesCharacteristic == null
-                || batteryVoltageCharacteristic == null) {
-                callback.acceptStatus("At least one characteristic was not found in the service.");
-                return;
+            addOperation(characteristics.getReadOperation(BatteryVoltageCharacteristicId));
+            presetsOnSign = 0;
+            if (signPresets != null && supportsPresetRecall()) {
+                addOperation(characteristics.getReadOperation(PresetSlotsCharacteristicId));
             }
-
-            callback.acceptStatus("Services bound successfully.");
-            InitializeCharacteristicOperations();
-
-            // We can only read one characteristic at a time, so add all the initial
-            // characteristic read operations to the queue.
-            addOperation(readOperations.get(BrightnessCharacteristicId));
-            addOperation(readOperations.get(StyleCharacteristicId));
-            addOperation(readOperations.get(NamesCharacteristicId));
-            addOperation(readOperations.get(SpeedCharacteristicId));
-            addOperation(readOperations.get(StepCharacteristicId));
-            addOperation(readOperations.get(PatternCharacteristicId));
-            addOperation(readOperations.get(PatternNamesCharacteristicId));
-            addOperation(readOperations.get(BatteryVoltageCharacteristicId));
+            pixelStream.stop();
+            if (transport.hasCharacteristic(FramebufferCharacteristicId)) {
+                addOperation(characteristics.getReadOperation(FramebufferCharacteristicId));
+            }
+            // Subscriptions go last: they only matter once the UI is showing the values.
+            queueSubscriptions();
         }
 
         @Override
-        public void onCharacteristicRead(BluetoothGatt gatt,
-                                        BluetoothGattCharacteristic characteristic,
-                                        int status) {
+        public void onDisconnected() {
+            handleDisconnected();
+        }
 
+        @Override
+        public void onCharacteristicRead(UUID characteristicId, byte[] value, int status) {
+            linkResponded();
+            if (isLateResponse(characteristicId)) {
+                return;
+            }
             if (!(pendingOperation instanceof BleReadCharacteristicOperation)) {
                 // Something unexpected happened!
                 callback.acceptStatus("ERROR: In the 'read' callback, but the pending operation is not a read operation.");
@@ -405,29 +1588,72 @@ public class NanoConnector {
                 return;
             }
 
+            recordRoundTrip();
             BleReadCharacteristicOperation op = (BleReadCharacteristicOperation)pendingOperation;
-            op.getCallback().ProcessCharacteristic(characteristic);
+            op.getCallback().ProcessCharacteristic(value);
             completeOperation();
         }
 
         @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+        public void onCharacteristicWrite(UUID characteristicId, int status) {
+            linkResponded();
+            if (status != GattTransport.GATT_SUCCESS) {
+                // We no longer know whether the sign has the value, so don't skip the next write of it.
+                callback.acceptStatus("Write of %s failed with status %d", characteristicId, status);
+                unconfirmedFields |= characteristics.getFieldsWritten(characteristicId);
+            }
+            if (pendingOperation == null && unacknowledgedWrites > 0) {
+                // Nothing acknowledged is in flight, so this reports a streamed write.
+                completeStreamedWrite();
+                return;
+            }
+            if (isLateResponse(characteristicId)) {
+                return;
+            }
+            if (status == GattTransport.GATT_SUCCESS && pendingAttempts == 1) {
+                linkTuner.recordRoundTrip(pendingPriority, timeSource.nowMillis() - pendingStartedAt);
+            }
+            if (status == GattTransport.GATT_SUCCESS && characteristicId.equals(FramebufferCharacteristicId)) {
+                pixelStream.onFrameDelivered(timeSource.nowMillis());
+            }
+            recordRoundTrip();
             completeOperation();
         }
 
-        private void processDisconnect(BluetoothGatt gatt, String callbackMessage) {
-            callback.acceptStatus(callbackMessage);
-            gatt.disconnect();
-            gatt.close();
-            callback.disconnected();
+        @Override
+        public void onNotificationsEnabled(UUID characteristicId, int status) {
+            linkResponded();
+            if (isLateResponse(characteristicId)) {
+                return;
+            }
+            if (!(pendingOperation instanceof BleEnableNotificationsOperation)) {
+                callback.acceptStatus("ERROR: In the 'subscribe' callback, but the pending operation is not a subscription.");
+                completeOperation();
+                return;
+            }
+
+            if (status != GattTransport.GATT_SUCCESS) {
+                callback.acceptStatus("Subscribing to %s failed with status %d", characteristicId, status);
+            }
+            recordRoundTrip();
+            completeOperation();
         }
 
-        private BluetoothGattCharacteristic findCharacteristic(BluetoothGattService service, UUID id, String name) {
-            BluetoothGattCharacteristic gattChar = service.getCharacteristic(id);
-            if (gattChar == null) {
-                callback.acceptStatus("Characteristic '" + name + "' not found!");
+        @Override
+        public void onCharacteristicChanged(UUID characteristicId, byte[] value) {
+            BleReadCharacteristicOperation op = characteristics.getReadOperation(characteristicId);
+            if (op == null) {
+                return;
+            }
+            if (hasLocalChange(characteristicId)) {
+                callback.acceptStatus("Ignoring pushed value of %s; a newer change is on its way.", characteristicId);
+                return;
+            }
+
+            op.getCallback().ProcessCharacteristic(value);
+            if (isInitialized && !characteristicId.equals(BatteryVoltageCharacteristicId)) {
+                callback.stateChanged();
             }
-            return gattChar;
         }
     };
 }
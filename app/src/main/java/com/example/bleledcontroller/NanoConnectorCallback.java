@@ -2,7 +2,17 @@ package com.example.bleledcontroller;
 
 public interface NanoConnectorCallback {
     void acceptStatus(String status);
+    // A status given as a String.format format and its arguments. A client that keeps statuses
+    // for later (see DebugLog.addFormatted) can override this and skip formatting until then.
+    default void acceptStatus(String format, Object... args) {
+        acceptStatus(String.format(format, args));
+    }
     void connected();
     void disconnected();
     void acceptBatteryVoltage(float voltage);
+    // The style and pattern name lists have been read. May come after connected().
+    void namesLoaded();
+    // The sign reported new control values, e.g. changed on the sign itself or by another
+    // controller. Read them with NanoConnector.getState().
+    void stateChanged();
 }
@@ -0,0 +1,76 @@
+package com.example.bleledcontroller;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.view.View;
+
+//
+// A strip showing what the selected style and pattern look like (see PatternRenderer).
+// It redraws on every display frame while it is showing. Each frame is rendered into the
+// renderer's pixels and copied into a reused one-row Bitmap that is stretched over the view,
+// so drawing a frame doesn't allocate.
+//
+public class PatternPreviewView extends View {
+    public static final int DefaultPixelCount = 60;
+
+    private final PatternRenderer renderer = new PatternRenderer(DefaultPixelCount);
+    // No filtering, so each pixel stays a sharp block when stretched.
+    private final Paint paint = new Paint();
+    private final Rect source = new Rect();
+    private final Rect target = new Rect();
+    private Bitmap bitmap = null;
+    private int[] argb = new int[0];
+
+    public PatternPreviewView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public void setNames(String[] styles, String[] patterns) {
+        renderer.setStyleNames(styles);
+        renderer.setPatternNames(patterns);
+    }
+
+    public void setState(SignState state) {
+        renderer.setState(state);
+    }
+
+    public void setPixelCount(int pixelCount) {
+        renderer.setPixelCount(pixelCount);
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        // Drawing stops while hidden; pick it up again.
+        if (visibility == VISIBLE) {
+            invalidate();
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        int[] pixels = renderer.render(SystemClock.uptimeMillis());
+        int count = pixels.length;
+        if (bitmap == null || bitmap.getWidth() != count) {
+            bitmap = Bitmap.createBitmap(count, 1, Bitmap.Config.ARGB_8888);
+            argb = new int[count];
+        }
+        for (int i = 0; i < count; i++) {
+            argb[i] = 0xFF000000 | pixels[i];
+        }
+        bitmap.setPixels(argb, 0, count, 0, 0, count, 1);
+
+        source.set(0, 0, count, 1);
+        target.set(getPaddingLeft(), getPaddingTop(), getWidth() - getPaddingRight(), getHeight() - getPaddingBottom());
+        canvas.drawBitmap(bitmap, source, target, paint);
+
+        if (isShown()) {
+            postInvalidateOnAnimation();
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.example.bleledcontroller;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+//
+// Draws what the sign shows for a style, pattern, brightness, speed and step, so a choice
+// can be previewed on the phone instead of on the sign.
+//
+// Styles are emulations looked up by the names the sign reports (see NameTable); a style the
+// renderer doesn't know is drawn as Rainbow. Patterns mask part of the strip: Full, Left,
+// Right, Center or Edges, with any other name drawn as Full.
+//
+// Speed scales how fast the animation moves and step how far apart its features are.
+// Motion is accumulated frame by frame, so changing the speed doesn't make the animation jump.
+//
+// Frames are 0xRRGGBB per pixel, like PixelStream frames, in a flat int[] the renderer owns.
+// Names are resolved when they are set and the pattern mask is built when the pattern changes,
+// so render() doesn't allocate and can run at display rate, on a phone or headless on the JVM.
+// Not thread-safe: set the state and render on one thread.
+//
+public class PatternRenderer {
+    public static final int Rainbow = 0;
+    public static final int Solid = 1;
+    public static final int Twinkle = 2;
+    public static final int Bounce = 3;
+    public static final int Fire = 4;
+    public static final int Comet = 5;
+    public static final int Breathe = 6;
+    public static final int Strobe = 7;
+
+    public static final int Full = 0;
+    public static final int Left = 1;
+    public static final int Right = 2;
+    public static final int Center = 3;
+    public static final int Edges = 4;
+
+    // Phase is milliseconds times speed; at speed 100 things move this many pixels a second.
+    private static final int PhasePerPixel = 1000;
+    // Hues go around a wheel of this many steps (six ramps of 256).
+    private static final int Wheel = 1536;
+    private static final int HuePhase = 40;
+    private static final int TwinklePhase = 50;
+    private static final int BreathePhase = 40;
+    private static final int StrobePhase = 800;
+    private static final int FirePhase = 1500;
+    // A long gap between frames (the preview was off screen) shouldn't skip the animation ahead.
+    private static final long MaxFrameGapMs = 100;
+    private static final int MaxFireSteps = 4;
+    // Mask value for a fully lit pixel, so (color * level) >> 8 keeps the color.
+    private static final int FullLevel = 256;
+
+    private int[] pixels;
+    private int[] mask;
+    private int[] heat;
+    private int maskPattern = -1;
+
+    private int[] styleKinds = new int[0];
+    private int[] patternKinds = new int[0];
+    private int style = -1;
+    private int pattern = -1;
+    private int brightness = 255;
+    private int speed = 50;
+    private int step = 10;
+
+    private long phase = 0;
+    private long lastTimeMs = -1;
+    private long fireSteps = 0;
+
+    public PatternRenderer(int pixelCount) {
+        setPixelCount(pixelCount);
+    }
+
+    public void setPixelCount(int pixelCount) {
+        pixels = new int[Math.max(1, pixelCount)];
+        mask = new int[pixels.length];
+        heat = new int[pixels.length];
+        maskPattern = -1;
+    }
+
+    public int getPixelCount() {
+        return pixels.length;
+    }
+
+    // The sign's style names, in index order.
+    public void setStyleNames(String[] names) {
+        styleKinds = new int[names == null ? 0 : names.length];
+        for (int i = 0; i < styleKinds.length; i++) {
+            styleKinds[i] = styleOf(names[i]);
+        }
+    }
+
+    // The sign's pattern names, in index order.
+    public void setPatternNames(String[] names) {
+        patternKinds = new int[names == null ? 0 : names.length];
+        for (int i = 0; i < patternKinds.length; i++) {
+            patternKinds[i] = patternOf(names[i]);
+        }
+    }
+
+    // Unknown (-1) brightness, speed and step leave the current values alone.
+    public void setState(SignState state) {
+        style = state.style;
+        pattern = state.pattern;
+        if (state.brightness >= 0) {
+            brightness = Math.min(255, state.brightness);
+        }
+        if (state.speed >= 0) {
+            speed = state.speed;
+        }
+        if (state.step >= 0) {
+            step = Math.max(1, state.step);
+        }
+    }
+
+    // The style drawn for a name, with Rainbow for names the renderer doesn't emulate.
+    public static int styleOf(String name) {
+        switch (name == null ? "" : name.trim().toLowerCase(Locale.US)) {
+            case "solid": return Solid;
+            case "twinkle": return Twinkle;
+            case "bounce": return Bounce;
+            case "fire": return Fire;
+            case "comet": return Comet;
+            case "breathe": return Breathe;
+            case "strobe": return Strobe;
+            default: return Rainbow;
+        }
+    }
+
+    public static int patternOf(String name) {
+        switch (name == null ? "" : name.trim().toLowerCase(Locale.US)) {
+            case "left": return Left;
+            case "right": return Right;
+            case "center": return Center;
+            case "edges": return Edges;
+            default: return Full;
+        }
+    }
+
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    // Draw the frame for the given time (any monotonic clock, in milliseconds) into getPixels().
+    public int[] render(long timeMs) {
+        if (lastTimeMs >= 0 && timeMs > lastTimeMs) {
+            phase += Math.min(timeMs - lastTimeMs, MaxFrameGapMs) * speed;
+        }
+        lastTimeMs = timeMs;
+
+        int patternKind = kindOf(patternKinds, pattern, Full);
+        if (patternKind != maskPattern) {
+            buildMask(patternKind);
+        }
+
+        switch (kindOf(styleKinds, style, Rainbow)) {
+            case Solid: Arrays.fill(pixels, stepColor()); break;
+            case Twinkle: drawTwinkle(); break;
+            case Bounce: drawBounce(); break;
+            case Fire: drawFire(); break;
+            case Comet: drawComet(); break;
+            case Breathe: Arrays.fill(pixels, scale(stepColor(), triangle(phase / BreathePhase) + 1)); break;
+            case Strobe: Arrays.fill(pixels, phase / StrobePhase % 4 == 0 ? 0xFFFFFF : 0); break;
+            default: drawRainbow(); break;
+        }
+
+        int level = brightness + 1;
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = scale(pixels[i], mask[i] * level >> 8);
+        }
+        return pixels;
+    }
+
+    private static int kindOf(int[] kinds, int index, int fallback) {
+        return index >= 0 && index < kinds.length ? kinds[index] : fallback;
+    }
+
+    private void buildMask(int patternKind) {
+        int n = pixels.length;
+        int quarter = n / 4;
+        for (int i = 0; i < n; i++) {
+            boolean lit;
+            switch (patternKind) {
+                case Left: lit = i < n / 2; break;
+                case Right: lit = i >= n / 2; break;
+                case Center: lit = i >= quarter && i < n - quarter; break;
+                case Edges: lit = i < quarter || i >= n - quarter; break;
+                default: lit = true; break;
+            }
+            mask[i] = lit ? FullLevel : 0;
+        }
+        maskPattern = patternKind;
+    }
+
+    // Step picks the color of single-color styles.
+    private int stepColor() {
+        return wheel(step * 97 % Wheel);
+    }
+
+    private void drawRainbow() {
+        int shift = (int) (phase / HuePhase % Wheel);
+        int hueStep = step * 4;
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = wheel((shift + i * hueStep % Wheel) % Wheel);
+        }
+    }
+
+    // Each pixel fades in and out on its own cycle; step sets how many are lit at a time.
+    private void drawTwinkle() {
+        int density = step * 256 / 100;
+        long t = phase / TwinklePhase;
+        for (int i = 0; i < pixels.length; i++) {
+            long local = t + (hash(i) & 1023);
+            int h = hash(i * 7919 + (int) (local >> 10));
+            if ((h & 0xFF) < density) {
+                pixels[i] = scale(wheel((h >>> 8) % Wheel), triangle(local) + 1);
+            } else {
+                pixels[i] = 0;
+            }
+        }
+    }
+
+    // A dot going back and forth, with a tail as long as step / 10.
+    private void drawBounce() {
+        Arrays.fill(pixels, 0);
+        int n = pixels.length;
+        if (n == 1) {
+            pixels[0] = stepColor();
+            return;
+        }
+        int span = 2 * (n - 1);
+        int at = (int) (phase / PhasePerPixel % span);
+        if (at < n - 1) {
+            drawTail(at, -1, false);
+        } else {
+            drawTail(span - at, 1, false);
+        }
+    }
+
+    // A dot going around the strip, with a tail as long as step / 10.
+    private void drawComet() {
+        Arrays.fill(pixels, 0);
+        drawTail((int) (phase / PhasePerPixel % pixels.length), -1, true);
+    }
+
+    private void drawTail(int head, int direction, boolean wrap) {
+        int n = pixels.length;
+        int color = stepColor();
+        int length = 1 + step / 10;
+        for (int j = 0; j <= length; j++) {
+            int i = head + j * direction;
+            if (wrap) {
+                i = Math.floorMod(i, n);
+            } else if (i < 0 || i >= n) {
+                break;
+            }
+            pixels[i] = scale(color, FullLevel - j * FullLevel / (length + 1));
+        }
+    }
+
+    // Heat rises from the start of the strip, cools as it goes, and is fed by random sparks.
+    // Step sets how often sparks are lit.
+    private void drawFire() {
+        long target = phase / FirePhase;
+        if (target - fireSteps > MaxFireSteps) {
+            fireSteps = target - MaxFireSteps;
+        }
+        while (fireSteps < target) {
+            fireStep((int) fireSteps++);
+        }
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = heatColor(heat[i]);
+        }
+    }
+
+    private void fireStep(int tick) {
+        int n = heat.length;
+        int cooling = 550 / n + 2;
+        for (int i = 0; i < n; i++) {
+            heat[i] = Math.max(0, heat[i] - (hash(tick * 31 + i) & 0x7FFFFFFF) % cooling);
+        }
+        for (int i = n - 1; i >= 2; i--) {
+            heat[i] = (heat[i - 1] + 2 * heat[i - 2]) / 3;
+        }
+        int spark = hash(~tick);
+        if ((spark & 0xFF) < 50 + step) {
+            int i = (spark >>> 8 & 0x7FFFFFFF) % Math.min(n, 7);
+            heat[i] = Math.min(255, heat[i] + 160 + (spark >>> 24) % 96);
+        }
+    }
+
+    // Black through red and yellow to white.
+    private static int heatColor(int heat) {
+        int t = heat * 191 / 255;
+        int ramp = (t & 63) << 2;
+        if (t > 128) {
+            return 0xFFFF00 | ramp;
+        } else if (t > 64) {
+            return 0xFF0000 | ramp << 8;
+        }
+        return ramp << 16;
+    }
+
+    // 0-255 and back over 1024 steps.
+    private static int triangle(long t) {
+        int x = (int) (t & 1023);
+        return x < 512 ? x >> 1 : (1023 - x) >> 1;
+    }
+
+    // The color at a point of the hue wheel (0 to Wheel - 1), at full saturation.
+    static int wheel(int hue) {
+        int rise = hue & 0xFF;
+        int fall = 255 - rise;
+        switch (hue >> 8) {
+            case 0: return 0xFF0000 | rise << 8;
+            case 1: return fall << 16 | 0x00FF00;
+            case 2: return 0x00FF00 | rise;
+            case 3: return fall << 8 | 0x0000FF;
+            case 4: return rise << 16 | 0x0000FF;
+            default: return 0xFF0000 | fall;
+        }
+    }
+
+    // Scale each channel by level / 256.
+    static int scale(int color, int level) {
+        int r = (color >> 16 & 0xFF) * level >> 8;
+        int g = (color >> 8 & 0xFF) * level >> 8;
+        int b = (color & 0xFF) * level >> 8;
+        return r << 16 | g << 8 | b;
+    }
+
+    private static int hash(int x) {
+        x ^= x >>> 16;
+        x *= 0x7FEB352D;
+        x ^= x >>> 15;
+        x *= 0x846CA68B;
+        x ^= x >>> 16;
+        return x;
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.bleledcontroller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//
+// The Framebuffer characteristic: pixels rendered by the controller and streamed to the sign.
+//
+// A read returns (version 1):
+//   byte 0     version
+//   bytes 1-2  number of pixels (unsigned little-endian)
+//
+// Each write is one chunk of a frame, no longer than the link's MTU - 3 bytes:
+//   byte 0     flags (bit 0 end of frame, bit 1 indexed, bit 2 palette)
+//   if palette: a count n (1-255) and n RGB triples, replacing the sign's palette
+//   then runs, to the end of the chunk:
+//     bytes 0-1  first pixel (unsigned little-endian)
+//     byte 2     pixel count n (1-255)
+//     n pixels, as RGB triples or, if indexed, one-byte indexes into the palette
+// The sign draws runs into a back buffer and shows it once a chunk marked end of frame
+// has been applied. Runs hold absolute colors, so applying a chunk twice is harmless.
+//
+// A frame only needs to carry the pixels that differ from the frame the sign is showing.
+// encodeDelta picks whichever of RGB or indexed runs is smaller; the palette is only sent
+// when the sign's current one doesn't cover the changed colors.
+//
+public class PixelFrames {
+    public static final int Version = 1;
+    public static final int InfoLength = 3;
+    public static final int EndOfFrameFlag = 1;
+    public static final int IndexedFlag = 1 << 1;
+    public static final int PaletteFlag = 1 << 2;
+    public static final int RunHeaderLength = 3;
+    public static final int MaxRunLength = 255;
+    public static final int MaxPaletteSize = 255;
+
+    // A run header costs this much, so a gap of unchanged pixels no longer than this
+    // many bytes is cheaper to resend than to split the run around.
+    private static final int MergeGapBytes = RunHeaderLength;
+
+    // Colors (0xRRGGBB), sorted so a color's index can be found by binary search.
+    public static class Palette {
+        private final int[] colors;
+
+        public Palette(int[] sortedColors) {
+            colors = sortedColors;
+        }
+
+        public int size() {
+            return colors.length;
+        }
+
+        public int get(int index) {
+            return colors[index];
+        }
+
+        // The color's index, or a negative number if the palette doesn't have it.
+        public int indexOf(int color) {
+            return Arrays.binarySearch(colors, color);
+        }
+    }
+
+    // The pixel count from a Framebuffer read, or -1 if the value isn't recognized.
+    public static int decodePixelCount(byte[] value) {
+        if (value == null || value.length < InfoLength || value[0] != Version) {
+            return -1;
+        }
+        return (value[1] & 0xFF) | (value[2] & 0xFF) << 8;
+    }
+
+    // The chunks that turn the frame the sign is showing (null if unknown) into next.
+    // signPalette is the palette the sign has (null if none); if the encoding replaces it,
+    // paletteOut[0] is set to the new one. Returns no chunks if nothing changed.
+    public static List<byte[]> encodeDelta(int[] shown, int[] next, Palette signPalette, Palette[] paletteOut, int maxChunkLength) {
+        List<byte[]> chunks = new ArrayList<>();
+        if (!anyChanged(shown, next)) {
+            return chunks;
+        }
+
+        // The biggest palette that still leaves room for a one-pixel run in the first chunk.
+        int paletteLimit = Math.min(MaxPaletteSize, (maxChunkLength - 2 - RunHeaderLength - 1) / 3);
+        Palette palette = null;
+        boolean sendPalette = false;
+        int[] changedColors = distinctColors(shown, next, paletteLimit);
+        if (changedColors != null) {
+            if (signPalette != null && covers(signPalette, changedColors)) {
+                palette = signPalette;
+            } else {
+                // The whole frame's colors, if they fit, so later frames can reuse the palette.
+                int[] frameColors = distinctColors(null, next, paletteLimit);
+                palette = new Palette(frameColors != null ? frameColors : changedColors);
+                sendPalette = true;
+            }
+        }
+
+        Palette indexed = null;
+        if (palette != null) {
+            int indexedBytes = runBytes(shown, next, palette) + (sendPalette ? 1 + 3 * palette.size() : 0);
+            if (indexedBytes < runBytes(shown, next, null)) {
+                indexed = palette;
+            }
+        }
+
+        ChunkWriter writer = new ChunkWriter(chunks, maxChunkLength, indexed != null ? IndexedFlag : 0);
+        if (indexed != null && sendPalette) {
+            writer.writePalette(indexed);
+            paletteOut[0] = indexed;
+        }
+        int i = 0;
+        while (i < next.length) {
+            if (!changed(shown, next, i)) {
+                i++;
+                continue;
+            }
+            int end = runEnd(shown, next, i, indexed);
+            writer.writeRun(next, i, end, indexed);
+            i = end;
+        }
+        writer.finish();
+        return chunks;
+    }
+
+    private static boolean changed(int[] shown, int[] next, int i) {
+        return shown == null || shown[i] != next[i];
+    }
+
+    private static boolean anyChanged(int[] shown, int[] next) {
+        for (int i = 0; i < next.length; i++) {
+            if (changed(shown, next, i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The sorted distinct colors of the changed pixels, or null if there are more than limit.
+    private static int[] distinctColors(int[] shown, int[] next, int limit) {
+        int count = 0;
+        int[] colors = new int[next.length];
+        for (int i = 0; i < next.length; i++) {
+            if (changed(shown, next, i)) {
+                colors[count++] = next[i];
+            }
+        }
+        Arrays.sort(colors, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || colors[i] != colors[distinct - 1]) {
+                if (distinct == limit) {
+                    return null;
+                }
+                colors[distinct++] = colors[i];
+            }
+        }
+        return Arrays.copyOf(colors, distinct);
+    }
+
+    private static boolean covers(Palette palette, int[] colors) {
+        for (int color : colors) {
+            if (palette.indexOf(color) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The bytes the runs take, with indexed pixels if a palette is given.
+    private static int runBytes(int[] shown, int[] next, Palette indexed) {
+        int bytesPerPixel = indexed != null ? 1 : 3;
+        int bytes = 0;
+        int i = 0;
+        while (i < next.length) {
+            if (!changed(shown, next, i)) {
+                i++;
+                continue;
+            }
+            int end = runEnd(shown, next, i, indexed);
+            int length = end - i;
+            bytes += length * bytesPerPixel + RunHeaderLength * ((length + MaxRunLength - 1) / MaxRunLength);
+            i = end;
+        }
+        return bytes;
+    }
+
+    // The end (exclusive) of the run starting at the changed pixel i. Short gaps of unchanged
+    // pixels are taken into the run, as long as an indexed run's palette has their colors.
+    private static int runEnd(int[] shown, int[] next, int i, Palette indexed) {
+        int maxGap = MergeGapBytes / (indexed != null ? 1 : 3);
+        int end = i + 1;
+        for (int j = end; j < next.length; j++) {
+            if (changed(shown, next, j)) {
+                end = j + 1;
+            } else if (j - end >= maxGap || (indexed != null && indexed.indexOf(next[j]) < 0)) {
+                break;
+            }
+        }
+        return end;
+    }
+
+    // Packs runs into chunks, splitting a run wherever a chunk fills up.
+    private static class ChunkWriter {
+        private final List<byte[]> chunks;
+        private final byte[] buffer;
+        private final int flags;
+        private int length = 0;
+
+        ChunkWriter(List<byte[]> chunks, int maxChunkLength, int flags) {
+            this.chunks = chunks;
+            this.buffer = new byte[maxChunkLength];
+            this.flags = flags;
+        }
+
+        void writePalette(Palette palette) {
+            start();
+            buffer[0] |= PaletteFlag;
+            buffer[length++] = (byte) palette.size();
+            for (int i = 0; i < palette.size(); i++) {
+                putRgb(palette.get(i));
+            }
+        }
+
+        void writeRun(int[] pixels, int from, int to, Palette indexed) {
+            int bytesPerPixel = indexed != null ? 1 : 3;
+            while (from < to) {
+                if (length == 0 || buffer.length - length < RunHeaderLength + bytesPerPixel) {
+                    flush();
+                    start();
+                }
+                int count = Math.min(Math.min(to - from, MaxRunLength), (buffer.length - length - RunHeaderLength) / bytesPerPixel);
+                buffer[length++] = (byte) from;
+                buffer[length++] = (byte) (from >> 8);
+                buffer[length++] = (byte) count;
+                for (int i = from; i < from + count; i++) {
+                    if (indexed != null) {
+                        buffer[length++] = (byte) indexed.indexOf(pixels[i]);
+                    } else {
+                        putRgb(pixels[i]);
+                    }
+                }
+                from += count;
+            }
+        }
+
+        void finish() {
+            buffer[0] |= EndOfFrameFlag;
+            flush();
+        }
+
+        private void start() {
+            buffer[0] = (byte) flags;
+            length = 1;
+        }
+
+        private void flush() {
+            if (length > 0) {
+                chunks.add(Arrays.copyOf(buffer, length));
+                length = 0;
+            }
+        }
+
+        private void putRgb(int color) {
+            buffer[length++] = (byte) (color >> 16);
+            buffer[length++] = (byte) (color >> 8);
+            buffer[length++] = (byte) color;
+        }
+    }
+}
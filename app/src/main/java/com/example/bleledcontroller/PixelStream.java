@@ -0,0 +1,214 @@
+package com.example.bleledcontroller;
+
+import java.util.Arrays;
+import java.util.List;
+
+//
+// The controller's side of pixel streaming (see PixelFrames): the latest frame the app has
+// rendered, the frame and palette the sign is showing, and how fast frames can go out.
+//
+// Only the latest frame is kept; one submitted while an earlier one is still waiting replaces it.
+// Frames are paced by the time the link took to deliver the last one, so streaming uses at most
+// LinkShare of the link and leaves the rest for control writes and reads.
+//
+// submit() and the getters may be called from any thread; everything else runs on the connector thread.
+//
+public class PixelStream {
+    // Share of the link's time that frames may take.
+    public static final double LinkShare = 0.8;
+    public static final int DefaultMaxFrameRate = 60;
+    // Weight of the newest sample in the running averages.
+    private static final double Smoothing = 0.2;
+
+    private final Object lock = new Object();
+    // Guarded by lock.
+    private int[] submitted = new int[0];
+    private boolean hasSubmitted = false;
+
+    // Written on the connector thread only.
+    private volatile int pixelCount = 0;
+    private int[] next = new int[0];
+    private int[] shown = null;
+    private int[] sending = null;
+    private PixelFrames.Palette palette = null;
+    private PixelFrames.Palette sendingPalette = null;
+    private final PixelFrames.Palette[] paletteOut = new PixelFrames.Palette[1];
+    private long frameSentAt = -1;
+    private long lastTransferMs = 0;
+    private long lastDeliveredAt = -1;
+
+    private volatile int maxFrameRate = DefaultMaxFrameRate;
+    private volatile long framesSubmitted = 0;
+    private volatile long framesSent = 0;
+    private volatile long framesDelivered = 0;
+    private volatile long framesReplaced = 0;
+    private volatile long framesUnchanged = 0;
+    private volatile long bytesSent = 0;
+    private volatile int lastFrameBytes = 0;
+    private volatile double averageBytesPerFrame = 0;
+    private volatile double averageFrameIntervalMs = 0;
+    private volatile double throughputBytesPerSecond = 0;
+
+    // Keep a copy of the frame (0xRRGGBB per pixel) to send when the link is free.
+    // Pixels past the sign's pixel count are ignored; missing ones are black.
+    public void submit(int[] pixels) {
+        synchronized (lock) {
+            if (hasSubmitted) {
+                framesReplaced++;
+            }
+            if (submitted.length != pixels.length) {
+                submitted = new int[pixels.length];
+            }
+            System.arraycopy(pixels, 0, submitted, 0, pixels.length);
+            hasSubmitted = true;
+            framesSubmitted++;
+        }
+    }
+
+    public int getPixelCount() {
+        return pixelCount;
+    }
+
+    public void setMaxFrameRate(int framesPerSecond) {
+        maxFrameRate = Math.max(1, framesPerSecond);
+    }
+
+    public int getMaxFrameRate() {
+        return maxFrameRate;
+    }
+
+    // A new connection: the sign's pixel count is known, but not what it is showing.
+    void start(int pixelCount) {
+        this.pixelCount = pixelCount;
+        next = new int[pixelCount];
+        reset();
+    }
+
+    // Forget what the sign is showing, so the next frame is sent in full.
+    void reset() {
+        shown = null;
+        sending = null;
+        palette = null;
+        sendingPalette = null;
+        frameSentAt = -1;
+    }
+
+    void stop() {
+        pixelCount = 0;
+        reset();
+    }
+
+    boolean hasFrame() {
+        synchronized (lock) {
+            return hasSubmitted;
+        }
+    }
+
+    boolean isFrameInFlight() {
+        return sending != null;
+    }
+
+    // How long until the next frame may go out: long enough after the last one that the link
+    // spends no more than LinkShare of its time on frames, and no faster than maxFrameRate.
+    long delayUntilNextFrame(long now) {
+        if (frameSentAt < 0) {
+            return 0;
+        }
+        long interval = Math.max(1000 / maxFrameRate, (long) Math.ceil(lastTransferMs / LinkShare));
+        return Math.max(0, frameSentAt + interval - now);
+    }
+
+    // The chunks for the latest frame, or null if there is nothing new to send.
+    List<byte[]> takeFrame(long now, int maxChunkLength) {
+        synchronized (lock) {
+            if (!hasSubmitted) {
+                return null;
+            }
+            hasSubmitted = false;
+            Arrays.fill(next, 0);
+            System.arraycopy(submitted, 0, next, 0, Math.min(submitted.length, next.length));
+        }
+
+        paletteOut[0] = null;
+        List<byte[]> chunks = PixelFrames.encodeDelta(shown, next, palette, paletteOut, maxChunkLength);
+        if (chunks.isEmpty()) {
+            framesUnchanged++;
+            return null;
+        }
+
+        int bytes = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            bytes += chunks.get(i).length;
+        }
+        sending = next.clone();
+        sendingPalette = paletteOut[0] != null ? paletteOut[0] : palette;
+        frameSentAt = now;
+        framesSent++;
+        bytesSent += bytes;
+        lastFrameBytes = bytes;
+        averageBytesPerFrame = average(averageBytesPerFrame, bytes, framesSent);
+        return chunks;
+    }
+
+    // The sign acknowledged the last chunk of the frame in flight, so it is showing it.
+    void onFrameDelivered(long now) {
+        if (sending == null) {
+            return;
+        }
+        shown = sending;
+        palette = sendingPalette;
+        sending = null;
+        lastTransferMs = now - frameSentAt;
+        framesDelivered++;
+        if (lastTransferMs > 0) {
+            throughputBytesPerSecond = average(throughputBytesPerSecond, lastFrameBytes * 1000.0 / lastTransferMs, framesDelivered);
+        }
+        if (lastDeliveredAt >= 0) {
+            averageFrameIntervalMs = average(averageFrameIntervalMs, now - lastDeliveredAt, framesDelivered - 1);
+        }
+        lastDeliveredAt = now;
+    }
+
+    // The frame in flight didn't arrive (or may only have partly), so what the sign shows is unknown.
+    void onFrameLost() {
+        reset();
+    }
+
+    private static double average(double average, double sample, long count) {
+        return count <= 1 ? sample : average + Smoothing * (sample - average);
+    }
+
+    public long getFramesSubmitted() { return framesSubmitted; }
+    public long getFramesSent() { return framesSent; }
+    public long getFramesDelivered() { return framesDelivered; }
+    // Frames replaced by a newer one before they could be sent.
+    public long getFramesReplaced() { return framesReplaced; }
+    // Frames that matched what the sign was already showing, so nothing was sent.
+    public long getFramesUnchanged() { return framesUnchanged; }
+    public long getBytesSent() { return bytesSent; }
+    public int getLastFrameBytes() { return lastFrameBytes; }
+    public double getAverageBytesPerFrame() { return averageBytesPerFrame; }
+    public double getThroughputBytesPerSecond() { return throughputBytesPerSecond; }
+
+    // Frames per second reaching the sign, recently.
+    public double getFrameRate() {
+        return averageFrameIntervalMs > 0 ? 1000 / averageFrameIntervalMs : 0;
+    }
+
+    // The frame rate the link can sustain at the current frame size, capped at maxFrameRate.
+    // Rendering faster than this only produces frames that are replaced before they are sent.
+    public double getTargetFrameRate() {
+        if (averageBytesPerFrame <= 0 || throughputBytesPerSecond <= 0) {
+            return maxFrameRate;
+        }
+        return Math.min(maxFrameRate, LinkShare * throughputBytesPerSecond / averageBytesPerFrame);
+    }
+
+    // A line for the debug overlay.
+    public String format() {
+        return "pixels " + pixelCount
+                + "  " + Math.round(getFrameRate()) + " fps (target " + Math.round(getTargetFrameRate()) + ")"
+                + "  " + Math.round(averageBytesPerFrame) + " B/frame"
+                + "  " + framesReplaced + " replaced";
+    }
+}
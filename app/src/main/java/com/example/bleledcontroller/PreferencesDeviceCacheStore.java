@@ -0,0 +1,26 @@
+package com.example.bleledcontroller;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+// Keeps the DeviceCache in the app's SharedPreferences.
+public class PreferencesDeviceCacheStore implements DeviceCacheStore {
+    private static final String PreferencesName = "DeviceCache";
+    private static final String CacheKey = "LastDevice";
+
+    private SharedPreferences preferences;
+
+    public PreferencesDeviceCacheStore(Context context) {
+        preferences = context.getSharedPreferences(PreferencesName, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public DeviceCache load() {
+        return DeviceCache.decode(preferences.getString(CacheKey, null));
+    }
+
+    @Override
+    public void save(DeviceCache cache) {
+        preferences.edit().putString(CacheKey, cache.encode()).apply();
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.bleledcontroller;
+
+// A named set of control values the user can recall in one step.
+public class Preset {
+    public String name;
+    public SignState state;
+
+    public Preset(String name, SignState state) {
+        this.name = name;
+        this.state = state;
+    }
+
+    // A slot nothing has been saved in, kept so the presets after it keep their indices
+    // (see PresetLibrary.addEmpty). Saved presets always have a name.
+    public boolean isEmpty() {
+        return name.isEmpty();
+    }
+}
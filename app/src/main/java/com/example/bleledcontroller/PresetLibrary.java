@@ -0,0 +1,158 @@
+package com.example.bleledcontroller;
+
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+//
+// The user's presets, in the order they were created, with unique names.
+//
+// Stored as one compact binary value (all numbers little-endian):
+//   u8  version (Version)
+//   u16 number of presets
+//   per preset:
+//     u8  name length, then that many bytes of UTF-8 name
+//     u8  style, pattern, brightness, speed, step
+// A preset takes seven bytes plus its name, so a few hundred fit in a few kilobytes.
+//
+public class PresetLibrary {
+    public static final int Version = 1;
+    // Longest name, in UTF-8 bytes. Longer names are cut short when saved.
+    public static final int MaxNameLength = 255;
+
+    private final ArrayList<Preset> presets = new ArrayList<>();
+
+    public int size() {
+        return presets.size();
+    }
+
+    public Preset get(int index) {
+        return presets.get(index);
+    }
+
+    // Index of the preset with the given name, or -1.
+    public int indexOf(String name) {
+        for (int i = 0; i < presets.size(); i++) {
+            if (presets.get(i).name.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Save a copy of the state under a name, replacing any preset that already has it.
+    // Returns the preset's index.
+    public int put(String name, SignState state) {
+        SignState copy = new SignState();
+        copy.copyFrom(state);
+        int index = indexOf(name);
+        if (index >= 0) {
+            presets.get(index).state = copy;
+            return index;
+        }
+        presets.add(new Preset(name, copy));
+        return presets.size() - 1;
+    }
+
+    // Add an empty slot (see Preset.isEmpty). It holds all-zero values, so it can still be
+    // stored like any other preset, on the phone and on the sign. Returns its index.
+    public int addEmpty() {
+        presets.add(new Preset("", new SignState(0, 0, 0, 0, 0)));
+        return presets.size() - 1;
+    }
+
+    // Save a copy of the state in the given slot under a name, e.g. to fill an empty one.
+    public void set(int index, String name, SignState state) {
+        SignState copy = new SignState();
+        copy.copyFrom(state);
+        Preset preset = presets.get(index);
+        preset.name = name;
+        preset.state = copy;
+    }
+
+    public void remove(int index) {
+        presets.remove(index);
+    }
+
+    public String[] getNames() {
+        String[] names = new String[presets.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = presets.get(i).name;
+        }
+        return names;
+    }
+
+    // The presets' states, in order, e.g. to store on the sign (see NanoConnector.setSignPresets).
+    public SignState[] getStates() {
+        SignState[] states = new SignState[presets.size()];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = presets.get(i).state;
+        }
+        return states;
+    }
+
+    public byte[] encode() {
+        byte[][] names = new byte[presets.size()][];
+        int length = 3;
+        for (int i = 0; i < names.length; i++) {
+            byte[] name = presets.get(i).name.getBytes(StandardCharsets.UTF_8);
+            names[i] = name.length > MaxNameLength ? truncate(name) : name;
+            length += 1 + names[i].length + 5;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) Version).putShort((short) presets.size());
+        for (int i = 0; i < names.length; i++) {
+            SignState state = presets.get(i).state;
+            buffer.put((byte) names[i].length).put(names[i])
+                    .put((byte) state.style)
+                    .put((byte) state.pattern)
+                    .put((byte) state.brightness)
+                    .put((byte) state.speed)
+                    .put((byte) state.step);
+        }
+        return buffer.array();
+    }
+
+    // Returns null if the value isn't a library this version wrote.
+    public static PresetLibrary decode(byte[] value) {
+        if (value == null || value.length < 3 || value[0] != Version) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.get();
+        int count = Short.toUnsignedInt(buffer.getShort());
+        PresetLibrary library = new PresetLibrary();
+        try {
+            for (int i = 0; i < count; i++) {
+                int nameLength = Byte.toUnsignedInt(buffer.get());
+                String name = new String(value, buffer.position(), Math.min(nameLength, buffer.remaining()), StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + nameLength);
+                library.presets.add(new Preset(name, new SignState(
+                        Byte.toUnsignedInt(buffer.get()),
+                        Byte.toUnsignedInt(buffer.get()),
+                        Byte.toUnsignedInt(buffer.get()),
+                        Byte.toUnsignedInt(buffer.get()),
+                        Byte.toUnsignedInt(buffer.get()))));
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // Truncated.
+            return null;
+        }
+        return buffer.hasRemaining() ? null : library;
+    }
+
+    // Cut a UTF-8 name to MaxNameLength bytes without splitting a character.
+    private static byte[] truncate(byte[] name) {
+        int length = MaxNameLength;
+        while (length > 0 && (name[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        byte[] truncated = new byte[length];
+        System.arraycopy(name, 0, truncated, 0, length);
+        return truncated;
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.bleledcontroller;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+//
+// Presets stored on the sign itself, so recalling one is a single one-byte write.
+//
+// The Preset Slots characteristic:
+//   read   u8  version (Version)
+//          u8  number of slots the sign has
+//          u32 content hash: CRC-32 of every slot's state frame, in slot order (little-endian)
+//   write  u8  slot, then a state frame (see SignState) to keep in it.
+//          A frame with an empty field mask clears the slot.
+// The Preset Recall characteristic takes a u8 slot; the sign applies that slot's frame
+// as if it had been written to the state frame characteristic.
+//
+// The app works out the hash of the slots it wants; if the sign reports the same one,
+// its slots are already up to date and nothing needs writing.
+//
+public class PresetSlots {
+    public static final int Version = 1;
+    public static final int HeaderLength = 6;
+    public static final int SlotWriteLength = 1 + SignState.FrameLength;
+
+    public static class Header {
+        public int slotCount;
+        public long hash;
+    }
+
+    // Returns null if the value isn't a header this version understands.
+    public static Header decodeHeader(byte[] value) {
+        if (value == null || value.length < HeaderLength || Byte.toUnsignedInt(value[0]) != Version) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN);
+        Header header = new Header();
+        buffer.get();
+        header.slotCount = Byte.toUnsignedInt(buffer.get());
+        header.hash = Integer.toUnsignedLong(buffer.getInt());
+        return header;
+    }
+
+    // The frame for a slot: the preset in it, or an empty frame past the end of the presets.
+    public static void slotFrame(SignState[] presets, int slot, byte[] frame) {
+        if (slot < presets.length) {
+            presets[slot].toFrame(frame, SignState.AllFields);
+        } else {
+            new SignState().toFrame(frame, 0);
+        }
+    }
+
+    // The hash the sign reports once its slots hold the given presets (as many as fit).
+    public static long hashFor(SignState[] presets, int slotCount) {
+        CRC32 crc = new CRC32();
+        byte[] frame = new byte[SignState.FrameLength];
+        for (int slot = 0; slot < slotCount; slot++) {
+            slotFrame(presets, slot, frame);
+            crc.update(frame, 0, frame.length);
+        }
+        return crc.getValue();
+    }
+
+    public static byte[] encodeSlotWrite(SignState[] presets, int slot) {
+        byte[] value = new byte[SlotWriteLength];
+        byte[] frame = new byte[SignState.FrameLength];
+        slotFrame(presets, slot, frame);
+        value[0] = (byte) slot;
+        System.arraycopy(frame, 0, value, 1, frame.length);
+        return value;
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.bleledcontroller;
+
+public interface PresetStore {
+    // Returns an empty library if nothing has been saved yet.
+    PresetLibrary load();
+    void save(PresetLibrary library);
+}
@@ -0,0 +1,206 @@
+package com.example.bleledcontroller;
+
+import java.util.HashMap;
+import java.util.Map;
+
+//
+// One search for the sign to connect to.
+// Rather than taking the first advertisement, sightings are collected for a short window and
+// the signs ranked by signal strength, averaged over their sightings since one RSSI reading
+// can swing by 10 dB. The sign we connected to last time gets KnownSignBonusDb on top, and
+// ends the window early if it shows up with a usable signal.
+//
+// The radio listens at low latency for the first window, which finds a sign advertising at
+// the usual 100ms-1s intervals well within it. If nothing turns up it drops to low power,
+// which only listens a fraction of the time, and the search gives up after BudgetMs.
+// The radio is stopped as soon as a sign is chosen.
+//
+// Sightings may arrive one at a time or in batches; either way each goes through onResult.
+// Runs on one thread: the one results are delivered on, which the task scheduler also uses.
+//
+public class ScanSession {
+    // The radio's scan modes, with the values of Android's ScanSettings.SCAN_MODE_*.
+    public static final int LowPowerMode = 0;
+    public static final int LowLatencyMode = 2;
+
+    // How long to collect sightings at low latency before choosing.
+    public static final long WindowMs = 1000;
+    // At low power, how long to wait after the first sighting for others before choosing.
+    public static final long LowPowerSettleMs = 500;
+    // How long to look before giving up.
+    public static final long BudgetMs = 10000;
+    public static final int KnownSignBonusDb = 10;
+    // The known sign at least this strong is taken at once.
+    public static final int GoodSignalDbm = -75;
+
+    public interface Radio {
+        void startScan(int mode);
+        void stopScan();
+    }
+
+    public interface Listener {
+        void acceptStatus(String status);
+        void onSignChosen(String address);
+        // Nothing was found within BudgetMs.
+        void onNoSignFound();
+    }
+
+    private static class Candidate {
+        int sightings;
+        long rssiSum;
+
+        double averageRssi() {
+            return (double) rssiSum / sightings;
+        }
+    }
+
+    private static final int Idle = 0;
+    private static final int Collecting = 1;
+    private static final int LowPower = 2;
+    private static final int Settling = 3;
+
+    private final Radio radio;
+    private final TimeSource timeSource;
+    private final TaskScheduler taskScheduler;
+    private final Listener listener;
+    private String knownAddress;
+    private final HashMap<String, Candidate> candidates = new HashMap<>();
+    private int state = Idle;
+    // Tasks from an earlier search are ignored when they run.
+    private int generation = 0;
+    private long startedAt = -1;
+    private int mode = -1;
+
+    public ScanSession(Radio radio, TimeSource timeSource, TaskScheduler taskScheduler, Listener listener) {
+        this.radio = radio;
+        this.timeSource = timeSource;
+        this.taskScheduler = taskScheduler;
+        this.listener = listener;
+    }
+
+    // Start a search. knownAddress is the sign connected to last time, or null.
+    public void start(String knownAddress) {
+        stop();
+        this.knownAddress = knownAddress;
+        candidates.clear();
+        startedAt = timeSource.nowMillis();
+        state = Collecting;
+        startRadio(LowLatencyMode);
+        listener.acceptStatus("Scanning for signs.");
+        int current = generation;
+        taskScheduler.schedule(WindowMs, () -> onWindowEnd(current));
+        taskScheduler.schedule(BudgetMs, () -> onBudgetSpent(current));
+    }
+
+    // Stop searching without choosing a sign.
+    public void stop() {
+        generation++;
+        if (state != Idle) {
+            state = Idle;
+            radio.stopScan();
+            mode = -1;
+        }
+    }
+
+    public boolean isScanning() {
+        return state != Idle;
+    }
+
+    // The radio's scan mode, or -1 while not scanning.
+    public int getMode() {
+        return mode;
+    }
+
+    // The number of distinct signs seen so far in this search.
+    public int getCandidateCount() {
+        return candidates.size();
+    }
+
+    // A sign's advertisement was received with the given signal strength.
+    public void onResult(String address, int rssi) {
+        if (state == Idle) {
+            return;
+        }
+        Candidate candidate = candidates.get(address);
+        if (candidate == null) {
+            candidate = new Candidate();
+            candidates.put(address, candidate);
+        }
+        candidate.sightings++;
+        candidate.rssiSum += rssi;
+
+        if (address.equals(knownAddress) && rssi >= GoodSignalDbm) {
+            choose();
+        } else if (state == LowPower) {
+            state = Settling;
+            int current = generation;
+            taskScheduler.schedule(LowPowerSettleMs, () -> {
+                if (current == generation) {
+                    choose();
+                }
+            });
+        }
+    }
+
+    // The radio failed to scan.
+    public void onScanFailed(int errorCode) {
+        if (state == Idle) {
+            return;
+        }
+        stop();
+        listener.acceptStatus("Scan failed with error " + errorCode + ".");
+        listener.onNoSignFound();
+    }
+
+    private void onWindowEnd(int current) {
+        if (current != generation || state != Collecting) {
+            return;
+        }
+        if (!candidates.isEmpty()) {
+            choose();
+            return;
+        }
+        state = LowPower;
+        radio.stopScan();
+        startRadio(LowPowerMode);
+        listener.acceptStatus("No sign yet - scanning at low power.");
+    }
+
+    private void onBudgetSpent(int current) {
+        if (current != generation) {
+            return;
+        }
+        stop();
+        listener.acceptStatus("No sign found in " + BudgetMs / 1000 + "s - stopped scanning.");
+        listener.onNoSignFound();
+    }
+
+    private void choose() {
+        String best = null;
+        double bestScore = 0;
+        for (Map.Entry<String, Candidate> entry : candidates.entrySet()) {
+            double score = score(entry.getKey(), entry.getValue());
+            if (best == null || score > bestScore) {
+                best = entry.getKey();
+                bestScore = score;
+            }
+        }
+        Candidate chosen = candidates.get(best);
+        long elapsed = timeSource.nowMillis() - startedAt;
+        int count = candidates.size();
+        stop();
+        listener.acceptStatus("Chose " + best + " (" + Math.round(chosen.averageRssi()) + " dBm"
+                + (best.equals(knownAddress) ? ", known" : "") + ") of " + count
+                + (count == 1 ? " sign" : " signs") + " after " + elapsed + "ms.");
+        listener.onSignChosen(best);
+    }
+
+    private double score(String address, Candidate candidate) {
+        return candidate.averageRssi() + (address.equals(knownAddress) ? KnownSignBonusDb : 0);
+    }
+
+    private void startRadio(int mode) {
+        this.mode = mode;
+        radio.startScan(mode);
+    }
+}
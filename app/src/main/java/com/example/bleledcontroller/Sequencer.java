@@ -0,0 +1,199 @@
+package com.example.bleledcontroller;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//
+// Plays a Timeline against one or more signs.
+//
+// Keyframes less than MergeWindowMs apart would land in the same connection interval anyway,
+// so they are merged into one cue and sent as a single write. Each cue is sent ahead of its
+// time by what the sign's link has been measured to take:
+//   - A sign with a synced clock gets a scheduled frame (see NanoConnector.applyStateAt),
+//     sent two round trips plus ScheduleMarginMs early. It holds the frame and applies it on time.
+//   - Any other sign gets a plain write, sent one average write round trip early (see LinkTuner),
+//     since by the time the acknowledgement is back the sign has applied it.
+// The lead is worked out again for every cue, so it follows the link as it is measured.
+// While a show plays the links are kept at high priority, even through long gaps between
+// cues, so the round trips the leads are based on stay the short ones.
+// Each sign keeps its own place in the timeline, so a slow sign doesn't hold up the others.
+//
+// Runs on the TaskScheduler's thread (the connector thread in the app); play and stop can be
+// called from any thread.
+//
+public class Sequencer {
+    // Keyframes closer together than this are sent as one change.
+    public static final long MergeWindowMs = 15;
+    private static final int[] FastestPriorityFirst = {GattTransport.CONNECTION_PRIORITY_HIGH,
+            GattTransport.CONNECTION_PRIORITY_BALANCED, GattTransport.CONNECTION_PRIORITY_LOW_POWER};
+
+    // A merged group of keyframes: the controls they change, and when (ms from the start).
+    private static class Cue {
+        final long offsetMs;
+        final SignState changes = new SignState();
+
+        Cue(long offsetMs) {
+            this.offsetMs = offsetMs;
+        }
+    }
+
+    // One sign's progress through the cues, and the state the cues so far have left it in.
+    // Kept here rather than read back from the connector, which may not have picked up the last cue yet.
+    private static class Track {
+        final NanoConnector connector;
+        final SignState state;
+        int nextCue = 0;
+
+        Track(NanoConnector connector) {
+            this.connector = connector;
+            state = connector.getState();
+        }
+    }
+
+    private final TimeSource timeSource;
+    private final TaskScheduler taskScheduler;
+    private final ArrayList<Track> tracks = new ArrayList<>();
+    private Cue[] cues = new Cue[0];
+    private long startAt;
+    private boolean playing = false;
+    // Bumped by play and stop, so wake-ups scheduled for an earlier run are ignored.
+    private int generation = 0;
+    private int mergedKeyframes = 0;
+    // How late each cue went out compared to when it should have, i.e. the scheduling jitter on our side.
+    private final LatencyHistogram sendLateness = new LatencyHistogram();
+
+    public Sequencer(TimeSource timeSource, TaskScheduler taskScheduler) {
+        this.timeSource = timeSource;
+        this.taskScheduler = taskScheduler;
+    }
+
+    // Play the timeline on the given signs, with its first beat at startAt (TimeSource milliseconds).
+    // Allow at least the slowest sign's lead before startAt, or the first cues go out late.
+    // Replaces whatever was playing.
+    public synchronized void play(Timeline timeline, List<NanoConnector> connectors, long startAt) {
+        generation++;
+        cues = compile(timeline);
+        tracks.clear();
+        for (NanoConnector connector : connectors) {
+            tracks.add(new Track(connector));
+        }
+        this.startAt = startAt;
+        playing = true;
+        for (Track track : tracks) {
+            track.connector.keepLinkResponsive();
+        }
+        int run = generation;
+        taskScheduler.schedule(0, () -> tick(run));
+    }
+
+    public synchronized void stop() {
+        generation++;
+        playing = false;
+    }
+
+    public synchronized boolean isPlaying() {
+        return playing;
+    }
+
+    // Cues in the timeline being played, after merging.
+    public synchronized int getCueCount() {
+        return cues.length;
+    }
+
+    // Keyframes that were folded into an earlier one's cue.
+    public synchronized int getMergedKeyframeCount() {
+        return mergedKeyframes;
+    }
+
+    public LatencyHistogram getSendLateness() {
+        return sendLateness;
+    }
+
+    // How far ahead of its time a cue goes out to the sign, from what its link has been measured to take.
+    public static long leadFor(NanoConnector connector) {
+        long clockRoundTrip = connector.getLinkRoundTripMs();
+        if (connector.supportsScheduledApply() && clockRoundTrip >= 0) {
+            return 2 * clockRoundTrip + SignFleet.ScheduleMarginMs;
+        }
+
+        // The link is kept at high priority, so that is the round trip to go by. Until a write has
+        // been timed there, a slower priority's is the next best guess (it errs on the early side).
+        LinkTuner link = connector.getLinkTuner();
+        for (int priority : FastestPriorityFirst) {
+            long writeRoundTrip = link.getRoundTripMs(priority);
+            if (writeRoundTrip >= 0) {
+                return writeRoundTrip;
+            }
+        }
+        return clockRoundTrip >= 0 ? clockRoundTrip : SignFleet.DefaultRoundTripMs;
+    }
+
+    private Cue[] compile(Timeline timeline) {
+        ArrayList<Cue> compiled = new ArrayList<>();
+        mergedKeyframes = 0;
+        Cue current = null;
+        for (int i = 0; i < timeline.size(); i++) {
+            Timeline.Keyframe keyframe = timeline.get(i);
+            long offset = timeline.beatToMs(keyframe.beat);
+            if (current != null && offset - current.offsetMs < MergeWindowMs) {
+                mergedKeyframes++;
+            } else {
+                current = new Cue(offset);
+                compiled.add(current);
+            }
+            current.changes.overlay(keyframe.changes);
+        }
+        return compiled.toArray(new Cue[0]);
+    }
+
+    // Send every cue that is due on any sign, then sleep until the next one is
+    // (or until the links need keeping responsive).
+    private synchronized void tick(int run) {
+        if (run != generation || !playing) {
+            return;
+        }
+
+        long now = timeSource.nowMillis();
+        long nextSendAt = Long.MAX_VALUE;
+        for (Track track : tracks) {
+            while (track.nextCue < cues.length) {
+                Cue cue = cues[track.nextCue];
+                long cueAt = startAt + cue.offsetMs;
+                long sendAt = cueAt - leadFor(track.connector);
+                if (sendAt > now) {
+                    nextSendAt = Math.min(nextSendAt, sendAt);
+                    break;
+                }
+                sendLateness.record(now - sendAt);
+                send(track, cue, cueAt);
+                track.nextCue++;
+            }
+        }
+
+        if (nextSendAt == Long.MAX_VALUE) {
+            playing = false;
+            return;
+        }
+        if (nextSendAt - now > LinkTuner.InteractiveHoldMs / 2) {
+            for (Track track : tracks) {
+                if (track.nextCue < cues.length) {
+                    track.connector.keepLinkResponsive();
+                }
+            }
+            nextSendAt = now + LinkTuner.InteractiveHoldMs / 2;
+        }
+        taskScheduler.schedule(nextSendAt - now, () -> tick(run));
+    }
+
+    private void send(Track track, Cue cue, long cueAt) {
+        // Controls the cue leaves alone keep what the sign had before.
+        SignState target = track.state;
+        target.overlay(cue.changes);
+        NanoConnector connector = track.connector;
+        if (connector.supportsScheduledApply() && connector.getLinkRoundTripMs() >= 0) {
+            connector.applyStateAt(cueAt, target.style, target.pattern, target.brightness, target.speed, target.step);
+        } else {
+            connector.applyState(target.style, target.pattern, target.brightness, target.speed, target.step);
+        }
+    }
+}
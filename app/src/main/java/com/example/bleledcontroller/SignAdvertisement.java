@@ -0,0 +1,62 @@
+package com.example.bleledcontroller;
+
+//
+// The sign's state and battery voltage, broadcast as manufacturer-specific data (company ID
+// BleConstants.ManufacturerId) so a scanner can show them without connecting.
+// The 128-bit LED service UUID fills most of the advertisement, so the sign puts this block
+// in its scan response; Android's scanner merges the two into one ScanRecord.
+//
+// Layout (version 1), after the company ID:
+//   bytes 0-6  a state frame (see SignState): version, field mask, style, pattern, brightness, speed, step
+//   bytes 7-8  battery voltage in millivolts (unsigned little-endian), if the mask has BatteryBit
+//   byte 9     change counter: the sign bumps it whenever any of the above changes
+//
+// A sign advertises many times a second, mostly with nothing new. Comparing the counter with
+// the last one seen (see changeCounterOf) skips decoding those repeats.
+//
+public class SignAdvertisement {
+    public static final int Length = SignState.FrameLength + 3;
+    // Set in the field mask when bytes 7-8 hold the battery voltage.
+    public static final int BatteryBit = 1 << 5;
+
+    // Fields the sign didn't include are -1.
+    public final SignState state;
+    // Volts, or NaN if the sign didn't include it.
+    public final float batteryVoltage;
+    public final int changeCounter;
+
+    private SignAdvertisement(SignState state, float batteryVoltage, int changeCounter) {
+        this.state = state;
+        this.batteryVoltage = batteryVoltage;
+        this.changeCounter = changeCounter;
+    }
+
+    public boolean hasBatteryVoltage() {
+        return !Float.isNaN(batteryVoltage);
+    }
+
+    // The change counter of a block, or -1 if it isn't one this version understands.
+    public static int changeCounterOf(byte[] data) {
+        if (data == null || data.length < Length || data[0] != SignState.FrameVersion) {
+            return -1;
+        }
+        return Byte.toUnsignedInt(data[Length - 1]);
+    }
+
+    // Returns null if the data isn't a block this version understands.
+    public static SignAdvertisement decode(byte[] data) {
+        int changeCounter = changeCounterOf(data);
+        if (changeCounter < 0) {
+            return null;
+        }
+
+        SignState state = new SignState();
+        state.applyFrame(data);
+        float batteryVoltage = Float.NaN;
+        if ((data[1] & BatteryBit) != 0) {
+            int millivolts = Byte.toUnsignedInt(data[7]) | Byte.toUnsignedInt(data[8]) << 8;
+            batteryVoltage = millivolts / 1000f;
+        }
+        return new SignAdvertisement(state, batteryVoltage, changeCounter);
+    }
+}
@@ -0,0 +1,344 @@
+package com.example.bleledcontroller;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+//
+// Drives several signs at once.
+// Every sign the scanner finds gets its own NanoConnector, and with it its own transport and
+// operation queue, so the signs' GATT operations run side by side rather than one after another.
+// A command is sent to every ready sign at the same moment and tracked with a FleetCommand.
+// In the app all the connectors share one connector thread; their operations are asynchronous,
+// so sharing the thread doesn't serialize the signs.
+//
+// A fleet can also just watch: startMonitoring() keeps each sign's advertised state and battery
+// voltage (see SignAdvertisement) without connecting. A monitored sign is connected the first
+// time a command is sent; the command goes out once it is ready.
+//
+public class SignFleet {
+    // Creates the transport for one sign.
+    public interface TransportFactory {
+        GattTransport create(String address);
+    }
+
+    // Clock reads per sign after connecting, for applyStateTogether.
+    public static final int ClockSyncSamples = 5;
+    // Round trip assumed for a sign whose clock hasn't been synced.
+    public static final long DefaultRoundTripMs = 100;
+    // Extra time allowed for a scheduled frame to reach every sign, on top of the slowest round trip.
+    public static final long ScheduleMarginMs = 50;
+
+    private SignScanner scanner;
+    private TransportFactory transportFactory;
+    private SignFleetCallback callback;
+    private TimeSource timeSource;
+    private TaskScheduler taskScheduler;
+    private Executor executor;
+    // The thread the fleet started for its signs (see close()), or null if it was given one.
+    private Looper connectorLooper;
+    private LinkedHashMap<String, Member> members = new LinkedHashMap<>();
+    private ArrayList<FleetCommand> activeCommands = new ArrayList<>();
+
+    public SignFleet(Context context, SignFleetCallback callback) {
+        this(context, callback, startConnectorThread());
+    }
+
+    private SignFleet(Context context, SignFleetCallback callback, Handler handler) {
+        this(new AndroidSignScanner(context), address -> new AndroidGattTransport(context, address, handler), callback, TimeSource.SystemTime,
+                (delayMs, task) -> handler.postDelayed(task, delayMs), handler::post);
+        connectorLooper = handler.getLooper();
+    }
+
+    public SignFleet(SignScanner scanner, TransportFactory transportFactory, SignFleetCallback callback, TimeSource timeSource) {
+        this(scanner, transportFactory, callback, timeSource, null, null);
+    }
+
+    // taskScheduler and executor are passed to every sign's NanoConnector.
+    public SignFleet(SignScanner scanner, TransportFactory transportFactory, SignFleetCallback callback, TimeSource timeSource, TaskScheduler taskScheduler, Executor executor) {
+        this.scanner = scanner;
+        this.transportFactory = transportFactory;
+        this.callback = callback;
+        this.timeSource = timeSource;
+        this.taskScheduler = taskScheduler;
+        this.executor = executor;
+    }
+
+    private static Handler startConnectorThread() {
+        HandlerThread thread = new HandlerThread("SignFleet");
+        thread.start();
+        return new Handler(thread.getLooper());
+    }
+
+    // Connect to every sign that shows up until stopDiscovery() is called.
+    public void startDiscovery() {
+        scanner.startScan(new ScanListener(true));
+    }
+
+    // Track every sign that shows up, and what it advertises, without connecting to any of them.
+    public void startMonitoring() {
+        scanner.startScan(new ScanListener(false));
+    }
+
+    public void stopDiscovery() {
+        scanner.stopScan();
+    }
+
+    // Stop scanning, close every sign's link and stop the fleet's thread once the tasks
+    // already posted to it have run. The fleet can't be used again afterwards.
+    public synchronized void close() {
+        scanner.stopScan();
+        for (Member member : members.values()) {
+            if (member.connector != null) {
+                member.connector.close();
+            }
+        }
+        if (connectorLooper != null) {
+            connectorLooper.quitSafely();
+        }
+    }
+
+    // Connect to a sign. Signs that are already connected (or connecting) are ignored;
+    // one that has dropped off is connected again.
+    public synchronized void addSign(String address) {
+        Member member = members.get(address);
+        if (member == null) {
+            member = new Member(address);
+            members.put(address, member);
+        } else if (member.ready || member.connecting) {
+            return;
+        }
+        connect(member, member.connector == null ? "Found sign - connecting." : "Reconnecting.");
+    }
+
+    // Keep track of a sign without connecting to it. Signs already in the fleet are ignored.
+    public synchronized void monitorSign(String address) {
+        if (members.containsKey(address)) {
+            return;
+        }
+        members.put(address, new Member(address));
+        callback.acceptStatus(address, "Found sign - monitoring.");
+    }
+
+    // A sign that dropped off keeps its connector, which connects again the same way.
+    private void connect(Member member, String status) {
+        if (member.connector == null) {
+            member.connector = new NanoConnector(transportFactory.create(member.address), member, timeSource, null, taskScheduler, executor);
+        }
+        member.connecting = true;
+        callback.acceptStatus(member.address, status);
+        member.connector.connect();
+    }
+
+    private synchronized void acceptAdvertisement(String address, SignAdvertisement advertisement) {
+        Member member = members.get(address);
+        if (member == null) {
+            return;
+        }
+        member.advertisement = advertisement;
+        callback.signAdvertised(address, advertisement);
+    }
+
+    // The sign's latest advertised state and battery voltage, or null if it hasn't advertised any.
+    // For a connected sign, its connector has the current values.
+    public synchronized SignAdvertisement getAdvertisement(String address) {
+        Member member = members.get(address);
+        return member == null ? null : member.advertisement;
+    }
+
+    public synchronized List<String> getAddresses() {
+        return new ArrayList<>(members.keySet());
+    }
+
+    // The connector for one sign, e.g. to read its names or state. Null if it isn't in the fleet.
+    public synchronized NanoConnector getConnector(String address) {
+        Member member = members.get(address);
+        return member == null ? null : member.connector;
+    }
+
+    public synchronized int getReadyCount() {
+        int count = 0;
+        for (Member member : members.values()) {
+            if (member.ready) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Send a preset to every sign. See NanoConnector.applyState.
+    public FleetCommand applyState(int style, int pattern, int brightness, int speed, int step) {
+        return send("applyState", connector -> connector.applyState(style, pattern, brightness, speed, step));
+    }
+
+    // Send a preset that every sign applies at the same moment, so their animations start in step.
+    // The moment is far enough ahead for the slowest link to deliver it (see NanoConnector.applyStateAt).
+    // The command finishes when every sign has accepted the frame, which is before the signs change.
+    public synchronized FleetCommand applyStateTogether(int style, int pattern, int brightness, int speed, int step) {
+        long slowest = 0;
+        for (Member member : members.values()) {
+            if (member.ready) {
+                long roundTrip = member.connector.getLinkRoundTripMs();
+                slowest = Math.max(slowest, roundTrip < 0 ? DefaultRoundTripMs : roundTrip);
+            }
+        }
+
+        // One round trip for anything already in flight, one for the frame itself.
+        long applyAt = timeSource.nowMillis() + 2 * slowest + ScheduleMarginMs;
+        return send("applyStateTogether", connector -> connector.applyStateAt(applyAt, style, pattern, brightness, speed, step));
+    }
+
+    // Run a command against every sign in the fleet. Each sign has finished the command
+    // once its queue has drained, i.e. the sign has acknowledged everything the command wrote.
+    // Monitored and connecting signs run the command once they are ready, so they finish
+    // later than the rest (and a scheduled apply reaches them after its time has passed).
+    // Signs that have dropped off count as failed; addSign connects them again.
+    public synchronized FleetCommand send(String name, Consumer<NanoConnector> command) {
+        FleetCommand fleetCommand = new FleetCommand(name, timeSource.nowMillis());
+        ArrayList<Member> targets = new ArrayList<>();
+        ArrayList<Member> notReady = new ArrayList<>();
+        for (Member member : members.values()) {
+            fleetCommand.addSign(member.address);
+            if (member.ready) {
+                targets.add(member);
+            } else if (member.connector == null || member.connecting) {
+                notReady.add(member);
+            } else {
+                fleetCommand.fail(member.address);
+            }
+        }
+
+        if (fleetCommand.isComplete()) {
+            callback.commandCompleted(fleetCommand);
+            return fleetCommand;
+        }
+
+        activeCommands.add(fleetCommand);
+        // Queue the command on every sign before waiting on any of them.
+        for (Member member : targets) {
+            command.accept(member.connector);
+        }
+        for (Member member : targets) {
+            member.connector.whenIdle(() -> finish(fleetCommand, member.address));
+        }
+        for (Member member : notReady) {
+            member.pendingCommands.add(connector -> {
+                command.accept(connector);
+                connector.whenIdle(() -> finish(fleetCommand, member.address));
+            });
+            if (member.connector == null) {
+                connect(member, "Connecting to send " + name + ".");
+            }
+        }
+        return fleetCommand;
+    }
+
+    private synchronized void finish(FleetCommand command, String address) {
+        if (command.complete(address, timeSource.nowMillis())) {
+            activeCommands.remove(command);
+            callback.commandCompleted(command);
+        }
+    }
+
+    private synchronized void failActiveCommands(String address) {
+        for (int i = activeCommands.size() - 1; i >= 0; i--) {
+            FleetCommand command = activeCommands.get(i);
+            if (command.fail(address)) {
+                activeCommands.remove(i);
+                callback.commandCompleted(command);
+            }
+        }
+    }
+
+    private class ScanListener implements SignScanner.Listener {
+        private final boolean connect;
+
+        ScanListener(boolean connect) {
+            this.connect = connect;
+        }
+
+        @Override
+        public void onSignFound(String address) {
+            if (connect) {
+                addSign(address);
+            } else {
+                monitorSign(address);
+            }
+        }
+
+        @Override
+        public void onSignAdvertised(String address, SignAdvertisement advertisement) {
+            acceptAdvertisement(address, advertisement);
+        }
+    }
+
+    // One sign in the fleet. Also receives that sign's connector callbacks.
+    private class Member implements NanoConnectorCallback {
+        final String address;
+        // Null while the sign is only monitored.
+        NanoConnector connector;
+        // From connect() until the sign is ready or the attempt fails.
+        boolean connecting = false;
+        boolean ready = false;
+        SignAdvertisement advertisement;
+        // Commands sent before the sign was ready, run once it is.
+        final ArrayList<Consumer<NanoConnector>> pendingCommands = new ArrayList<>();
+
+        Member(String address) {
+            this.address = address;
+        }
+
+        @Override
+        public void acceptStatus(String status) {
+            callback.acceptStatus(address, status);
+        }
+
+        @Override
+        public void connected() {
+            ArrayList<Consumer<NanoConnector>> commands;
+            synchronized (SignFleet.this) {
+                ready = true;
+                connecting = false;
+                commands = new ArrayList<>(pendingCommands);
+                pendingCommands.clear();
+            }
+            if (connector.supportsScheduledApply()) {
+                connector.syncClock(ClockSyncSamples);
+            }
+            callback.signConnected(address);
+            for (Consumer<NanoConnector> command : commands) {
+                command.accept(connector);
+            }
+        }
+
+        @Override
+        public void disconnected() {
+            synchronized (SignFleet.this) {
+                ready = false;
+                connecting = false;
+                pendingCommands.clear();
+            }
+            failActiveCommands(address);
+            callback.signDisconnected(address);
+        }
+
+        @Override
+        public void acceptBatteryVoltage(float voltage) {
+        }
+
+        @Override
+        public void namesLoaded() {
+        }
+
+        @Override
+        public void stateChanged() {
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.bleledcontroller;
+
+// Events from a SignFleet. Each is tagged with the address of the sign it concerns.
+public interface SignFleetCallback {
+    void acceptStatus(String address, String status);
+    void signConnected(String address);
+    void signDisconnected(String address);
+    // Every sign the command was sent to has finished it (or dropped off).
+    void commandCompleted(FleetCommand command);
+    // A sign's advertised state or battery voltage changed (see SignFleet.startMonitoring).
+    default void signAdvertised(String address, SignAdvertisement advertisement) {
+    }
+}
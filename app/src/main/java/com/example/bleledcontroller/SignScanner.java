@@ -0,0 +1,22 @@
+package com.example.bleledcontroller;
+
+//
+// Finds every sign advertising the LED service, rather than stopping at the first one
+// the way AndroidGattTransport's own scan does. Each sign is reported once per scan.
+// Signs that broadcast their state (see SignAdvertisement) also report it, whenever it changes,
+// without anything connecting to them.
+//
+public interface SignScanner {
+    interface Listener {
+        void onSignFound(String address);
+
+        // The sign's advertised state, when first seen and then each time the sign's change
+        // counter moves. Called after onSignFound for that sign.
+        default void onSignAdvertised(String address, SignAdvertisement advertisement) {
+        }
+    }
+
+    void startScan(Listener listener);
+
+    void stopScan();
+}
@@ -0,0 +1,155 @@
+package com.example.bleledcontroller;
+
+//
+// The sign's control parameters, and their packed "state frame" encoding.
+//
+// Frame layout (version 1):
+//   byte 0     frame version
+//   byte 1     field mask - which of the following bytes are meaningful
+//              (bit 0 style, 1 pattern, 2 brightness, 3 speed, 4 step)
+//   bytes 2-6  style, pattern, brightness, speed, step
+// On a write, the sign applies the masked fields together in one update.
+// On a read, the mask tells us which fields the firmware supports.
+//
+// A scheduled frame is a state frame prefixed with the time to apply it:
+//   bytes 0-3  sign clock time (milliseconds, unsigned little-endian)
+//   bytes 4-10 state frame
+// The sign holds it until its clock reaches that time (or applies it at once if the time has passed).
+//
+public class SignState {
+    public static final int FrameVersion = 1;
+    public static final int FrameLength = 7;
+    public static final int ScheduledFrameLength = 4 + FrameLength;
+
+    public static final int StyleBit = 1;
+    public static final int PatternBit = 1 << 1;
+    public static final int BrightnessBit = 1 << 2;
+    public static final int SpeedBit = 1 << 3;
+    public static final int StepBit = 1 << 4;
+    public static final int AllFields = StyleBit | PatternBit | BrightnessBit | SpeedBit | StepBit;
+
+    // -1 means "unknown".
+    public int style = -1;
+    public int pattern = -1;
+    public int brightness = -1;
+    public int speed = -1;
+    public int step = -1;
+
+    public SignState() {
+    }
+
+    public SignState(int style, int pattern, int brightness, int speed, int step) {
+        this.style = style;
+        this.pattern = pattern;
+        this.brightness = brightness;
+        this.speed = speed;
+        this.step = step;
+    }
+
+    public void copyFrom(SignState other) {
+        style = other.style;
+        pattern = other.pattern;
+        brightness = other.brightness;
+        speed = other.speed;
+        step = other.step;
+    }
+
+    // One field, given its bit.
+    public int get(int field) {
+        switch (field) {
+            case StyleBit: return style;
+            case PatternBit: return pattern;
+            case BrightnessBit: return brightness;
+            case SpeedBit: return speed;
+            case StepBit: return step;
+            default: throw new IllegalArgumentException("Unknown field " + field);
+        }
+    }
+
+    // Set one field, given its bit.
+    public void set(int field, int value) {
+        switch (field) {
+            case StyleBit: style = value; break;
+            case PatternBit: pattern = value; break;
+            case BrightnessBit: brightness = value; break;
+            case SpeedBit: speed = value; break;
+            case StepBit: step = value; break;
+            default: throw new IllegalArgumentException("Unknown field " + field);
+        }
+    }
+
+    // The name of a field, given its bit, for status messages.
+    public static String fieldName(int field) {
+        switch (field) {
+            case StyleBit: return "style";
+            case PatternBit: return "pattern";
+            case BrightnessBit: return "brightness";
+            case SpeedBit: return "speed";
+            case StepBit: return "step";
+            default: throw new IllegalArgumentException("Unknown field " + field);
+        }
+    }
+
+    // Take the fields of another state that are known (not -1), leaving the rest as they are.
+    public void overlay(SignState changes) {
+        if (changes.style >= 0) style = changes.style;
+        if (changes.pattern >= 0) pattern = changes.pattern;
+        if (changes.brightness >= 0) brightness = changes.brightness;
+        if (changes.speed >= 0) speed = changes.speed;
+        if (changes.step >= 0) step = changes.step;
+    }
+
+    // Bit mask of the fields that differ between this state and another.
+    public int diff(SignState other) {
+        int mask = 0;
+        if (style != other.style) mask |= StyleBit;
+        if (pattern != other.pattern) mask |= PatternBit;
+        if (brightness != other.brightness) mask |= BrightnessBit;
+        if (speed != other.speed) mask |= SpeedBit;
+        if (step != other.step) mask |= StepBit;
+        return mask;
+    }
+
+    // Pack the masked fields into the given buffer, which must hold FrameLength bytes.
+    public void toFrame(byte[] frame, int mask) {
+        frame[0] = (byte) FrameVersion;
+        frame[1] = (byte) mask;
+        frame[2] = (byte) style;
+        frame[3] = (byte) pattern;
+        frame[4] = (byte) brightness;
+        frame[5] = (byte) speed;
+        frame[6] = (byte) step;
+    }
+
+    // Pack the masked fields, to be applied at the given sign clock time, into a
+    // buffer of ScheduledFrameLength bytes.
+    public void toScheduledFrame(byte[] frame, long signTime, int mask) {
+        frame[0] = (byte) signTime;
+        frame[1] = (byte) (signTime >> 8);
+        frame[2] = (byte) (signTime >> 16);
+        frame[3] = (byte) (signTime >> 24);
+        frame[4] = (byte) FrameVersion;
+        frame[5] = (byte) mask;
+        frame[6] = (byte) style;
+        frame[7] = (byte) pattern;
+        frame[8] = (byte) brightness;
+        frame[9] = (byte) speed;
+        frame[10] = (byte) step;
+    }
+
+    // Apply the masked fields of a frame to this state.
+    // Returns false (and changes nothing) if the frame is too short or from an unknown version.
+    public boolean applyFrame(byte[] frame) {
+        if (frame == null || frame.length < FrameLength || frame[0] != FrameVersion) {
+            return false;
+        }
+
+        int mask = frame[1];
+        if ((mask & StyleBit) != 0) style = Byte.toUnsignedInt(frame[2]);
+        if ((mask & PatternBit) != 0) pattern = Byte.toUnsignedInt(frame[3]);
+        if ((mask & BrightnessBit) != 0) brightness = Byte.toUnsignedInt(frame[4]);
+        if ((mask & SpeedBit) != 0) speed = Byte.toUnsignedInt(frame[5]);
+        if ((mask & StepBit) != 0) step = Byte.toUnsignedInt(frame[6]);
+        return true;
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.bleledcontroller;
+
+// Runs a task after a delay. Used for the connector's operation timeouts and retries.
+// The app posts to the connector's HandlerThread; JVM tests pass in simulated time.
+public interface TaskScheduler {
+    void schedule(long delayMs, Runnable task);
+}
@@ -0,0 +1,13 @@
+package com.example.bleledcontroller;
+
+import android.os.SystemClock;
+
+// Where the connector gets the current time from.
+// The app uses elapsedRealtime, which only ever moves forward: wall-clock time can jump when
+// the user or the network changes it, which would fire timeouts early or stall them.
+// JVM tests pass in simulated time.
+public interface TimeSource {
+    TimeSource SystemTime = SystemClock::elapsedRealtime;
+
+    long nowMillis();
+}
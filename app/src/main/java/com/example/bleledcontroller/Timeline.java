@@ -0,0 +1,71 @@
+package com.example.bleledcontroller;
+
+import java.util.ArrayList;
+
+//
+// A scripted show: keyframes that change some of the sign's controls at given beats.
+// Beats are converted to time at the timeline's tempo, so a show written against the music
+// can be re-timed by changing the BPM alone. A keyframe's SignState holds -1 for every
+// control it leaves alone. Keyframes are kept in beat order; ones on the same beat stay in
+// the order they were added, and the later one wins where they touch the same control.
+// Played by a Sequencer.
+//
+public class Timeline {
+    public static class Keyframe {
+        public final double beat;
+        public final SignState changes;
+
+        Keyframe(double beat, SignState changes) {
+            this.beat = beat;
+            this.changes = changes;
+        }
+    }
+
+    private double bpm;
+    private final ArrayList<Keyframe> keyframes = new ArrayList<>();
+
+    public Timeline(double bpm) {
+        setBpm(bpm);
+    }
+
+    public double getBpm() {
+        return bpm;
+    }
+
+    public void setBpm(double bpm) {
+        if (bpm <= 0) {
+            throw new IllegalArgumentException("Tempo must be positive: " + bpm);
+        }
+        this.bpm = bpm;
+    }
+
+    // Add a keyframe. Controls set to -1 in changes are left as they are. Returns this timeline.
+    public Timeline add(double beat, SignState changes) {
+        SignState copy = new SignState();
+        copy.copyFrom(changes);
+        int index = keyframes.size();
+        while (index > 0 && keyframes.get(index - 1).beat > beat) {
+            index--;
+        }
+        keyframes.add(index, new Keyframe(beat, copy));
+        return this;
+    }
+
+    public int size() {
+        return keyframes.size();
+    }
+
+    public Keyframe get(int index) {
+        return keyframes.get(index);
+    }
+
+    // Milliseconds from the start of the timeline to the given beat, at the current tempo.
+    public long beatToMs(double beat) {
+        return Math.round(beat * 60000 / bpm);
+    }
+
+    // Milliseconds from the start to the last keyframe.
+    public long getDurationMs() {
+        return keyframes.isEmpty() ? 0 : beatToMs(keyframes.get(keyframes.size() - 1).beat);
+    }
+}
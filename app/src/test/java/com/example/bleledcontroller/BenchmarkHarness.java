@@ -0,0 +1,180 @@
+package com.example.bleledcontroller;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Small JMH-style harness for host JVM benchmarks.
+ * Each benchmark runs warmup batches, then measured batches; it reports throughput,
+ * bytes allocated per operation (HotSpot only) and percentiles of the per-operation time.
+ * Results are written to build/benchmarks/latest.txt and compared against
+ * benchmarks/baseline.txt when that file exists. Copy latest.txt over the baseline to
+ * accept new numbers.
+ */
+public class BenchmarkHarness {
+    public static final String BaselinePath = "benchmarks/baseline.txt";
+    public static final String LatestPath = "build/benchmarks/latest.txt";
+
+    public interface Operation {
+        void run(int iteration);
+    }
+
+    public static class Result {
+        public final String name;
+        public final String unit;
+        public final double opsPerSecond;
+        public final double bytesPerOp;
+        public final double p50;
+        public final double p90;
+        public final double p99;
+
+        Result(String name, String unit, double opsPerSecond, double bytesPerOp, double p50, double p90, double p99) {
+            this.name = name;
+            this.unit = unit;
+            this.opsPerSecond = opsPerSecond;
+            this.bytesPerOp = bytesPerOp;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+        }
+
+        String format() {
+            return String.format(Locale.US, "%-40s %14.1f %10.1f %10.3f %10.3f %10.3f %s",
+                    name, opsPerSecond, bytesPerOp, p50, p90, p99, unit);
+        }
+    }
+
+    private final int warmupBatches;
+    private final int measuredBatches;
+    private final int opsPerBatch;
+    private final List<Result> results = new ArrayList<>();
+
+    public BenchmarkHarness(int warmupBatches, int measuredBatches, int opsPerBatch) {
+        this.warmupBatches = warmupBatches;
+        this.measuredBatches = measuredBatches;
+        this.opsPerBatch = opsPerBatch;
+    }
+
+    // Time a CPU-bound operation. Percentiles are of the mean time per operation within a batch, in ns.
+    public Result measure(String name, Operation operation) {
+        int iteration = 0;
+        for (int b = 0; b < warmupBatches; b++) {
+            for (int i = 0; i < opsPerBatch; i++) {
+                operation.run(iteration++);
+            }
+        }
+
+        double[] nsPerOp = new double[measuredBatches];
+        long totalNs = 0;
+        long allocatedBefore = allocatedBytes();
+        for (int b = 0; b < measuredBatches; b++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < opsPerBatch; i++) {
+                operation.run(iteration++);
+            }
+            long elapsed = System.nanoTime() - start;
+            totalNs += elapsed;
+            nsPerOp[b] = (double) elapsed / opsPerBatch;
+        }
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        long ops = (long) measuredBatches * opsPerBatch;
+        double bytesPerOp = allocated < 0 ? Double.NaN : (double) allocated / ops;
+        return record(new Result(name, "ns/op", ops * 1e9 / totalNs, bytesPerOp,
+                percentile(nsPerOp, 50), percentile(nsPerOp, 90), percentile(nsPerOp, 99)));
+    }
+
+    // Record a set of latency samples measured some other way (e.g. simulated milliseconds).
+    public Result recordLatencies(String name, String unit, double[] samples, double opsPerSecond) {
+        return record(new Result(name, unit, opsPerSecond, Double.NaN,
+                percentile(samples, 50), percentile(samples, 90), percentile(samples, 99)));
+    }
+
+    public List<Result> getResults() {
+        return results;
+    }
+
+    // Bytes allocated by the current thread so far, or -1 if the JVM can't tell us.
+    public static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    public static double percentile(double[] samples, int percentile) {
+        if (samples.length == 0) {
+            return Double.NaN;
+        }
+        double[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    // Write the results and print them next to the baseline, if there is one.
+    public String report() throws IOException {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.US, "%-40s %14s %10s %10s %10s %10s %s%n",
+                "# benchmark", "ops/s", "B/op", "p50", "p90", "p99", "unit"));
+        for (Result r : results) {
+            out.append(r.format()).append('\n');
+        }
+
+        File latest = new File(LatestPath);
+        latest.getParentFile().mkdirs();
+        try (FileWriter writer = new FileWriter(latest)) {
+            writer.write(out.toString());
+        }
+
+        HashMap<String, double[]> baseline = readBaseline(new File(BaselinePath));
+        StringBuilder comparison = new StringBuilder(out);
+        if (!baseline.isEmpty()) {
+            comparison.append("\n# p50 change vs ").append(BaselinePath).append('\n');
+            for (Result r : results) {
+                double[] base = baseline.get(r.name);
+                if (base == null) {
+                    continue;
+                }
+                comparison.append(String.format(Locale.US, "%-40s p50 %+7.1f%%  B/op %10.1f -> %10.1f%n",
+                        r.name, (r.p50 - base[2]) / base[2] * 100.0, base[1], r.bytesPerOp));
+            }
+        }
+        return comparison.toString();
+    }
+
+    private Result record(Result result) {
+        results.add(result);
+        return result;
+    }
+
+    // Baseline columns: ops/s, B/op, p50, p90, p99.
+    private static HashMap<String, double[]> readBaseline(File file) throws IOException {
+        HashMap<String, double[]> baseline = new HashMap<>();
+        if (!file.exists()) {
+            return baseline;
+        }
+        for (String line : Files.readAllLines(file.toPath())) {
+            if (line.startsWith("#") || line.trim().isEmpty()) {
+                continue;
+            }
+            String[] parts = line.trim().split("\\s+");
+            double[] values = new double[5];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = Double.parseDouble(parts[i + 1]);
+            }
+            baseline.put(parts[0], values);
+        }
+        return baseline;
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.bleledcontroller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Tests for the write-coalescing behavior of {@link BleOperationQueue}.
+ */
+public class BleOperationQueueTest {
+    private static final UUID Brightness = BleConstants.BrightnessCharacteristicId;
+    private static final UUID Speed = BleConstants.SpeedCharacteristicId;
+
+    private static BleWriteCharacteristicOperation write(UUID id, int value) {
+        return new BleWriteCharacteristicOperation(id, new byte[] {(byte) value});
+    }
+
+    private static BleReadCharacteristicOperation read(UUID id) {
+        return new BleReadCharacteristicOperation(id, value -> {});
+    }
+
+    @Test
+    public void waitingWriteIsReplacedInPlace() {
+        BleOperationQueue queue = new BleOperationQueue();
+        queue.add(write(Brightness, 1));
+        queue.add(write(Speed, 2));
+        queue.add(write(Brightness, 3));
+
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.getCoalescedWriteCount());
+        BleWriteCharacteristicOperation first = (BleWriteCharacteristicOperation) queue.poll();
+        assertEquals(Brightness, first.getCharacteristicId());
+        assertArrayEquals(new byte[] {3}, first.getTargetValue());
+        assertEquals(Speed, queue.poll().getCharacteristicId());
+    }
+
+    @Test
+    public void uncoalescableWritesAreKeptApart() {
+        BleOperationQueue queue = new BleOperationQueue();
+        BleWriteCharacteristicOperation slot0 = write(Brightness, 0);
+        BleWriteCharacteristicOperation slot1 = write(Brightness, 1);
+        slot0.setCoalescable(false);
+        slot1.setCoalescable(false);
+        queue.add(slot0);
+        queue.add(slot1);
+        queue.add(write(Brightness, 2));
+
+        assertEquals(3, queue.size());
+        assertEquals(0, queue.getCoalescedWriteCount());
+        assertSame(slot0, queue.poll());
+        assertSame(slot1, queue.poll());
+    }
+
+    @Test
+    public void readsKeepTheirOrderAndAreNotCoalesced() {
+        BleOperationQueue queue = new BleOperationQueue();
+        BleOperation read1 = read(Brightness);
+        BleOperation read2 = read(Brightness);
+        queue.add(read1);
+        queue.add(read2);
+
+        assertEquals(2, queue.size());
+        assertSame(read1, queue.poll());
+        assertSame(read2, queue.poll());
+    }
+
+    @Test
+    public void writeAfterReadIsNotMovedAheadOfTheRead() {
+        BleOperationQueue queue = new BleOperationQueue();
+        queue.add(write(Brightness, 1));
+        BleOperation read = read(Brightness);
+        queue.add(read);
+        queue.add(write(Brightness, 2));
+
+        assertEquals(3, queue.size());
+        assertArrayEquals(new byte[] {1}, ((BleWriteCharacteristicOperation) queue.poll()).getTargetValue());
+        assertSame(read, queue.poll());
+        assertArrayEquals(new byte[] {2}, ((BleWriteCharacteristicOperation) queue.poll()).getTargetValue());
+    }
+
+    @Test
+    public void writeInFlightIsNotReplaced() {
+        BleOperationQueue queue = new BleOperationQueue();
+        queue.add(write(Brightness, 1));
+        BleOperation inFlight = queue.poll();
+        queue.add(write(Brightness, 2));
+
+        assertArrayEquals(new byte[] {1}, ((BleWriteCharacteristicOperation) inFlight).getTargetValue());
+        assertEquals(1, queue.size());
+        assertEquals(0, queue.getCoalescedWriteCount());
+    }
+
+    @Test
+    public void keepsOrderWhenTheRingWrapsAndGrows() {
+        BleOperationQueue queue = new BleOperationQueue();
+        List<BleOperation> expected = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            queue.add(read(Brightness));
+            queue.poll();
+        }
+        for (int i = 0; i < 40; i++) {
+            BleOperation op = read(i % 2 == 0 ? Brightness : Speed);
+            expected.add(op);
+            queue.add(op);
+        }
+
+        for (BleOperation op : expected) {
+            assertSame(op, queue.poll());
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void sliderBurstCostsAboutOneRoundTrip() {
+        // 20 slider changes, 5ms apart, against a link with a 30ms write round trip.
+        final int roundTripMs = 30;
+        final int inputIntervalMs = 5;
+        final int inputCount = 20;
+
+        FakeGatt gatt = new FakeGatt(roundTripMs);
+        BleOperationQueue queue = new BleOperationQueue();
+        int lastInputTime = (inputCount - 1) * inputIntervalMs;
+        for (int now = 0; now <= lastInputTime + 10 * roundTripMs; now++) {
+            if (now % inputIntervalMs == 0 && now <= lastInputTime) {
+                queue.add(write(Brightness, now / inputIntervalMs + 1));
+            }
+            gatt.tick(now, queue);
+        }
+
+        assertEquals(inputCount, gatt.lastValue);
+        // The first value goes out immediately; everything else folds into
+        // whatever is waiting when the link frees up.
+        assertTrue("wire writes: " + gatt.wireWrites.size(), gatt.wireWrites.size() <= lastInputTime / roundTripMs + 2);
+        assertEquals(inputCount - gatt.wireWrites.size(), queue.getCoalescedWriteCount());
+        int latency = gatt.lastValueTime - lastInputTime;
+        assertTrue("latency to final value: " + latency + "ms", latency <= 2 * roundTripMs);
+    }
+
+    // Minimal stand-in for BluetoothGatt that takes a fixed time per write.
+    private static class FakeGatt {
+        private final int roundTripMs;
+        private final List<Integer> wireWrites = new ArrayList<>();
+        private BleWriteCharacteristicOperation pending;
+        private int pendingDoneAt;
+        private int lastValue = -1;
+        private int lastValueTime = -1;
+
+        FakeGatt(int roundTripMs) {
+            this.roundTripMs = roundTripMs;
+        }
+
+        void tick(int now, BleOperationQueue queue) {
+            if (pending != null && now >= pendingDoneAt) {
+                lastValue = pending.getTargetValue()[0];
+                lastValueTime = now;
+                pending = null;
+            }
+            if (pending == null && !queue.isEmpty()) {
+                pending = (BleWriteCharacteristicOperation) queue.poll();
+                pendingDoneAt = now + roundTripMs;
+                wireWrites.add((int) pending.getTargetValue()[0]);
+            }
+        }
+    }
+}
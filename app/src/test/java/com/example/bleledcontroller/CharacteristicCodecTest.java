@@ -0,0 +1,101 @@
+package com.example.bleledcontroller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for the characteristic codecs and the connector's registry of them.
+ */
+public class CharacteristicCodecTest {
+    private int intValue = -1;
+    private long longValue = -1;
+    private float floatValue = Float.NaN;
+
+    @Test
+    public void numericCodecsMatchTheWireFormat() {
+        assertTrue(CharacteristicCodec.U8.decode(new byte[] {(byte) 200}, v -> intValue = v));
+        assertEquals(200, intValue);
+
+        byte[] clock = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0xF0000001).array();
+        assertTrue(CharacteristicCodec.U32Le.decode(clock, v -> longValue = v));
+        assertEquals(0xF0000001L, longValue);
+
+        byte[] voltage = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putFloat(12.6f).array();
+        assertTrue(CharacteristicCodec.Float32Le.decode(voltage, v -> floatValue = v));
+        assertEquals(12.6f, floatValue, 0);
+
+        byte[] encoded = new byte[4];
+        CharacteristicCodec.Float32Le.encode(12.6f, encoded);
+        assertArrayEquals(voltage, encoded);
+        CharacteristicCodec.U32Le.encode(0xF0000001L, encoded);
+        assertArrayEquals(clock, encoded);
+
+        // Control writes encode through whichever integer codec the characteristic is registered with.
+        CharacteristicCodec.U32Le.encodeInt(0xF0000001, encoded);
+        assertArrayEquals(clock, encoded);
+        CharacteristicCodec.U8.encodeInt(200, encoded);
+        assertEquals((byte) 200, encoded[0]);
+    }
+
+    @Test
+    public void shortValuesAreRejected() {
+        assertFalse(CharacteristicCodec.U8.decode(new byte[0], v -> intValue = v));
+        assertFalse(CharacteristicCodec.Float32Le.decode(new byte[] {1, 2, 3}, v -> floatValue = v));
+        assertFalse(CharacteristicCodec.U32Le.decode(null, v -> longValue = v));
+        assertEquals(-1, intValue);
+
+        String[][] names = new String[1][];
+        assertTrue(CharacteristicCodec.StringList.decode("Full;Left".getBytes(StandardCharsets.UTF_8), v -> names[0] = v));
+        assertArrayEquals(new String[] {"Full", "Left"}, names[0]);
+    }
+
+    @Test
+    public void controlsGetSlotsInTheOrderTheyAreAdded() {
+        CharacteristicRegistry registry = new CharacteristicRegistry(new RecordingConnectorCallback(new SimulationScheduler()));
+        int[] pushed = new int[2];
+        registry.addControl(BleConstants.SpeedCharacteristicId, SignState.SpeedBit, CharacteristicCodec.U8,
+                (field, value) -> { pushed[0] = field; pushed[1] = value; }, 3);
+        registry.addControl(BleConstants.StyleCharacteristicId, SignState.StyleBit, CharacteristicCodec.U8,
+                (field, value) -> { }, 3);
+        registry.add(BleConstants.StateFrameCharacteristicId, CharacteristicCodec.bytes(SignState.FrameLength),
+                null, 3, SignState.AllFields);
+
+        assertEquals(2, registry.getControlCount());
+        assertEquals(0, registry.getControlForField(SignState.SpeedBit).slot);
+        assertEquals(BleConstants.StyleCharacteristicId, registry.getControl(1).characteristicId);
+        assertEquals(SignState.SpeedBit, registry.getFieldsWritten(BleConstants.SpeedCharacteristicId));
+        assertEquals(SignState.AllFields, registry.getFieldsWritten(BleConstants.StateFrameCharacteristicId));
+        assertEquals(0, registry.getFieldsWritten(BleConstants.BatteryVoltageCharacteristicId));
+
+        assertTrue(registry.decode(BleConstants.SpeedCharacteristicId, new byte[] {(byte) 42}));
+        assertArrayEquals(new int[] {SignState.SpeedBit, 42}, pushed);
+        byte[] encoded = new byte[registry.getControl(0).getLength()];
+        registry.getControl(0).encode(200, encoded);
+        assertEquals((byte) 200, encoded[0]);
+    }
+
+    @Test
+    public void malformedReadIsReportedAndSkipped() {
+        SimulationScheduler scheduler = new SimulationScheduler();
+        SimulatedLedSign sign = new SimulatedLedSign(scheduler);
+        sign.setValue(BleConstants.BatteryVoltageCharacteristicId, new byte[2]);
+        RecordingConnectorCallback callback = new RecordingConnectorCallback(scheduler);
+        NanoConnector connector = new NanoConnector(sign, callback, scheduler::now);
+        connector.connect();
+        scheduler.runUntilIdle();
+
+        assertTrue(Float.isNaN(callback.lastVoltage));
+        assertTrue(callback.statuses.contains("Ignoring a malformed value of "
+                + BleConstants.BatteryVoltageCharacteristicId + " (2 bytes)."));
+        assertEquals(100, connector.getInitialBrightness());
+        assertEquals(1, callback.namesLoadedCount);
+    }
+}
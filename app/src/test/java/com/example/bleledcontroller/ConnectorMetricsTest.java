@@ -0,0 +1,84 @@
+package com.example.bleledcontroller;
+
+import static com.example.bleledcontroller.BleConstants.BrightnessCharacteristicId;
+import static com.example.bleledcontroller.BleConstants.NamesCharacteristicId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Latency histograms and the connector's metrics, measured against a simulated sign.
+ */
+public class ConnectorMetricsTest {
+    @Test
+    public void histogramBucketsAndPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(-1, histogram.getPercentileMs(50));
+
+        for (int i = 0; i < 90; i++) {
+            histogram.record(30);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(250);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(90, histogram.getBucketCount(LatencyHistogram.bucketFor(30)));
+        // 30ms lands in the 16-31ms bucket, 250ms in 128-255ms.
+        assertEquals(31, histogram.getPercentileMs(50));
+        assertEquals(250, histogram.getPercentileMs(95));
+        assertEquals(250, histogram.getMaxMs());
+        assertEquals(52, histogram.getMeanMs());
+    }
+
+    @Test
+    public void connectorRecordsRoundTripsAndCoalescedWrites() {
+        SimulationScheduler scheduler = new SimulationScheduler();
+        SimulatedLedSign sign = new SimulatedLedSign(scheduler);
+        NanoConnector connector = new NanoConnector(sign, new RecordingConnectorCallback(scheduler), scheduler::now);
+        connector.connect();
+        scheduler.runUntilIdle();
+
+        // One write goes out at once; the next three replace each other in the queue.
+        for (int i = 0; i < 4; i++) {
+            connector.setBrightness(10 + i);
+        }
+        scheduler.runUntilIdle();
+
+        ConnectorMetrics metrics = connector.getMetrics();
+        long latency = sign.getSettings().operationLatencyMs;
+        assertEquals(2, metrics.getCoalescedWrites());
+        assertEquals(2, metrics.getAcknowledgedWrites());
+        assertEquals(0, metrics.getQueueDepth());
+        assertTrue(metrics.getMaxQueueDepth() >= 1);
+        // The initial read plus the two writes.
+        LatencyHistogram brightness = metrics.getRoundTrips(BrightnessCharacteristicId);
+        assertEquals(3, brightness.getCount());
+        assertEquals(latency, brightness.getMaxMs());
+        // The name list takes several packets at the default MTU.
+        assertTrue(metrics.getRoundTrips(NamesCharacteristicId).getMaxMs() > latency);
+        assertEquals(connector.getTimeToReadyMs(), metrics.getTimeToReadyMs());
+        assertTrue(metrics.format().contains("Brightness: n 3"));
+    }
+
+    @Test
+    public void connectorRecordsRetriesAndDrops() {
+        SimulationScheduler scheduler = new SimulationScheduler();
+        SimulatedLedSign sign = new SimulatedLedSign(scheduler);
+        NanoConnector connector = new NanoConnector(sign, new RecordingConnectorCallback(scheduler), scheduler::now, null, scheduler::schedule);
+        connector.connect();
+        scheduler.runUntilIdle();
+
+        sign.dropNextResponses(NanoConnector.MaxAttempts);
+        connector.refreshVoltage();
+        scheduler.runUntilIdle();
+
+        ConnectorMetrics metrics = connector.getMetrics();
+        assertEquals(NanoConnector.MaxAttempts, metrics.getTimeouts());
+        assertEquals(NanoConnector.MaxAttempts - 1, metrics.getRetries());
+        assertEquals(1, metrics.getDroppedOperations());
+        assertEquals(0, metrics.getReconnects());
+    }
+}
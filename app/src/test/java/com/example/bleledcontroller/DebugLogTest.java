@@ -0,0 +1,66 @@
+package com.example.bleledcontroller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * The bounded debug log: wrap-around, sequence numbers and deferred formatting.
+ */
+public class DebugLogTest {
+    @Test
+    public void oldestEntriesAreOverwritten() {
+        SimulationScheduler scheduler = new SimulationScheduler();
+        DebugLog log = new DebugLog(3, scheduler::now);
+        for (int i = 0; i < 5; i++) {
+            log.add(DebugLog.Info, "message " + i);
+        }
+
+        assertEquals(3, log.size());
+        assertEquals(2, log.getFirstSequence());
+        assertEquals(5, log.getEndSequence());
+        assertNull(log.format(1));
+        assertEquals("0.000 I message 2", log.format(2));
+        assertEquals("0.000 I message 4", log.format(4));
+        assertNull(log.format(5));
+    }
+
+    @Test
+    public void linesAreFormattedWithTimeLevelAndValue() {
+        SimulationScheduler scheduler = new SimulationScheduler();
+        DebugLog log = new DebugLog(scheduler::now);
+        scheduler.runFor(12_045);
+        log.add(DebugLog.Debug, "Setting brightness to ", 42);
+        log.add(DebugLog.Warning, "Write timed out");
+
+        assertEquals("12.045 D Setting brightness to 42", log.format(0));
+        assertEquals("12.045 W Write timed out", log.format(1));
+        assertEquals(DebugLog.Warning, log.getLevel(1));
+
+        // A format is filled in when the line is shown; a plain message is never treated as one.
+        log.addFormatted(DebugLog.Warning, "Write of %s failed with status %d", BleConstants.StyleCharacteristicId, 133);
+        log.add(DebugLog.Info, "100%");
+        assertEquals("12.045 W Write of " + BleConstants.StyleCharacteristicId + " failed with status 133", log.format(2));
+        assertEquals("12.045 I 100%", log.format(3));
+    }
+
+    @Test
+    public void listenerHearsEveryEntry() {
+        DebugLog log = new DebugLog(2, System::currentTimeMillis);
+        int[] added = {0};
+        log.setListener(() -> added[0]++);
+        for (int i = 0; i < 5; i++) {
+            log.add(DebugLog.Info, "message");
+        }
+        assertEquals(5, added[0]);
+    }
+
+    @Test
+    public void connectorMessagesGetALevel() {
+        assertEquals(DebugLog.Error, DebugLog.levelOf("ERROR: In the 'read' callback, but the pending operation is not a read operation."));
+        assertEquals(DebugLog.Warning, DebugLog.levelOf("Write of x failed with status 133"));
+        assertEquals(DebugLog.Warning, DebugLog.levelOf("Operation on x timed out. Retrying in 100ms."));
+        assertEquals(DebugLog.Info, DebugLog.levelOf("Retrieved brightness: 100"));
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.bleledcontroller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for reconnecting with a DeviceCache.
+ */
+public class DeviceCacheTest {
+    private final InMemoryDeviceCacheStore store = new InMemoryDeviceCacheStore();
+
+    @Test
+    public void encodeRoundTrips() {
+        DeviceCache cache = new DeviceCache();
+        cache.address = "AA:BB:CC:DD:EE:FF";
+        cache.fingerprint = "1.2|10";
+        cache.styleNames = new String[] {"Rainbow", "Solid"};
+        cache.patternNames = new String[] {"Full"};
+
+        DeviceCache decoded = DeviceCache.decode(cache.encode());
+        assertEquals(cache.address, decoded.address);
+        assertEquals(cache.fingerprint, decoded.fingerprint);
+        assertArrayEquals(cache.styleNames, decoded.styleNames);
+        assertArrayEquals(cache.patternNames, decoded.patternNames);
+    }
+
+    @Test
+    public void encodeEscapesNamesAndKeepsHashes() {
+        DeviceCache cache = new DeviceCache();
+        cache.address = "AA:BB:CC:DD:EE:FF";
+        cache.styleNames = new String[] {"A;B", "back\\slash", "two\nlines"};
+        cache.patternNames = new String[] {"Full"};
+        cache.styleNamesHash = 0xFFFFFFFFL;
+        cache.patternNamesHash = 7;
+
+        DeviceCache decoded = DeviceCache.decode(cache.encode());
+        assertArrayEquals(cache.styleNames, decoded.styleNames);
+        assertEquals(cache.styleNamesHash, decoded.styleNamesHash);
+        assertEquals(cache.patternNamesHash, decoded.patternNamesHash);
+
+        // Written before the hashes existed.
+        DeviceCache old = DeviceCache.decode("AA:BB:CC:DD:EE:FF\n1.2|10\nRainbow;Solid\nFull");
+        assertArrayEquals(new String[] {"Rainbow", "Solid"}, old.styleNames);
+        assertEquals(-1, old.styleNamesHash);
+    }
+
+    @Test
+    public void garbageDecodesToNull() {
+        assertNull(DeviceCache.decode("not a cache"));
+        assertNull(DeviceCache.decode(null));
+    }
+
+    @Test
+    public void reconnectSkipsScanAndNameReadsWhenFirmwareIsUnchanged() {
+        Session first = connect("1.4");
+        Session second = connect("1.4");
+
+        assertEquals(1, first.sign.getScanCount());
+        assertEquals(0, second.sign.getScanCount());
+        // Control values, firmware version and battery, but no name lists.
+        assertEquals(first.sign.getReadCount() - 2, second.sign.getReadCount());
+        assertArrayEquals(first.connector.getKnownStyles(), second.connector.getKnownStyles());
+        assertTrue(second.connector.getTimeToFullSyncMs() < first.connector.getTimeToFullSyncMs());
+    }
+
+    @Test
+    public void namesAreReadAgainAfterAFirmwareUpdate() {
+        connect("1.4");
+        Session updated = connect("1.5");
+
+        assertEquals(0, updated.sign.getScanCount());
+        assertEquals(1, updated.callback.namesLoadedCount);
+        // Control values, firmware version, both name lists and battery.
+        assertEquals(9, updated.sign.getReadCount());
+    }
+
+    @Test
+    public void namesAreAlwaysReadWithoutAFirmwareVersion() {
+        connect(null);
+        Session second = connect(null);
+
+        assertEquals(0, second.sign.getScanCount());
+        assertEquals(8, second.sign.getReadCount());
+        assertFalse(DeviceCache.decode(store.encoded).hasNamesFor(null));
+    }
+
+    private Session connect(String firmwareVersion) {
+        Session session = new Session();
+        SimulatedLedSign.Settings settings = new SimulatedLedSign.Settings();
+        settings.firmwareVersion = firmwareVersion;
+        settings.scanLatencyMs = 800;
+        session.sign = new SimulatedLedSign(session.scheduler, settings);
+        session.callback = new RecordingConnectorCallback(session.scheduler);
+        session.connector = new NanoConnector(session.sign, session.callback, session.scheduler::now, store);
+        session.connector.connect();
+        session.scheduler.runUntilIdle();
+        return session;
+    }
+
+    private static class Session {
+        final SimulationScheduler scheduler = new SimulationScheduler();
+        SimulatedLedSign sign;
+        RecordingConnectorCallback callback;
+        NanoConnector connector;
+    }
+}
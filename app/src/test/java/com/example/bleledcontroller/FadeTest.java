@@ -0,0 +1,127 @@
+package com.example.bleledcontroller;
+
+import static com.example.bleledcontroller.BleConstants.BrightnessCharacteristicId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Brightness and speed fades against a simulated sign.
+ */
+public class FadeTest {
+    private final SimulationScheduler scheduler = new SimulationScheduler();
+    private SimulatedLedSign sign;
+    private NanoConnector connector;
+
+    @Test
+    public void fadeStepsAtTheLinkRate() {
+        connect(30);
+        connector.setBrightness(10);
+        scheduler.runUntilIdle();
+
+        int before = sign.getWireWrites().size();
+        long coalesced = connector.getMetrics().getCoalescedWrites();
+        long startedAt = scheduler.now();
+        connector.fadeBrightness(200, 1000);
+        scheduler.runUntilIdle();
+
+        List<SimulatedLedSign.WireWrite> steps = brightnessWrites(before);
+        // About one step per round trip, each higher than the last. The target goes out
+        // with the first step after the end, so it lands within two round trips of it.
+        assertTrue("steps " + steps.size(), steps.size() >= 25 && steps.size() <= 1000 / 30 + 2);
+        assertIncreasing(steps);
+        assertEquals(200, sign.getByte(BrightnessCharacteristicId));
+        assertTrue(sign.getLastChangeAt() - startedAt <= 1000 + 2 * 30);
+        // Only ever one step outstanding, so none was queued up and then overwritten.
+        assertEquals(coalesced, connector.getMetrics().getCoalescedWrites());
+
+        // A slower link gets fewer, bigger steps over the same time.
+        connect(100);
+        before = sign.getWireWrites().size();
+        connector.fadeBrightness(10, 1000);
+        scheduler.runUntilIdle();
+        assertTrue(brightnessWrites(before).size() <= 1000 / 100 + 2);
+        assertEquals(10, sign.getByte(BrightnessCharacteristicId));
+    }
+
+    @Test
+    public void streamedFadeIsSmoothAndCommittedOnce() {
+        connect(30);
+        connector.setStreamingEnabled(BrightnessCharacteristicId, true);
+        connector.setBrightness(10);
+        scheduler.runUntilIdle();
+
+        int before = sign.getWireWrites().size();
+        connector.fadeBrightness(200, 1000);
+        scheduler.runUntilIdle();
+
+        List<SimulatedLedSign.WireWrite> steps = brightnessWrites(before);
+        // Many more steps than round trips, and only the last value acknowledged.
+        assertTrue("steps " + steps.size(), steps.size() > 100);
+        int acknowledged = 0;
+        for (SimulatedLedSign.WireWrite write : steps) {
+            acknowledged += write.acknowledged ? 1 : 0;
+        }
+        assertEquals(1, acknowledged);
+        assertTrue(steps.get(steps.size() - 1).acknowledged);
+        assertEquals(200, sign.getByte(BrightnessCharacteristicId));
+    }
+
+    @Test
+    public void newerCommandsReplaceAFadeWithoutBacklog() {
+        connect(30);
+        connector.setBrightness(100);
+        scheduler.runUntilIdle();
+        long coalesced = connector.getMetrics().getCoalescedWrites();
+
+        // A new fade starts from wherever the first one has got to.
+        connector.fadeBrightness(250, 2000);
+        scheduler.runFor(500);
+        int reached = connector.getState().brightness;
+        assertTrue("reached " + reached, reached > 120 && reached < 180);
+        connector.fadeBrightness(0, 500);
+        scheduler.runFor(500 + 2 * 30);
+        assertEquals(0, sign.getByte(BrightnessCharacteristicId));
+        assertEquals(coalesced, connector.getMetrics().getCoalescedWrites());
+
+        // Setting the value stops a fade at once.
+        connector.fadeSpeed(100, 2000);
+        scheduler.runFor(300);
+        connector.setSpeed(7);
+        int before = sign.getWireWrites().size();
+        scheduler.runUntilIdle();
+        // The step already in flight, then the new value.
+        assertTrue(sign.getWireWrites().size() - before <= 2);
+        assertEquals(7, sign.getByte(BleConstants.SpeedCharacteristicId));
+    }
+
+    private void connect(long latencyMs) {
+        SimulatedLedSign.Settings settings = new SimulatedLedSign.Settings();
+        settings.operationLatencyMs = latencyMs;
+        sign = new SimulatedLedSign(scheduler, settings);
+        connector = new NanoConnector(sign, new RecordingConnectorCallback(scheduler), scheduler::now, null, scheduler::schedule);
+        connector.connect();
+        scheduler.runUntilIdle();
+    }
+
+    private List<SimulatedLedSign.WireWrite> brightnessWrites(int from) {
+        List<SimulatedLedSign.WireWrite> writes = new ArrayList<>();
+        for (SimulatedLedSign.WireWrite write : sign.getWireWrites().subList(from, sign.getWireWrites().size())) {
+            if (write.characteristicId.equals(BrightnessCharacteristicId)) {
+                writes.add(write);
+            }
+        }
+        return writes;
+    }
+
+    private static void assertIncreasing(List<SimulatedLedSign.WireWrite> writes) {
+        for (int i = 1; i < writes.size(); i++) {
+            assertTrue(Byte.toUnsignedInt(writes.get(i).value[0]) > Byte.toUnsignedInt(writes.get(i - 1).value[0]));
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.bleledcontroller;
+
+/**
+ * DeviceCacheStore that keeps the encoded cache in memory, the way SharedPreferences would.
+ */
+public class InMemoryDeviceCacheStore implements DeviceCacheStore {
+    public String encoded;
+
+    @Override
+    public DeviceCache load() {
+        return DeviceCache.decode(encoded);
+    }
+
+    @Override
+    public void save(DeviceCache cache) {
+        encoded = cache.encode();
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.bleledcontroller;
+
+import static com.example.bleledcontroller.GattTransport.CONNECTION_PRIORITY_BALANCED;
+import static com.example.bleledcontroller.GattTransport.CONNECTION_PRIORITY_HIGH;
+import static com.example.bleledcontroller.GattTransport.CONNECTION_PRIORITY_LOW_POWER;
+import static com.example.bleledcontroller.GattTransport.PHY_LE_1M;
+import static com.example.bleledcontroller.GattTransport.PHY_LE_2M;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Connection priority and PHY tuning against a sign whose latency depends on the priority.
+ */
+public class LinkTunerTest {
+    private SimulationScheduler scheduler;
+    private SimulatedLedSign sign;
+    private NanoConnector connector;
+
+    @Before
+    public void setUp() {
+        scheduler = new SimulationScheduler();
+        SimulatedLedSign.Settings settings = new SimulatedLedSign.Settings();
+        settings.balancedSlowdown = 3;
+        settings.lowPowerSlowdown = 8;
+        sign = new SimulatedLedSign(scheduler, settings);
+        connector = new NanoConnector(sign, new RecordingConnectorCallback(scheduler), scheduler::now, null, scheduler::schedule);
+    }
+
+    @Test
+    public void connectingRaisesPriorityAndAsksFor2M() {
+        connector.connect();
+        scheduler.runFor(1000);
+
+        LinkTuner tuner = connector.getLinkTuner();
+        assertEquals(CONNECTION_PRIORITY_HIGH, tuner.getPriority());
+        assertEquals(CONNECTION_PRIORITY_HIGH, sign.getPriority());
+        assertEquals(PHY_LE_2M, tuner.getPhy());
+    }
+
+    @Test
+    public void signWithout2MStaysOn1M() {
+        sign.getSettings().supports2MPhy = false;
+        connector.connect();
+        scheduler.runFor(1000);
+
+        assertEquals(PHY_LE_1M, connector.getLinkTuner().getPhy());
+    }
+
+    @Test
+    public void idleLinkDropsToBalancedThenLowPower() {
+        connector.connect();
+        scheduler.runFor(1000);
+        LinkTuner tuner = connector.getLinkTuner();
+
+        scheduler.runFor(LinkTuner.InteractiveHoldMs);
+        assertEquals(CONNECTION_PRIORITY_BALANCED, tuner.getPriority());
+
+        scheduler.runFor(LinkTuner.IdleMs);
+        assertEquals(CONNECTION_PRIORITY_LOW_POWER, tuner.getPriority());
+        assertEquals(CONNECTION_PRIORITY_LOW_POWER, sign.getPriority());
+    }
+
+    @Test
+    public void interactiveWritesRunAtHighPriority() {
+        connector.connect();
+        scheduler.runFor(1000);
+        // Let the link go idle, so the first change wakes it up.
+        scheduler.runFor(LinkTuner.IdleMs + LinkTuner.InteractiveHoldMs);
+        LinkTuner tuner = connector.getLinkTuner();
+
+        // A slider drag: a change every 100ms.
+        long latency = sign.getSettings().operationLatencyMs;
+        long lastWriteStartedAt = 0;
+        for (int i = 0; i < 10; i++) {
+            lastWriteStartedAt = scheduler.now();
+            connector.setBrightness(10 + i);
+            scheduler.runFor(100);
+        }
+
+        assertEquals(CONNECTION_PRIORITY_HIGH, tuner.getPriority());
+        // The first write still went out on the low power interval; the rest were fast.
+        assertEquals(latency * 8, tuner.getRoundTripMs(CONNECTION_PRIORITY_LOW_POWER));
+        assertEquals(latency, tuner.getRoundTripMs(CONNECTION_PRIORITY_HIGH));
+        assertEquals(19, sign.getByte(BleConstants.BrightnessCharacteristicId));
+        assertTrue(sign.getLastChangeAt() - lastWriteStartedAt <= latency);
+    }
+
+    @Test
+    public void activityDoesNotRepeatThePriorityRequest() {
+        connector.connect();
+        scheduler.runFor(1000);
+        int requests = sign.getPriorityRequestCount();
+
+        for (int i = 0; i < 10; i++) {
+            connector.setSpeed(i + 1);
+            scheduler.runFor(100);
+        }
+
+        assertEquals(requests, sign.getPriorityRequestCount());
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.bleledcontroller;
+
+import static com.example.bleledcontroller.BleConstants.NamesCharacteristicId;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The paged Name Table protocol: decoding, downloading and skipping unchanged lists.
+ */
+public class NameTableTest {
+    private final InMemoryDeviceCacheStore store = new InMemoryDeviceCacheStore();
+
+    @Test
+    public void decodesNamesAndSkipsUnknownRecords() {
+        byte[] cafe = "Café".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer value = ByteBuffer.allocate(NameTable.HeaderLength + 2 + cafe.length + 3 + 2 + 2)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .put((byte) NameTable.Version).put((byte) NameTable.PatternList)
+                .putShort((short) 4).putInt(0xCAFEF00D).putShort((short) 2)
+                .put((byte) NameTable.RecordName).put((byte) cafe.length).put(cafe)
+                .put((byte) 9).put((byte) 1).put((byte) 0x55)
+                .put((byte) NameTable.RecordName).put((byte) 2).put((byte) 'A').put((byte) ';');
+
+        NameTable.Page page = NameTable.decodePage(value.array());
+        assertEquals(NameTable.PatternList, page.list);
+        assertEquals(4, page.totalCount);
+        assertEquals(0xCAFEF00DL, page.hash);
+        assertEquals(2, page.firstIndex);
+        assertEquals("Café", page.names.get(0));
+        assertEquals("A;", page.names.get(1));
+    }
+
+    @Test
+    public void rejectsOtherVersionsAndTruncatedRecords() {
+        byte[] page = {1, 0, 1, 0, 0, 0, 0, 0, 0, 0, NameTable.RecordName, 5, 'a'};
+        assertNull(NameTable.decodePage(page));
+        page[0] = 2;
+        assertNull(NameTable.decodePage(page));
+        assertNull(NameTable.decodePage(new byte[3]));
+    }
+
+    @Test
+    public void largeListIsDownloadedInSinglePacketPages() {
+        StringBuilder names = new StringBuilder();
+        for (int i = 0; i < 80; i++) {
+            names.append(i == 0 ? "" : ";").append("Style número ").append(i);
+        }
+        Session legacy = connect(false, names.toString());
+        Session paged = connect(true, names.toString());
+
+        // The ';'-delimited read is cut off at the ATT limit; the pages aren't.
+        assertTrue(legacy.connector.getKnownStyles().length < 80);
+        assertEquals(80, paged.connector.getKnownStyles().length);
+        assertEquals("Style número 79", paged.connector.getKnownStyles()[79]);
+        assertArrayEquals(new String[] {"Full", "Left", "Right", "Center", "Edges"}, paged.connector.getKnownPatterns());
+        // Each page fits in one read response.
+        LatencyHistogram pages = paged.connector.getMetrics().getRoundTrips(BleConstants.NameTableCharacteristicId);
+        assertEquals(paged.sign.getSettings().operationLatencyMs, pages.getMaxMs());
+    }
+
+    @Test
+    public void unchangedListsStopAfterTheFirstPage() {
+        String names = "Rainbow;Solid;Twinkle;Bounce;Fire;Comet;Plasma;Strobe";
+        Session first = connect(true, names);
+        Session second = connect(true, names);
+
+        // One page of each list, to compare hashes.
+        int firstPages = first.pageReads();
+        assertTrue(firstPages > 2);
+        assertEquals(2, second.pageReads());
+        assertArrayEquals(first.connector.getKnownStyles(), second.connector.getKnownStyles());
+        assertEquals(1, second.callback.namesLoadedCount);
+
+        Session changed = connect(true, names + ";Sparkle");
+        assertEquals(9, changed.connector.getKnownStyles().length);
+        assertEquals("Sparkle", changed.connector.getKnownStyles()[8]);
+    }
+
+    private Session connect(boolean nameTable, String styleNames) {
+        Session session = new Session();
+        session.scheduler = new SimulationScheduler();
+        SimulatedLedSign.Settings settings = new SimulatedLedSign.Settings();
+        settings.mtu = 64;
+        settings.supportsNameTable = nameTable;
+        session.sign = new SimulatedLedSign(session.scheduler, settings);
+        session.sign.setString(NamesCharacteristicId, styleNames);
+        session.callback = new RecordingConnectorCallback(session.scheduler);
+        session.connector = new NanoConnector(session.sign, session.callback, session.scheduler::now, store);
+        session.connector.connect();
+        session.scheduler.runUntilIdle();
+        return session;
+    }
+
+    private static class Session {
+        SimulationScheduler scheduler;
+        SimulatedLedSign sign;
+        RecordingConnectorCallback callback;
+        NanoConnector connector;
+
+        int pageReads() {
+            return (int) connector.getMetrics().getRoundTrips(BleConstants.NameTableCharacteristicId).getCount() / 2;
+        }
+    }
+}
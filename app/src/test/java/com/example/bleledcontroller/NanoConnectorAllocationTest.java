@@ -0,0 +1,136 @@
+package com.example.bleledcontroller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+/**
+ * Checks that steady-state control writes don't allocate.
+ */
+public class NanoConnectorAllocationTest {
+    @Test
+    public void controlWritesDoNotAllocateAfterWarmup() {
+        assumeTrue("Needs a JVM that reports per-thread allocation", BenchmarkHarness.allocatedBytes() >= 0);
+
+        AckingTransport transport = new AckingTransport();
+        NanoConnector connector = new NanoConnector(transport, new RecordingConnectorCallback(new SimulationScheduler()), System::currentTimeMillis);
+
+        for (int i = 0; i < 50_000; i++) {
+            writeBurst(connector, transport, i);
+        }
+
+        int writes = 100_000;
+        long before = BenchmarkHarness.allocatedBytes();
+        for (int i = 0; i < writes / 4; i++) {
+            writeBurst(connector, transport, i);
+        }
+        long allocated = BenchmarkHarness.allocatedBytes() - before;
+
+        // Leave a little room for the allocation counter itself.
+        assertEquals("bytes allocated per write", 0.0, (double) allocated / writes, 0.01);
+    }
+
+    // Two writes that coalesce while the first is in flight, then the link acks everything.
+    private static void writeBurst(NanoConnector connector, AckingTransport transport, int i) {
+        connector.setBrightness(i & 0xFF);
+        connector.setBrightness((i + 1) & 0xFF);
+        connector.setSpeed(i & 0x3F);
+        connector.setStyle(i & 0x03);
+        transport.ackAll();
+    }
+
+    // Accepts writes and acknowledges them when told to, without allocating.
+    private static class AckingTransport implements GattTransport {
+        private GattTransportCallback callback;
+        private UUID inFlight;
+
+        @Override
+        public void setCallback(GattTransportCallback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public void setPreferredDeviceAddress(String address) {
+        }
+
+        @Override
+        public String getDeviceAddress() {
+            return null;
+        }
+
+        @Override
+        public boolean hasCharacteristic(UUID characteristicId) {
+            return true;
+        }
+
+        @Override
+        public boolean readCharacteristic(UUID characteristicId) {
+            return false;
+        }
+
+        @Override
+        public boolean writeCharacteristic(UUID characteristicId, byte[] value) {
+            inFlight = characteristicId;
+            return true;
+        }
+
+        @Override
+        public boolean writeCharacteristicWithoutResponse(UUID characteristicId, byte[] value) {
+            return writeCharacteristic(characteristicId, value);
+        }
+
+        @Override
+        public boolean supportsNotifications(UUID characteristicId) {
+            return false;
+        }
+
+        @Override
+        public boolean enableNotifications(UUID characteristicId) {
+            return false;
+        }
+
+        @Override
+        public boolean requestConnectionPriority(int priority) {
+            return true;
+        }
+
+        @Override
+        public boolean requestPhy(int phy) {
+            return false;
+        }
+
+        @Override
+        public int getPhy() {
+            return PHY_LE_1M;
+        }
+
+        @Override
+        public int getMtu() {
+            return 23;
+        }
+
+        @Override
+        public int getMaxUnacknowledgedWrites() {
+            return 1;
+        }
+
+        void ackAll() {
+            while (inFlight != null) {
+                UUID id = inFlight;
+                inFlight = null;
+                callback.onCharacteristicWrite(id, GATT_SUCCESS);
+            }
+        }
+    }
+}
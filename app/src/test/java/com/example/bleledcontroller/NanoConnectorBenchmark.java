@@ -0,0 +1,196 @@
+package com.example.bleledcontroller;
+
+import static com.example.bleledcontroller.BleConstants.BatteryVoltageCharacteristicId;
+import static com.example.bleledcontroller.BleConstants.BrightnessCharacteristicId;
+import static com.example.bleledcontroller.BleConstants.NamesCharacteristicId;
+import static com.example.bleledcontroller.BleConstants.SpeedCharacteristicId;
+import static com.example.bleledcontroller.BleConstants.StepCharacteristicId;
+
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Host benchmarks for the BLE operation pipeline and characteristic decoding.
+ * Skipped during normal test runs; run with
+ *   ./gradlew :app:testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ * The report is printed and written to app/build/benchmarks/latest.txt.
+ */
+public class NanoConnectorBenchmark {
+    private static final UUID[] ControlIds = new UUID[] {
+            BrightnessCharacteristicId, SpeedCharacteristicId, StepCharacteristicId
+    };
+
+    @Test
+    public void runBenchmarks() throws Exception {
+        assumeTrue("Benchmarks only run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+
+        BenchmarkHarness harness = new BenchmarkHarness(20, 50, 10_000);
+        benchmarkQueue(harness);
+        benchmarkWithValue(harness);
+        benchmarkDecoding(harness);
+        benchmarkWritePath(harness);
+        benchmarkTimeToReady(harness);
+        benchmarkPixelStreaming(harness);
+        benchmarkRendering(harness);
+        System.out.println(harness.report());
+    }
+
+    private void benchmarkQueue(BenchmarkHarness harness) {
+        BleOperationQueue queue = new BleOperationQueue();
+        BleWriteCharacteristicOperation[] writes = new BleWriteCharacteristicOperation[ControlIds.length];
+        for (int i = 0; i < writes.length; i++) {
+            writes[i] = new BleWriteCharacteristicOperation(ControlIds[i], new byte[] {1});
+        }
+        harness.measure("queue.addPoll", i -> {
+            queue.add(writes[i % writes.length]);
+            if ((i & 1) == 1) {
+                queue.poll();
+            }
+        });
+    }
+
+    private void benchmarkWithValue(BenchmarkHarness harness) {
+        BleWriteCharacteristicOperation template = new BleWriteCharacteristicOperation(BrightnessCharacteristicId);
+        BleOperation[] sink = new BleOperation[1];
+        harness.measure("write.withValue", i -> sink[0] = template.withValue(new byte[] {(byte) i}));
+    }
+
+    private void benchmarkDecoding(BenchmarkHarness harness) {
+        NanoConnector connector = new NanoConnector(new SimulatedLedSign(new SimulationScheduler()), new NullCallback(), System::currentTimeMillis);
+        byte[] names = "Rainbow;Solid;Twinkle;Bounce;Fire;Comet;Theater Chase;Breathe;Strobe;Wipe"
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] voltage = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putFloat(12.6f).array();
+        byte[] clock = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0xF0000001).array();
+        byte[] control = new byte[] {(byte) 200};
+
+        // Through the connector's read path, status messages included.
+        harness.measure("decode.names", i -> connector.decodeCharacteristic(NamesCharacteristicId, names));
+        harness.measure("decode.batteryVoltage", i -> connector.decodeCharacteristic(BatteryVoltageCharacteristicId, voltage));
+
+        // The codecs on their own. The sinks are created once, as the connector's are.
+        int[] ints = new int[1];
+        long[] longs = new long[1];
+        float[] floats = new float[1];
+        Object[] objects = new Object[1];
+        CharacteristicCodec.IntSink intSink = v -> ints[0] = v;
+        CharacteristicCodec.LongSink longSink = v -> longs[0] = v;
+        CharacteristicCodec.FloatSink floatSink = v -> floats[0] = v;
+        CharacteristicCodec.ValueSink<String[]> namesSink = v -> objects[0] = v;
+        harness.measure("codec.u8", i -> CharacteristicCodec.U8.decode(control, intSink));
+        harness.measure("codec.u32Le", i -> CharacteristicCodec.U32Le.decode(clock, longSink));
+        harness.measure("codec.float32Le", i -> CharacteristicCodec.Float32Le.decode(voltage, floatSink));
+        harness.measure("codec.stringList", i -> CharacteristicCodec.StringList.decode(names, namesSink));
+        // What the float decoder used to do, for comparison.
+        harness.measure("codec.float32Le.byteBufferWrap",
+                i -> floats[0] = ByteBuffer.wrap(voltage).order(ByteOrder.LITTLE_ENDIAN).getFloat());
+    }
+
+    // CPU cost of one control write through the connector and the simulated link.
+    private void benchmarkWritePath(BenchmarkHarness harness) {
+        SimulationScheduler scheduler = new SimulationScheduler();
+        NanoConnector connector = new NanoConnector(new SimulatedLedSign(scheduler), new NullCallback(), scheduler::now);
+        connector.connect();
+        scheduler.runUntilIdle();
+        harness.measure("connector.setBrightness", i -> {
+            connector.setBrightness(i & 0xFF);
+            scheduler.runUntilIdle();
+        });
+    }
+
+    // Simulated connect-to-ready and full sync times for the initial read burst, with 5% packet loss.
+    private void benchmarkTimeToReady(BenchmarkHarness harness) {
+        int runs = 500;
+        double[] readyMs = new double[runs];
+        double[] fullSyncMs = new double[runs];
+        long start = System.nanoTime();
+        for (int run = 0; run < runs; run++) {
+            SimulationScheduler scheduler = new SimulationScheduler();
+            SimulatedLedSign.Settings settings = new SimulatedLedSign.Settings();
+            settings.packetLossRate = 0.05;
+            settings.seed = run;
+            NanoConnector connector = new NanoConnector(new SimulatedLedSign(scheduler, settings), new NullCallback(), scheduler::now);
+            connector.connect();
+            scheduler.runUntilIdle();
+            readyMs[run] = connector.getTimeToReadyMs();
+            fullSyncMs[run] = connector.getTimeToFullSyncMs();
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        harness.recordLatencies("sync.timeToReady", "sim-ms", readyMs, runs / elapsedSeconds);
+        harness.recordLatencies("sync.timeToFullSync", "sim-ms", fullSyncMs, runs / elapsedSeconds);
+    }
+
+    // Bytes per frame (the percentiles) and frames per second shown (the ops/s column) when an
+    // animation is rendered at 60 fps and streamed to a simulated sign.
+    private void benchmarkPixelStreaming(BenchmarkHarness harness) {
+        int[] mtus = {23, 247};
+        for (int mtu : mtus) {
+            recordPixelRun(harness, "pixels.comet.mtu" + mtu, PixelStreamTest.stream(mtu, PixelStreamTest::comet, 60, 5000));
+            recordPixelRun(harness, "pixels.rainbow.mtu" + mtu, PixelStreamTest.stream(mtu, PixelStreamTest::rainbow, 60, 5000));
+        }
+    }
+
+    // Preview frames rendered per second (the ops/s column) for each emulated style on a 150-pixel strip.
+    private void benchmarkRendering(BenchmarkHarness harness) {
+        for (int style = 0; style < PatternRendererTest.Styles.length; style++) {
+            PatternRenderer renderer = PatternRendererTest.renderer(new SignState(style, 0, 200, 70, 30));
+            harness.measure("render." + PatternRendererTest.Styles[style].toLowerCase(Locale.US), i -> renderer.render(i * 16L));
+        }
+    }
+
+    private void recordPixelRun(BenchmarkHarness harness, String name, PixelStreamTest.Run run) {
+        List<Double> frameBytes = new ArrayList<>();
+        int bytes = 0;
+        for (SimulatedLedSign.WireWrite write : run.sign.getWireWrites()) {
+            if (!write.characteristicId.equals(BleConstants.FramebufferCharacteristicId)) {
+                continue;
+            }
+            bytes += write.value.length;
+            if (write.acknowledged) {
+                frameBytes.add((double) bytes);
+                bytes = 0;
+            }
+        }
+        double[] samples = new double[frameBytes.size()];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = frameBytes.get(i);
+        }
+        List<Long> shownAt = run.sign.getFramesShownAt();
+        double fps = (shownAt.size() - 1) * 1000.0 / (shownAt.get(shownAt.size() - 1) - shownAt.get(0));
+        harness.recordLatencies(name, "B/frame", samples, fps);
+    }
+
+    private static class NullCallback implements NanoConnectorCallback {
+        @Override
+        public void acceptStatus(String status) {
+        }
+
+        @Override
+        public void connected() {
+        }
+
+        @Override
+        public void disconnected() {
+        }
+
+        @Override
+        public void acceptBatteryVoltage(float voltage) {
+        }
+
+        @Override
+        public void namesLoaded() {
+        }
+
+        @Override
+        public void stateChanged() {
+        }
+    }
+}
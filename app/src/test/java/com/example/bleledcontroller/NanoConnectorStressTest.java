@@ -0,0 +1,251 @@
+package com.example.bleledcontroller;
+
+import static com.example.bleledcontroller.BleConstants.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hammers the connector's public methods from many threads at once and checks that the
+ * transport is only ever driven from the connector thread, one operation at a time,
+ * and that the last change made wins.
+ */
+public class NanoConnectorStressTest {
+    private static final int Producers = 8;
+    private static final int CallsPerProducer = 5000;
+
+    @Test
+    public void concurrentCallersKeepTheTransportOnOneThread() throws Exception {
+        ExecutorService connectorThread = Executors.newSingleThreadExecutor();
+        try {
+            Thread owner = ownerOf(connectorThread);
+            ThreadedTransport transport = new ThreadedTransport(connectorThread, owner);
+            ConnectedCallback callback = new ConnectedCallback();
+            NanoConnector connector = new NanoConnector(transport, callback, System::currentTimeMillis, null, null, connectorThread);
+
+            connector.connect();
+            assertTrue("connected", callback.connected.await(5, TimeUnit.SECONDS));
+
+            Thread[] producers = new Thread[Producers];
+            for (int p = 0; p < Producers; p++) {
+                Random random = new Random(p);
+                producers[p] = new Thread(() -> {
+                    for (int i = 0; i < CallsPerProducer; i++) {
+                        int value = random.nextInt(256);
+                        switch (random.nextInt(6)) {
+                            case 0: connector.setBrightness(value); break;
+                            case 1: connector.setStyle(value); break;
+                            case 2: connector.setPattern(value); break;
+                            case 3: connector.setSpeed(value); break;
+                            case 4: connector.setStep(value); break;
+                            default: connector.applyState(value, value, value, value, value); break;
+                        }
+                    }
+                });
+                producers[p].start();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+
+            connector.applyState(1, 2, 3, 4, 5);
+            connector.setBrightness(77);
+            CountDownLatch idle = new CountDownLatch(1);
+            connector.whenIdle(idle::countDown);
+            assertTrue("went idle", idle.await(5, TimeUnit.SECONDS));
+
+            assertEquals("calls off the connector thread", 0, transport.wrongThreadCalls.get());
+            assertEquals("overlapping operations", 0, transport.overlappingOperations.get());
+            assertEquals(1, transport.valueOf(StyleCharacteristicId));
+            assertEquals(2, transport.valueOf(PatternCharacteristicId));
+            assertEquals(77, transport.valueOf(BrightnessCharacteristicId));
+            assertEquals(4, transport.valueOf(SpeedCharacteristicId));
+            assertEquals(5, transport.valueOf(StepCharacteristicId));
+            assertEquals(new SignState(1, 2, 77, 4, 5).diff(connector.getState()), 0);
+        } finally {
+            connectorThread.shutdownNow();
+        }
+    }
+
+    private static Thread ownerOf(ExecutorService executor) throws Exception {
+        return executor.submit(Thread::currentThread).get();
+    }
+
+    // A sign with only the required characteristics. Responses are posted back to the
+    // connector thread, the way AndroidGattTransport hands them over from the Binder thread.
+    private static class ThreadedTransport implements GattTransport {
+        private final ExecutorService connectorThread;
+        private final Thread owner;
+        private final HashMap<UUID, byte[]> values = new HashMap<>();
+        private GattTransportCallback callback;
+        private boolean operationInFlight;
+        final AtomicInteger wrongThreadCalls = new AtomicInteger();
+        final AtomicInteger overlappingOperations = new AtomicInteger();
+
+        ThreadedTransport(ExecutorService connectorThread, Thread owner) {
+            this.connectorThread = connectorThread;
+            this.owner = owner;
+            for (UUID id : ControlCharacteristicIds) {
+                values.put(id, new byte[] {0});
+            }
+            values.put(NamesCharacteristicId, "Solid;Fade".getBytes());
+            values.put(PatternNamesCharacteristicId, "Rainbow;Fire".getBytes());
+            values.put(BatteryVoltageCharacteristicId,
+                    ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putFloat(3.7f).array());
+        }
+
+        int valueOf(UUID id) throws Exception {
+            return connectorThread.submit(() -> Byte.toUnsignedInt(values.get(id)[0])).get();
+        }
+
+        private void checkThread() {
+            if (Thread.currentThread() != owner) {
+                wrongThreadCalls.incrementAndGet();
+            }
+        }
+
+        private void startOperation() {
+            checkThread();
+            if (operationInFlight) {
+                overlappingOperations.incrementAndGet();
+            }
+            operationInFlight = true;
+        }
+
+        @Override
+        public void setCallback(GattTransportCallback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void connect() {
+            checkThread();
+            connectorThread.execute(() -> callback.onConnected());
+        }
+
+        @Override
+        public void disconnect() {
+            checkThread();
+        }
+
+        @Override
+        public void setPreferredDeviceAddress(String address) {
+            checkThread();
+        }
+
+        @Override
+        public String getDeviceAddress() {
+            return "AA:BB:CC:DD:EE:FF";
+        }
+
+        @Override
+        public boolean hasCharacteristic(UUID characteristicId) {
+            return values.containsKey(characteristicId);
+        }
+
+        @Override
+        public boolean readCharacteristic(UUID characteristicId) {
+            startOperation();
+            byte[] value = values.get(characteristicId).clone();
+            connectorThread.execute(() -> {
+                operationInFlight = false;
+                callback.onCharacteristicRead(characteristicId, value, GATT_SUCCESS);
+            });
+            return true;
+        }
+
+        @Override
+        public boolean writeCharacteristic(UUID characteristicId, byte[] value) {
+            startOperation();
+            values.put(characteristicId, value.clone());
+            connectorThread.execute(() -> {
+                operationInFlight = false;
+                callback.onCharacteristicWrite(characteristicId, GATT_SUCCESS);
+            });
+            return true;
+        }
+
+        @Override
+        public boolean writeCharacteristicWithoutResponse(UUID characteristicId, byte[] value) {
+            return writeCharacteristic(characteristicId, value);
+        }
+
+        @Override
+        public boolean supportsNotifications(UUID characteristicId) {
+            return false;
+        }
+
+        @Override
+        public boolean enableNotifications(UUID characteristicId) {
+            return false;
+        }
+
+        @Override
+        public boolean requestConnectionPriority(int priority) {
+            checkThread();
+            return true;
+        }
+
+        @Override
+        public boolean requestPhy(int phy) {
+            checkThread();
+            return false;
+        }
+
+        @Override
+        public int getPhy() {
+            return PHY_LE_1M;
+        }
+
+        @Override
+        public int getMtu() {
+            return 23;
+        }
+
+        @Override
+        public int getMaxUnacknowledgedWrites() {
+            return 1;
+        }
+    }
+
+    private static class ConnectedCallback implements NanoConnectorCallback {
+        final CountDownLatch connected = new CountDownLatch(1);
+
+        @Override
+        public void acceptStatus(String status) {
+        }
+
+        @Override
+        public void connected() {
+            connected.countDown();
+        }
+
+        @Override
+        public void disconnected() {
+        }
+
+        @Override
+        public void acceptBatteryVoltage(float voltage) {
+        }
+
+        @Override
+        public void namesLoaded() {
+        }
+
+        @Override
+        public void stateChanged() {
+        }
+    }
+}
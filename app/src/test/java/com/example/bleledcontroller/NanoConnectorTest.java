@@ -0,0 +1,287 @@
+package com.example.bleledcontroller;
+
+import static com.example.bleledcontroller.BleConstants.BrightnessCharacteristicId;
+import static com.example.bleledcontroller.BleConstants.StyleCharacteristicId;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Runs NanoConnector against a simulated sign on the JVM.
+ */
+public class NanoConnectorTest {
+    private SimulationScheduler scheduler;
+    private SimulatedLedSign sign;
+    private RecordingConnectorCallback callback;
+    private NanoConnector connector;
+
+    @Before
+    public void setUp() {
+        scheduler = new SimulationScheduler();
+        sign = new SimulatedLedSign(scheduler);
+        callback = new RecordingConnectorCallback(scheduler);
+        connector = new NanoConnector(sign, callback, scheduler::now);
+    }
+
+    @Test
+    public void initialSyncReadsAllValues() {
+        connector.connect();
+        scheduler.runUntilIdle();
+
+        assertEquals(1, callback.connectedCount);
+        assertEquals(100, connector.getInitialBrightness());
+        assertEquals(1, connector.getInitialStyle());
+        assertEquals(20, connector.getInitialSpeed());
+        assertEquals(5, connector.getInitialStep());
+        assertEquals(2, connector.getInitialPattern());
+        assertArrayEquals(new String[] {"Rainbow", "Solid", "Twinkle", "Bounce", "Fire"}, connector.getKnownStyles());
+        assertArrayEquals(new String[] {"Full", "Left", "Right", "Center", "Edges"}, connector.getKnownPatterns());
+        assertEquals(12.6f, callback.lastVoltage, 0.001f);
+        assertEquals(8, sign.getReadCount());
+        assertEquals(1, callback.namesLoadedCount);
+    }
+
+    @Test
+    public void largerMtuShortensInitialSync() {
+        connector.connect();
+        scheduler.runUntilIdle();
+        long smallMtuSync = connector.getTimeToFullSyncMs();
+
+        SimulationScheduler bigScheduler = new SimulationScheduler();
+        SimulatedLedSign.Settings settings = new SimulatedLedSign.Settings();
+        settings.mtu = 247;
+        RecordingConnectorCallback bigCallback = new RecordingConnectorCallback(bigScheduler);
+        NanoConnector bigConnector = new NanoConnector(new SimulatedLedSign(bigScheduler, settings), bigCallback, bigScheduler::now);
+        bigConnector.connect();
+        bigScheduler.runUntilIdle();
+
+        assertTrue(bigConnector.getTimeToFullSyncMs() < smallMtuSync);
+    }
+
+    @Test
+    public void burstOfWritesLandsTheFinalValue() {
+        connector.connect();
+        scheduler.runUntilIdle();
+
+        for (int i = 1; i <= 20; i++) {
+            connector.setBrightness(i);
+            scheduler.runFor(5);
+        }
+        scheduler.runUntilIdle();
+
+        assertEquals(20, sign.getByte(BrightnessCharacteristicId));
+        assertTrue(sign.getWireWrites().size() < 20);
+    }
+
+    @Test
+    public void burstWhileAWriteIsInFlightSendsOnlyTheFirstAndLastValues() {
+        connector.connect();
+        scheduler.runUntilIdle();
+        int writesBefore = sign.getWireWrites().size();
+
+        // The first value goes straight out; the rest replace each other in the queue behind it.
+        for (int i = 1; i <= 50; i++) {
+            connector.setBrightness(i);
+        }
+        scheduler.runUntilIdle();
+
+        List<SimulatedLedSign.WireWrite> writes = sign.getWireWrites();
+        assertEquals(writesBefore + 2, writes.size());
+        assertEquals(1, writes.get(writesBefore).value[0]);
+        assertEquals(50, writes.get(writesBefore + 1).value[0]);
+        assertEquals(50, sign.getByte(BrightnessCharacteristicId));
+    }
+
+    @Test
+    public void disconnectIsReported() {
+        sign.getSettings().disconnectAfterOperations = 3;
+        connector.connect();
+        scheduler.runUntilIdle();
+
+        assertEquals(0, callback.connectedCount);
+        assertEquals(1, callback.disconnectedCount);
+    }
+
+    @Test
+    public void refreshVoltageReadsTheCurrentValue() {
+        connector.connect();
+        scheduler.runUntilIdle();
+
+        sign.setBatteryVoltage(11.1f);
+        connector.refreshVoltage();
+        scheduler.runUntilIdle();
+
+        assertEquals(11.1f, callback.lastVoltage, 0.001f);
+    }
+
+    @Test
+    public void applyStateUsesOneWriteWhenTheSignSupportsStateFrames() {
+        sign.getSettings().supportsStateFrame = true;
+        connector.connect();
+        scheduler.runUntilIdle();
+
+        long start = scheduler.now();
+        connector.applyState(3, 4, 200, 50, 10);
+        scheduler.runUntilIdle();
+
+        assertEquals(1, sign.getWireWrites().size());
+        assertEquals(BleConstants.StateFrameCharacteristicId, sign.getWireWrites().get(0).characteristicId);
+        assertEquals(0, sign.getState().diff(new SignState(3, 4, 200, 50, 10)));
+        assertEquals(sign.getSettings().operationLatencyMs, scheduler.now() - start);
+    }
+
+    @Test
+    public void applyStateFallsBackToChangedFieldsOnOlderSigns() {
+        connector.connect();
+        scheduler.runUntilIdle();
+
+        // Style and speed already match the sign, so only three writes are needed.
+        connector.applyState(1, 4, 200, 20, 10);
+        scheduler.runUntilIdle();
+
+        assertEquals(3, sign.getWireWrites().size());
+        assertEquals(0, sign.getState().diff(new SignState(1, 4, 200, 20, 10)));
+    }
+
+    @Test
+    public void settingTheCurrentValueSendsNothing() {
+        connector.connect();
+        scheduler.runUntilIdle();
+
+        connector.setBrightness(connector.getInitialBrightness());
+        connector.setStyle(connector.getInitialStyle());
+        scheduler.runUntilIdle();
+
+        assertEquals(0, sign.getWireWrites().size());
+    }
+
+    @Test
+    public void streamingDeliversMoreIntermediateValuesAndCommitsTheLast() {
+        int streamedUpdates = dragBrightness(true);
+        int acknowledgedUpdates = dragBrightness(false);
+
+        assertTrue("streamed " + streamedUpdates + " vs acknowledged " + acknowledgedUpdates,
+                streamedUpdates > 2 * acknowledgedUpdates);
+    }
+
+    // Drag brightness through 100 values, 2ms apart. Returns how many values reached the sign.
+    private int dragBrightness(boolean streaming) {
+        setUp();
+        connector.connect();
+        scheduler.runUntilIdle();
+        connector.setStreamingEnabled(BrightnessCharacteristicId, streaming);
+
+        for (int i = 0; i < 100; i++) {
+            connector.setBrightness(i);
+            scheduler.runFor(2);
+        }
+        scheduler.runUntilIdle();
+
+        assertEquals(99, sign.getByte(BrightnessCharacteristicId));
+        SimulatedLedSign.WireWrite last = sign.getWireWrites().get(sign.getWireWrites().size() - 1);
+        assertTrue("final value must be acknowledged", last.acknowledged);
+        assertEquals(99, last.value[0]);
+        return sign.getWireWrites().size();
+    }
+
+    @Test
+    public void readyBeforeNamesAndVoltageFinishLoading() {
+        connector.connect();
+        scheduler.runUntilIdle();
+
+        assertEquals(1, callback.connectedCount);
+        assertEquals(1, callback.namesLoadedCount);
+        assertTrue(callback.connectedAt < callback.namesLoadedAt);
+        assertEquals(callback.connectedAt, connector.getTimeToReadyMs());
+        assertTrue(connector.getTimeToFullSyncMs() > connector.getTimeToReadyMs());
+    }
+
+    @Test
+    public void stateFrameSnapshotReplacesTheControlReads() {
+        sign.getSettings().supportsStateFrame = true;
+        connector.connect();
+        scheduler.runUntilIdle();
+
+        // One snapshot, two name lists and the battery voltage.
+        assertEquals(4, sign.getReadCount());
+        assertEquals(0, connector.getState().diff(sign.getState()));
+        long settle = sign.getSettings().connectLatencyMs;
+        assertEquals(settle + sign.getSettings().operationLatencyMs, connector.getTimeToReadyMs());
+    }
+
+    @Test
+    public void changesOnTheSignArePushedWithoutPolling() {
+        sign.getSettings().supportsNotifications = true;
+        connector.connect();
+        scheduler.runUntilIdle();
+        int reads = sign.getReadCount();
+
+        sign.changeByteOnSign(BrightnessCharacteristicId, 42);
+        sign.changeBatteryVoltageOnSign(11.9f);
+        scheduler.runUntilIdle();
+
+        assertEquals(reads, sign.getReadCount());
+        assertEquals(42, connector.getState().brightness);
+        assertEquals(1, callback.stateChangedCount);
+        assertEquals(11.9f, callback.lastVoltage, 0.001f);
+    }
+
+    @Test
+    public void stateFramePushCarriesEveryControl() {
+        sign.getSettings().supportsNotifications = true;
+        sign.getSettings().supportsStateFrame = true;
+        connector.connect();
+        scheduler.runUntilIdle();
+
+        sign.changeByteOnSign(StyleCharacteristicId, 4);
+        scheduler.runUntilIdle();
+
+        assertEquals(4, connector.getState().style);
+        assertEquals(0, connector.getState().diff(sign.getState()));
+    }
+
+    @Test
+    public void partialStateFramePushKeepsTheOtherFields() {
+        sign.getSettings().supportsNotifications = true;
+        sign.getSettings().supportsStateFrame = true;
+        connector.connect();
+        scheduler.runUntilIdle();
+        SignState before = new SignState();
+        before.copyFrom(connector.getState());
+
+        SignState pushed = new SignState();
+        pushed.brightness = 17;
+        sign.pushFrameOnSign(pushed, SignState.BrightnessBit);
+        scheduler.runUntilIdle();
+
+        assertEquals(17, connector.getState().brightness);
+        assertEquals(before.style, connector.getState().style);
+        assertEquals(before.pattern, connector.getState().pattern);
+        assertEquals(before.speed, connector.getState().speed);
+        assertEquals(before.step, connector.getState().step);
+        assertEquals(SignState.BrightnessBit, connector.getState().diff(before));
+    }
+
+    @Test
+    public void pushedValueDoesNotOverrideANewerLocalChange() {
+        sign.getSettings().supportsNotifications = true;
+        connector.connect();
+        scheduler.runUntilIdle();
+
+        // The sign's change arrives while our write is still in flight.
+        connector.setBrightness(200);
+        sign.changeByteOnSign(BrightnessCharacteristicId, 42);
+        scheduler.runFor(sign.getSettings().operationLatencyMs / 2);
+        assertEquals(200, connector.getState().brightness);
+        scheduler.runUntilIdle();
+
+        assertEquals(200, sign.getByte(BrightnessCharacteristicId));
+        assertEquals(200, connector.getState().brightness);
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.bleledcontroller;
+
+import static com.example.bleledcontroller.BleConstants.BrightnessCharacteristicId;
+import static com.example.bleledcontroller.BleConstants.SpeedCharacteristicId;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Timeouts, retries and reconnects, driven by simulated time.
+ */
+public class NanoConnectorWatchdogTest {
+    private SimulationScheduler scheduler;
+    private SimulatedLedSign sign;
+    private RecordingConnectorCallback callback;
+    private NanoConnector connector;
+
+    @Before
+    public void setUp() {
+        scheduler = new SimulationScheduler();
+        sign = new SimulatedLedSign(scheduler);
+        callback = new RecordingConnectorCallback(scheduler);
+        connector = new NanoConnector(sign, callback, scheduler::now, null, scheduler::schedule);
+    }
+
+    @Test
+    public void lostResponseIsRetried() {
+        connector.connect();
+        scheduler.runUntilIdle();
+
+        sign.dropNextResponses(1);
+        long start = scheduler.now();
+        connector.setBrightness(50);
+        connector.setSpeed(9);
+        scheduler.runUntilIdle();
+
+        assertEquals(50, sign.getByte(BrightnessCharacteristicId));
+        assertEquals(9, sign.getByte(SpeedCharacteristicId));
+        assertEquals(1, connector.getTimeoutCount());
+        // One timeout and one backoff before the retry, instead of stalling forever.
+        assertTrue(scheduler.now() - start >= NanoConnector.OperationTimeoutMs + NanoConnector.RetryBackoffMs);
+    }
+
+    @Test
+    public void operationIsDroppedAfterMaxAttempts() {
+        connector.connect();
+        scheduler.runUntilIdle();
+
+        sign.dropNextResponses(NanoConnector.MaxAttempts);
+        sign.setBatteryVoltage(11.1f);
+        connector.refreshVoltage();
+        connector.setSpeed(9);
+        scheduler.runUntilIdle();
+
+        // The voltage read was given up on, but the write behind it still went through.
+        assertEquals(12.6f, callback.lastVoltage, 0.001f);
+        assertEquals(9, sign.getByte(SpeedCharacteristicId));
+        assertEquals(NanoConnector.MaxAttempts, connector.getTimeoutCount());
+        assertEquals(0, connector.getReconnectCount());
+    }
+
+    @Test
+    public void abandonedWriteOnlyForgetsItsOwnControl() {
+        connector.connect();
+        scheduler.runUntilIdle();
+
+        sign.dropNextResponses(NanoConnector.MaxAttempts);
+        connector.setBrightness(50);
+        scheduler.runUntilIdle();
+
+        // The other controls are still known, so the UI isn't handed -1 for them.
+        SignState state = connector.getState();
+        assertEquals(50, state.brightness);
+        assertEquals(20, state.speed);
+
+        // The same speed is still skipped, but the brightness is sent again in case it never arrived.
+        int writes = sign.getWireWrites().size();
+        connector.setSpeed(20);
+        connector.setBrightness(50);
+        scheduler.runUntilIdle();
+        assertEquals(writes + 1, sign.getWireWrites().size());
+        assertEquals(BrightnessCharacteristicId, sign.getWireWrites().get(writes).characteristicId);
+
+        // Once it has gone through, it is skipped again.
+        connector.setBrightness(50);
+        scheduler.runUntilIdle();
+        assertEquals(writes + 1, sign.getWireWrites().size());
+    }
+
+    @Test
+    public void supersededWriteIsNotRetried() {
+        connector.connect();
+        scheduler.runUntilIdle();
+
+        sign.dropNextResponses(1);
+        connector.setBrightness(50);
+        connector.setBrightness(60);
+        scheduler.runUntilIdle();
+
+        assertEquals(60, sign.getByte(BrightnessCharacteristicId));
+        for (SimulatedLedSign.WireWrite write : sign.getWireWrites()) {
+            assertEquals(60, Byte.toUnsignedInt(write.value[0]));
+        }
+    }
+
+    @Test
+    public void wedgedLinkIsReconnected() {
+        sign.getSettings().stallAfterOperations = 3;
+        connector.connect();
+        scheduler.runUntilIdle();
+
+        assertEquals(1, connector.getReconnectCount());
+        assertEquals(2, sign.getConnectCount());
+        assertEquals(1, callback.disconnectedCount);
+        assertEquals(1, callback.connectedCount);
+        assertEquals(0, connector.getState().diff(sign.getState()));
+        assertArrayEquals(new String[] {"Full", "Left", "Right", "Center", "Edges"}, connector.getKnownPatterns());
+
+        // The new link is watched like the first: losing it is reported once.
+        sign.dropConnection();
+        scheduler.runUntilIdle();
+        assertEquals(2, callback.disconnectedCount);
+    }
+
+    @Test
+    public void watchdogIsQuietWhileIdle() {
+        connector.connect();
+        scheduler.runUntilIdle();
+
+        assertTrue(scheduler.isIdle());
+        assertEquals(0, connector.getTimeoutCount());
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.bleledcontroller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Tests for the on-phone preview renderer.
+ */
+public class PatternRendererTest {
+    static final String[] Styles = {"Rainbow", "Solid", "Twinkle", "Bounce", "Fire", "Comet", "Breathe", "Strobe"};
+    static final String[] Patterns = {"Full", "Left", "Right", "Center", "Edges"};
+    private static final int Pixels = 150;
+
+    @Test
+    public void patternsMaskTheStripAndBrightnessScalesIt() {
+        PatternRenderer renderer = renderer(new SignState(1, 1, 255, 50, 10));
+        int[] pixels = renderer.render(0).clone();
+        int color = pixels[0];
+        assertTrue(color != 0);
+        for (int i = 0; i < Pixels; i++) {
+            assertEquals("pixel " + i, i < Pixels / 2 ? color : 0, pixels[i]);
+        }
+
+        renderer.setState(new SignState(1, 4, 127, 50, 10));
+        pixels = renderer.render(0);
+        assertEquals(0, pixels[Pixels / 2]);
+        assertEquals(PatternRenderer.scale(color, 128), pixels[0]);
+        assertEquals(pixels[0], pixels[Pixels - 1]);
+
+        renderer.setState(new SignState(1, 0, 0, 50, 10));
+        assertTrue(Arrays.stream(renderer.render(0)).allMatch(p -> p == 0));
+    }
+
+    @Test
+    public void speedScalesMotion() {
+        // Half the speed for twice as long lands on the same frame.
+        PatternRenderer slow = renderer(new SignState(0, 0, 255, 25, 10));
+        PatternRenderer fast = renderer(new SignState(0, 0, 255, 50, 10));
+        for (int frame = 0; frame <= 60; frame++) {
+            slow.render(frame * 32L);
+            fast.render(frame * 16L);
+        }
+        assertArrayEquals(fast.getPixels(), slow.getPixels());
+
+        // A style the renderer doesn't emulate is drawn as a rainbow.
+        PatternRenderer unknown = new PatternRenderer(Pixels);
+        unknown.setStyleNames(new String[] {"Plasma"});
+        unknown.setState(new SignState(0, 0, 255, 50, 10));
+        for (int frame = 0; frame <= 60; frame++) {
+            unknown.render(frame * 16L);
+        }
+        assertArrayEquals(fast.getPixels(), unknown.getPixels());
+
+        // Every emulated style but Solid moves.
+        for (int style = 0; style < Styles.length; style++) {
+            if (style == PatternRenderer.Solid) {
+                continue;
+            }
+            PatternRenderer renderer = renderer(new SignState(style, 0, 255, 100, 50));
+            int[] first = renderer.render(0).clone();
+            boolean moved = false;
+            for (int frame = 1; frame <= 120 && !moved; frame++) {
+                moved = !Arrays.equals(first, renderer.render(frame * 16L));
+            }
+            assertTrue(Styles[style], moved);
+        }
+    }
+
+    @Test
+    public void renderingDoesNotAllocate() {
+        assumeTrue("Needs a JVM that reports per-thread allocation", BenchmarkHarness.allocatedBytes() >= 0);
+
+        for (int style = 0; style < Styles.length; style++) {
+            PatternRenderer renderer = renderer(new SignState(style, style % Patterns.length, 200, 70, 30));
+            for (int frame = 0; frame < 20_000; frame++) {
+                renderer.render(frame * 16L);
+            }
+
+            long before = BenchmarkHarness.allocatedBytes();
+            for (int frame = 20_000; frame < 120_000; frame++) {
+                renderer.render(frame * 16L);
+            }
+            long allocated = BenchmarkHarness.allocatedBytes() - before;
+
+            // Leave a little room for the allocation counter itself.
+            assertEquals(Styles[style] + " bytes allocated per frame", 0.0, allocated / 100_000.0, 0.01);
+            assertFalse(Arrays.stream(renderer.getPixels()).anyMatch(p -> (p & 0xFF000000) != 0));
+        }
+    }
+
+    static PatternRenderer renderer(SignState state) {
+        PatternRenderer renderer = new PatternRenderer(Pixels);
+        renderer.setStyleNames(Styles);
+        renderer.setPatternNames(Patterns);
+        renderer.setState(state);
+        return renderer;
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.bleledcontroller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Tests for pixel frame encoding and streaming frames to a simulated sign.
+ */
+public class PixelStreamTest {
+    private static final int Pixels = 150;
+
+    @Test
+    public void deltaOnlyCarriesChangedPixels() {
+        int[] shown = new int[Pixels];
+        int[] next = shown.clone();
+        assertTrue(PixelFrames.encodeDelta(shown, next, null, new PixelFrames.Palette[1], 20).isEmpty());
+
+        next[10] = 0xFF0000;
+        next[12] = 0xFF0000;
+        next[100] = 0x00FF00;
+        List<byte[]> chunks = PixelFrames.encodeDelta(shown, next, null, new PixelFrames.Palette[1], 20);
+        // One chunk: pixels 10-12 in one run (the gap is cheaper than a second header), then pixel 100.
+        assertEquals(1, chunks.size());
+        byte[] chunk = chunks.get(0);
+        assertEquals(PixelFrames.EndOfFrameFlag, chunk[0]);
+        assertEquals(1 + 3 + 3 * 3 + 3 + 3, chunk.length);
+        assertEquals(10, chunk[1]);
+        assertEquals(3, chunk[3]);
+        assertEquals(100, chunk[4 + 9]);
+    }
+
+    @Test
+    public void fewColorsAreSentAsIndexesAndThePaletteIsReused() {
+        int[] first = new int[Pixels];
+        for (int i = 0; i < Pixels; i++) {
+            first[i] = i % 2 == 0 ? 0x000010 : 0xFFA000;
+        }
+        PixelFrames.Palette[] palette = new PixelFrames.Palette[1];
+        List<byte[]> full = PixelFrames.encodeDelta(null, first, null, palette, 244);
+        assertEquals(PixelFrames.EndOfFrameFlag | PixelFrames.IndexedFlag | PixelFrames.PaletteFlag, full.get(0)[0]);
+        assertEquals(2, palette[0].size());
+        assertEquals(1 + 1 + 2 * 3 + 3 + Pixels, full.get(0).length);
+
+        // Swapping the two colors needs every pixel again, but not the palette.
+        int[] second = new int[Pixels];
+        for (int i = 0; i < Pixels; i++) {
+            second[i] = first[Pixels - 1 - i];
+        }
+        PixelFrames.Palette[] unchanged = new PixelFrames.Palette[1];
+        List<byte[]> delta = PixelFrames.encodeDelta(first, second, palette[0], unchanged, 244);
+        assertEquals(PixelFrames.EndOfFrameFlag | PixelFrames.IndexedFlag, delta.get(0)[0]);
+        assertEquals(null, unchanged[0]);
+
+        // Too many colors for a palette: plain RGB runs, split to fit the chunk size.
+        List<byte[]> rainbow = PixelFrames.encodeDelta(null, rainbow(0), null, palette, 20);
+        for (byte[] chunk : rainbow) {
+            assertTrue(chunk.length <= 20);
+            assertEquals(0, chunk[0] & PixelFrames.IndexedFlag);
+        }
+        assertEquals(PixelFrames.EndOfFrameFlag, rainbow.get(rainbow.size() - 1)[0]);
+    }
+
+    @Test
+    public void smallChangesStreamFastOverASmallMtu() {
+        Run run = stream(23, PixelStreamTest::comet, 60, 3000);
+
+        assertArrayEquals(run.lastFrame, run.sign.getShownPixels());
+        PixelStream stats = run.connector.getPixelStream();
+        assertTrue("fps " + stats.getFrameRate(), stats.getFrameRate() >= 15);
+        assertTrue("bytes/frame " + stats.getAverageBytesPerFrame(), stats.getAverageBytesPerFrame() <= 40);
+        // Rendering faster than the link only replaces frames; it never builds a backlog.
+        assertTrue(stats.getFramesReplaced() > 0);
+        List<Long> shownAt = run.sign.getFramesShownAt();
+        long lag = shownAt.get(shownAt.size() - 1) - run.lastSubmittedAt;
+        assertTrue("last frame shown after " + lag + "ms", lag <= 100);
+    }
+
+    @Test
+    public void fullFrameChangesArePacedToTheLink() {
+        Run slow = stream(23, PixelStreamTest::rainbow, 60, 3000);
+        Run fast = stream(247, PixelStreamTest::rainbow, 60, 3000);
+
+        assertArrayEquals(slow.lastFrame, slow.sign.getShownPixels());
+        PixelStream slowStats = slow.connector.getPixelStream();
+        PixelStream fastStats = fast.connector.getPixelStream();
+        assertTrue(slowStats.getAverageBytesPerFrame() >= 3 * Pixels);
+        assertTrue(fastStats.getFrameRate() > 2 * slowStats.getFrameRate());
+        // The target is what the link sustains, which is what was achieved.
+        assertEquals(slowStats.getTargetFrameRate(), slowStats.getFrameRate(), slowStats.getFrameRate() * 0.25);
+
+        // Frames leave room for control writes.
+        long start = slow.scheduler.now();
+        slow.connector.setBrightness(42);
+        slow.connector.sendPixelFrame(rainbow(1000));
+        slow.scheduler.runUntilIdle();
+        long landed = slow.sign.getLastChangeAt() - start;
+        assertTrue("brightness took " + landed + "ms", landed <= 250);
+    }
+
+    @Test
+    public void aNewConnectionGetsAFullFrame() {
+        Run run = stream(23, PixelStreamTest::comet, 30, 500);
+        PixelStream stats = run.connector.getPixelStream();
+        long bytes = stats.getBytesSent();
+
+        run.sign.disconnect();
+        run.connector.connect();
+        run.scheduler.runUntilIdle();
+        run.connector.sendPixelFrame(run.lastFrame);
+        run.scheduler.runUntilIdle();
+
+        assertArrayEquals(run.lastFrame, run.sign.getShownPixels());
+        assertTrue(stats.getBytesSent() - bytes >= Pixels);
+
+        // The same frame again is already showing, so nothing is sent.
+        bytes = stats.getBytesSent();
+        run.connector.sendPixelFrame(run.lastFrame);
+        run.scheduler.runUntilIdle();
+        assertEquals(bytes, stats.getBytesSent());
+        assertEquals(1, stats.getFramesUnchanged());
+        assertFalse(run.connector.getPixelStream().isFrameInFlight());
+    }
+
+    interface Animation {
+        int[] render(int frame);
+    }
+
+    static class Run {
+        final SimulationScheduler scheduler = new SimulationScheduler();
+        SimulatedLedSign sign;
+        NanoConnector connector;
+        int[] lastFrame;
+        long lastSubmittedAt;
+    }
+
+    // Render an animation at the given rate for a while and let the sign catch up.
+    static Run stream(int mtu, Animation animation, int renderFps, long durationMs) {
+        Run run = new Run();
+        SimulatedLedSign.Settings settings = new SimulatedLedSign.Settings();
+        settings.mtu = mtu;
+        settings.pixelCount = Pixels;
+        run.sign = new SimulatedLedSign(run.scheduler, settings);
+        run.connector = new NanoConnector(run.sign, new RecordingConnectorCallback(run.scheduler), run.scheduler::now, null, run.scheduler::schedule);
+        run.connector.connect();
+        run.scheduler.runUntilIdle();
+
+        int frames = (int) (durationMs * renderFps / 1000);
+        for (int frame = 0; frame < frames; frame++) {
+            run.lastFrame = animation.render(frame);
+            run.lastSubmittedAt = run.scheduler.now();
+            run.connector.sendPixelFrame(run.lastFrame);
+            run.scheduler.runFor(1000 / renderFps);
+        }
+        run.scheduler.runUntilIdle();
+        return run;
+    }
+
+    // A five-pixel comet moving over a dark background.
+    static int[] comet(int frame) {
+        int[] pixels = new int[Pixels];
+        int[] tail = {0xFFFFFF, 0xFFC040, 0xC06000, 0x602000, 0x200800};
+        for (int i = 0; i < Pixels; i++) {
+            pixels[i] = 0x000010;
+        }
+        for (int i = 0; i < tail.length; i++) {
+            pixels[Math.floorMod(frame - i, Pixels)] = tail[i];
+        }
+        return pixels;
+    }
+
+    // A rainbow scrolling one pixel a frame; every pixel changes every frame.
+    static int[] rainbow(int frame) {
+        int[] pixels = new int[Pixels];
+        for (int i = 0; i < Pixels; i++) {
+            int hue = (i + frame) * 1536 / Pixels % 1536;
+            int rise = hue % 256;
+            int fall = 255 - rise;
+            switch (hue / 256) {
+                case 0: pixels[i] = 0xFF0000 | rise << 8; break;
+                case 1: pixels[i] = fall << 16 | 0x00FF00; break;
+                case 2: pixels[i] = 0x00FF00 | rise; break;
+                case 3: pixels[i] = fall << 8 | 0x0000FF; break;
+                case 4: pixels[i] = rise << 16 | 0x0000FF; break;
+                default: pixels[i] = 0xFF0000 | fall; break;
+            }
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.bleledcontroller;
+
+import static com.example.bleledcontroller.BleConstants.PresetRecallCharacteristicId;
+import static com.example.bleledcontroller.BleConstants.PresetSlotsCharacteristicId;
+import static com.example.bleledcontroller.BleConstants.StateFrameCharacteristicId;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * The preset library and recalling presets on a simulated sign.
+ */
+public class PresetTest {
+    private static final SignState[] Presets = new SignState[] {
+            new SignState(0, 0, 200, 10, 1),
+            new SignState(1, 2, 200, 10, 1),
+            new SignState(2, 2, 50, 40, 3),
+            new SignState(3, 4, 255, 90, 9),
+            new SignState(4, 1, 20, 5, 2)
+    };
+
+    @Test
+    public void libraryRoundTrips() {
+        PresetLibrary library = new PresetLibrary();
+        library.put("Evening", Presets[0]);
+        library.put("Fête", Presets[1]);
+        assertEquals(0, library.put("Evening", Presets[2]));
+
+        PresetLibrary decoded = PresetLibrary.decode(library.encode());
+        assertArrayEquals(new String[] {"Evening", "Fête"}, decoded.getNames());
+        assertEquals(0, decoded.get(0).state.diff(Presets[2]));
+        assertEquals(0, decoded.get(1).state.diff(Presets[1]));
+
+        // An empty slot keeps the presets after it where they were, and can be filled later.
+        assertEquals(2, library.addEmpty());
+        library.put("Late", Presets[3]);
+        decoded = PresetLibrary.decode(library.encode());
+        assertTrue(decoded.get(2).isEmpty());
+        assertEquals(3, decoded.indexOf("Late"));
+        decoded.set(2, "Filled", Presets[4]);
+        assertFalse(decoded.get(2).isEmpty());
+        assertEquals(0, decoded.get(2).state.diff(Presets[4]));
+
+        byte[] encoded = library.encode();
+        assertNull(PresetLibrary.decode(Arrays.copyOf(encoded, encoded.length - 1)));
+        encoded[0] = 2;
+        assertNull(PresetLibrary.decode(encoded));
+    }
+
+    @Test
+    public void recallSendsOnlyTheChangedFields() {
+        Session session = connect(0);
+        session.connector.recallPreset(0);
+        session.scheduler.runUntilIdle();
+        session.connector.recallPreset(1);
+        session.scheduler.runUntilIdle();
+
+        SimulatedLedSign.WireWrite last = lastWrite(session.sign);
+        assertEquals(StateFrameCharacteristicId, last.characteristicId);
+        assertEquals(SignState.StyleBit | SignState.PatternBit, last.value[1]);
+        assertEquals(0, session.sign.getState().diff(Presets[1]));
+
+        // Recalling what the sign already shows sends nothing.
+        int writes = session.sign.getWireWrites().size();
+        session.connector.recallPreset(1);
+        session.scheduler.runUntilIdle();
+        assertEquals(writes, session.sign.getWireWrites().size());
+    }
+
+    @Test
+    public void presetsOnTheSignAreRecalledWithOneByte() {
+        Session session = connect(4);
+        assertEquals(4, countWrites(session.sign, PresetSlotsCharacteristicId));
+        assertEquals(0, session.sign.getPresetSlot(3).diff(Presets[3]));
+
+        session.connector.recallPreset(2);
+        session.scheduler.runUntilIdle();
+        SimulatedLedSign.WireWrite last = lastWrite(session.sign);
+        assertEquals(PresetRecallCharacteristicId, last.characteristicId);
+        assertArrayEquals(new byte[] {2}, last.value);
+        assertEquals(0, session.sign.getState().diff(Presets[2]));
+
+        // Past the sign's slots, the preset is sent by value.
+        session.connector.recallPreset(4);
+        session.scheduler.runUntilIdle();
+        assertEquals(StateFrameCharacteristicId, lastWrite(session.sign).characteristicId);
+        assertEquals(0, session.sign.getState().diff(Presets[4]));
+        assertEquals(1, session.sign.getPresetRecallCount());
+    }
+
+    @Test
+    public void slotsAreOnlyWrittenWhenTheyDiffer() {
+        Session first = connect(4);
+        // Same presets: the hash matches, so the second connection writes nothing.
+        Session second = reconnect(first, Presets);
+        assertEquals(second.writesBefore, second.sign.getWireWrites().size());
+
+        SignState[] edited = Presets.clone();
+        edited[1] = new SignState(9, 9, 9, 9, 9);
+        int before = countWrites(first.sign, PresetSlotsCharacteristicId);
+        reconnect(first, edited);
+        assertEquals(before + 4, countWrites(first.sign, PresetSlotsCharacteristicId));
+        assertEquals(9, first.sign.getPresetSlot(1).style);
+    }
+
+    private Session connect(int presetSlots) {
+        Session session = new Session();
+        SimulatedLedSign.Settings settings = new SimulatedLedSign.Settings();
+        settings.supportsStateFrame = true;
+        settings.presetSlots = presetSlots;
+        session.sign = new SimulatedLedSign(session.scheduler, settings);
+        return start(session, Presets);
+    }
+
+    private Session reconnect(Session previous, SignState[] presets) {
+        previous.sign.dropConnection();
+        Session session = new Session();
+        session.scheduler = previous.scheduler;
+        session.sign = previous.sign;
+        session.writesBefore = previous.sign.getWireWrites().size();
+        return start(session, presets);
+    }
+
+    private Session start(Session session, SignState[] presets) {
+        session.connector = new NanoConnector(session.sign, new RecordingConnectorCallback(session.scheduler), session.scheduler::now);
+        session.connector.setSignPresets(presets);
+        session.connector.connect();
+        session.scheduler.runUntilIdle();
+        return session;
+    }
+
+    private static int countWrites(SimulatedLedSign sign, UUID characteristicId) {
+        int count = 0;
+        for (SimulatedLedSign.WireWrite write : sign.getWireWrites()) {
+            if (write.characteristicId.equals(characteristicId)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static SimulatedLedSign.WireWrite lastWrite(SimulatedLedSign sign) {
+        return sign.getWireWrites().get(sign.getWireWrites().size() - 1);
+    }
+
+    private static class Session {
+        SimulationScheduler scheduler = new SimulationScheduler();
+        SimulatedLedSign sign;
+        NanoConnector connector;
+        int writesBefore;
+    }
+}
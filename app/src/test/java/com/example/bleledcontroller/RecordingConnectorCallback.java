@@ -0,0 +1,55 @@
+package com.example.bleledcontroller;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * NanoConnectorCallback that records what the connector reported, stamped with simulated time.
+ */
+public class RecordingConnectorCallback implements NanoConnectorCallback {
+    private final SimulationScheduler scheduler;
+    public final List<String> statuses = new ArrayList<>();
+    public int connectedCount = 0;
+    public int disconnectedCount = 0;
+    public int namesLoadedCount = 0;
+    public long namesLoadedAt = -1;
+    public long connectedAt = -1;
+    public int stateChangedCount = 0;
+    public float lastVoltage = Float.NaN;
+
+    public RecordingConnectorCallback(SimulationScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public void acceptStatus(String status) {
+        statuses.add(status);
+    }
+
+    @Override
+    public void connected() {
+        connectedCount++;
+        connectedAt = scheduler.now();
+    }
+
+    @Override
+    public void disconnected() {
+        disconnectedCount++;
+    }
+
+    @Override
+    public void namesLoaded() {
+        namesLoadedCount++;
+        namesLoadedAt = scheduler.now();
+    }
+
+    @Override
+    public void stateChanged() {
+        stateChangedCount++;
+    }
+
+    @Override
+    public void acceptBatteryVoltage(float voltage) {
+        lastVoltage = voltage;
+    }
+}
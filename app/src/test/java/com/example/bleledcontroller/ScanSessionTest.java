@@ -0,0 +1,138 @@
+package com.example.bleledcontroller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for choosing a sign from scan results, in simulated time.
+ */
+public class ScanSessionTest {
+    private static final String Near = "5A:1E:D0:00:00:01";
+    private static final String Far = "5A:1E:D0:00:00:02";
+    private static final String Known = "5A:1E:D0:00:00:03";
+
+    private SimulationScheduler scheduler;
+    private FakeRadio radio;
+    private RecordingListener listener;
+    private ScanSession session;
+
+    @Before
+    public void setUp() {
+        scheduler = new SimulationScheduler();
+        radio = new FakeRadio();
+        listener = new RecordingListener();
+        session = new ScanSession(radio, scheduler::now, scheduler::schedule, listener);
+    }
+
+    @Test
+    public void strongestSignWinsOnAverageSignal() {
+        session.start(null);
+        // One lucky reading doesn't beat a steadily stronger sign.
+        scheduler.schedule(100, () -> session.onResult(Far, -50));
+        scheduler.schedule(300, () -> {
+            // A batch delivered at once.
+            session.onResult(Far, -85);
+            session.onResult(Near, -62);
+            session.onResult(Far, -84);
+        });
+        scheduler.schedule(600, () -> session.onResult(Near, -64));
+        scheduler.runUntilIdle();
+
+        assertEquals(Near, listener.chosen);
+        assertEquals(ScanSession.WindowMs, listener.chosenAt);
+        assertArrayEquals(new Integer[] {ScanSession.LowLatencyMode}, radio.modes.toArray());
+        assertFalse(radio.scanning);
+        assertFalse(listener.noSignFound);
+    }
+
+    @Test
+    public void knownSignIsPreferredAndEndsTheWindowEarly() {
+        session.start(Known);
+        scheduler.schedule(100, () -> session.onResult(Near, -60));
+        scheduler.schedule(200, () -> session.onResult(Known, -70));
+        scheduler.runUntilIdle();
+
+        assertEquals(Known, listener.chosen);
+        assertEquals(200, listener.chosenAt);
+        assertFalse(radio.scanning);
+
+        // Too weak to take at once, but still ahead of a slightly stronger stranger.
+        listener.chosen = null;
+        session.start(Known);
+        scheduler.schedule(100, () -> session.onResult(Known, -80));
+        scheduler.schedule(200, () -> session.onResult(Near, -75));
+        scheduler.runUntilIdle();
+        assertEquals(Known, listener.chosen);
+    }
+
+    @Test
+    public void fallsBackToLowPowerThenGivesUp() {
+        long start = scheduler.now();
+        session.start(null);
+        scheduler.runFor(ScanSession.WindowMs + 1);
+        assertEquals(ScanSession.LowPowerMode, session.getMode());
+
+        // A sign turning up at low power is taken once any others have had a chance to show.
+        scheduler.schedule(2000, () -> session.onResult(Far, -90));
+        scheduler.runUntilIdle();
+        assertEquals(Far, listener.chosen);
+        assertEquals(ScanSession.WindowMs + 1 + 2000 + ScanSession.LowPowerSettleMs, listener.chosenAt - start);
+        assertArrayEquals(new Integer[] {ScanSession.LowLatencyMode, ScanSession.LowPowerMode}, radio.modes.toArray());
+
+        // With nothing to find, the radio is switched off when the budget is spent.
+        listener.chosen = null;
+        start = scheduler.now();
+        session.start(null);
+        scheduler.runUntilIdle();
+        assertNull(listener.chosen);
+        assertEquals(true, listener.noSignFound);
+        assertEquals(ScanSession.BudgetMs, scheduler.now() - start);
+        assertFalse(radio.scanning);
+        assertFalse(session.isScanning());
+    }
+
+    private static class FakeRadio implements ScanSession.Radio {
+        final List<Integer> modes = new ArrayList<>();
+        boolean scanning = false;
+
+        @Override
+        public void startScan(int mode) {
+            modes.add(mode);
+            scanning = true;
+        }
+
+        @Override
+        public void stopScan() {
+            scanning = false;
+        }
+    }
+
+    private class RecordingListener implements ScanSession.Listener {
+        String chosen;
+        long chosenAt = -1;
+        boolean noSignFound = false;
+
+        @Override
+        public void acceptStatus(String status) {
+        }
+
+        @Override
+        public void onSignChosen(String address) {
+            chosen = address;
+            chosenAt = scheduler.now();
+        }
+
+        @Override
+        public void onNoSignFound() {
+            noSignFound = true;
+        }
+    }
+}
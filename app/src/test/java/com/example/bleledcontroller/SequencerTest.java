@@ -0,0 +1,162 @@
+package com.example.bleledcontroller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Timelines, keyframe merging and the timing of a Sequencer against simulated signs.
+ */
+public class SequencerTest {
+    private final SimulationScheduler scheduler = new SimulationScheduler();
+
+    @Test
+    public void beatsFollowTheTempoAndCloseKeyframesMerge() {
+        Timeline timeline = new Timeline(120)
+                .add(2, new SignState(-1, -1, 30, -1, -1))
+                .add(0, new SignState(-1, -1, 10, -1, -1))
+                .add(1, new SignState(2, -1, -1, -1, -1))
+                // 10ms after beat 1: the same connection interval.
+                .add(1.02, new SignState(-1, 3, -1, -1, -1));
+
+        assertEquals(500, timeline.beatToMs(1));
+        assertEquals(1000, timeline.getDurationMs());
+        assertEquals(0.0, timeline.get(0).beat, 0);
+
+        Sequencer sequencer = new Sequencer(scheduler::now, scheduler::schedule);
+        sequencer.play(timeline, new ArrayList<>(), 0);
+        assertEquals(3, sequencer.getCueCount());
+        assertEquals(1, sequencer.getMergedKeyframeCount());
+
+        timeline.setBpm(60);
+        assertEquals(1000, timeline.beatToMs(1));
+    }
+
+    @Test
+    public void writesAreSentAheadByTheLinkLatency() {
+        SimulatedLedSign sign = newSign(0);
+        sign.getSettings().packetLossRate = 0.1;
+        NanoConnector connector = connect(sign);
+        // Time a few writes, as the operator setting up would.
+        for (int i = 0; i < 8; i++) {
+            connector.setBrightness(100 + i);
+            scheduler.runUntilIdle();
+        }
+
+        List<Long> errors = playAndMeasure(Arrays.asList(sign), Arrays.asList(connector), 240);
+        long lead = Sequencer.leadFor(connector);
+        assertTrue("lead " + lead, lead >= 30 && lead < 60);
+        // Late or early by a lost packet or so, never by the whole latency.
+        assertTrue("errors " + errors, median(errors) <= 15);
+        assertTrue("errors " + errors, max(errors) <= 2 * lead);
+    }
+
+    @Test
+    public void scheduledFramesLandTogetherOnEverySign() {
+        List<SimulatedLedSign> signs = Arrays.asList(newSign(7_654_321), newSign(0xFFFFFF00L));
+        List<NanoConnector> connectors = new ArrayList<>();
+        for (SimulatedLedSign sign : signs) {
+            sign.getSettings().supportsScheduledApply = true;
+            sign.getSettings().packetLossRate = 0.2;
+            NanoConnector connector = connect(sign);
+            connector.syncClock(SignFleet.ClockSyncSamples);
+            scheduler.runUntilIdle();
+            connectors.add(connector);
+        }
+
+        // Cues closer together than the lead, so each goes out before the sign has applied the last.
+        List<Long> errors = playAndMeasure(signs, connectors, 600);
+        assertTrue(Sequencer.leadFor(connectors.get(0)) > 100);
+        assertTrue("errors " + errors, max(errors) <= 5);
+    }
+
+    @Test
+    public void stopEndsTheShow() {
+        SimulatedLedSign sign = newSign(0);
+        NanoConnector connector = connect(sign);
+        Timeline timeline = new Timeline(60);
+        for (int beat = 0; beat < 10; beat++) {
+            timeline.add(beat, new SignState(-1, -1, beat, -1, -1));
+        }
+
+        Sequencer sequencer = new Sequencer(scheduler::now, scheduler::schedule);
+        sequencer.play(timeline, Arrays.asList(connector), scheduler.now() + 200);
+        scheduler.runFor(2500);
+        sequencer.stop();
+        int changes = sign.getChanges().size();
+        scheduler.runUntilIdle();
+
+        assertFalse(sequencer.isPlaying());
+        assertEquals(changes, sign.getChanges().size());
+        assertEquals(2, sign.getState().brightness);
+    }
+
+    // Play a show of 16 cues (each changing the brightness) at the given tempo and return, for
+    // every sign and cue, how far from the cue's time the sign changed.
+    private List<Long> playAndMeasure(List<SimulatedLedSign> signs, List<NanoConnector> connectors, double bpm) {
+        Timeline timeline = new Timeline(bpm);
+        for (int beat = 0; beat < 16; beat++) {
+            timeline.add(beat, new SignState(-1, -1, 10 + beat, -1, -1));
+            // Alternate the style too; merged into the same cue.
+            timeline.add(beat + 0.01, new SignState(beat % 2, -1, -1, -1, -1));
+        }
+
+        long startAt = scheduler.now() + 500;
+        int[] firstChange = new int[signs.size()];
+        for (int i = 0; i < signs.size(); i++) {
+            firstChange[i] = signs.get(i).getChanges().size();
+        }
+        Sequencer sequencer = new Sequencer(scheduler::now, scheduler::schedule);
+        sequencer.play(timeline, connectors, startAt);
+        scheduler.runUntilIdle();
+        assertEquals(16, sequencer.getCueCount());
+
+        List<Long> errors = new ArrayList<>();
+        for (int i = 0; i < signs.size(); i++) {
+            List<SimulatedLedSign.Change> changes = signs.get(i).getChanges();
+            for (int beat = 0; beat < 16; beat++) {
+                long cueAt = startAt + timeline.beatToMs(beat);
+                SimulatedLedSign.Change change = changes.get(firstChange[i] + beat);
+                assertEquals(10 + beat, change.state.brightness);
+                assertEquals(beat % 2, change.state.style);
+                errors.add(Math.abs(change.time - cueAt));
+            }
+        }
+        return errors;
+    }
+
+    private SimulatedLedSign newSign(long clockOffsetMs) {
+        SimulatedLedSign.Settings settings = new SimulatedLedSign.Settings();
+        settings.supportsStateFrame = true;
+        settings.clockOffsetMs = clockOffsetMs;
+        settings.address = "5A:1E:D0:00:31:8" + (clockOffsetMs % 10);
+        return new SimulatedLedSign(scheduler, settings);
+    }
+
+    private NanoConnector connect(SimulatedLedSign sign) {
+        NanoConnector connector = new NanoConnector(sign, new RecordingConnectorCallback(scheduler), scheduler::now, null, scheduler::schedule);
+        connector.connect();
+        scheduler.runUntilIdle();
+        return connector;
+    }
+
+    private static long median(List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        sorted.sort(null);
+        return sorted.get(sorted.size() / 2);
+    }
+
+    private static long max(List<Long> values) {
+        long max = 0;
+        for (long value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.bleledcontroller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Runs a SignFleet against several simulated signs sharing one clock.
+ */
+public class SignFleetTest {
+    private static final String[] Addresses = {"5A:1E:D0:00:00:01", "5A:1E:D0:00:00:02", "5A:1E:D0:00:00:03"};
+    // The last sign is on a noticeably slower link.
+    private static final long[] Latencies = {20, 30, 60};
+
+    private SimulationScheduler scheduler;
+    private HashMap<String, SimulatedLedSign> signs;
+    private FakeScanner scanner;
+    private RecordingFleetCallback callback;
+    private SignFleet fleet;
+
+    @Before
+    public void setUp() {
+        scheduler = new SimulationScheduler();
+        signs = new HashMap<>();
+        for (int i = 0; i < Addresses.length; i++) {
+            SimulatedLedSign.Settings settings = new SimulatedLedSign.Settings();
+            settings.address = Addresses[i];
+            settings.operationLatencyMs = Latencies[i];
+            signs.put(Addresses[i], new SimulatedLedSign(scheduler, settings));
+        }
+        scanner = new FakeScanner();
+        callback = new RecordingFleetCallback();
+        fleet = new SignFleet(scanner, signs::get, callback, scheduler::now);
+    }
+
+    @Test
+    public void discoversAndConnectsEverySign() {
+        fleet.startDiscovery();
+        for (String address : Addresses) {
+            scanner.find(address);
+        }
+        // Advertisements repeat; the fleet connects once per sign.
+        scanner.find(Addresses[0]);
+        scheduler.runUntilIdle();
+
+        assertEquals(3, fleet.getAddresses().size());
+        assertEquals(3, fleet.getReadyCount());
+        assertEquals(3, callback.connected.size());
+    }
+
+    @Test
+    public void closeStopsScanningAndDisconnectsEverySign() {
+        fleet.startDiscovery();
+        for (String address : Addresses) {
+            scanner.find(address);
+        }
+        scheduler.runUntilIdle();
+
+        fleet.close();
+        scheduler.runUntilIdle();
+        assertNull(scanner.listener);
+        for (SimulatedLedSign sign : signs.values()) {
+            assertFalse(sign.isConnected());
+        }
+    }
+
+    @Test
+    public void monitoringShowsAdvertisedStateWithoutConnecting() {
+        fleet.startMonitoring();
+        for (String address : Addresses) {
+            scanner.find(address);
+            scanner.advertise(address, signs.get(address).getAdvertisement());
+        }
+        signs.get(Addresses[1]).changeBatteryVoltageOnSign(11.9f);
+        scanner.advertise(Addresses[1], signs.get(Addresses[1]).getAdvertisement());
+        scheduler.runUntilIdle();
+
+        assertEquals(3, fleet.getAddresses().size());
+        assertEquals(0, fleet.getReadyCount());
+        for (SimulatedLedSign sign : signs.values()) {
+            assertEquals(0, sign.getConnectCount());
+        }
+        SignAdvertisement advertisement = fleet.getAdvertisement(Addresses[1]);
+        assertEquals(0, signs.get(Addresses[1]).getState().diff(advertisement.state));
+        assertEquals(11.9f, advertisement.batteryVoltage, 0.001f);
+        assertEquals(4, callback.advertised.size());
+
+        // Blocks from other versions (or other manufacturers' data) are ignored.
+        byte[] future = signs.get(Addresses[0]).getAdvertisement();
+        future[0] = 2;
+        assertNull(SignAdvertisement.decode(future));
+        assertNull(SignAdvertisement.decode(new byte[4]));
+    }
+
+    @Test
+    public void changingAMonitoredSignConnectsItFirst() {
+        fleet.startMonitoring();
+        for (String address : Addresses) {
+            scanner.find(address);
+        }
+
+        FleetCommand command = fleet.applyState(3, 4, 50, 10, 2);
+        scheduler.runUntilIdle();
+
+        assertTrue(command.isComplete());
+        assertEquals(3, command.getCompletedCount());
+        assertEquals(3, fleet.getReadyCount());
+        for (SimulatedLedSign sign : signs.values()) {
+            assertEquals(1, sign.getConnectCount());
+            assertEquals(0, new SignState(3, 4, 50, 10, 2).diff(sign.getState()));
+        }
+
+        // Connected signs take later commands straight away.
+        command = fleet.applyState(1, 1, 1, 1, 1);
+        scheduler.runUntilIdle();
+        assertTrue(command.isComplete());
+        for (SimulatedLedSign sign : signs.values()) {
+            assertEquals(1, sign.getConnectCount());
+        }
+    }
+
+    @Test
+    public void presetReachesEverySignConcurrently() {
+        connectAll();
+
+        FleetCommand command = fleet.applyState(3, 4, 50, 10, 2);
+        scheduler.runUntilIdle();
+
+        assertTrue(command.isComplete());
+        assertEquals(3, command.getCompletedCount());
+        assertEquals(1, callback.completed.size());
+        for (SimulatedLedSign sign : signs.values()) {
+            assertEquals(0, new SignState(3, 4, 50, 10, 2).diff(sign.getState()));
+        }
+
+        // The slowest sign decides how long the fleet took, and the others didn't wait for it.
+        assertEquals(Addresses[2], command.getSlowestAddress());
+        long slowest = command.getSlowestLatencyMs();
+        assertEquals(slowest, command.getLatencyMs(Addresses[2]));
+        long sum = 0;
+        for (String address : Addresses) {
+            sum += command.getLatencyMs(address);
+        }
+        assertTrue(slowest < sum);
+        assertTrue(command.getLatencyMs(Addresses[0]) < slowest);
+    }
+
+    @Test
+    public void scheduledPresetSwitchesEverySignTogether() {
+        // Unrelated clocks, one about to wrap, on lossy links.
+        long[] clockOffsets = {0, 7_654_321, 0xFFFFFF00L};
+        for (int i = 0; i < Addresses.length; i++) {
+            SimulatedLedSign.Settings settings = signs.get(Addresses[i]).getSettings();
+            settings.supportsScheduledApply = true;
+            settings.clockOffsetMs = clockOffsets[i];
+            settings.packetLossRate = 0.2;
+        }
+        connectAll();
+
+        fleet.applyState(3, 4, 50, 10, 2);
+        scheduler.runUntilIdle();
+        long immediateSkew = changeSkew();
+
+        FleetCommand command = fleet.applyStateTogether(1, 2, 200, 30, 4);
+        scheduler.runUntilIdle();
+        long scheduledSkew = changeSkew();
+
+        assertTrue(command.isComplete());
+        for (SimulatedLedSign sign : signs.values()) {
+            assertEquals(0, new SignState(1, 2, 200, 30, 4).diff(sign.getState()));
+        }
+        assertTrue("immediate skew " + immediateSkew, immediateSkew >= 30);
+        assertTrue("scheduled skew " + scheduledSkew, scheduledSkew <= 5);
+    }
+
+    @Test
+    public void signThatDropsOffCountsAsFailed() {
+        connectAll();
+
+        FleetCommand command = fleet.send("brightness", connector -> connector.setBrightness(5));
+        signs.get(Addresses[1]).dropConnection();
+        scheduler.runUntilIdle();
+
+        assertTrue(command.isComplete());
+        assertEquals(2, command.getCompletedCount());
+        assertEquals(1, command.getFailedCount());
+        assertEquals(-1, command.getLatencyMs(Addresses[1]));
+        assertEquals(1, callback.completed.size());
+        assertEquals(2, fleet.getReadyCount());
+    }
+
+    @Test
+    public void signThatDroppedOffFailsUntilItIsAddedAgain() {
+        connectAll();
+        signs.get(Addresses[1]).dropConnection();
+        scheduler.runUntilIdle();
+
+        // Not silently skipped: the command knows it didn't reach the sign.
+        FleetCommand command = fleet.applyState(3, 4, 50, 10, 2);
+        scheduler.runUntilIdle();
+        assertTrue(command.isComplete());
+        assertEquals(3, command.getSignCount());
+        assertEquals(1, command.getFailedCount());
+
+        fleet.addSign(Addresses[1]);
+        scheduler.runUntilIdle();
+        assertEquals(3, fleet.getReadyCount());
+        assertEquals(2, signs.get(Addresses[1]).getConnectCount());
+
+        command = fleet.applyState(1, 2, 200, 30, 4);
+        scheduler.runUntilIdle();
+        assertEquals(3, command.getCompletedCount());
+        for (SimulatedLedSign sign : signs.values()) {
+            assertEquals(0, new SignState(1, 2, 200, 30, 4).diff(sign.getState()));
+        }
+    }
+
+    @Test
+    public void commandWithNoReadySignsCompletesImmediately() {
+        FleetCommand command = fleet.applyState(1, 1, 1, 1, 1);
+
+        assertTrue(command.isComplete());
+        assertEquals(0, command.getSignCount());
+        assertNotNull(callback.completed.get(0));
+    }
+
+    // Spread between the first and last sign showing their latest change.
+    private long changeSkew() {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (SimulatedLedSign sign : signs.values()) {
+            first = Math.min(first, sign.getLastChangeAt());
+            last = Math.max(last, sign.getLastChangeAt());
+        }
+        return last - first;
+    }
+
+    private void connectAll() {
+        for (String address : Addresses) {
+            fleet.addSign(address);
+        }
+        scheduler.runUntilIdle();
+        assertEquals(3, fleet.getReadyCount());
+    }
+
+    private static class FakeScanner implements SignScanner {
+        private Listener listener;
+
+        void find(String address) {
+            listener.onSignFound(address);
+        }
+
+        void advertise(String address, byte[] data) {
+            listener.onSignAdvertised(address, SignAdvertisement.decode(data));
+        }
+
+        @Override
+        public void startScan(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void stopScan() {
+            listener = null;
+        }
+    }
+
+    private static class RecordingFleetCallback implements SignFleetCallback {
+        final List<String> connected = new ArrayList<>();
+        final List<FleetCommand> completed = new ArrayList<>();
+        final List<SignAdvertisement> advertised = new ArrayList<>();
+
+        @Override
+        public void acceptStatus(String address, String status) {
+        }
+
+        @Override
+        public void signConnected(String address) {
+            connected.add(address);
+        }
+
+        @Override
+        public void signDisconnected(String address) {
+        }
+
+        @Override
+        public void commandCompleted(FleetCommand command) {
+            completed.add(command);
+        }
+
+        @Override
+        public void signAdvertised(String address, SignAdvertisement advertisement) {
+            advertised.add(advertisement);
+        }
+    }
+}
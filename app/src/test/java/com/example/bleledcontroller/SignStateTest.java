@@ -0,0 +1,41 @@
+package com.example.bleledcontroller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SignStateTest {
+    @Test
+    public void frameRoundTrips() {
+        SignState state = new SignState(3, 4, 250, 99, 7);
+        byte[] frame = new byte[SignState.FrameLength];
+        state.toFrame(frame, SignState.AllFields);
+
+        SignState decoded = new SignState();
+        assertTrue(decoded.applyFrame(frame));
+        assertEquals(0, decoded.diff(state));
+    }
+
+    @Test
+    public void onlyMaskedFieldsAreApplied() {
+        byte[] frame = new byte[SignState.FrameLength];
+        new SignState(3, 4, 250, 99, 7).toFrame(frame, SignState.BrightnessBit | SignState.StepBit);
+
+        SignState decoded = new SignState(1, 1, 1, 1, 1);
+        assertTrue(decoded.applyFrame(frame));
+        assertEquals(0, decoded.diff(new SignState(1, 1, 250, 1, 7)));
+    }
+
+    @Test
+    public void unknownVersionIsRejected() {
+        byte[] frame = new byte[SignState.FrameLength];
+        new SignState(3, 4, 250, 99, 7).toFrame(frame, SignState.AllFields);
+        frame[0] = 2;
+
+        SignState decoded = new SignState();
+        assertFalse(decoded.applyFrame(frame));
+        assertEquals(-1, decoded.style);
+    }
+}
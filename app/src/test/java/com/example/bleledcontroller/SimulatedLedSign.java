@@ -0,0 +1,807 @@
+package com.example.bleledcontroller;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * In-memory LED sign that implements {@link GattTransport}.
+ * Models per-operation latency, the ATT MTU (long values take several packets),
+ * packet loss (a lost packet is retransmitted one round trip later), lost responses
+ * and disconnects, all driven by a {@link SimulationScheduler}.
+ */
+public class SimulatedLedSign implements GattTransport {
+    public static class Settings {
+        // Round trip for one ATT packet at high connection priority, roughly one or two
+        // connection intervals. Until the connector asks for a priority the link is balanced.
+        public long operationLatencyMs = 30;
+        // How much longer a round trip takes at balanced and low power priority.
+        // Real links are about 3x and 8x slower; 1 leaves latency independent of priority.
+        public int balancedSlowdown = 1;
+        public int lowPowerSlowdown = 1;
+        // Whether the sign accepts the 2M PHY. The PHY only shortens airtime, which the
+        // connection interval dwarfs, so it doesn't change the simulated latency.
+        public boolean supports2MPhy = true;
+        // Time from connect() until the service has been discovered.
+        public long connectLatencyMs = 100;
+        // Largest ATT MTU the sign accepts. Above the default of 23, connecting
+        // costs one extra round trip for the MTU exchange.
+        public int mtu = 23;
+        // Chance that any one packet has to be retransmitted.
+        public double packetLossRate = 0;
+        // Chance that an operation never gets a response at all.
+        public double dropResponseRate = 0;
+        // Drop the link when this many operations have been started; negative to never drop.
+        public int disconnectAfterOperations = -1;
+        // Stop responding (without dropping the link) once this many operations have been
+        // started on the first connection; negative to never stall. A reconnect clears it.
+        public int stallAfterOperations = -1;
+        public long seed = 3181;
+        // Writes without response go out several per connection interval,
+        // and the controller buffers a few of them.
+        public long connectionIntervalMs = 15;
+        public int writesWithoutResponsePerInterval = 4;
+        public int maxUnacknowledgedWrites = 4;
+        // Whether the sign exposes the packed state frame characteristic.
+        public boolean supportsStateFrame = false;
+        // Firmware version string, or null if the sign doesn't expose one.
+        public String firmwareVersion = null;
+        public String address = "5A:1E:D0:00:31:81";
+        // Time a scan takes to find the sign. Connecting to a known address skips it.
+        public long scanLatencyMs = 0;
+        // Whether the control values, state frame and battery voltage can be subscribed to.
+        public boolean supportsNotifications = false;
+        // Whether the sign exposes its clock and accepts scheduled frames.
+        public boolean supportsScheduledApply = false;
+        // The sign's clock reads scheduler time plus this (modulo 2^32).
+        public long clockOffsetMs = 0;
+        // Whether the sign serves its name lists in pages through the Name Table characteristic.
+        public boolean supportsNameTable = false;
+        // Number of preset slots the sign has; 0 if it can't keep presets.
+        public int presetSlots = 0;
+        // Number of pixels the sign accepts from the controller; 0 if it has no framebuffer.
+        public int pixelCount = 0;
+    }
+
+    // The control values as they became after a change, and when.
+    public static class Change {
+        public final long time;
+        public final SignState state;
+
+        Change(long time, SignState state) {
+            this.time = time;
+            this.state = state;
+        }
+    }
+
+    public static class WireWrite {
+        public final long time;
+        public final UUID characteristicId;
+        public final byte[] value;
+        public final boolean acknowledged;
+
+        WireWrite(long time, UUID characteristicId, byte[] value, boolean acknowledged) {
+            this.time = time;
+            this.characteristicId = characteristicId;
+            this.value = value;
+            this.acknowledged = acknowledged;
+        }
+    }
+
+    // The longest attribute value ATT allows.
+    public static final int MaxAttributeLength = 512;
+
+    private final SimulationScheduler scheduler;
+    private final Settings settings;
+    private final Random random;
+    private final HashMap<UUID, byte[]> values = new HashMap<>();
+    private final List<WireWrite> wireWrites = new ArrayList<>();
+    private final List<Change> changes = new ArrayList<>();
+    private final HashSet<UUID> subscriptions = new HashSet<>();
+    private GattTransportCallback callback;
+    private boolean connected = false;
+    private boolean busy = false;
+    private int operationCount = 0;
+    private int readCount = 0;
+    private int packetCount = 0;
+    private int notificationCount = 0;
+    private int unacknowledgedWrites = 0;
+    private int negotiatedMtu = 23;
+    private int priority = CONNECTION_PRIORITY_BALANCED;
+    private int phy = PHY_LE_1M;
+    private int priorityRequestCount = 0;
+    private String preferredAddress;
+    private int scanCount = 0;
+    private long streamLinkFreeAt = 0;
+    private long lastChangeAt = -1;
+    private int connectCount = 0;
+    private boolean stalled = false;
+    private int responsesToDrop = 0;
+    private byte[] nameTableRequest;
+    private byte[][] presetSlots;
+    private int presetRecallCount = 0;
+    private int[] backPixels;
+    private int[] shownPixels;
+    private int[] palette = new int[0];
+    private final List<Long> framesShownAt = new ArrayList<>();
+
+    public SimulatedLedSign(SimulationScheduler scheduler) {
+        this(scheduler, new Settings());
+    }
+
+    public SimulatedLedSign(SimulationScheduler scheduler, Settings settings) {
+        this.scheduler = scheduler;
+        this.settings = settings;
+        this.random = new Random(settings.seed);
+        backPixels = new int[settings.pixelCount];
+        shownPixels = new int[settings.pixelCount];
+        presetSlots = new byte[settings.presetSlots][SignState.FrameLength];
+        for (int slot = 0; slot < presetSlots.length; slot++) {
+            PresetSlots.slotFrame(new SignState[0], slot, presetSlots[slot]);
+        }
+
+        setByte(BleConstants.BrightnessCharacteristicId, 100);
+        setByte(BleConstants.StyleCharacteristicId, 1);
+        setByte(BleConstants.SpeedCharacteristicId, 20);
+        setByte(BleConstants.StepCharacteristicId, 5);
+        setByte(BleConstants.PatternCharacteristicId, 2);
+        setString(BleConstants.NamesCharacteristicId, "Rainbow;Solid;Twinkle;Bounce;Fire");
+        setString(BleConstants.PatternNamesCharacteristicId, "Full;Left;Right;Center;Edges");
+        setBatteryVoltage(12.6f);
+    }
+
+    public void setByte(UUID id, int value) {
+        values.put(id, new byte[] {(byte) value});
+    }
+
+    public int getByte(UUID id) {
+        return Byte.toUnsignedInt(values.get(id)[0]);
+    }
+
+    public void setString(UUID id, String value) {
+        values.put(id, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void setBatteryVoltage(float voltage) {
+        values.put(BleConstants.BatteryVoltageCharacteristicId,
+                ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putFloat(voltage).array());
+    }
+
+    public void setValue(UUID id, byte[] value) {
+        values.put(id, value);
+    }
+
+    public byte[] getValue(UUID id) {
+        return values.get(id);
+    }
+
+    public Settings getSettings() {
+        return settings;
+    }
+
+    public List<WireWrite> getWireWrites() {
+        return wireWrites;
+    }
+
+    public int getReadCount() {
+        return readCount;
+    }
+
+    public int getPacketCount() {
+        return packetCount;
+    }
+
+    // The next n operations get no response, as if the response packets were lost for good.
+    public void dropNextResponses(int n) {
+        responsesToDrop = n;
+    }
+
+    public int getConnectCount() {
+        return connectCount;
+    }
+
+    // The connection priority in effect (GattTransport.CONNECTION_PRIORITY_*).
+    public int getPriority() {
+        return priority;
+    }
+
+    public int getPriorityRequestCount() {
+        return priorityRequestCount;
+    }
+
+    // Scheduler time at which the control values last changed, or -1.
+    public long getLastChangeAt() {
+        return lastChangeAt;
+    }
+
+    // Every change to the control values, in order.
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    private void recordChange() {
+        lastChangeAt = scheduler.now();
+        changes.add(new Change(lastChangeAt, getState()));
+    }
+
+    public int getPresetRecallCount() {
+        return presetRecallCount;
+    }
+
+    // The state kept in a preset slot, or null if the slot is empty.
+    public SignState getPresetSlot(int slot) {
+        SignState state = new SignState();
+        return presetSlots[slot][1] != 0 && state.applyFrame(presetSlots[slot]) ? state : null;
+    }
+
+    public int getNotificationCount() {
+        return notificationCount;
+    }
+
+    // Change a control value on the sign itself (its buttons, or another controller).
+    // Subscribers are notified the same way as after a write.
+    public void changeByteOnSign(UUID id, int value) {
+        setByte(id, value);
+        notifySubscribers(id);
+    }
+
+    // Pushes a state frame carrying only the fields of state in mask, as firmware that
+    // reports just what changed does. Nothing is sent unless the frame is subscribed to.
+    public void pushFrameOnSign(SignState state, int mask) {
+        if (subscriptions.contains(BleConstants.StateFrameCharacteristicId)) {
+            byte[] frame = new byte[SignState.FrameLength];
+            state.toFrame(frame, mask);
+            sendNotification(BleConstants.StateFrameCharacteristicId, frame);
+        }
+    }
+
+    public void changeBatteryVoltageOnSign(float voltage) {
+        setBatteryVoltage(voltage);
+        notifySubscribers(BleConstants.BatteryVoltageCharacteristicId);
+    }
+
+    // The manufacturer-specific data the sign broadcasts (see SignAdvertisement).
+    // The change counter is derived from the contents, so it moves whenever they do.
+    public byte[] getAdvertisement() {
+        byte[] data = new byte[SignAdvertisement.Length];
+        getState().toFrame(data, SignState.AllFields);
+        data[1] |= SignAdvertisement.BatteryBit;
+        float voltage = ByteBuffer.wrap(values.get(BleConstants.BatteryVoltageCharacteristicId)).order(ByteOrder.LITTLE_ENDIAN).getFloat();
+        int millivolts = Math.round(voltage * 1000);
+        data[7] = (byte) millivolts;
+        data[8] = (byte) (millivolts >> 8);
+        data[9] = (byte) Arrays.hashCode(Arrays.copyOf(data, 9));
+        return data;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    // Drop the link as if the sign had been switched off.
+    public void dropConnection() {
+        if (!connected) {
+            return;
+        }
+        connected = false;
+        busy = false;
+        unacknowledgedWrites = 0;
+        subscriptions.clear();
+        callback.onDisconnected();
+    }
+
+    @Override
+    public void setCallback(GattTransportCallback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public void connect() {
+        connectCount++;
+        stalled = false;
+        negotiatedMtu = 23;
+        long exchange = settings.mtu > 23 ? settings.operationLatencyMs : 0;
+        long scan = 0;
+        if (!settings.address.equals(preferredAddress)) {
+            scan = settings.scanLatencyMs;
+            scanCount++;
+        }
+        scheduler.schedule(scan + settings.connectLatencyMs + exchange, () -> {
+            negotiatedMtu = settings.mtu;
+            priority = CONNECTION_PRIORITY_BALANCED;
+            phy = PHY_LE_1M;
+            subscriptions.clear();
+            connected = true;
+            busy = false;
+            unacknowledgedWrites = 0;
+            operationCount = 0;
+            callback.acceptStatus("Simulated sign connected.");
+            callback.onConnected();
+        });
+    }
+
+    @Override
+    public void disconnect() {
+        connected = false;
+        busy = false;
+        unacknowledgedWrites = 0;
+    }
+
+    @Override
+    public boolean hasCharacteristic(UUID characteristicId) {
+        if (characteristicId.equals(BleConstants.StateFrameCharacteristicId)) {
+            return settings.supportsStateFrame;
+        }
+        if (characteristicId.equals(BleConstants.FirmwareVersionCharacteristicId)) {
+            return settings.firmwareVersion != null;
+        }
+        if (characteristicId.equals(BleConstants.SignClockCharacteristicId)
+                || characteristicId.equals(BleConstants.ScheduledFrameCharacteristicId)) {
+            return settings.supportsScheduledApply;
+        }
+        if (characteristicId.equals(BleConstants.NameTableCharacteristicId)) {
+            return settings.supportsNameTable;
+        }
+        if (characteristicId.equals(BleConstants.PresetSlotsCharacteristicId)
+                || characteristicId.equals(BleConstants.PresetRecallCharacteristicId)) {
+            return settings.presetSlots > 0;
+        }
+        if (characteristicId.equals(BleConstants.FramebufferCharacteristicId)) {
+            return settings.pixelCount > 0;
+        }
+        return values.containsKey(characteristicId);
+    }
+
+    @Override
+    public void setPreferredDeviceAddress(String address) {
+        preferredAddress = address;
+    }
+
+    @Override
+    public String getDeviceAddress() {
+        return connected ? settings.address : null;
+    }
+
+    public int getScanCount() {
+        return scanCount;
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID characteristicId) {
+        if (characteristicId.equals(BleConstants.SignClockCharacteristicId)) {
+            return readClock();
+        }
+
+        byte[] value = values.get(characteristicId);
+        if (characteristicId.equals(BleConstants.StateFrameCharacteristicId) && settings.supportsStateFrame) {
+            value = currentFrame();
+        } else if (characteristicId.equals(BleConstants.FirmwareVersionCharacteristicId) && settings.firmwareVersion != null) {
+            value = settings.firmwareVersion.getBytes(StandardCharsets.UTF_8);
+        } else if (characteristicId.equals(BleConstants.NameTableCharacteristicId) && settings.supportsNameTable) {
+            value = nameTablePage();
+        } else if (characteristicId.equals(BleConstants.PresetSlotsCharacteristicId) && settings.presetSlots > 0) {
+            value = presetSlotsHeader();
+        } else if (characteristicId.equals(BleConstants.FramebufferCharacteristicId) && settings.pixelCount > 0) {
+            value = new byte[] {(byte) PixelFrames.Version, (byte) settings.pixelCount, (byte) (settings.pixelCount >> 8)};
+        }
+        if (!startOperation(value != null)) {
+            return false;
+        }
+
+        readCount++;
+        // Like any GATT server, the sign can't serve more than the ATT limit, so longer values are cut short.
+        byte[] copy = Arrays.copyOf(value, Math.min(value.length, MaxAttributeLength));
+        // A read response carries MTU - 1 bytes; longer values need follow-up blob reads.
+        int packets = packetsFor(copy.length, negotiatedMtu - 1);
+        finishOperation(packets, () -> callback.onCharacteristicRead(characteristicId, copy, GATT_SUCCESS));
+        return true;
+    }
+
+    // The sign samples its clock when the request reaches it, half way through the round trip.
+    private boolean readClock() {
+        if (!startOperation(settings.supportsScheduledApply)) {
+            return false;
+        }
+
+        readCount++;
+        long latency = latencyMs();
+        finishOperation(1, () -> {
+            long signTime = signClock(scheduler.now() - latency / 2);
+            byte[] value = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt((int) signTime).array();
+            callback.onCharacteristicRead(BleConstants.SignClockCharacteristicId, value, GATT_SUCCESS);
+        });
+        return true;
+    }
+
+    private long signClock(long time) {
+        return (time + settings.clockOffsetMs) & 0xFFFFFFFFL;
+    }
+
+    // Hold a scheduled frame until the sign's clock reaches its time.
+    private void scheduleFrame(byte[] scheduled) {
+        long applyAt = ByteBuffer.wrap(scheduled).order(ByteOrder.LITTLE_ENDIAN).getInt() & 0xFFFFFFFFL;
+        int delay = (int) (applyAt - signClock(scheduler.now()));
+        byte[] frame = Arrays.copyOfRange(scheduled, 4, scheduled.length);
+        scheduler.schedule(Math.max(0, delay), () -> {
+            applyFrame(frame);
+            notifySubscribers(BleConstants.StateFrameCharacteristicId);
+        });
+    }
+
+    private void store(UUID characteristicId, byte[] value) {
+        if (characteristicId.equals(BleConstants.StateFrameCharacteristicId)) {
+            applyFrame(value);
+            return;
+        } else if (characteristicId.equals(BleConstants.ScheduledFrameCharacteristicId)) {
+            scheduleFrame(value);
+            return;
+        } else if (characteristicId.equals(BleConstants.NameTableCharacteristicId)) {
+            nameTableRequest = value;
+            return;
+        } else if (characteristicId.equals(BleConstants.PresetSlotsCharacteristicId)) {
+            int slot = Byte.toUnsignedInt(value[0]);
+            if (slot < presetSlots.length) {
+                presetSlots[slot] = Arrays.copyOfRange(value, 1, 1 + SignState.FrameLength);
+            }
+            return;
+        } else if (characteristicId.equals(BleConstants.FramebufferCharacteristicId)) {
+            applyPixelChunk(value);
+            return;
+        } else if (characteristicId.equals(BleConstants.PresetRecallCharacteristicId)) {
+            int slot = Byte.toUnsignedInt(value[0]);
+            if (slot < presetSlots.length) {
+                presetRecallCount++;
+                applyFrame(presetSlots[slot]);
+                notifySubscribers(BleConstants.StateFrameCharacteristicId);
+            }
+            return;
+        } else {
+            values.put(characteristicId, value);
+        }
+        recordChange();
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID characteristicId, byte[] value) {
+        if (!startOperation(hasCharacteristic(characteristicId))) {
+            return false;
+        }
+
+        byte[] copy = value.clone();
+        // A write request carries MTU - 3 bytes; longer values use prepare + execute.
+        int packets = packetsFor(copy.length, negotiatedMtu - 3);
+        if (packets > 1) {
+            packets++;
+        }
+        finishOperation(packets, () -> {
+            store(characteristicId, copy);
+            wireWrites.add(new WireWrite(scheduler.now(), characteristicId, copy, true));
+            callback.onCharacteristicWrite(characteristicId, GATT_SUCCESS);
+            notifySubscribers(characteristicId);
+        });
+        return true;
+    }
+
+    @Override
+    public boolean supportsNotifications(UUID characteristicId) {
+        if (!settings.supportsNotifications || !hasCharacteristic(characteristicId)) {
+            return false;
+        }
+        return characteristicId.equals(BleConstants.StateFrameCharacteristicId)
+                || characteristicId.equals(BleConstants.BatteryVoltageCharacteristicId)
+                || Arrays.asList(BleConstants.ControlCharacteristicIds).contains(characteristicId);
+    }
+
+    @Override
+    public boolean enableNotifications(UUID characteristicId) {
+        if (!startOperation(supportsNotifications(characteristicId))) {
+            return false;
+        }
+
+        finishOperation(1, () -> {
+            subscriptions.add(characteristicId);
+            callback.onNotificationsEnabled(characteristicId, GATT_SUCCESS);
+        });
+        return true;
+    }
+
+    public SignState getState() {
+        return new SignState(
+                getByte(BleConstants.StyleCharacteristicId),
+                getByte(BleConstants.PatternCharacteristicId),
+                getByte(BleConstants.BrightnessCharacteristicId),
+                getByte(BleConstants.SpeedCharacteristicId),
+                getByte(BleConstants.StepCharacteristicId));
+    }
+
+    // Draw a chunk's runs into the back buffer, and show it if the chunk ends the frame.
+    private void applyPixelChunk(byte[] chunk) {
+        int flags = chunk[0];
+        int at = 1;
+        if ((flags & PixelFrames.PaletteFlag) != 0) {
+            palette = new int[Byte.toUnsignedInt(chunk[at++])];
+            for (int i = 0; i < palette.length; i++, at += 3) {
+                palette[i] = rgb(chunk, at);
+            }
+        }
+        boolean indexed = (flags & PixelFrames.IndexedFlag) != 0;
+        while (at < chunk.length) {
+            int first = Byte.toUnsignedInt(chunk[at]) | Byte.toUnsignedInt(chunk[at + 1]) << 8;
+            int count = Byte.toUnsignedInt(chunk[at + 2]);
+            at += 3;
+            for (int i = first; i < first + count; i++) {
+                if (indexed) {
+                    backPixels[i] = palette[Byte.toUnsignedInt(chunk[at++])];
+                } else {
+                    backPixels[i] = rgb(chunk, at);
+                    at += 3;
+                }
+            }
+        }
+        if ((flags & PixelFrames.EndOfFrameFlag) != 0) {
+            System.arraycopy(backPixels, 0, shownPixels, 0, shownPixels.length);
+            framesShownAt.add(scheduler.now());
+        }
+    }
+
+    private static int rgb(byte[] value, int at) {
+        return Byte.toUnsignedInt(value[at]) << 16 | Byte.toUnsignedInt(value[at + 1]) << 8 | Byte.toUnsignedInt(value[at + 2]);
+    }
+
+    public int[] getShownPixels() {
+        return shownPixels.clone();
+    }
+
+    // When each streamed frame was shown.
+    public List<Long> getFramesShownAt() {
+        return framesShownAt;
+    }
+
+    private byte[] presetSlotsHeader() {
+        CRC32 crc = new CRC32();
+        for (byte[] frame : presetSlots) {
+            crc.update(frame, 0, frame.length);
+        }
+        return ByteBuffer.allocate(PresetSlots.HeaderLength).order(ByteOrder.LITTLE_ENDIAN)
+                .put((byte) PresetSlots.Version)
+                .put((byte) presetSlots.length)
+                .putInt((int) crc.getValue())
+                .array();
+    }
+
+    private byte[] currentFrame() {
+        byte[] frame = new byte[SignState.FrameLength];
+        getState().toFrame(frame, SignState.AllFields);
+        return frame;
+    }
+
+    private void applyFrame(byte[] frame) {
+        SignState state = getState();
+        if (state.applyFrame(frame)) {
+            setByte(BleConstants.StyleCharacteristicId, state.style);
+            setByte(BleConstants.PatternCharacteristicId, state.pattern);
+            setByte(BleConstants.BrightnessCharacteristicId, state.brightness);
+            setByte(BleConstants.SpeedCharacteristicId, state.speed);
+            setByte(BleConstants.StepCharacteristicId, state.step);
+            recordChange();
+        }
+    }
+
+    @Override
+    public boolean writeCharacteristicWithoutResponse(UUID characteristicId, byte[] value) {
+        if (!connected || busy || !hasCharacteristic(characteristicId)
+                || unacknowledgedWrites >= settings.maxUnacknowledgedWrites) {
+            return false;
+        }
+
+        unacknowledgedWrites++;
+        byte[] copy = value.clone();
+        // Each write takes a slot in the connection interval. A lost packet is simply
+        // retried in the next slot; there is no response to wait for.
+        long slot = Math.max(1, settings.connectionIntervalMs / settings.writesWithoutResponsePerInterval);
+        long sendAt = Math.max(scheduler.now(), streamLinkFreeAt) + slot;
+        packetCount++;
+        while (random.nextDouble() < settings.packetLossRate) {
+            sendAt += slot;
+            packetCount++;
+        }
+        streamLinkFreeAt = sendAt;
+        scheduler.schedule(sendAt - scheduler.now(), () -> {
+            if (!connected) {
+                return;
+            }
+            unacknowledgedWrites--;
+            store(characteristicId, copy);
+            wireWrites.add(new WireWrite(scheduler.now(), characteristicId, copy, false));
+            callback.onCharacteristicWrite(characteristicId, GATT_SUCCESS);
+            notifySubscribers(characteristicId);
+        });
+        return true;
+    }
+
+    // Like a real link, the new interval only applies after the parameter update has gone
+    // across, so an operation started now still runs on the old one.
+    @Override
+    public boolean requestConnectionPriority(int priority) {
+        if (!connected) {
+            return false;
+        }
+
+        priorityRequestCount++;
+        scheduler.schedule(latencyMs(), () -> {
+            if (connected) {
+                this.priority = priority;
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean requestPhy(int phy) {
+        if (!connected) {
+            return false;
+        }
+
+        scheduler.schedule(latencyMs(), () -> {
+            if (connected && (phy == PHY_LE_1M || settings.supports2MPhy)) {
+                this.phy = phy;
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public int getPhy() {
+        return phy;
+    }
+
+    @Override
+    public int getMtu() {
+        return negotiatedMtu;
+    }
+
+    // Round trip for one ATT packet at the current connection priority.
+    private long latencyMs() {
+        if (priority == CONNECTION_PRIORITY_HIGH) {
+            return settings.operationLatencyMs;
+        }
+        if (priority == CONNECTION_PRIORITY_LOW_POWER) {
+            return settings.operationLatencyMs * settings.lowPowerSlowdown;
+        }
+        return settings.operationLatencyMs * settings.balancedSlowdown;
+    }
+
+    @Override
+    public int getMaxUnacknowledgedWrites() {
+        return settings.maxUnacknowledgedWrites;
+    }
+
+    private boolean startOperation(boolean knownCharacteristic) {
+        if (!connected || busy || unacknowledgedWrites > 0 || !knownCharacteristic) {
+            return false;
+        }
+
+        operationCount++;
+        if (settings.stallAfterOperations >= 0 && connectCount == 1 && operationCount > settings.stallAfterOperations) {
+            stalled = true;
+        }
+        if (settings.disconnectAfterOperations >= 0 && operationCount > settings.disconnectAfterOperations) {
+            scheduler.schedule(settings.operationLatencyMs, this::dropConnection);
+            return true;
+        }
+
+        busy = true;
+        return true;
+    }
+
+    private void finishOperation(int packets, Runnable respond) {
+        if (!busy) {
+            // The link is about to drop; the response never arrives.
+            return;
+        }
+
+        long packetLatency = latencyMs();
+        long latency = 0;
+        for (int i = 0; i < packets; i++) {
+            latency += packetLatency;
+            packetCount++;
+            while (random.nextDouble() < settings.packetLossRate) {
+                latency += packetLatency;
+                packetCount++;
+            }
+        }
+
+        boolean forceDrop = stalled || responsesToDrop > 0;
+        if (responsesToDrop > 0) {
+            responsesToDrop--;
+        }
+        boolean dropResponse = random.nextDouble() < settings.dropResponseRate || forceDrop;
+        scheduler.schedule(latency, () -> {
+            if (!connected) {
+                return;
+            }
+            busy = false;
+            if (!dropResponse) {
+                respond.run();
+            }
+        });
+    }
+
+    // Like real firmware, the sign notifies every subscriber of a change, including
+    // the controller that wrote it. A notification takes one packet and has no response.
+    private void notifySubscribers(UUID changedId) {
+        boolean frameChanged = changedId.equals(BleConstants.StateFrameCharacteristicId)
+                || Arrays.asList(BleConstants.ControlCharacteristicIds).contains(changedId);
+        if (frameChanged && subscriptions.contains(BleConstants.StateFrameCharacteristicId)) {
+            sendNotification(BleConstants.StateFrameCharacteristicId, currentFrame());
+        }
+        if (changedId.equals(BleConstants.StateFrameCharacteristicId)) {
+            for (UUID id : BleConstants.ControlCharacteristicIds) {
+                if (subscriptions.contains(id)) {
+                    sendNotification(id, values.get(id).clone());
+                }
+            }
+        } else if (subscriptions.contains(changedId)) {
+            sendNotification(changedId, values.get(changedId).clone());
+        }
+    }
+
+    private void sendNotification(UUID id, byte[] value) {
+        notificationCount++;
+        packetCount++;
+        scheduler.schedule(latencyMs() / 2, () -> {
+            if (connected) {
+                callback.onCharacteristicChanged(id, value);
+            }
+        });
+    }
+
+    // The page asked for by the last Name Table request, built from the ';'-delimited lists.
+    private byte[] nameTablePage() {
+        if (nameTableRequest == null) {
+            return new byte[0];
+        }
+
+        ByteBuffer request = ByteBuffer.wrap(nameTableRequest).order(ByteOrder.LITTLE_ENDIAN);
+        request.get();
+        int list = Byte.toUnsignedInt(request.get());
+        int first = Short.toUnsignedInt(request.getShort());
+        int maxLength = Short.toUnsignedInt(request.getShort());
+        UUID source = list == NameTable.StyleList ? BleConstants.NamesCharacteristicId : BleConstants.PatternNamesCharacteristicId;
+        String[] names = new String(values.get(source), StandardCharsets.UTF_8).split(";");
+
+        CRC32 hash = new CRC32();
+        byte[][] records = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            byte[] name = names[i].getBytes(StandardCharsets.UTF_8);
+            records[i] = new byte[name.length + 2];
+            records[i][0] = (byte) NameTable.RecordName;
+            records[i][1] = (byte) name.length;
+            System.arraycopy(name, 0, records[i], 2, name.length);
+            hash.update(records[i]);
+        }
+
+        ByteBuffer page = ByteBuffer.allocate(Math.max(maxLength, NameTable.HeaderLength)).order(ByteOrder.LITTLE_ENDIAN);
+        page.put((byte) NameTable.Version)
+                .put((byte) list)
+                .putShort((short) names.length)
+                .putInt((int) hash.getValue())
+                .putShort((short) first);
+        for (int i = first; i < names.length && records[i].length <= page.remaining(); i++) {
+            page.put(records[i]);
+        }
+        return Arrays.copyOf(page.array(), page.position());
+    }
+
+    private static int packetsFor(int length, int payloadPerPacket) {
+        return Math.max(1, (length + payloadPerPacket - 1) / payloadPerPacket);
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.bleledcontroller;
+
+import java.util.PriorityQueue;
+
+/**
+ * Virtual-time event loop for simulated signs.
+ * Nothing runs until the test advances the clock, so every run is deterministic
+ * and "latency" is measured in simulated milliseconds rather than wall time.
+ */
+public class SimulationScheduler {
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long now = 0;
+    private long sequence = 0;
+
+    public long now() {
+        return now;
+    }
+
+    public void schedule(long delayMs, Runnable action) {
+        events.add(new Event(now + Math.max(0, delayMs), sequence++, action));
+    }
+
+    // Run events in time order until none are left.
+    public void runUntilIdle() {
+        while (!events.isEmpty()) {
+            Event next = events.poll();
+            now = next.time;
+            next.action.run();
+        }
+    }
+
+    // Run every event due at or before the given time, then move the clock there.
+    public void runUntil(long time) {
+        while (!events.isEmpty() && events.peek().time <= time) {
+            Event next = events.poll();
+            now = next.time;
+            next.action.run();
+        }
+        now = Math.max(now, time);
+    }
+
+    public void runFor(long durationMs) {
+        runUntil(now + durationMs);
+    }
+
+    public boolean isIdle() {
+        return events.isEmpty();
+    }
+
+    private static class Event implements Comparable<Event> {
+        final long time;
+        final long order;
+        final Runnable action;
+
+        Event(long time, long order, Runnable action) {
+            this.time = time;
+            this.order = order;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (time != other.time) {
+                return Long.compare(time, other.time);
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+}